@@ -75,6 +75,7 @@ import org.apache.activemq.command.ActiveMQQueue;
 import org.apache.activemq.command.BrokerId;
 import org.apache.activemq.command.ProducerInfo;
 import org.apache.activemq.filter.DestinationFilter;
+import org.apache.activemq.filter.SelectorCompiler;
 import org.apache.activemq.network.ConnectionFilter;
 import org.apache.activemq.network.DiscoveryNetworkConnector;
 import org.apache.activemq.network.NetworkConnector;
@@ -92,6 +93,7 @@ import org.apache.activemq.thread.Scheduler;
 import org.apache.activemq.thread.TaskRunnerFactory;
 import org.apache.activemq.transport.TransportFactorySupport;
 import org.apache.activemq.transport.TransportServer;
+import org.apache.activemq.transport.tcp.TcpTransportServer;
 import org.apache.activemq.transport.vm.VMTransportFactory;
 import org.apache.activemq.usage.SystemUsage;
 import org.apache.activemq.util.*;
@@ -170,6 +172,7 @@ public class BrokerService implements Service {
     private BrokerPlugin[] plugins;
     private boolean keepDurableSubsActive = true;
     private boolean useVirtualTopics = true;
+    private boolean compileSelectors;
     private boolean useMirroredQueues = false;
     private boolean useTempMirroredQueues = true;
     private BrokerId brokerId;
@@ -188,6 +191,7 @@ public class BrokerService implements Service {
     private boolean monitorConnectionSplits = false;
     private int taskRunnerPriority = Thread.NORM_PRIORITY;
     private boolean dedicatedTaskRunner;
+    private boolean useVirtualThreads;
     private boolean cacheTempDestinations = false;// useful for failover
     private int timeBeforePurgeTempDestinations = 5000;
     private final List<Runnable> shutdownHooks = new ArrayList<Runnable>();
@@ -762,6 +766,7 @@ public class BrokerService implements Service {
             }
             // Clear SelectorParser cache to free memory
             SelectorParser.clearCache();
+            SelectorCompiler.clearCache();
         } finally {
             started.set(false);
             stopped.set(true);
@@ -1163,6 +1168,7 @@ public class BrokerService implements Service {
         if (this.taskRunnerFactory == null) {
             this.taskRunnerFactory = new TaskRunnerFactory("ActiveMQ BrokerService["+getBrokerName()+"] Task", getTaskRunnerPriority(), true, 1000,
                     isDedicatedTaskRunner());
+            this.taskRunnerFactory.setUseVirtualThreads(isUseVirtualThreads());
         }
         return this.taskRunnerFactory;
     }
@@ -1175,6 +1181,7 @@ public class BrokerService implements Service {
         if (taskRunnerFactory == null) {
             persistenceTaskRunnerFactory = new TaskRunnerFactory("Persistence Adaptor Task", persistenceThreadPriority,
                     true, 1000, isDedicatedTaskRunner());
+            persistenceTaskRunnerFactory.setUseVirtualThreads(isUseVirtualThreads());
         }
         return persistenceTaskRunnerFactory;
     }
@@ -1585,6 +1592,20 @@ public class BrokerService implements Service {
         this.useVirtualTopics = useVirtualTopics;
     }
 
+    public boolean isCompileSelectors() {
+        return compileSelectors;
+    }
+
+    /**
+     * Sets whether the selectors of subscriptions are compiled into
+     * specialized expression trees rather than interpreted, which is cheaper
+     * for destinations with many selector subscriptions. Compiled selectors
+     * are cached by selector string.
+     */
+    public void setCompileSelectors(boolean compileSelectors) {
+        this.compileSelectors = compileSelectors;
+    }
+
     public DestinationInterceptor[] getDestinationInterceptors() {
         return destinationInterceptors;
     }
@@ -1789,6 +1810,20 @@ public class BrokerService implements Service {
         this.dedicatedTaskRunner = dedicatedTaskRunner;
     }
 
+    public boolean isUseVirtualThreads() {
+        return useVirtualThreads;
+    }
+
+    /**
+     * Runs the broker tasks and the readers of the tcp based transport
+     * connectors on virtual threads when the JVM supports them (Java 21 and
+     * later), so many thousands of connections do not each hold on to a
+     * platform thread.
+     */
+    public void setUseVirtualThreads(boolean useVirtualThreads) {
+        this.useVirtualThreads = useVirtualThreads;
+    }
+
     public boolean isCacheTempDestinations() {
         return cacheTempDestinations;
     }
@@ -2503,6 +2538,9 @@ public class BrokerService implements Service {
 
     protected TransportConnector startTransportConnector(TransportConnector connector) throws Exception {
         connector.setTaskRunnerFactory(getTaskRunnerFactory());
+        if (isUseVirtualThreads() && connector.getServer() instanceof TcpTransportServer) {
+            ((TcpTransportServer) connector.getServer()).setUseVirtualThreads(true);
+        }
         MessageAuthorizationPolicy policy = getMessageAuthorizationPolicy();
         if (policy != null) {
             connector.setMessageAuthorizationPolicy(policy);
@@ -17,6 +17,11 @@
 package org.apache.activemq.broker.jmx;
 
 import java.util.concurrent.Callable;
+
+import org.apache.activemq.management.CountStatisticImpl;
+import org.apache.activemq.management.SizeStatisticImpl;
+import org.apache.activemq.management.StatsImpl;
+import org.apache.activemq.management.TimeStatisticImpl;
 import org.apache.activemq.store.PersistenceAdapter;
 
 public class PersistenceAdapterView implements PersistenceAdapterViewMBean {
@@ -26,6 +31,9 @@ public class PersistenceAdapterView implements PersistenceAdapterViewMBean {
 
     private Callable<String> inflightTransactionViewCallable;
     private Callable<String> dataViewCallable;
+    private Callable<String> statisticsViewCallable;
+    private StatsImpl journalStatistics;
+    private StatsImpl pageCacheStatistics;
 
     public PersistenceAdapterView(PersistenceAdapter adapter) {
         this.name = adapter.toString();
@@ -47,11 +55,105 @@ public class PersistenceAdapterView implements PersistenceAdapterViewMBean {
         return invoke(dataViewCallable);
     }
 
+    @Override
+    public String getStatistics() {
+        return invoke(statisticsViewCallable);
+    }
+
     @Override
     public long getSize() {
         return persistenceAdapter.size();
     }
 
+    @Override
+    public long getJournalWrites() {
+        SizeStatisticImpl batchWrites = getJournalStatistic("batchWrites");
+        return batchWrites != null ? batchWrites.getTotalSize() : 0;
+    }
+
+    @Override
+    public long getJournalBatches() {
+        SizeStatisticImpl batchWrites = getJournalStatistic("batchWrites");
+        return batchWrites != null ? batchWrites.getCount() : 0;
+    }
+
+    @Override
+    public double getJournalAverageBatchSize() {
+        SizeStatisticImpl batchSize = getJournalStatistic("batchSize");
+        return batchSize != null ? batchSize.getAverageSize() : 0;
+    }
+
+    @Override
+    public long getJournalMaxBatchSize() {
+        SizeStatisticImpl batchSize = getJournalStatistic("batchSize");
+        return batchSize != null ? batchSize.getMaxSize() : 0;
+    }
+
+    @Override
+    public long getJournalForces() {
+        TimeStatisticImpl forceTime = getJournalStatistic("forceTime");
+        return forceTime != null ? forceTime.getCount() : 0;
+    }
+
+    @Override
+    public long getJournalForcedWrites() {
+        SizeStatisticImpl forcedWrites = getJournalStatistic("forcedWrites");
+        return forcedWrites != null ? forcedWrites.getTotalSize() : 0;
+    }
+
+    @Override
+    public double getJournalAverageWritesPerForce() {
+        SizeStatisticImpl forcedWrites = getJournalStatistic("forcedWrites");
+        return forcedWrites != null ? forcedWrites.getAverageSize() : 0;
+    }
+
+    @Override
+    public long getJournalMaxWritesPerForce() {
+        SizeStatisticImpl forcedWrites = getJournalStatistic("forcedWrites");
+        return forcedWrites != null ? forcedWrites.getMaxSize() : 0;
+    }
+
+    @Override
+    public double getJournalAverageForceTime() {
+        TimeStatisticImpl forceTime = getJournalStatistic("forceTime");
+        return forceTime != null ? forceTime.getAverageTime() : 0;
+    }
+
+    @Override
+    public double getJournalAverageCommitWaitTime() {
+        TimeStatisticImpl commitWaitTime = getJournalStatistic("commitWaitTime");
+        return commitWaitTime != null ? commitWaitTime.getAverageTime() : 0;
+    }
+
+    @Override
+    public long getPageCacheHits() {
+        return getPageCacheCount("hits");
+    }
+
+    @Override
+    public long getPageCacheMisses() {
+        return getPageCacheCount("misses");
+    }
+
+    @Override
+    public long getPageCacheEvictions() {
+        return getPageCacheCount("evictions");
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> T getJournalStatistic(String name) {
+        return (T) getStatistic(journalStatistics, name);
+    }
+
+    private long getPageCacheCount(String name) {
+        CountStatisticImpl count = (CountStatisticImpl) getStatistic(pageCacheStatistics, name);
+        return count != null ? count.getCount() : 0;
+    }
+
+    private static Object getStatistic(StatsImpl statistics, String name) {
+        return statistics != null ? statistics.getStatistic(name) : null;
+    }
+
     private String invoke(Callable<String> callable) {
         String result = null;
         if (callable != null) {
@@ -68,6 +170,26 @@ public class PersistenceAdapterView implements PersistenceAdapterViewMBean {
         this.dataViewCallable = dataViewCallable;
     }
 
+    public void setStatisticsViewCallable(Callable<String> statisticsViewCallable) {
+        this.statisticsViewCallable = statisticsViewCallable;
+    }
+
+    /**
+     * @param journalStatistics the statistics of the journal of the adapter,
+     *                by name, that back the numeric journal attributes
+     */
+    public void setJournalStatistics(StatsImpl journalStatistics) {
+        this.journalStatistics = journalStatistics;
+    }
+
+    /**
+     * @param pageCacheStatistics the statistics of the page cache of the
+     *                adapter, by name, that back the numeric page cache attributes
+     */
+    public void setPageCacheStatistics(StatsImpl pageCacheStatistics) {
+        this.pageCacheStatistics = pageCacheStatistics;
+    }
+
     public void setInflightTransactionViewCallable(Callable<String> inflightTransactionViewCallable) {
         this.inflightTransactionViewCallable = inflightTransactionViewCallable;
     }
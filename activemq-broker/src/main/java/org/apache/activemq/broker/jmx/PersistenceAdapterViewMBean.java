@@ -27,6 +27,48 @@ public interface PersistenceAdapterViewMBean {
     @MBeanInfo("Current data.")
     String getData();
 
+    @MBeanInfo("Current statistics.")
+    String getStatistics();
+
     @MBeanInfo("Current size.")
     long getSize();
+
+    @MBeanInfo("Number of records written to the journal.")
+    long getJournalWrites();
+
+    @MBeanInfo("Number of batches written to the journal.")
+    long getJournalBatches();
+
+    @MBeanInfo("Average size in bytes of the batches written to the journal.")
+    double getJournalAverageBatchSize();
+
+    @MBeanInfo("Maximum size in bytes of the batches written to the journal.")
+    long getJournalMaxBatchSize();
+
+    @MBeanInfo("Number of times the journal forced a batch to disk.")
+    long getJournalForces();
+
+    @MBeanInfo("Number of writes that waited for their batch to be forced to disk.")
+    long getJournalForcedWrites();
+
+    @MBeanInfo("Average number of writes that shared each force to disk.")
+    double getJournalAverageWritesPerForce();
+
+    @MBeanInfo("Maximum number of writes that shared a force to disk.")
+    long getJournalMaxWritesPerForce();
+
+    @MBeanInfo("Average time in microseconds taken to force a batch to disk.")
+    double getJournalAverageForceTime();
+
+    @MBeanInfo("Average time in microseconds from a batch being opened to it being written and forced to disk.")
+    double getJournalAverageCommitWaitTime();
+
+    @MBeanInfo("Number of page reads served from the page cache.")
+    long getPageCacheHits();
+
+    @MBeanInfo("Number of page reads that missed the page cache and went to disk.")
+    long getPageCacheMisses();
+
+    @MBeanInfo("Number of pages evicted from the page cache to make room for others.")
+    long getPageCacheEvictions();
 }
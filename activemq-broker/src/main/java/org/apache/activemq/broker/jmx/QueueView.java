@@ -23,6 +23,8 @@ import javax.jms.JMSException;
 import org.apache.activemq.broker.ConnectionContext;
 import org.apache.activemq.broker.region.Queue;
 import org.apache.activemq.broker.region.QueueMessageReference;
+import org.apache.activemq.broker.region.group.ConsumerAwareMessageGroupMap;
+import org.apache.activemq.broker.region.group.MessageGroupMap;
 import org.apache.activemq.command.ActiveMQDestination;
 import org.apache.activemq.command.Message;
 import org.apache.activemq.util.BrokerSupport;
@@ -188,4 +190,12 @@ public class QueueView extends DestinationView implements QueueViewMBean {
         }
         return false;
     }
+
+    public int getMessageGroupCount() {
+        MessageGroupMap groupOwners = ((Queue) destination).getMessageGroupOwners();
+        if (groupOwners instanceof ConsumerAwareMessageGroupMap) {
+            return ((ConsumerAwareMessageGroupMap) groupOwners).getGroupCount();
+        }
+        return -1;
+    }
 }
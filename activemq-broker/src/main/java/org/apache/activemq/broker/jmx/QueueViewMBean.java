@@ -180,4 +180,11 @@ public interface QueueViewMBean extends DestinationViewMBean {
      */
     @MBeanInfo("Caching is enabled")
     boolean isCacheEnabled();
+
+    /**
+     * @return the number of message groups currently assigned to a consumer,
+     *         or -1 if the message group map of the queue doesn't count them
+     */
+    @MBeanInfo("Number of message groups currently assigned to a consumer.")
+    int getMessageGroupCount();
 }
@@ -36,6 +36,7 @@ import org.apache.activemq.filter.DestinationFilter;
 import org.apache.activemq.filter.LogicExpression;
 import org.apache.activemq.filter.MessageEvaluationContext;
 import org.apache.activemq.filter.NoLocalExpression;
+import org.apache.activemq.filter.SelectorCompiler;
 import org.apache.activemq.selector.SelectorParser;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -63,10 +64,14 @@ public abstract class AbstractSubscription implements Subscription {
         this.lastAckTime = System.currentTimeMillis();
     }
 
-    private static BooleanExpression parseSelector(ConsumerInfo info) throws InvalidSelectorException {
+    private BooleanExpression parseSelector(ConsumerInfo info) throws InvalidSelectorException {
         BooleanExpression rc = null;
         if (info.getSelector() != null) {
-            rc = SelectorParser.parse(info.getSelector());
+            if (broker.getBrokerService() != null && broker.getBrokerService().isCompileSelectors()) {
+                rc = SelectorCompiler.compile(info.getSelector());
+            } else {
+                rc = SelectorParser.parse(info.getSelector());
+            }
         }
         if (info.isNoLocal()) {
             if (rc == null) {
@@ -157,6 +162,11 @@ public abstract class AbstractSubscription implements Subscription {
         // its valid so lets actually update it now
         info.setSelector(selector);
         this.selectorExpression = newSelector;
+        for (Destination destination : destinations) {
+            if (destination instanceof Topic) {
+                ((Topic) destination).selectorChanged(this);
+            }
+        }
     }
 
     @Override
@@ -87,6 +87,8 @@ public abstract class BaseDestination implements Destination {
     protected final Broker regionBroker;
     protected DeadLetterStrategy deadLetterStrategy = DEFAULT_DEAD_LETTER_STRATEGY;
     protected long expireMessagesPeriod = EXPIRE_MESSAGE_PERIOD;
+    protected long expiryTimingWheelTick;
+    private boolean asyncReadAhead;
     private int maxExpirePageSize = MAX_BROWSE_PAGE_SIZE;
     protected int cursorMemoryHighWaterMark = 70;
     protected int storeUsageHighWaterMark = 100;
@@ -309,6 +311,33 @@ public abstract class BaseDestination implements Destination {
         return expireMessagesPeriod;
     }
 
+    public long getExpiryTimingWheelTick() {
+        return expiryTimingWheelTick;
+    }
+
+    /**
+     * When greater than 0 the expiration times of the messages are kept on a
+     * timing wheel with this tick in milliseconds, and messages are expired
+     * within a tick of their expiration rather than found by browsing every
+     * expireMessagesPeriod.
+     */
+    public void setExpiryTimingWheelTick(long expiryTimingWheelTick) {
+        this.expiryTimingWheelTick = expiryTimingWheelTick;
+    }
+
+    public boolean isAsyncReadAhead() {
+        return asyncReadAhead;
+    }
+
+    /**
+     * When true the store cursors of the destination read the next batch of
+     * messages from the store in the background, before the batch in memory
+     * runs out.
+     */
+    public void setAsyncReadAhead(boolean asyncReadAhead) {
+        this.asyncReadAhead = asyncReadAhead;
+    }
+
     public boolean isUseCache() {
         return useCache;
     }
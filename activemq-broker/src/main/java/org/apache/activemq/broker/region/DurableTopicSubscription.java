@@ -59,7 +59,9 @@ public class DurableTopicSubscription extends PrefetchSubscription implements Us
     public DurableTopicSubscription(Broker broker, SystemUsage usageManager, ConnectionContext context, ConsumerInfo info, boolean keepDurableSubsActive)
             throws JMSException {
         super(broker, usageManager, context, info);
-        this.pending = new StoreDurableSubscriberCursor(broker, context.getClientId(), info.getSubscriptionName(), info.getPrefetchSize(), this);
+        StoreDurableSubscriberCursor cursor = new StoreDurableSubscriberCursor(broker, context.getClientId(), info.getSubscriptionName(), info.getPrefetchSize(), this);
+        cursor.setReadAheadExecutor(broker.getBrokerService().getTaskRunnerFactory());
+        this.pending = cursor;
         this.pending.setSystemUsage(usageManager);
         this.pending.setMemoryUsageHighWaterMark(getCursorMemoryHighWaterMark());
         this.keepDurableSubsActive = keepDurableSubsActive;
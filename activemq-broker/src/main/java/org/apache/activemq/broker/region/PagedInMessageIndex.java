@@ -0,0 +1,124 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.broker.region;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.activemq.command.MessageId;
+
+/**
+ * Concurrent, insertion ordered index of the messages a {@link Queue} has paged in.
+ *
+ * Lookups and removals by {@link MessageId} go through a lock striped
+ * {@link ConcurrentHashMap} while iteration order is kept by a lock free
+ * {@link ConcurrentSkipListMap} keyed on an insertion sequence, so acks from
+ * many consumers, browsers and the dispatch thread do not serialize on a
+ * single lock. Iteration is weakly consistent.
+ */
+public class PagedInMessageIndex {
+
+    private final AtomicLong sequence = new AtomicLong();
+    private final ConcurrentHashMap<MessageId, Entry> index;
+    private final ConcurrentSkipListMap<Long, QueueMessageReference> order = new ConcurrentSkipListMap<Long, QueueMessageReference>();
+
+    public PagedInMessageIndex() {
+        this(16, Runtime.getRuntime().availableProcessors() * 4);
+    }
+
+    public PagedInMessageIndex(int initialCapacity, int concurrencyLevel) {
+        this.index = new ConcurrentHashMap<MessageId, Entry>(initialCapacity, 0.75f, Math.max(1, concurrencyLevel));
+    }
+
+    /**
+     * Adds the reference at the tail of the index unless a reference with
+     * the same message id is already present.
+     *
+     * @return true if the reference was added
+     */
+    public boolean putIfAbsent(QueueMessageReference ref) {
+        Entry entry = new Entry(sequence.incrementAndGet(), ref);
+        if (index.putIfAbsent(ref.getMessageId(), entry) != null) {
+            return false;
+        }
+        order.put(entry.sequence, ref);
+        // a concurrent remove may have run between the two puts, don't leave an orphan behind
+        if (index.get(ref.getMessageId()) != entry) {
+            order.remove(entry.sequence);
+        }
+        return true;
+    }
+
+    public QueueMessageReference get(MessageId messageId) {
+        Entry entry = index.get(messageId);
+        return entry != null ? entry.reference : null;
+    }
+
+    public boolean containsKey(MessageId messageId) {
+        return index.containsKey(messageId);
+    }
+
+    public QueueMessageReference remove(MessageId messageId) {
+        Entry entry = index.remove(messageId);
+        if (entry != null) {
+            order.remove(entry.sequence);
+            return entry.reference;
+        }
+        return null;
+    }
+
+    /**
+     * @return a weakly consistent, insertion ordered view of the paged in references
+     */
+    public Collection<QueueMessageReference> values() {
+        return order.values();
+    }
+
+    /**
+     * @return an insertion ordered snapshot of the paged in references
+     */
+    public List<QueueMessageReference> snapshot() {
+        return new ArrayList<QueueMessageReference>(order.values());
+    }
+
+    public int size() {
+        return index.size();
+    }
+
+    public boolean isEmpty() {
+        return index.isEmpty();
+    }
+
+    public void clear() {
+        index.clear();
+        order.clear();
+    }
+
+    private static final class Entry {
+        final long sequence;
+        final QueueMessageReference reference;
+
+        Entry(long sequence, QueueMessageReference reference) {
+            this.sequence = sequence;
+            this.reference = reference;
+        }
+    }
+}
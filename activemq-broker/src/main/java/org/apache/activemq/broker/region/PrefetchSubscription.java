@@ -214,27 +214,28 @@ public abstract class PrefetchSubscription extends AbstractSubscription {
                 assertAckMatchesDispatched(ack);
 
                 // Acknowledge all dispatched messages up till the message id of
-                // the acknowledgment.
+                // the acknowledgment, the range is resolved in one pass and
+                // acknowledged as a batch.
                 int index = 0;
-                boolean inAckRange = false;
-                List<MessageReference> removeList = new ArrayList<MessageReference>();
-                for (final MessageReference node : dispatched) {
+                int start = -1;
+                List<MessageReference> ackList = new ArrayList<MessageReference>();
+                for (int i = 0; i < dispatched.size(); i++) {
+                    final MessageReference node = dispatched.get(i);
                     MessageId messageId = node.getMessageId();
-                    if (ack.getFirstMessageId() == null
-                            || ack.getFirstMessageId().equals(messageId)) {
-                        inAckRange = true;
+                    if (start < 0 && (ack.getFirstMessageId() == null
+                            || ack.getFirstMessageId().equals(messageId))) {
+                        start = i;
                     }
-                    if (inAckRange) {
+                    if (start >= 0) {
                         // Don't remove the nodes until we are committed.
                         if (!context.isInTransaction()) {
                             dequeueCounter++;
                             ((Destination)node.getRegionDestination()).getDestinationStatistics().getInflight().decrement();
-                            removeList.add(node);
                         } else {
                             registerRemoveSync(context, node);
                         }
                         index++;
-                        acknowledge(context, ack, node);
+                        ackList.add(node);
                         if (ack.getLastMessageId().equals(messageId)) {
                             // contract prefetch if dispatch required a pull
                             if (getPrefetchSize() == 0) {
@@ -262,8 +263,11 @@ public abstract class PrefetchSubscription extends AbstractSubscription {
                         }
                     }
                 }
-                for (final MessageReference node : removeList) {
-                    dispatched.remove(node);
+                if (!ackList.isEmpty()) {
+                    acknowledge(context, ack, ackList);
+                    if (!context.isInTransaction()) {
+                        dispatched.subList(start, start + index).clear();
+                    }
                 }
                 // this only happens after a reconnect - get an ack which is not
                 // valid
@@ -825,6 +829,18 @@ public abstract class PrefetchSubscription extends AbstractSubscription {
      */
     protected abstract void acknowledge(ConnectionContext context, final MessageAck ack, final MessageReference node) throws IOException;
 
+    /**
+     * Used during acknowledgment to remove the messages of a ranged ack, in
+     * dispatch order. Subclasses can remove them as a batch.
+     *
+     * @throws IOException
+     */
+    protected void acknowledge(ConnectionContext context, final MessageAck ack, final List<MessageReference> nodes) throws IOException {
+        for (MessageReference node : nodes) {
+            acknowledge(context, ack, node);
+        }
+    }
+
 
     public int getMaxProducersToAudit() {
         return maxProducersToAudit;
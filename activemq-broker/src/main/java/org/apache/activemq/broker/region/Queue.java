@@ -56,6 +56,7 @@ import org.apache.activemq.broker.region.cursors.PendingMessageCursor;
 import org.apache.activemq.broker.region.cursors.PrioritizedPendingList;
 import org.apache.activemq.broker.region.cursors.StoreQueueCursor;
 import org.apache.activemq.broker.region.cursors.VMPendingMessageCursor;
+import org.apache.activemq.broker.region.group.ConsumerAwareMessageGroupMap;
 import org.apache.activemq.broker.region.group.MessageGroupHashBucketFactory;
 import org.apache.activemq.broker.region.group.MessageGroupMap;
 import org.apache.activemq.broker.region.group.MessageGroupMapFactory;
@@ -90,6 +91,7 @@ import org.apache.activemq.usage.Usage;
 import org.apache.activemq.usage.UsageListener;
 import org.apache.activemq.util.BrokerSupport;
 import org.apache.activemq.util.ThreadPoolUtils;
+import org.apache.activemq.util.TimingWheel;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.slf4j.MDC;
@@ -106,8 +108,7 @@ public class Queue extends BaseDestination implements Task, UsageListener {
     protected final List<Subscription> consumers = new ArrayList<Subscription>(50);
     private final ReentrantReadWriteLock messagesLock = new ReentrantReadWriteLock();
     protected PendingMessageCursor messages;
-    private final ReentrantReadWriteLock pagedInMessagesLock = new ReentrantReadWriteLock();
-    private final LinkedHashMap<MessageId, QueueMessageReference> pagedInMessages = new LinkedHashMap<MessageId, QueueMessageReference>();
+    private final PagedInMessageIndex pagedInMessages = new PagedInMessageIndex();
     // Messages that are paged in but have not yet been targeted at a subscription
     private final ReentrantReadWriteLock pagedInPendingDispatchLock = new ReentrantReadWriteLock();
     protected PendingList pagedInPendingDispatch = new OrderedPendingList();
@@ -142,6 +143,18 @@ public class Queue extends BaseDestination implements Task, UsageListener {
             expireMessages();
         }
     };
+    private final Runnable expireDueMessagesTask = new Runnable() {
+        @Override
+        public void run() {
+            expireDueMessages();
+        }
+    };
+    private TimingWheel<MessageId> expiryWheel;
+    // messages left in the store at start are only on the wheel once paged in
+    private volatile boolean unindexedMessages;
+    private long lastExpiryBrowse;
+    // a due message was not paged in, kept until a browse has run
+    private boolean expiryBrowsePending;
 
     private final Object iteratingMutex = new Object();
 
@@ -297,6 +310,7 @@ public class Queue extends BaseDestination implements Task, UsageListener {
                 } finally {
                     messagesLock.writeLock().unlock();
                 }
+                indexExpiration(message);
                 destinationStatistics.getMessages().increment();
                 return true;
             }
@@ -376,6 +390,9 @@ public class Queue extends BaseDestination implements Task, UsageListener {
         this.taskRunner = taskFactory.createTaskRunner(this, "Queue:" + destination.getPhysicalName());
 
         super.initialize();
+        if (getExpiryTimingWheelTick() > 0) {
+            expiryWheel = new TimingWheel<MessageId>(getExpiryTimingWheelTick(), System.currentTimeMillis());
+        }
         if (store != null) {
             // Restore the persistent messages.
             messages.setSystemUsage(systemUsage);
@@ -384,6 +401,9 @@ public class Queue extends BaseDestination implements Task, UsageListener {
             messages.setMaxProducersToAudit(getMaxProducersToAudit());
             messages.setUseCache(isUseCache());
             messages.setMemoryUsageHighWaterMark(getCursorMemoryHighWaterMark());
+            if (isAsyncReadAhead() && messages instanceof StoreQueueCursor) {
+                ((StoreQueueCursor) messages).setReadAheadExecutor(taskFactory);
+            }
             final int messageCount = store.getMessageCount();
             if (messageCount > 0 && messages.isRecoveryRequired()) {
                 BatchMessageRecoveryListener listener = new BatchMessageRecoveryListener(messageCount);
@@ -394,6 +414,7 @@ public class Queue extends BaseDestination implements Task, UsageListener {
                } while (!listener.done());
             } else {
                 destinationStatistics.getMessages().setCount(messageCount);
+                unindexedMessages = messageCount > 0;
             }
         }
     }
@@ -461,6 +482,12 @@ public class Queue extends BaseDestination implements Task, UsageListener {
                 }
 
                 addToConsumerList(sub);
+                // only a consumer that can take any message may be the home of a group
+                MessageGroupMap groupOwners = getMessageGroupOwners();
+                if (groupOwners instanceof ConsumerAwareMessageGroupMap
+                        && !(sub instanceof QueueBrowserSubscription) && sub.getConsumerInfo().getSelector() == null) {
+                    ((ConsumerAwareMessageGroupMap) groupOwners).addConsumer(sub.getConsumerInfo().getConsumerId());
+                }
                 if (sub.getConsumerInfo().isExclusive() || isAllConsumersExclusiveByDefault()) {
                     Subscription exclusiveConsumer = dispatchSelector.getExclusiveConsumer();
                     if (exclusiveConsumer == null) {
@@ -948,6 +975,55 @@ public class Queue extends BaseDestination implements Task, UsageListener {
         }
     }
 
+    /**
+     * Expires the messages which are due on the expiry wheel. A due message
+     * which is not paged in is left to a browse of the queue, as is the
+     * backlog the queue had in the store at start, but the browse runs at
+     * most every expireMessagesPeriod. A browse held back by that period still
+     * runs on a later tick.
+     */
+    private void expireDueMessages() {
+        long now = System.currentTimeMillis();
+        List<MessageId> due = expiryWheel.advance(now);
+        if (unindexedMessages) {
+            expiryBrowsePending = true;
+        }
+        if (!due.isEmpty()) {
+            ConnectionContext connectionContext = createConnectionContext();
+            for (MessageId messageId : due) {
+                QueueMessageReference ref = pagedInMessages.get(messageId);
+                if (ref == null) {
+                    expiryBrowsePending = true;
+                } else if (!ref.isDropped() && !ref.isAcked() && broker.isExpired(ref)) {
+                    pagedInPendingDispatchLock.writeLock().lock();
+                    try {
+                        pagedInPendingDispatch.remove(ref);
+                    } finally {
+                        pagedInPendingDispatchLock.writeLock().unlock();
+                    }
+                    if (LOG.isDebugEnabled()) {
+                        LOG.debug("expiring from the expiry wheel: " + ref);
+                    }
+                    messageExpired(connectionContext, ref);
+                }
+            }
+        }
+        if (unindexedMessages && destinationStatistics.getMessages().getCount() == 0) {
+            unindexedMessages = false;
+        }
+        if (expiryBrowsePending && getExpireMessagesPeriod() > 0 && now - lastExpiryBrowse >= getExpireMessagesPeriod()) {
+            lastExpiryBrowse = now;
+            expireMessages();
+            expiryBrowsePending = false;
+        }
+    }
+
+    private void indexExpiration(Message message) {
+        if (expiryWheel != null && message.getExpiration() > 0) {
+            expiryWheel.add(message.getMessageId(), message.getExpiration());
+        }
+    }
+
     @Override
     public void gc() {
     }
@@ -996,7 +1072,9 @@ public class Queue extends BaseDestination implements Task, UsageListener {
         }
         systemUsage.getMemoryUsage().addUsageListener(this);
         messages.start();
-        if (getExpireMessagesPeriod() > 0) {
+        if (expiryWheel != null) {
+            scheduler.schedualPeriodically(expireDueMessagesTask, expiryWheel.getTickMillis());
+        } else if (getExpireMessagesPeriod() > 0) {
             scheduler.schedualPeriodically(expireMessagesTask, getExpireMessagesPeriod());
         }
         doPageIn(false);
@@ -1013,6 +1091,7 @@ public class Queue extends BaseDestination implements Task, UsageListener {
         }
 
         scheduler.cancel(expireMessagesTask);
+        scheduler.cancel(expireDueMessagesTask);
 
         if (flowControlTimeoutTask.isAlive()) {
             flowControlTimeoutTask.interrupt();
@@ -1153,12 +1232,7 @@ public class Queue extends BaseDestination implements Task, UsageListener {
                 pagedInPendingDispatchLock.writeLock().unlock();
             }
             toExpire.clear();
-            pagedInMessagesLock.readLock().lock();
-            try {
-                addAll(pagedInMessages.values(), browseList, max, toExpire);
-            } finally {
-                pagedInMessagesLock.readLock().unlock();
-            }
+            addAll(pagedInMessages.values(), browseList, max, toExpire);
             for (MessageReference ref : toExpire) {
                 if (broker.isExpired(ref)) {
                     if (LOG.isDebugEnabled()) {
@@ -1166,12 +1240,7 @@ public class Queue extends BaseDestination implements Task, UsageListener {
                     }
                     messageExpired(connectionContext, ref);
                 } else {
-                    pagedInMessagesLock.writeLock().lock();
-                    try {
-                        pagedInMessages.remove(ref.getMessageId());
-                    } finally {
-                        pagedInMessagesLock.writeLock().unlock();
-                    }
+                    pagedInMessages.remove(ref.getMessageId());
                 }
             }
 
@@ -1224,14 +1293,9 @@ public class Queue extends BaseDestination implements Task, UsageListener {
 
     public QueueMessageReference getMessage(String id) {
         MessageId msgId = new MessageId(id);
-        pagedInMessagesLock.readLock().lock();
-        try {
-            QueueMessageReference ref = this.pagedInMessages.get(msgId);
-            if (ref != null) {
-                return ref;
-            }
-        } finally {
-            pagedInMessagesLock.readLock().unlock();
+        QueueMessageReference ref = this.pagedInMessages.get(msgId);
+        if (ref != null) {
+            return ref;
         }
         messagesLock.readLock().lock();
         try{
@@ -1260,12 +1324,7 @@ public class Queue extends BaseDestination implements Task, UsageListener {
         List<MessageReference> list = null;
         do {
             doPageIn(true, false);  // signal no expiry processing needed.
-            pagedInMessagesLock.readLock().lock();
-            try {
-                list = new ArrayList<MessageReference>(pagedInMessages.values());
-            }finally {
-                pagedInMessagesLock.readLock().unlock();
-            }
+            list = new ArrayList<MessageReference>(pagedInMessages.values());
 
             for (MessageReference ref : list) {
                 try {
@@ -1341,12 +1400,7 @@ public class Queue extends BaseDestination implements Task, UsageListener {
         ConnectionContext context = createConnectionContext();
         do {
             doPageIn(true);
-            pagedInMessagesLock.readLock().lock();
-            try {
-                set.addAll(pagedInMessages.values());
-            } finally {
-                pagedInMessagesLock.readLock().unlock();
-            }
+            set.addAll(pagedInMessages.values());
             List<MessageReference> list = new ArrayList<MessageReference>(set);
             for (MessageReference ref : list) {
                 IndirectMessageReference r = (IndirectMessageReference) ref;
@@ -1408,12 +1462,7 @@ public class Queue extends BaseDestination implements Task, UsageListener {
             setMaxPageSize((int) this.destinationStatistics.getMessages().getCount());
             doPageIn(true);
             setMaxPageSize(oldMaxSize);
-            pagedInMessagesLock.readLock().lock();
-            try {
-                set.addAll(pagedInMessages.values());
-            } finally {
-                pagedInMessagesLock.readLock().unlock();
-            }
+            set.addAll(pagedInMessages.values());
             List<MessageReference> list = new ArrayList<MessageReference>(set);
             for (MessageReference ref : list) {
                 IndirectMessageReference r = (IndirectMessageReference) ref;
@@ -1500,12 +1549,7 @@ public class Queue extends BaseDestination implements Task, UsageListener {
         Set<QueueMessageReference> set = new LinkedHashSet<QueueMessageReference>();
         do {
             doPageIn(true);
-            pagedInMessagesLock.readLock().lock();
-            try {
-                set.addAll(pagedInMessages.values());
-            } finally {
-                pagedInMessagesLock.readLock().unlock();
-            }
+            set.addAll(pagedInMessages.values());
             List<QueueMessageReference> list = new ArrayList<QueueMessageReference>(set);
             for (QueueMessageReference ref : list) {
                 if (filter.evaluate(context, ref)) {
@@ -1529,12 +1573,7 @@ public class Queue extends BaseDestination implements Task, UsageListener {
         Set<QueueMessageReference> set = new LinkedHashSet<QueueMessageReference>();
         do {
             doPageIn(true);
-            pagedInMessagesLock.readLock().lock();
-            try {
-                set.addAll(pagedInMessages.values());
-            } finally {
-                pagedInMessagesLock.readLock().unlock();
-            }
+            set.addAll(pagedInMessages.values());
             List<QueueMessageReference> list = new ArrayList<QueueMessageReference>(set);
             for (QueueMessageReference ref : list) {
                 if (ref.getMessage().getOriginalDestination() != null) {
@@ -1641,13 +1680,7 @@ public class Queue extends BaseDestination implements Task, UsageListener {
             }
 
             if (hasBrowsers) {
-                ArrayList<QueueMessageReference> alreadyDispatchedMessages = null;
-                pagedInMessagesLock.readLock().lock();
-                try{
-                    alreadyDispatchedMessages = new ArrayList<QueueMessageReference>(pagedInMessages.values());
-                }finally {
-                    pagedInMessagesLock.readLock().unlock();
-                }
+                List<QueueMessageReference> alreadyDispatchedMessages = pagedInMessages.snapshot();
 
                 Iterator<BrowserDispatch> browsers = browserDispatches.iterator();
                 while (browsers.hasNext()) {
@@ -1795,15 +1828,47 @@ public class Queue extends BaseDestination implements Task, UsageListener {
 
     }
 
+    /**
+     * Removes the messages of a ranged ack outside of a transaction, the
+     * persistent ones are removed from the store as a single batch.
+     */
+    protected void removeMessages(ConnectionContext context, Subscription sub, List<QueueMessageReference> references,
+            MessageAck ack) throws IOException {
+        List<MessageAck> acks = new ArrayList<MessageAck>(references.size());
+        for (QueueMessageReference reference : references) {
+            reference.setAcked(true);
+            messageConsumed(context, reference);
+            if (store != null && reference.isPersistent()) {
+                acks.add(convertToNonRangedAck(ack, reference));
+            }
+        }
+        if (!acks.isEmpty()) {
+            store.removeMessages(context, acks);
+        }
+        for (QueueMessageReference reference : references) {
+            getDestinationStatistics().getDequeues().increment();
+            dropMessage(reference);
+        }
+        if (ack.isPoisonAck() || (sub != null && sub.getConsumerInfo().isNetworkSubscription())) {
+            // message gone to DLQ, is ok to allow redelivery
+            messagesLock.writeLock().lock();
+            try {
+                for (QueueMessageReference reference : references) {
+                    messages.rollback(reference.getMessageId());
+                }
+            } finally {
+                messagesLock.writeLock().unlock();
+            }
+        }
+    }
+
     private void dropMessage(QueueMessageReference reference) {
         if (!reference.isDropped()) {
             reference.drop();
             destinationStatistics.getMessages().decrement();
-            pagedInMessagesLock.writeLock().lock();
-            try {
-                pagedInMessages.remove(reference.getMessageId());
-            } finally {
-                pagedInMessagesLock.writeLock().unlock();
+            pagedInMessages.remove(reference.getMessageId());
+            if (expiryWheel != null) {
+                expiryWheel.remove(reference.getMessageId());
             }
         }
     }
@@ -1842,6 +1907,7 @@ public class Queue extends BaseDestination implements Task, UsageListener {
     }
 
     final void messageSent(final ConnectionContext context, final Message msg) throws Exception {
+        indexExpiration(msg);
         destinationStatistics.getEnqueues().increment();
         destinationStatistics.getMessages().increment();
         destinationStatistics.getMessageSize().addSize(msg.getSize());
@@ -1958,23 +2024,18 @@ public class Queue extends BaseDestination implements Task, UsageListener {
             }
             // Only add new messages, not already pagedIn to avoid multiple
             // dispatch attempts
-            pagedInMessagesLock.writeLock().lock();
-            try {
-                if(isPrioritizedMessages()) {
-                    resultList = new PrioritizedPendingList();
+            if(isPrioritizedMessages()) {
+                resultList = new PrioritizedPendingList();
+            } else {
+                resultList = new OrderedPendingList();
+            }
+            for (QueueMessageReference ref : result) {
+                if (pagedInMessages.putIfAbsent(ref)) {
+                    indexExpiration(ref.getMessage());
+                    resultList.addMessageLast(ref);
                 } else {
-                    resultList = new OrderedPendingList();
+                    ref.decrementReferenceCount();
                 }
-                for (QueueMessageReference ref : result) {
-                    if (!pagedInMessages.containsKey(ref.getMessageId())) {
-                        pagedInMessages.put(ref.getMessageId(), ref);
-                        resultList.addMessageLast(ref);
-                    } else {
-                        ref.decrementReferenceCount();
-                    }
-                }
-            } finally {
-                pagedInMessagesLock.writeLock().unlock();
             }
         } else {
             // Avoid return null list, if condition is not validated
@@ -2118,7 +2179,7 @@ public class Queue extends BaseDestination implements Task, UsageListener {
             // If we can own the first, then no-one else should own the
             // rest.
             if (sequence == 1) {
-                assignGroup(subscription, messageGroupOwners, node, groupId);
+                result = assignGroupIfSelected(subscription, messageGroupOwners, node, groupId);
             } else {
 
                 // Make sure that the previous owner is still valid, we may
@@ -2127,7 +2188,7 @@ public class Queue extends BaseDestination implements Task, UsageListener {
 
                 groupOwner = messageGroupOwners.get(groupId);
                 if (groupOwner == null) {
-                    assignGroup(subscription, messageGroupOwners, node, groupId);
+                    result = assignGroupIfSelected(subscription, messageGroupOwners, node, groupId);
                 } else {
                     if (groupOwner.equals(subscription.getConsumerInfo().getConsumerId())) {
                         // A group sequence < 1 is an end of group signal.
@@ -2145,6 +2206,24 @@ public class Queue extends BaseDestination implements Task, UsageListener {
         return result;
     }
 
+    /**
+     * Makes the subscription the owner of the group unless the map selects
+     * another consumer for it, see {@link #assignGroup}.
+     *
+     * @return true if the subscription owns the group
+     */
+    private boolean assignGroupIfSelected(Subscription subs, MessageGroupMap messageGroupOwners, MessageReference n, String groupId) throws IOException {
+        // an exclusive consumer owns every group
+        if (messageGroupOwners instanceof ConsumerAwareMessageGroupMap && dispatchSelector.getExclusiveConsumer() == null) {
+            ConsumerId selected = ((ConsumerAwareMessageGroupMap) messageGroupOwners).selectOwner(groupId);
+            if (selected != null && !selected.equals(subs.getConsumerInfo().getConsumerId())) {
+                return false;
+            }
+        }
+        assignGroup(subs, messageGroupOwners, n, groupId);
+        return true;
+    }
+
     protected void assignGroup(Subscription subs, MessageGroupMap messageGroupOwners, MessageReference n, String groupId) throws IOException {
         messageGroupOwners.put(groupId, subs.getConsumerInfo().getConsumerId());
         Message message = n.getMessage();
@@ -2234,12 +2313,7 @@ public class Queue extends BaseDestination implements Task, UsageListener {
         }
 
         if (message == null) {
-            pagedInMessagesLock.readLock().lock();
-            try {
-                message = pagedInMessages.get(messageId);
-            } finally {
-                pagedInMessagesLock.readLock().unlock();
-            }
+            message = pagedInMessages.get(messageId);
         }
 
         if (message == null) {
@@ -17,6 +17,8 @@
 package org.apache.activemq.broker.region;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 
 import javax.jms.JMSException;
 
@@ -65,6 +67,41 @@ public class QueueSubscription extends PrefetchSubscription implements LockOwner
         queue.removeMessage(context, this, node, ack);
     }
 
+    /**
+     * Outside of a transaction the messages of each queue are removed as a
+     * batch, so the store removes them in a single update.
+     */
+    @Override
+    protected void acknowledge(final ConnectionContext context, final MessageAck ack, final List<MessageReference> nodes) throws IOException {
+        if (ack.isInTransaction() || nodes.size() == 1) {
+            super.acknowledge(context, ack, nodes);
+            return;
+        }
+        this.setTimeOfLastMessageAck(System.currentTimeMillis());
+
+        Queue queue = null;
+        List<QueueMessageReference> batch = new ArrayList<QueueMessageReference>(nodes.size());
+        for (MessageReference n : nodes) {
+            if (n.isExpired() && !broker.isExpired(n)) {
+                // sync with message expiry processing
+                if (LOG.isDebugEnabled()) {
+                    LOG.debug("ignoring ack {}, for already expired message: {}", ack, n);
+                }
+                continue;
+            }
+            // a wildcard subscription can span several queues
+            if (queue != n.getRegionDestination() && !batch.isEmpty()) {
+                queue.removeMessages(context, this, batch, ack);
+                batch.clear();
+            }
+            queue = (Queue) n.getRegionDestination();
+            batch.add((QueueMessageReference) n);
+        }
+        if (!batch.isEmpty()) {
+            queue.removeMessages(context, this, batch, ack);
+        }
+    }
+
     @Override
     protected boolean canDispatch(MessageReference n) throws IOException {
         boolean result = true;
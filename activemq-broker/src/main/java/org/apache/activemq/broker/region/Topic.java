@@ -46,8 +46,10 @@ import org.apache.activemq.command.ProducerAck;
 import org.apache.activemq.command.ProducerInfo;
 import org.apache.activemq.command.Response;
 import org.apache.activemq.command.SubscriptionInfo;
+import org.apache.activemq.filter.BooleanExpression;
 import org.apache.activemq.filter.MessageEvaluationContext;
 import org.apache.activemq.filter.NonCachedMessageEvaluationContext;
+import org.apache.activemq.filter.SelectorIndex;
 import org.apache.activemq.store.MessageRecoveryListener;
 import org.apache.activemq.store.TopicMessageStore;
 import org.apache.activemq.thread.Task;
@@ -68,6 +70,8 @@ public class Topic extends BaseDestination implements Task {
     protected final CopyOnWriteArrayList<Subscription> consumers = new CopyOnWriteArrayList<Subscription>();
     private final ReentrantReadWriteLock dispatchLock = new ReentrantReadWriteLock();
     private DispatchPolicy dispatchPolicy = new SimpleDispatchPolicy();
+    private volatile SelectorIndex<Subscription> selectorIndex;
+    private boolean shareMarshalledMessages;
     private SubscriptionRecoveryPolicy subscriptionRecoveryPolicy;
     private final ConcurrentHashMap<SubscriptionKey, DurableTopicSubscription> durableSubscribers = new ConcurrentHashMap<SubscriptionKey, DurableTopicSubscription>();
     private final TaskRunner taskRunner;
@@ -133,7 +137,7 @@ public class Topic extends BaseDestination implements Task {
                     synchronized (consumers) {
                         if (!consumers.contains(sub)){
                             sub.add(context, this);
-                            consumers.add(sub);
+                            addConsumer(sub);
                             applyRecovery=true;
                             super.addSubscription(context, sub);
                         }
@@ -149,7 +153,7 @@ public class Topic extends BaseDestination implements Task {
                 synchronized (consumers) {
                     if (!consumers.contains(sub)){
                         sub.add(context, this);
-                        consumers.add(sub);
+                        addConsumer(sub);
                         super.addSubscription(context, sub);
                     }
                 }
@@ -177,7 +181,7 @@ public class Topic extends BaseDestination implements Task {
                     }
 
                     if (!hasSubscription) {
-                        consumers.add(sub);
+                        addConsumer(sub);
                     }
                 }
             }
@@ -190,7 +194,7 @@ public class Topic extends BaseDestination implements Task {
         if (!sub.getConsumerInfo().isDurable()) {
             super.removeSubscription(context, sub, lastDeliveredSequenceId);
             synchronized (consumers) {
-                consumers.remove(sub);
+                removeConsumer(sub);
             }
         }
         sub.remove(context, this);
@@ -204,7 +208,7 @@ public class Topic extends BaseDestination implements Task {
                 destinationStatistics.getConsumers().decrement();
                 // deactivate and remove
                 removed.deactivate(false);
-                consumers.remove(removed);
+                removeConsumer(removed);
             }
         }
     }
@@ -232,12 +236,12 @@ public class Topic extends BaseDestination implements Task {
                     topicStore.deleteSubscription(clientId, subscriptionName);
                     info = null;
                     synchronized (consumers) {
-                        consumers.remove(subscription);
+                        removeConsumer(subscription);
                     }
                 } else {
                     synchronized (consumers) {
                         if (!consumers.contains(subscription)) {
-                            consumers.add(subscription);
+                            addConsumer(subscription);
                         }
                     }
                 }
@@ -254,7 +258,7 @@ public class Topic extends BaseDestination implements Task {
                 info.setSubscribedDestination(subscription.getConsumerInfo().getDestination());
                 // This destination might be a pattern
                 synchronized (consumers) {
-                    consumers.add(subscription);
+                    addConsumer(subscription);
                     topicStore.addSubsciption(info, subscription.getConsumerInfo().isRetroactive());
                 }
             }
@@ -300,7 +304,7 @@ public class Topic extends BaseDestination implements Task {
 
     public void deactivate(ConnectionContext context, DurableTopicSubscription sub, List<MessageReference> dispatched) throws Exception {
         synchronized (consumers) {
-            consumers.remove(sub);
+            removeConsumer(sub);
         }
         sub.remove(context, this, dispatched);
     }
@@ -671,6 +675,58 @@ public class Topic extends BaseDestination implements Task {
         this.dispatchPolicy = dispatchPolicy;
     }
 
+    public boolean isUseSelectorIndex() {
+        return selectorIndex != null;
+    }
+
+    /**
+     * Dispatch each message only to the subscriptions a {@link SelectorIndex}
+     * finds may match it instead of checking the selector of every
+     * subscription. Durable subscriptions are always checked since they have
+     * to be told about the messages they do not match.
+     */
+    public void setUseSelectorIndex(boolean useSelectorIndex) {
+        synchronized (consumers) {
+            if (useSelectorIndex == isUseSelectorIndex()) {
+                return;
+            }
+            SelectorIndex<Subscription> index = null;
+            if (useSelectorIndex) {
+                index = new SelectorIndex<Subscription>();
+                for (Subscription sub : consumers) {
+                    index.add(sub, getIndexedSelector(sub));
+                }
+            }
+            selectorIndex = index;
+        }
+    }
+
+    /**
+     * Updates the selector index after the selector of the subscription changed.
+     */
+    public void selectorChanged(Subscription sub) {
+        synchronized (consumers) {
+            SelectorIndex<Subscription> index = selectorIndex;
+            if (index != null && index.contains(sub)) {
+                index.add(sub, getIndexedSelector(sub));
+            }
+        }
+    }
+
+    public boolean isShareMarshalledMessages() {
+        return shareMarshalledMessages;
+    }
+
+    /**
+     * Marks the messages dispatched to more than one subscription so the
+     * wire format marshals each of them once and writes the same bytes to
+     * every subscriber. Subscribers then see the brokerOutTime the message
+     * had when it was first marshalled.
+     */
+    public void setShareMarshalledMessages(boolean shareMarshalledMessages) {
+        this.shareMarshalledMessages = shareMarshalledMessages;
+    }
+
     public SubscriptionRecoveryPolicy getSubscriptionRecoveryPolicy() {
         return subscriptionRecoveryPolicy;
     }
@@ -682,6 +738,29 @@ public class Topic extends BaseDestination implements Task {
     // Implementation methods
     // -------------------------------------------------------------------------
 
+    private void addConsumer(Subscription sub) {
+        consumers.add(sub);
+        SelectorIndex<Subscription> index = selectorIndex;
+        if (index != null) {
+            index.add(sub, getIndexedSelector(sub));
+        }
+    }
+
+    private void removeConsumer(Subscription sub) {
+        consumers.remove(sub);
+        SelectorIndex<Subscription> index = selectorIndex;
+        if (index != null) {
+            index.remove(sub);
+        }
+    }
+
+    private BooleanExpression getIndexedSelector(Subscription sub) {
+        if (sub.getConsumerInfo().isDurable() || !(sub instanceof AbstractSubscription)) {
+            return null;
+        }
+        return ((AbstractSubscription) sub).getSelectorExpression();
+    }
+
     @Override
     public final void wakeup() {
     }
@@ -708,7 +787,16 @@ public class Topic extends BaseDestination implements Task {
             msgContext = context.getMessageEvaluationContext();
             msgContext.setDestination(destination);
             msgContext.setMessageReference(message);
-            if (!dispatchPolicy.dispatch(message, msgContext, consumers)) {
+            List<Subscription> subscriptions = consumers;
+            SelectorIndex<Subscription> index = selectorIndex;
+            if (index != null) {
+                // only the subscriptions whose selector may match
+                subscriptions = index.match(msgContext);
+            }
+            if (shareMarshalledMessages && subscriptions.size() > 1) {
+                message.setMarshalledFormShared(true);
+            }
+            if (!dispatchPolicy.dispatch(message, msgContext, subscriptions)) {
                 onMessageWithNoConsumers(context, message);
             }
 
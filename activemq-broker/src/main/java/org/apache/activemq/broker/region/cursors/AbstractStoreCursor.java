@@ -16,7 +16,12 @@
  */
 package org.apache.activemq.broker.region.cursors;
 
+import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
 import org.apache.activemq.broker.region.Destination;
 import org.apache.activemq.broker.region.MessageReference;
 import org.apache.activemq.command.Message;
@@ -31,6 +36,8 @@ import org.slf4j.LoggerFactory;
  */
 public abstract class AbstractStoreCursor extends AbstractPendingMessageCursor implements MessageRecoveryListener {
     private static final Logger LOG = LoggerFactory.getLogger(AbstractStoreCursor.class);
+    // the read ahead depth grows up to this many pages when consumers drain the batch faster than it is read
+    private static final int MAX_READ_AHEAD_PAGES = 8;
     protected final Destination regionDestination;
     protected final PendingList batchList;
     private Iterator<MessageReference> iterator = null;
@@ -39,6 +46,14 @@ public abstract class AbstractStoreCursor extends AbstractPendingMessageCursor i
     protected int size;
     private MessageId lastCachedId;
     protected boolean hadSpace = false;
+    private Executor readAheadExecutor;
+    private boolean readingAhead;
+    private boolean readAheadStarved;
+    private int readAheadDepth;
+    // read ahead on the executor, added to the batch by the next dispatch call so the iterator in use is not replaced
+    private List<Message> readAheadMessages;
+    // changes whenever the batch is reset, so messages read ahead of an old batch are dropped
+    private int batchGeneration;
 
     protected AbstractStoreCursor(Destination destination) {
         super((destination != null ? destination.isPrioritizedMessages():false));
@@ -66,6 +81,7 @@ public abstract class AbstractStoreCursor extends AbstractPendingMessageCursor i
     }
 
     public final synchronized void stop() throws Exception {
+        awaitReadAhead();
         resetBatch();
         super.stop();
         gc();
@@ -105,6 +121,7 @@ public abstract class AbstractStoreCursor extends AbstractPendingMessageCursor i
     
     
     public final synchronized void reset() {
+        addReadAheadMessages();
         if (batchList.isEmpty()) {
             try {
                 fillBatch();
@@ -142,6 +159,7 @@ public abstract class AbstractStoreCursor extends AbstractPendingMessageCursor i
         
     
     public final synchronized boolean hasNext() {
+        addReadAheadMessages();
         if (batchList.isEmpty()) {
             try {
                 fillBatch();
@@ -151,6 +169,7 @@ public abstract class AbstractStoreCursor extends AbstractPendingMessageCursor i
             }
         }
         ensureIterator();
+        readAheadIfNeeded();
         return this.iterator.hasNext();
     }
     
@@ -170,8 +189,10 @@ public abstract class AbstractStoreCursor extends AbstractPendingMessageCursor i
     
     public final synchronized void addMessageLast(MessageReference node) throws Exception {
         boolean disableCache = false;
+        // keep the batch in order ahead of a cached message
+        addReadAheadMessages();
         if (hasSpace()) {
-            if (!isCacheEnabled() && size==0 && isStarted() && useCache) {
+            if (!isCacheEnabled() && size==0 && isStarted() && useCache && !readingAhead) {
                 if (LOG.isTraceEnabled()) {
                     LOG.trace(this + " - enabling cache for empty store " + node.getMessageId());
                 }
@@ -199,6 +220,8 @@ public abstract class AbstractStoreCursor extends AbstractPendingMessageCursor i
                             + ", lastCachedId: " + lastCachedId
                             + " current node Id: " + node.getMessageId() + " batchList size: " + batchList.size());
                 }
+                // the store batch must not move under a read ahead
+                awaitReadAhead();
                 setBatch(lastCachedId);
                 lastCachedId = null;
             }
@@ -225,6 +248,7 @@ public abstract class AbstractStoreCursor extends AbstractPendingMessageCursor i
         if (last != null) {
             last.decrementReferenceCount();
         }
+        readAheadIfNeeded();
     }
 
     
@@ -249,7 +273,9 @@ public abstract class AbstractStoreCursor extends AbstractPendingMessageCursor i
         }
         batchList.clear();
         clearIterator(false);
+        readAheadMessages = null;
         batchResetNeeded = true;
+        batchGeneration++;
         setCacheEnabled(false);
     }
 
@@ -257,6 +283,8 @@ public abstract class AbstractStoreCursor extends AbstractPendingMessageCursor i
         if (LOG.isTraceEnabled()) {
             LOG.trace(this + " - fillBatch");
         }
+        awaitReadAhead();
+        addReadAheadMessages();
         if (batchResetNeeded) {
             resetSize();
             setMaxBatchSize(Math.min(regionDestination.getMaxPageSize(), size));
@@ -275,6 +303,163 @@ public abstract class AbstractStoreCursor extends AbstractPendingMessageCursor i
     }
     
     
+    public synchronized Executor getReadAheadExecutor() {
+        return readAheadExecutor;
+    }
+
+    /**
+     * Sets the executor the next batch is read on in the background, once the
+     * batch in memory is down to half the read ahead depth. When null the
+     * batch is only read on the dispatch thread once it is empty.
+     */
+    public synchronized void setReadAheadExecutor(Executor readAheadExecutor) {
+        this.readAheadExecutor = readAheadExecutor;
+    }
+
+    private void readAheadIfNeeded() {
+        Executor executor = this.readAheadExecutor;
+        if (executor == null || readingAhead || readAheadMessages != null || batchResetNeeded || isCacheEnabled() || !storeHasMessages || !isStarted()) {
+            return;
+        }
+        if (readAheadDepth == 0) {
+            readAheadDepth = regionDestination.getMaxPageSize();
+        }
+        int buffered = batchList.size();
+        if (buffered > readAheadDepth / 2 || size <= buffered || !hasSpace()) {
+            return;
+        }
+        readingAhead = true;
+        readAheadStarved = false;
+        final int generation = batchGeneration;
+        final int count = readAheadDepth;
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    readAhead(generation, count);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            readingAhead = false;
+            LOG.debug(this + " - read ahead rejected, the batch is read when it is empty", e);
+        }
+    }
+
+    /**
+     * Reads the next messages from the store without holding the lock of the
+     * cursor and then hands them to the dispatch thread, unless the batch was
+     * reset meanwhile. The read ahead depth doubles when the batch ran empty before
+     * the messages were read, and halves again when most of the batch was
+     * still there.
+     */
+    private void readAhead(int generation, int count) {
+        final List<Message> messages = new ArrayList<Message>(count);
+        Exception failure = null;
+        try {
+            recoverNextMessages(count, new MessageRecoveryListener() {
+                @Override
+                public boolean recoverMessage(Message message) throws Exception {
+                    messages.add(message);
+                    return true;
+                }
+
+                @Override
+                public boolean recoverMessageReference(MessageId ref) throws Exception {
+                    messages.add(loadMessage(ref));
+                    return true;
+                }
+
+                @Override
+                public boolean hasSpace() {
+                    return AbstractStoreCursor.this.hasSpace();
+                }
+
+                @Override
+                public boolean isDuplicate(MessageId ref) {
+                    // duplicates are dropped when the messages are added to the batch
+                    return false;
+                }
+            });
+        } catch (Exception e) {
+            failure = e;
+        }
+        synchronized (this) {
+            try {
+                if (generation != batchGeneration) {
+                    return;
+                }
+                if (failure != null) {
+                    LOG.warn(this + " - failed to read ahead, the batch is read again from the store", failure);
+                    batchResetNeeded = true;
+                    return;
+                }
+                boolean starved = readAheadStarved || batchList.isEmpty();
+                int buffered = batchList.size();
+                if (!messages.isEmpty()) {
+                    // a dispatch may be between next() and remove() of the
+                    // batch iterator, so the messages are added by its next call
+                    readAheadMessages = messages;
+                } else if (hasSpace()) {
+                    storeHasMessages = !batchList.isEmpty();
+                }
+                int maxPageSize = regionDestination.getMaxPageSize();
+                if (starved) {
+                    readAheadDepth = Math.min(readAheadDepth * 2, maxPageSize * MAX_READ_AHEAD_PAGES);
+                } else if (buffered > readAheadDepth / 4) {
+                    readAheadDepth = Math.max(readAheadDepth / 2, maxPageSize);
+                }
+            } catch (Exception e) {
+                LOG.warn(this + " - failed to add the messages read ahead, the batch is read again from the store", e);
+                batchResetNeeded = true;
+            } finally {
+                readingAhead = false;
+                notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Adds the messages of a finished read ahead to the batch, on a dispatch
+     * call, which callers never make between next() and remove().
+     */
+    private void addReadAheadMessages() {
+        List<Message> messages = readAheadMessages;
+        if (messages == null) {
+            return;
+        }
+        readAheadMessages = null;
+        try {
+            for (Message message : messages) {
+                recoverMessage(message, false);
+            }
+        } catch (Exception e) {
+            LOG.warn(this + " - failed to add the messages read ahead, the batch is read again from the store", e);
+            gc();
+        }
+    }
+
+    /**
+     * Waits for a read ahead, so the store is only read by one thread at a
+     * time and in order.
+     */
+    private void awaitReadAhead() {
+        if (!readingAhead) {
+            return;
+        }
+        readAheadStarved = true;
+        boolean interrupted = false;
+        while (readingAhead) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
     public final synchronized boolean isEmpty() {
         // negative means more messages added to store through queue.send since last reset
         return size == 0;
@@ -301,6 +486,17 @@ public abstract class AbstractStoreCursor extends AbstractPendingMessageCursor i
     }
     
     protected abstract void doFillBatch() throws Exception;
+
+    /**
+     * Reads the next messages of the batch from the store into the given
+     * listener, used to read ahead.
+     */
+    protected abstract void recoverNextMessages(int maxReturned, MessageRecoveryListener listener) throws Exception;
+
+    /**
+     * Loads a message the store recovered a reference to.
+     */
+    protected abstract Message loadMessage(MessageId messageId) throws Exception;
     
     protected abstract void resetBatch();
     
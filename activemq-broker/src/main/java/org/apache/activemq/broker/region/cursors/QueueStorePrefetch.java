@@ -23,6 +23,7 @@ import org.apache.activemq.broker.BrokerService;
 import org.apache.activemq.broker.region.Queue;
 import org.apache.activemq.command.Message;
 import org.apache.activemq.command.MessageId;
+import org.apache.activemq.store.MessageRecoveryListener;
 import org.apache.activemq.store.MessageStore;
 import org.apache.activemq.store.memory.MemoryMessageStore;
 import org.apache.activemq.store.memory.MemoryTransactionStore;
@@ -52,9 +53,14 @@ class QueueStorePrefetch extends AbstractStoreCursor {
     }
 
     public boolean recoverMessageReference(MessageId messageReference) throws Exception {
+        return recoverMessage(loadMessage(messageReference));
+    }
+
+    @Override
+    protected Message loadMessage(MessageId messageReference) throws Exception {
         Message msg = this.store.getMessage(messageReference);
         if (msg != null) {
-            return recoverMessage(msg);
+            return msg;
         } else {
             String err = "Failed to retrieve message for id: " + messageReference;
             LOG.error(err);
@@ -107,4 +113,9 @@ class QueueStorePrefetch extends AbstractStoreCursor {
         }
     }
 
+    @Override
+    protected void recoverNextMessages(int maxReturned, MessageRecoveryListener listener) throws Exception {
+        this.store.recoverNextMessages(maxReturned, listener);
+    }
+
 }
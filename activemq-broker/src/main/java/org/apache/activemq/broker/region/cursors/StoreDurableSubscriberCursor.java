@@ -21,6 +21,7 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
 
 import org.apache.activemq.advisory.AdvisorySupport;
 import org.apache.activemq.broker.Broker;
@@ -49,6 +50,7 @@ public class StoreDurableSubscriberCursor extends AbstractPendingMessageCursor {
     private PendingMessageCursor currentCursor;
     private final DurableTopicSubscription subscription;
     private boolean immediatePriorityDispatch = true;
+    private Executor readAheadExecutor;
 
     /**
      * @param broker Broker for this cursor
@@ -124,6 +126,9 @@ public class StoreDurableSubscriberCursor extends AbstractPendingMessageCursor {
             tsp.setMemoryUsageHighWaterMark(getMemoryUsageHighWaterMark());
             tsp.setUseCache(isUseCache());
             tsp.setCacheEnabled(isUseCache() && tsp.isEmpty());
+            if (((Topic) destination).isAsyncReadAhead()) {
+                tsp.setReadAheadExecutor(readAheadExecutor);
+            }
             topics.put(destination, tsp);
             storePrefetches.add(tsp);
             if (isStarted()) {
@@ -360,6 +365,18 @@ public class StoreDurableSubscriberCursor extends AbstractPendingMessageCursor {
         }
     }
 
+    public Executor getReadAheadExecutor() {
+        return readAheadExecutor;
+    }
+
+    /**
+     * Sets the executor the store cursors of topics with async read ahead
+     * read their next batch on.
+     */
+    public void setReadAheadExecutor(Executor readAheadExecutor) {
+        this.readAheadExecutor = readAheadExecutor;
+    }
+
     @Override
     public  void setUseCache(boolean useCache) {
         super.setUseCache(useCache);
@@ -16,6 +16,8 @@
  */
 package org.apache.activemq.broker.region.cursors;
 
+import java.util.concurrent.Executor;
+
 import org.apache.activemq.broker.Broker;
 import org.apache.activemq.broker.region.MessageReference;
 import org.apache.activemq.broker.region.Queue;
@@ -240,6 +242,14 @@ public class StoreQueueCursor extends AbstractPendingMessageCursor {
         }
     }
 
+    /**
+     * Sets the executor the store cursor reads the next batch of persistent
+     * messages on, or null to read them on the dispatch thread.
+     */
+    public void setReadAheadExecutor(Executor readAheadExecutor) {
+        persistent.setReadAheadExecutor(readAheadExecutor);
+    }
+
     @Override
     public void setUseCache(boolean useCache) {
         super.setUseCache(useCache);
@@ -16,6 +16,8 @@
  */
 package org.apache.activemq.broker.region.cursors;
 
+import java.io.IOException;
+
 import org.apache.activemq.broker.region.MessageReference;
 import org.apache.activemq.broker.region.Subscription;
 import org.apache.activemq.broker.region.Topic;
@@ -23,6 +25,7 @@ import org.apache.activemq.command.Message;
 import org.apache.activemq.command.MessageId;
 import org.apache.activemq.filter.MessageEvaluationContext;
 import org.apache.activemq.filter.NonCachedMessageEvaluationContext;
+import org.apache.activemq.store.MessageRecoveryListener;
 import org.apache.activemq.store.TopicMessageStore;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -57,8 +60,19 @@ class TopicStorePrefetch extends AbstractStoreCursor {
     }
 
     public boolean recoverMessageReference(MessageId messageReference) throws Exception {
-        // shouldn't get called
-        throw new RuntimeException("Not supported");
+        return recoverMessage(loadMessage(messageReference));
+    }
+
+    @Override
+    protected Message loadMessage(MessageId messageReference) throws Exception {
+        Message msg = this.store.getMessage(messageReference);
+        if (msg != null) {
+            return msg;
+        } else {
+            String err = "Failed to retrieve message for id: " + messageReference;
+            LOG.error(err);
+            throw new IOException(err);
+        }
     }
 
     public synchronized void addMessageFirst(MessageReference node) throws Exception {
@@ -116,6 +130,11 @@ class TopicStorePrefetch extends AbstractStoreCursor {
                 maxBatchSize, this);
     }
 
+    @Override
+    protected void recoverNextMessages(int maxReturned, MessageRecoveryListener listener) throws Exception {
+        this.store.recoverNextMessages(clientId, subscriberName, maxReturned, listener);
+    }
+
     public byte getLastRecoveredPriority() {
         return lastRecoveredPriority;
     }
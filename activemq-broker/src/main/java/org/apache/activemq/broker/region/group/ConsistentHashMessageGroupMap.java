@@ -0,0 +1,170 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.broker.region.group;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import org.apache.activemq.command.ConsumerId;
+
+/**
+ * Keeps the most recently used group assignments within a memory limit and
+ * homes every group without an assignment on a consistent hash ring of the
+ * consumers. A group that is evicted from the map is homed on the same
+ * consumer again as long as the consumers don't change, and a consumer joining
+ * or leaving only moves about 1/N of the unassigned groups.
+ *
+ * The memory limit should allow for the groups which are active at the same
+ * time, as the ordering of an evicted group whose messages are still in flight
+ * is only kept while its home on the ring doesn't change.
+ */
+public class ConsistentHashMessageGroupMap implements ConsumerAwareMessageGroupMap {
+
+    /**
+     * An estimate of the bytes held for each group besides the characters of
+     * its id: the map entry, the String and its array header.
+     */
+    static final int ENTRY_OVERHEAD = 96;
+
+    private final LinkedHashMap<String, ConsumerId> groups = new LinkedHashMap<String, ConsumerId>(16, 0.75f, true);
+    private final TreeMap<Integer, ConsumerId> ring = new TreeMap<Integer, ConsumerId>();
+    private final long memoryLimit;
+    private final int virtualNodes;
+    private long memoryUsage;
+    private long evictions;
+
+    public ConsistentHashMessageGroupMap(long memoryLimit, int virtualNodes) {
+        this.memoryLimit = memoryLimit;
+        this.virtualNodes = virtualNodes;
+    }
+
+    public synchronized void put(String groupId, ConsumerId consumerId) {
+        if (groups.put(groupId, consumerId) == null) {
+            memoryUsage += sizeOf(groupId);
+            while (memoryUsage > memoryLimit && groups.size() > 1) {
+                Iterator<String> eldest = groups.keySet().iterator();
+                memoryUsage -= sizeOf(eldest.next());
+                eldest.remove();
+                evictions++;
+            }
+        }
+    }
+
+    public synchronized ConsumerId get(String groupId) {
+        return groups.get(groupId);
+    }
+
+    public synchronized ConsumerId removeGroup(String groupId) {
+        ConsumerId answer = groups.remove(groupId);
+        if (answer != null) {
+            memoryUsage -= sizeOf(groupId);
+        }
+        return answer;
+    }
+
+    public synchronized MessageGroupSet removeConsumer(ConsumerId consumerId) {
+        for (Iterator<ConsumerId> iter = ring.values().iterator(); iter.hasNext();) {
+            if (iter.next().equals(consumerId)) {
+                iter.remove();
+            }
+        }
+        SimpleMessageGroupSet ownedGroups = new SimpleMessageGroupSet();
+        for (Iterator<Map.Entry<String, ConsumerId>> iter = groups.entrySet().iterator(); iter.hasNext();) {
+            Map.Entry<String, ConsumerId> entry = iter.next();
+            if (entry.getValue().equals(consumerId)) {
+                ownedGroups.add(entry.getKey());
+                memoryUsage -= sizeOf(entry.getKey());
+                iter.remove();
+            }
+        }
+        return ownedGroups;
+    }
+
+    public synchronized void addConsumer(ConsumerId consumerId) {
+        String key = consumerId.toString();
+        for (int i = 0; i < virtualNodes; i++) {
+            // probe past a node of another consumer rather than taking it over
+            int node = hash(key + "#" + i);
+            while (ring.containsKey(node) && !ring.get(node).equals(consumerId)) {
+                node++;
+            }
+            ring.put(node, consumerId);
+        }
+    }
+
+    public synchronized ConsumerId selectOwner(String groupId) {
+        if (ring.isEmpty()) {
+            return null;
+        }
+        SortedMap<Integer, ConsumerId> tail = ring.tailMap(hash(groupId));
+        return tail.isEmpty() ? ring.get(ring.firstKey()) : tail.get(tail.firstKey());
+    }
+
+    public synchronized int getGroupCount() {
+        return groups.size();
+    }
+
+    /**
+     * Returns the number of virtual nodes on the hash ring.
+     */
+    synchronized int getRingSize() {
+        return ring.size();
+    }
+
+    /**
+     * Returns the estimated number of bytes held by the group assignments.
+     */
+    public synchronized long getMemoryUsage() {
+        return memoryUsage;
+    }
+
+    /**
+     * Returns the number of groups evicted to keep within the memory limit.
+     */
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    public String toString() {
+        return "message groups: " + getGroupCount() + ", evicted: " + getEvictions();
+    }
+
+    static long sizeOf(String groupId) {
+        return ENTRY_OVERHEAD + 2L * groupId.length();
+    }
+
+    /**
+     * FNV-1a over the characters followed by a final mix, as ids which only
+     * differ in their last digits have close String hash codes.
+     */
+    static int hash(String key) {
+        int h = 0x811c9dc5;
+        for (int i = 0; i < key.length(); i++) {
+            h ^= key.charAt(i);
+            h *= 0x01000193;
+        }
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+}
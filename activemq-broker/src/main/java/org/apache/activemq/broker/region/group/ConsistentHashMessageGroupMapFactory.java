@@ -0,0 +1,61 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.broker.region.group;
+
+/**
+ * A factory to create instances of {@link ConsistentHashMessageGroupMap} when
+ * implementing the <a
+ * href="http://activemq.apache.org/message-groups.html">Message
+ * Groups</a> functionality.
+ *
+ * @org.apache.xbean.XBean
+ *
+ */
+public class ConsistentHashMessageGroupMapFactory implements MessageGroupMapFactory {
+
+    private long memoryLimit = 10 * 1024 * 1024;
+    private int virtualNodes = 128;
+
+    public MessageGroupMap createMessageGroupMap() {
+        return new ConsistentHashMessageGroupMap(memoryLimit, virtualNodes);
+    }
+
+    public long getMemoryLimit() {
+        return memoryLimit;
+    }
+
+    /**
+     * Sets the number of bytes the group assignments of a destination may
+     * hold before the least recently used groups are evicted.
+     */
+    public void setMemoryLimit(long memoryLimit) {
+        this.memoryLimit = memoryLimit;
+    }
+
+    public int getVirtualNodes() {
+        return virtualNodes;
+    }
+
+    /**
+     * Sets the number of points each consumer has on the hash ring. More
+     * points spread the groups more evenly over the consumers.
+     */
+    public void setVirtualNodes(int virtualNodes) {
+        this.virtualNodes = virtualNodes;
+    }
+
+}
@@ -0,0 +1,44 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.broker.region.group;
+
+import org.apache.activemq.command.ConsumerId;
+
+/**
+ * A {@link MessageGroupMap} which is told about the consumers of the queue and
+ * may choose the owner of a new group itself, rather than leaving it to the
+ * first consumer able to take the message.
+ */
+public interface ConsumerAwareMessageGroupMap extends MessageGroupMap {
+
+    /**
+     * Tells the map about a consumer which can take the messages of any group.
+     */
+    void addConsumer(ConsumerId consumerId);
+
+    /**
+     * Returns the consumer that should own a group which has no owner yet, or
+     * null if the first consumer able to take the message may own it.
+     */
+    ConsumerId selectOwner(String groupId);
+
+    /**
+     * Returns the number of groups currently assigned to a consumer.
+     */
+    int getGroupCount();
+
+}
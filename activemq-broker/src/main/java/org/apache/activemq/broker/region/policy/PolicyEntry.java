@@ -73,6 +73,8 @@ public class PolicyEntry extends DestinationMapEntry {
     private boolean useConsumerPriority=true;
     private boolean strictOrderDispatch=false;
     private boolean lazyDispatch=false;
+    private boolean useSelectorIndex;
+    private boolean shareMarshalledMessages;
     private int timeBeforeDispatchStarts = 0;
     private int consumersBeforeDispatchStarts = 0;
     private boolean advisoryForSlowConsumers;
@@ -82,6 +84,8 @@ public class PolicyEntry extends DestinationMapEntry {
     private boolean advisoryForDelivery;
     private boolean advisoryForConsumed;
     private long expireMessagesPeriod = BaseDestination.EXPIRE_MESSAGE_PERIOD;
+    private long expiryTimingWheelTick;
+    private boolean asyncReadAhead;
     private int maxExpirePageSize = BaseDestination.MAX_BROWSE_PAGE_SIZE;
     private int queuePrefetch=ActiveMQPrefetchPolicy.DEFAULT_QUEUE_PREFETCH;
     private int queueBrowserPrefetch=ActiveMQPrefetchPolicy.DEFAULT_QUEUE_BROWSER_PREFETCH;
@@ -148,6 +152,8 @@ public class PolicyEntry extends DestinationMapEntry {
         if (dispatchPolicy != null) {
             topic.setDispatchPolicy(dispatchPolicy);
         }
+        topic.setUseSelectorIndex(isUseSelectorIndex());
+        topic.setShareMarshalledMessages(isShareMarshalledMessages());
         topic.setDeadLetterStrategy(getDeadLetterStrategy());
         if (subscriptionRecoveryPolicy != null) {
             SubscriptionRecoveryPolicy srp = subscriptionRecoveryPolicy.copy();
@@ -162,6 +168,8 @@ public class PolicyEntry extends DestinationMapEntry {
 
     public void update(Topic topic) {
         baseUpdate(topic);
+        topic.setUseSelectorIndex(isUseSelectorIndex());
+        topic.setShareMarshalledMessages(isShareMarshalledMessages());
         if (memoryLimit > 0) {
             topic.getMemoryUsage().setLimit(memoryLimit);
         }
@@ -205,6 +213,8 @@ public class PolicyEntry extends DestinationMapEntry {
         destination.setMaxProducersToAudit(getMaxProducersToAudit());
         destination.setUseCache(isUseCache());
         destination.setExpireMessagesPeriod(getExpireMessagesPeriod());
+        destination.setExpiryTimingWheelTick(getExpiryTimingWheelTick());
+        destination.setAsyncReadAhead(isAsyncReadAhead());
         SlowConsumerStrategy scs = getSlowConsumerStrategy();
         if (scs != null) {
             scs.setBrokerService(broker);
@@ -619,6 +629,32 @@ public class PolicyEntry extends DestinationMapEntry {
         this.lazyDispatch = lazyDispatch;
     }
 
+    public boolean isUseSelectorIndex() {
+        return useSelectorIndex;
+    }
+
+    /**
+     * Topics dispatch each message only to the subscriptions an index of
+     * their selectors finds may match it, which keeps the dispatch cost flat
+     * with many subscriptions that select on the same properties.
+     */
+    public void setUseSelectorIndex(boolean useSelectorIndex) {
+        this.useSelectorIndex = useSelectorIndex;
+    }
+
+    public boolean isShareMarshalledMessages() {
+        return shareMarshalledMessages;
+    }
+
+    /**
+     * Topics marshal a message dispatched to several subscribers once and
+     * reuse the bytes for all of them, instead of marshalling it again for
+     * every subscriber.
+     */
+    public void setShareMarshalledMessages(boolean shareMarshalledMessages) {
+        this.shareMarshalledMessages = shareMarshalledMessages;
+    }
+
     public int getTimeBeforeDispatchStarts() {
         return timeBeforeDispatchStarts;
     }
@@ -736,6 +772,27 @@ public class PolicyEntry extends DestinationMapEntry {
         return expireMessagesPeriod;
     }
 
+    /**
+     * Sets the tick in milliseconds of the timing wheel which expires the
+     * messages of a queue, 0 to find expired messages by browsing every
+     * expireMessagesPeriod.
+     */
+    public void setExpiryTimingWheelTick(long expiryTimingWheelTick) {
+        this.expiryTimingWheelTick = expiryTimingWheelTick;
+    }
+
+    public long getExpiryTimingWheelTick() {
+        return expiryTimingWheelTick;
+    }
+
+    public boolean isAsyncReadAhead() {
+        return asyncReadAhead;
+    }
+
+    public void setAsyncReadAhead(boolean asyncReadAhead) {
+        this.asyncReadAhead = asyncReadAhead;
+    }
+
     /**
      * Get the queuePrefetch
      * @return the queuePrefetch
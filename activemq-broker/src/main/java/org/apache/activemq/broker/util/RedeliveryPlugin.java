@@ -17,6 +17,7 @@
 package org.apache.activemq.broker.util;
 
 import java.io.IOException;
+import java.util.List;
 
 import org.apache.activemq.RedeliveryPolicy;
 import org.apache.activemq.ScheduledMessage;
@@ -35,6 +36,9 @@ import org.apache.activemq.command.Message;
 import org.apache.activemq.command.ProducerInfo;
 import org.apache.activemq.filter.AnyDestination;
 import org.apache.activemq.state.ProducerState;
+import org.apache.activemq.transaction.Synchronization;
+import org.apache.activemq.util.BrokerSupport;
+import org.apache.activemq.util.TimingWheel;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -55,6 +59,14 @@ public class RedeliveryPlugin extends BrokerPluginSupport {
     RedeliveryPolicyMap redeliveryPolicyMap = new RedeliveryPolicyMap();
     boolean sendToDlqIfMaxRetriesExceeded = true;
     private boolean fallbackToDeadLetter = true;
+    private long timingWheelTick;
+    private TimingWheel<Message> redeliveryWheel;
+    private final Runnable redeliverDueMessagesTask = new Runnable() {
+        @Override
+        public void run() {
+            redeliverDueMessages();
+        }
+    };
 
     @Override
     public Broker installPlugin(Broker broker) throws Exception {
@@ -90,6 +102,27 @@ public class RedeliveryPlugin extends BrokerPluginSupport {
         }
     }
 
+    @Override
+    public void start() throws Exception {
+        if (timingWheelTick > 0) {
+            redeliveryWheel = new TimingWheel<Message>(timingWheelTick, System.currentTimeMillis());
+            getBrokerService().getScheduler().schedualPeriodically(redeliverDueMessagesTask, timingWheelTick);
+        }
+        super.start();
+    }
+
+    @Override
+    public void stop() throws Exception {
+        if (redeliveryWheel != null) {
+            getBrokerService().getScheduler().cancel(redeliverDueMessagesTask);
+            if (!redeliveryWheel.isEmpty()) {
+                LOG.warn("Discarding " + redeliveryWheel.size() + " non persistent messages waiting for redelivery");
+            }
+            redeliveryWheel = null;
+        }
+        super.stop();
+    }
+
     public RedeliveryPolicyMap getRedeliveryPolicyMap() {
         return redeliveryPolicyMap;
     }
@@ -126,6 +159,22 @@ public class RedeliveryPlugin extends BrokerPluginSupport {
         this.fallbackToDeadLetter = fallbackToDeadLetter;
     }
 
+    public long getTimingWheelTick() {
+        return timingWheelTick;
+    }
+
+    /**
+     * When greater than 0, non persistent messages wait for their redelivery
+     * on a timing wheel with this tick in milliseconds rather than in the job
+     * scheduler store. They are lost if the broker stops, like any other non
+     * persistent message. Persistent messages always go through the job
+     * scheduler.
+     * @param timingWheelTick
+     */
+    public void setTimingWheelTick(long timingWheelTick) {
+        this.timingWheelTick = timingWheelTick;
+    }
+
     @Override
     public boolean sendToDeadLetterQueue(ConnectionContext context, MessageReference messageReference, Subscription subscription, Throwable poisonCause) {
         if (messageReference.isExpired()) {
@@ -181,9 +230,48 @@ public class RedeliveryPlugin extends BrokerPluginSupport {
         message.removeProperty(ScheduledMessage.AMQ_SCHEDULED_ID);
 
         message.setProperty(REDELIVERY_DELAY, delay);
-        message.setProperty(ScheduledMessage.AMQ_SCHEDULED_DELAY, delay);
         message.setRedeliveryCounter(redeliveryCount);
 
+        final TimingWheel<Message> wheel = redeliveryWheel;
+        if (wheel != null && !message.isPersistent()) {
+            final Message redelivery = message;
+            final long due = System.currentTimeMillis() + delay;
+            if (context.isInTransaction()) {
+                context.getTransaction().addSynchronization(new Synchronization() {
+                    @Override
+                    public void afterCommit() throws Exception {
+                        wheel.add(redelivery, due);
+                    }
+                });
+            } else {
+                wheel.add(redelivery, due);
+            }
+            return;
+        }
+
+        message.setProperty(ScheduledMessage.AMQ_SCHEDULED_DELAY, delay);
+        resend(context, message);
+    }
+
+    private void redeliverDueMessages() {
+        TimingWheel<Message> wheel = redeliveryWheel;
+        if (wheel == null) {
+            return;
+        }
+        List<Message> due = wheel.advance(System.currentTimeMillis());
+        if (due.isEmpty()) {
+            return;
+        }
+        for (Message message : due) {
+            try {
+                resend(BrokerSupport.getConnectionContext(getBrokerService().getBroker()), message);
+            } catch (Exception e) {
+                LOG.error("Failed to redeliver: " + message.getMessageId(), e);
+            }
+        }
+    }
+
+    private void resend(ConnectionContext context, Message message) throws Exception {
         boolean originalFlowControl = context.isProducerFlowControl();
         try {
             context.setProducerFlowControl(false);
@@ -17,6 +17,8 @@
 package org.apache.activemq.store;
 
 import java.io.IOException;
+import java.util.Collection;
+import java.util.List;
 import java.util.concurrent.Callable;
 import java.util.concurrent.Future;
 import java.util.concurrent.FutureTask;
@@ -88,6 +90,13 @@ abstract public class AbstractMessageStore implements MessageStore {
         addMessage(context, message);
     }
 
+    @Override
+    public void addMessages(ConnectionContext context, List<Message> messages) throws IOException {
+        for (Message message : messages) {
+            addMessage(context, message);
+        }
+    }
+
     @Override
     public Future<Object> asyncAddQueueMessage(final ConnectionContext context, final Message message) throws IOException {
         addMessage(context, message);
@@ -117,6 +126,13 @@ abstract public class AbstractMessageStore implements MessageStore {
         removeMessage(context, ack);
     }
 
+    @Override
+    public void removeMessages(ConnectionContext context, Collection<MessageAck> acks) throws IOException {
+        for (MessageAck ack : acks) {
+            removeAsyncMessage(context, ack);
+        }
+    }
+
     static class CallableImplementation implements Callable<Object> {
         public Object call() throws Exception {
             return null;
@@ -17,6 +17,8 @@
 package org.apache.activemq.store;
 
 import java.io.IOException;
+import java.util.Collection;
+import java.util.List;
 import java.util.concurrent.Future;
 
 import org.apache.activemq.Service;
@@ -53,6 +55,16 @@ public interface MessageStore extends Service {
      */
     void addMessage(ConnectionContext context, Message message, boolean canOptimizeHint) throws IOException;
 
+    /**
+     * Adds a batch of messages to the message store, a store writes them and
+     * updates its index once for the whole batch when it can.
+     *
+     * @param context context
+     * @param messages the messages in the order they were sent
+     * @throws IOException
+     */
+    void addMessages(ConnectionContext context, List<Message> messages) throws IOException;
+
     /**
      * Adds a message to the message store
      *
@@ -123,6 +135,16 @@ public interface MessageStore extends Service {
 
     void removeAsyncMessage(ConnectionContext context, MessageAck ack) throws IOException;
 
+    /**
+     * Removes the messages of a batch of acks, a store updates its index once
+     * for the whole batch when it can.
+     *
+     * @param context
+     * @param acks the non ranged acks of the messages to remove
+     * @throws IOException
+     */
+    void removeMessages(ConnectionContext context, Collection<MessageAck> acks) throws IOException;
+
     /**
      * Removes all the messages from the message store.
      *
@@ -17,6 +17,8 @@
 package org.apache.activemq.store;
 
 import java.io.IOException;
+import java.util.Collection;
+import java.util.List;
 import java.util.concurrent.Future;
 
 import org.apache.activemq.broker.ConnectionContext;
@@ -51,6 +53,14 @@ public class ProxyMessageStore implements MessageStore {
         delegate.addMessage(context,message,canOptimizeHint);
     }
 
+    @Override
+    public void addMessages(ConnectionContext context, List<Message> messages) throws IOException {
+        // through addMessage so the proxies that intercept it see every message
+        for (Message message : messages) {
+            addMessage(context, message);
+        }
+    }
+
     @Override
     public Message getMessage(MessageId identity) throws IOException {
         return delegate.getMessage(identity);
@@ -146,6 +156,14 @@ public class ProxyMessageStore implements MessageStore {
         delegate.removeAsyncMessage(context, ack);
     }
 
+    @Override
+    public void removeMessages(ConnectionContext context, Collection<MessageAck> acks) throws IOException {
+        // through removeAsyncMessage so the proxies that intercept it see every ack
+        for (MessageAck ack : acks) {
+            removeAsyncMessage(context, ack);
+        }
+    }
+
     @Override
     public void setPrioritizedMessages(boolean prioritizedMessages) {
         delegate.setPrioritizedMessages(prioritizedMessages);
@@ -34,6 +34,9 @@ import org.apache.activemq.store.TransactionStore;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Future;
 
@@ -92,10 +95,23 @@ public class MemoryTransactionStore implements TransactionStore {
             persistenceAdapter.beginTransaction(ctx);
             try {
 
-                // Do all the message adds.
+                // Do all the message adds, a batch per destination.
+                Map<MessageStore, List<Message>> batches = new LinkedHashMap<MessageStore, List<Message>>();
                 for (Iterator<AddMessageCommand> iter = messages.iterator(); iter.hasNext();) {
                     AddMessageCommand cmd = iter.next();
-                    cmd.run(ctx);
+                    if (cmd instanceof StoreAddMessageCommand) {
+                        List<Message> batch = batches.get(cmd.getMessageStore());
+                        if (batch == null) {
+                            batch = new ArrayList<Message>();
+                            batches.put(cmd.getMessageStore(), batch);
+                        }
+                        batch.add(cmd.getMessage());
+                    } else {
+                        cmd.run(ctx);
+                    }
+                }
+                for (Map.Entry<MessageStore, List<Message>> batch : batches.entrySet()) {
+                    batch.getKey().addMessages(ctx, batch.getValue());
                 }
                 // And removes..
                 for (Iterator<RemoveMessageCommand> iter = acks.iterator(); iter.hasNext();) {
@@ -119,6 +135,35 @@ public class MemoryTransactionStore implements TransactionStore {
         void run(ConnectionContext context) throws IOException;
     }
 
+    /**
+     * Adds the message to its store on commit, the adds of a destination are
+     * done as one batch.
+     */
+    protected static class StoreAddMessageCommand implements AddMessageCommand {
+        private final MessageStore destination;
+        private final Message message;
+
+        public StoreAddMessageCommand(MessageStore destination, Message message) {
+            this.destination = destination;
+            this.message = message;
+        }
+
+        @Override
+        public Message getMessage() {
+            return message;
+        }
+
+        @Override
+        public MessageStore getMessageStore() {
+            return destination;
+        }
+
+        @Override
+        public void run(ConnectionContext ctx) throws IOException {
+            destination.addMessage(ctx, message);
+        }
+    }
+
     public interface RemoveMessageCommand {
         MessageAck getMessageAck();
 
@@ -145,14 +190,12 @@ public class MemoryTransactionStore implements TransactionStore {
 
             @Override
             public Future<Object> asyncAddQueueMessage(ConnectionContext context, Message message) throws IOException {
-                MemoryTransactionStore.this.addMessage(getDelegate(), message);
-                return AbstractMessageStore.FUTURE;
+                return MemoryTransactionStore.this.asyncAddQueueMessage(getDelegate(), message, false);
              }
 
             @Override
             public Future<Object> asyncAddQueueMessage(ConnectionContext context, Message message, boolean canoptimize) throws IOException {
-                MemoryTransactionStore.this.addMessage(getDelegate(), message);
-                return AbstractMessageStore.FUTURE;
+                return MemoryTransactionStore.this.asyncAddQueueMessage(getDelegate(), message, canoptimize);
              }
 
             @Override
@@ -308,26 +351,24 @@ public class MemoryTransactionStore implements TransactionStore {
 
         if (message.getTransactionId() != null) {
             Tx tx = getTx(message.getTransactionId());
-            tx.add(new AddMessageCommand() {
-                public Message getMessage() {
-                    return message;
-                }
-
-                @Override
-                public MessageStore getMessageStore() {
-                    return destination;
-                }
-
-                public void run(ConnectionContext ctx) throws IOException {
-                    destination.addMessage(ctx, message);
-                }
-
-            });
+            tx.add(new StoreAddMessageCommand(destination, message));
         } else {
             destination.addMessage(null, message);
         }
     }
 
+    /**
+     * Messages sent outside of a transaction go to the store's own async add,
+     * so a store that writes asynchronously can complete the future later.
+     */
+    Future<Object> asyncAddQueueMessage(final MessageStore destination, final Message message, boolean canOptimize) throws IOException {
+        if (message.getTransactionId() == null && !doingRecover) {
+            return destination.asyncAddQueueMessage(null, message, canOptimize);
+        }
+        addMessage(destination, message);
+        return AbstractMessageStore.FUTURE;
+    }
+
     /**
      * @param ack
      * @throws IOException
@@ -0,0 +1,253 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.util;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A hierarchical timing wheel of items which are due at a given time.
+ *
+ * The wheel has four levels of 256 slots. The first level holds the items due
+ * within 256 ticks, each following level holds the items due within 256 times
+ * as many ticks, and items are moved down a level as their time comes closer.
+ * Adding, removing and firing an item are constant time, and advancing the
+ * wheel skips the ticks where no level has anything to do. Items are returned
+ * on the first advance at or after their time, so never early and at most one
+ * tick late.
+ *
+ * Items are kept in a hash map so they can be removed, so adding an item which
+ * is already on the wheel moves it to the new time.
+ */
+public class TimingWheel<T> {
+
+    private static final int BITS = 8;
+    private static final int SLOTS = 1 << BITS;
+    private static final int MASK = SLOTS - 1;
+    private static final int LEVELS = 4;
+    private static final long SPAN = 1L << (BITS * LEVELS);
+
+    private final long tickMillis;
+    // the items of each level by slot, and the items that are already due
+    @SuppressWarnings("unchecked")
+    private final Entry<T>[][] slots = new Entry[LEVELS][SLOTS];
+    private final int[] counts = new int[LEVELS];
+    private Entry<T> due;
+    private final Map<T, Entry<T>> entries = new HashMap<T, Entry<T>>();
+    private long currentTick;
+
+    public TimingWheel(long tickMillis, long now) {
+        if (tickMillis <= 0) {
+            throw new IllegalArgumentException("tickMillis must be positive: " + tickMillis);
+        }
+        this.tickMillis = tickMillis;
+        this.currentTick = now / tickMillis;
+    }
+
+    /**
+     * Adds an item which is due at the given time in milliseconds.
+     */
+    public synchronized void add(T item, long time) {
+        Entry<T> entry = entries.get(item);
+        if (entry == null) {
+            entry = new Entry<T>(item);
+            entries.put(item, entry);
+        } else {
+            unlink(entry);
+        }
+        // round up so the item is never returned before its time
+        entry.tick = time / tickMillis + (time % tickMillis == 0 ? 0 : 1);
+        place(entry);
+    }
+
+    /**
+     * Removes an item from the wheel.
+     *
+     * @return true if the item was on the wheel
+     */
+    public synchronized boolean remove(T item) {
+        Entry<T> entry = entries.remove(item);
+        if (entry == null) {
+            return false;
+        }
+        unlink(entry);
+        return true;
+    }
+
+    /**
+     * Moves the wheel on to the given time.
+     *
+     * @return the items which are due, which are no longer on the wheel
+     */
+    public synchronized List<T> advance(long now) {
+        List<T> answer = new ArrayList<T>();
+        drainDue(answer);
+        long target = now / tickMillis;
+        while (currentTick < target) {
+            if (entries.isEmpty()) {
+                currentTick = target;
+                break;
+            }
+            if (counts[0] == 0) {
+                // nothing happens before the next slot of the lowest level
+                // with items comes down
+                int level = 1;
+                while (level < LEVELS && counts[level] == 0) {
+                    level++;
+                }
+                if (level == LEVELS) {
+                    currentTick = target;
+                    break;
+                }
+                long next = ((currentTick >>> (BITS * level)) + 1) << (BITS * level);
+                if (next > target) {
+                    currentTick = target;
+                    break;
+                }
+                currentTick = next - 1;
+            }
+            currentTick++;
+            // the items of a slot of a higher level come down when the
+            // levels below it wrap around
+            for (int level = 1; level < LEVELS; level++) {
+                if ((currentTick & ((1L << (BITS * level)) - 1)) != 0) {
+                    break;
+                }
+                cascade(level, (int) ((currentTick >>> (BITS * level)) & MASK));
+            }
+            int slot = (int) (currentTick & MASK);
+            Entry<T> entry = slots[0][slot];
+            slots[0][slot] = null;
+            while (entry != null) {
+                Entry<T> next = entry.next;
+                counts[0]--;
+                entries.remove(entry.item);
+                answer.add(entry.item);
+                entry.clear();
+                entry = next;
+            }
+            drainDue(answer);
+        }
+        return answer;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized boolean isEmpty() {
+        return entries.isEmpty();
+    }
+
+    public long getTickMillis() {
+        return tickMillis;
+    }
+
+    private void place(Entry<T> entry) {
+        long delta = entry.tick - currentTick;
+        if (delta <= 0) {
+            entry.level = LEVELS;
+            entry.next = due;
+            if (due != null) {
+                due.previous = entry;
+            }
+            due = entry;
+            return;
+        }
+        long tick = entry.tick;
+        if (delta >= SPAN) {
+            // beyond the reach of the wheel, it is placed again when its
+            // slot comes down
+            delta = SPAN - 1;
+            tick = currentTick + delta;
+        }
+        int level = 0;
+        while (delta >= 1L << (BITS * (level + 1))) {
+            level++;
+        }
+        int slot = (int) ((tick >>> (BITS * level)) & MASK);
+        entry.level = level;
+        entry.slot = slot;
+        counts[level]++;
+        entry.next = slots[level][slot];
+        if (entry.next != null) {
+            entry.next.previous = entry;
+        }
+        slots[level][slot] = entry;
+    }
+
+    private void cascade(int level, int slot) {
+        Entry<T> entry = slots[level][slot];
+        slots[level][slot] = null;
+        while (entry != null) {
+            Entry<T> next = entry.next;
+            counts[level]--;
+            entry.clear();
+            place(entry);
+            entry = next;
+        }
+    }
+
+    private void drainDue(List<T> answer) {
+        Entry<T> entry = due;
+        due = null;
+        while (entry != null) {
+            Entry<T> next = entry.next;
+            entries.remove(entry.item);
+            answer.add(entry.item);
+            entry.clear();
+            entry = next;
+        }
+    }
+
+    private void unlink(Entry<T> entry) {
+        if (entry.level < LEVELS) {
+            counts[entry.level]--;
+        }
+        if (entry.previous != null) {
+            entry.previous.next = entry.next;
+        } else if (entry.level == LEVELS) {
+            due = entry.next;
+        } else {
+            slots[entry.level][entry.slot] = entry.next;
+        }
+        if (entry.next != null) {
+            entry.next.previous = entry.previous;
+        }
+        entry.clear();
+    }
+
+    private static final class Entry<T> {
+        final T item;
+        long tick;
+        int level;
+        int slot;
+        Entry<T> previous;
+        Entry<T> next;
+
+        Entry(T item) {
+            this.item = item;
+        }
+
+        void clear() {
+            previous = null;
+            next = null;
+        }
+    }
+}
@@ -97,6 +97,7 @@ import org.apache.activemq.transport.FutureResponse;
 import org.apache.activemq.transport.ResponseCallback;
 import org.apache.activemq.transport.Transport;
 import org.apache.activemq.transport.TransportListener;
+import org.apache.activemq.transport.TransportThreadSupport;
 import org.apache.activemq.transport.failover.FailoverTransport;
 import org.apache.activemq.util.IdGenerator;
 import org.apache.activemq.util.IntrospectionSupport;
@@ -189,6 +190,7 @@ public class ActiveMQConnection implements Connection, TopicConnection, QueueCon
     private BrokerInfo brokerInfo;
     private IOException firstFailureError;
     private int producerWindowSize = ActiveMQConnectionFactory.DEFAULT_PRODUCER_WINDOW_SIZE;
+    private int pipelinedSendWindow;
 
     // Assume that protocol is the latest. Change to the actual protocol
     // version when a WireFormatInfo is received.
@@ -198,10 +200,12 @@ public class ActiveMQConnection implements Connection, TopicConnection, QueueCon
     private DestinationSource destinationSource;
     private final Object ensureConnectionInfoSentMutex = new Object();
     private boolean useDedicatedTaskRunner;
+    private boolean useVirtualThreads;
     protected volatile CountDownLatch transportInterruptionProcessingComplete;
     private long consumerFailoverRedeliveryWaitPeriod;
     private Scheduler scheduler;
     private boolean messagePrioritySupported = true;
+    private boolean useArrayDispatchChannel;
     private boolean transactedIndividualAck = false;
     private boolean nonBlockingRedelivery = false;
 
@@ -622,12 +626,24 @@ public class ActiveMQConnection implements Connection, TopicConnection, QueueCon
         // Store the interrupted state and clear so that cleanup happens without
         // leaking connection resources.  Reset in finally to preserve state.
         boolean interrupted = Thread.interrupted();
+        JMSException pipelinedSendFailure = null;
 
         try {
 
             // If we were running, lets stop first.
             if (!closed.get() && !transportFailed.get()) {
                 stop();
+
+                // report the failed pipelined sends the producers still wait
+                // for, waiting no longer than the close timeout for all of them
+                long deadline = System.currentTimeMillis() + closeTimeout;
+                for (ActiveMQSession session : this.sessions) {
+                    long timeout = closeTimeout > 0 ? Math.max(1, deadline - System.currentTimeMillis()) : 0;
+                    JMSException failure = session.flushProducers(timeout);
+                    if (pipelinedSendFailure == null) {
+                        pipelinedSendFailure = failure;
+                    }
+                }
             }
 
             synchronized (this) {
@@ -712,6 +728,9 @@ public class ActiveMQConnection implements Connection, TopicConnection, QueueCon
                 Thread.currentThread().interrupt();
             }
         }
+        if (pipelinedSendFailure != null) {
+            throw pipelinedSendFailure;
+        }
     }
 
     /**
@@ -994,10 +1013,28 @@ public class ActiveMQConnection implements Connection, TopicConnection, QueueCon
         this.useDedicatedTaskRunner = useDedicatedTaskRunner;
     }
 
+    public boolean isUseVirtualThreads() {
+        return useVirtualThreads;
+    }
+
+    /**
+     * Runs the session tasks and the reader of a tcp based transport on
+     * virtual threads when the JVM supports them. The transport reader is
+     * only changed before the transport is started.
+     */
+    public void setUseVirtualThreads(boolean useVirtualThreads) {
+        this.useVirtualThreads = useVirtualThreads;
+        TransportThreadSupport reader = transport.narrow(TransportThreadSupport.class);
+        if (reader != null && !reader.isStarted()) {
+            reader.setUseVirtualThreads(useVirtualThreads);
+        }
+    }
+
     public TaskRunnerFactory getSessionTaskRunner() {
         synchronized (this) {
             if (sessionTaskRunner == null) {
                 sessionTaskRunner = new TaskRunnerFactory("ActiveMQ Session Task", ThreadPriorities.INBOUND_CLIENT_SESSION, false, 1000, isUseDedicatedTaskRunner(), maxThreadPoolSize);
+                sessionTaskRunner.setUseVirtualThreads(isUseVirtualThreads());
                 sessionTaskRunner.setRejectedTaskHandler(rejectedTaskHandler);
             }
         }
@@ -1563,6 +1600,21 @@ public class ActiveMQConnection implements Connection, TopicConnection, QueueCon
         this.messagePrioritySupported = messagePrioritySupported;
     }
 
+    public boolean isUseArrayDispatchChannel() {
+        return this.useArrayDispatchChannel;
+    }
+
+    /**
+     * Queues the dispatches for the sessions and consumers in arrays the
+     * transport thread adds to without locking, see
+     * {@link ArrayMessageDispatchChannel}, rather than in locked lists.
+     * Disabled by default. A consumer still queues its dispatches holding the
+     * consumer mutex, so the closed check and the enqueue stay atomic.
+     */
+    public void setUseArrayDispatchChannel(boolean useArrayDispatchChannel) {
+        this.useArrayDispatchChannel = useArrayDispatchChannel;
+    }
+
     /**
      * Cleans up this connection so that it's state is as if the connection was
      * just created. This allows the Resource Adapter to clean up a connection
@@ -2423,6 +2475,21 @@ public class ActiveMQConnection implements Connection, TopicConnection, QueueCon
         this.producerWindowSize = producerWindowSize;
     }
 
+    public int getPipelinedSendWindow() {
+        return pipelinedSendWindow;
+    }
+
+    /**
+     * Sets the number of sends the producers created from now on have
+     * outstanding at once when they would otherwise wait for the broker to
+     * acknowledge each one. Zero, the default, disables the pipelining.
+     *
+     * @see ActiveMQMessageProducer#setPipelinedSendWindow(int)
+     */
+    public void setPipelinedSendWindow(int pipelinedSendWindow) {
+        this.pipelinedSendWindow = pipelinedSendWindow;
+    }
+
     public void setAuditDepth(int auditDepth) {
         connectionAudit.setAuditDepth(auditDepth);
     }
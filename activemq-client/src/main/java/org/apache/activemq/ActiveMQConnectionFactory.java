@@ -105,6 +105,7 @@ public class ActiveMQConnectionFactory extends JNDIBaseStorable implements Conne
     private boolean alwaysSyncSend;
     private boolean watchTopicAdvisories = true;
     private int producerWindowSize = DEFAULT_PRODUCER_WINDOW_SIZE;
+    private int pipelinedSendWindow;
     private long warnAboutUnstartedConnectionTimeout = 500L;
     private int sendTimeout = 0;
     private boolean sendAcksAsync=true;
@@ -113,10 +114,12 @@ public class ActiveMQConnectionFactory extends JNDIBaseStorable implements Conne
     private int auditDepth = ActiveMQMessageAudit.DEFAULT_WINDOW_SIZE;
     private int auditMaximumProducerNumber = ActiveMQMessageAudit.MAXIMUM_PRODUCER_COUNT;
     private boolean useDedicatedTaskRunner;
+    private boolean useVirtualThreads;
     private long consumerFailoverRedeliveryWaitPeriod = 0;
     private boolean checkForDuplicates = true;
     private ClientInternalExceptionListener clientInternalExceptionListener;
     private boolean messagePrioritySupported = true;
+    private boolean useArrayDispatchChannel;
     private boolean transactedIndividualAck = false;
     private boolean nonBlockingRedelivery = false;
     private int maxThreadPoolSize = ActiveMQConnection.DEFAULT_THREAD_POOL_SIZE;
@@ -328,6 +331,7 @@ public class ActiveMQConnectionFactory extends JNDIBaseStorable implements Conne
         connection.setBlobTransferPolicy(getBlobTransferPolicy().copy());
         connection.setWatchTopicAdvisories(isWatchTopicAdvisories());
         connection.setProducerWindowSize(getProducerWindowSize());
+        connection.setPipelinedSendWindow(getPipelinedSendWindow());
         connection.setWarnAboutUnstartedConnectionTimeout(getWarnAboutUnstartedConnectionTimeout());
         connection.setSendTimeout(getSendTimeout());
         connection.setCloseTimeout(getCloseTimeout());
@@ -335,9 +339,11 @@ public class ActiveMQConnectionFactory extends JNDIBaseStorable implements Conne
         connection.setAuditDepth(getAuditDepth());
         connection.setAuditMaximumProducerNumber(getAuditMaximumProducerNumber());
         connection.setUseDedicatedTaskRunner(isUseDedicatedTaskRunner());
+        connection.setUseVirtualThreads(isUseVirtualThreads());
         connection.setConsumerFailoverRedeliveryWaitPeriod(getConsumerFailoverRedeliveryWaitPeriod());
         connection.setCheckForDuplicates(isCheckForDuplicates());
         connection.setMessagePrioritySupported(isMessagePrioritySupported());
+        connection.setUseArrayDispatchChannel(isUseArrayDispatchChannel());
         connection.setTransactedIndividualAck(isTransactedIndividualAck());
         connection.setNonBlockingRedelivery(isNonBlockingRedelivery());
         connection.setMaxThreadPoolSize(getMaxThreadPoolSize());
@@ -656,6 +662,21 @@ public class ActiveMQConnectionFactory extends JNDIBaseStorable implements Conne
         this.messagePrioritySupported = messagePrioritySupported;
     }
 
+    public boolean isUseArrayDispatchChannel() {
+        return this.useArrayDispatchChannel;
+    }
+
+    /**
+     * Queues the dispatches for the sessions and consumers in arrays the
+     * transport thread adds to without locking, see
+     * {@link ArrayMessageDispatchChannel}, rather than in locked lists.
+     * Disabled by default. A consumer still queues its dispatches holding the
+     * consumer mutex, so the closed check and the enqueue stay atomic.
+     */
+    public void setUseArrayDispatchChannel(boolean useArrayDispatchChannel) {
+        this.useArrayDispatchChannel = useArrayDispatchChannel;
+    }
+
 
     /**
      * Sets the transformer used to transform messages before they are sent on
@@ -753,12 +774,14 @@ public class ActiveMQConnectionFactory extends JNDIBaseStorable implements Conne
         props.setProperty("statsEnabled", Boolean.toString(isStatsEnabled()));
         props.setProperty("alwaysSyncSend", Boolean.toString(isAlwaysSyncSend()));
         props.setProperty("producerWindowSize", Integer.toString(getProducerWindowSize()));
+        props.setProperty("pipelinedSendWindow", Integer.toString(getPipelinedSendWindow()));
         props.setProperty("sendTimeout", Integer.toString(getSendTimeout()));
         props.setProperty("sendAcksAsync",Boolean.toString(isSendAcksAsync()));
         props.setProperty("auditDepth", Integer.toString(getAuditDepth()));
         props.setProperty("auditMaximumProducerNumber", Integer.toString(getAuditMaximumProducerNumber()));
         props.setProperty("checkForDuplicates", Boolean.toString(isCheckForDuplicates()));
         props.setProperty("messagePrioritySupported", Boolean.toString(isMessagePrioritySupported()));
+        props.setProperty("useArrayDispatchChannel", Boolean.toString(isUseArrayDispatchChannel()));
         props.setProperty("transactedIndividualAck", Boolean.toString(isTransactedIndividualAck()));
         props.setProperty("nonBlockingRedelivery", Boolean.toString(isNonBlockingRedelivery()));
         props.setProperty("maxThreadPoolSize", Integer.toString(getMaxThreadPoolSize()));
@@ -961,6 +984,22 @@ public class ActiveMQConnectionFactory extends JNDIBaseStorable implements Conne
         this.producerWindowSize = producerWindowSize;
     }
 
+    public synchronized int getPipelinedSendWindow() {
+        return pipelinedSendWindow;
+    }
+
+    /**
+     * Sets the number of sends a producer has outstanding at once when it
+     * would otherwise wait for the broker to acknowledge each one, eg. for a
+     * persistent message outside a transaction. Zero, the default, disables
+     * the pipelining.
+     *
+     * @see ActiveMQMessageProducer#setPipelinedSendWindow(int)
+     */
+    public synchronized void setPipelinedSendWindow(int pipelinedSendWindow) {
+        this.pipelinedSendWindow = pipelinedSendWindow;
+    }
+
     public long getWarnAboutUnstartedConnectionTimeout() {
         return warnAboutUnstartedConnectionTimeout;
     }
@@ -1037,6 +1076,19 @@ public class ActiveMQConnectionFactory extends JNDIBaseStorable implements Conne
         return useDedicatedTaskRunner;
     }
 
+    public boolean isUseVirtualThreads() {
+        return useVirtualThreads;
+    }
+
+    /**
+     * Runs the session tasks and the transport reader of the connections on
+     * virtual threads when the JVM supports them (Java 21 and later), and on
+     * platform threads otherwise.
+     */
+    public void setUseVirtualThreads(boolean useVirtualThreads) {
+        this.useVirtualThreads = useVirtualThreads;
+    }
+
     public void setConsumerFailoverRedeliveryWaitPeriod(long consumerFailoverRedeliveryWaitPeriod) {
         this.consumerFailoverRedeliveryWaitPeriod = consumerFailoverRedeliveryWaitPeriod;
     }
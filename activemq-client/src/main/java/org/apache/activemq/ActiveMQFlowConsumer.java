@@ -0,0 +1,303 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq;
+
+import java.io.IOException;
+
+import javax.jms.IllegalStateException;
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.MessageListener;
+
+import org.apache.activemq.command.ActiveMQDestination;
+import org.apache.activemq.command.ConsumerControl;
+import org.apache.activemq.command.ConsumerId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A consumer that delivers its messages to a {@link MessageFlow.Subscriber}
+ * as the subscriber requests them.
+ *
+ * The demand of the subscriber is the prefetch of the consumer: it starts with
+ * a prefetch of zero and sends the broker a {@link ConsumerControl} with the
+ * new prefetch when the demand changes, up to the prefetch of the prefetch
+ * policy. Since messages are acknowledged once the subscriber has taken them,
+ * the broker dispatches no more messages than were requested and the
+ * messages of a queue stay available to the other consumers. Messages are
+ * delivered by the session like they are to a MessageListener, no thread waits
+ * for them, and the consumer is stopped while there is no demand.
+ *
+ * @see ActiveMQSession#createMessageFlow(javax.jms.Destination, String)
+ */
+public class ActiveMQFlowConsumer extends ActiveMQMessageConsumer implements MessageFlow.Publisher, MessageFlow.Subscription {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ActiveMQFlowConsumer.class);
+
+    private static final MessageFlow.Subscription CANCELLED = new MessageFlow.Subscription() {
+        @Override
+        public void request(long n) {
+        }
+
+        @Override
+        public void cancel() {
+        }
+    };
+
+    private final int maximumCredit;
+    private volatile MessageFlow.Subscriber subscriber;
+    private boolean cancelled;
+    private boolean terminated;
+    // start() is called by the super constructor, so these have no initializer
+    private boolean sessionStarted;
+    private long demand;
+    private int credit;
+
+    /**
+     * @param maximumCredit the largest prefetch the demand is mapped to
+     */
+    public ActiveMQFlowConsumer(ActiveMQSession session, ConsumerId consumerId, ActiveMQDestination dest, String selector,
+            int maximumCredit, int maximumPendingMessageCount, boolean dispatchAsync) throws JMSException {
+        super(session, consumerId, dest, null, selector, 0, maximumPendingMessageCount, false, false, dispatchAsync, null);
+        this.maximumCredit = Math.max(1, maximumCredit);
+        setDeliveryListener(new MessageListener() {
+            @Override
+            public void onMessage(Message message) {
+                deliver(message);
+            }
+        });
+    }
+
+    @Override
+    public void subscribe(MessageFlow.Subscriber subscriber) {
+        if (subscriber == null) {
+            throw new NullPointerException("subscriber");
+        }
+        String rejection = null;
+        synchronized (this) {
+            if (terminated || unconsumedMessages.isClosed()) {
+                rejection = "The Consumer is closed";
+            } else if (this.subscriber != null) {
+                rejection = "A message flow can only have one subscriber";
+            } else {
+                this.subscriber = subscriber;
+            }
+        }
+        if (rejection != null) {
+            subscriber.onSubscribe(CANCELLED);
+            subscriber.onError(new java.lang.IllegalStateException(rejection));
+        } else {
+            subscriber.onSubscribe(this);
+        }
+    }
+
+    @Override
+    public void request(long n) {
+        if (n <= 0) {
+            MessageFlow.Subscriber s = subscriber;
+            cancel();
+            if (s != null) {
+                s.onError(new IllegalArgumentException("The number of messages requested must be positive but was: " + n));
+            }
+            return;
+        }
+        JMSException error;
+        synchronized (this) {
+            if (cancelled || terminated) {
+                return;
+            }
+            demand = demand + n < 0 ? Long.MAX_VALUE : demand + n;
+            error = updateCredit();
+        }
+        if (error == null) {
+            error = resume();
+        }
+        if (error != null) {
+            fail(error);
+        }
+    }
+
+    @Override
+    public void cancel() {
+        synchronized (this) {
+            if (cancelled) {
+                return;
+            }
+            cancelled = true;
+        }
+        pause();
+        try {
+            close();
+        } catch (JMSException e) {
+            LOG.debug("Exception closing cancelled consumer: " + getConsumerId(), e);
+        }
+    }
+
+    /**
+     * @return the number of messages the subscriber requested and has not
+     *         been delivered yet
+     */
+    public synchronized long getDemand() {
+        return demand;
+    }
+
+    /**
+     * @return the prefetch last sent to the broker
+     */
+    public synchronized int getCredit() {
+        return credit;
+    }
+
+    private void deliver(Message message) {
+        MessageFlow.Subscriber s = subscriber;
+        synchronized (this) {
+            if (demand > 0 && demand != Long.MAX_VALUE) {
+                demand--;
+            }
+        }
+        JMSException error;
+        try {
+            s.onNext(message);
+        } finally {
+            // lower the prefetch before the message is acknowledged so the
+            // broker does not dispatch one more than requested
+            synchronized (this) {
+                error = updateCredit();
+            }
+            pause();
+        }
+        if (error != null) {
+            fail(error);
+        }
+    }
+
+    /**
+     * Sends the broker the prefetch for the current demand if it changed, it
+     * must be called holding the lock on this so the updates are sent in
+     * order.
+     */
+    private JMSException updateCredit() {
+        int target = (int) Math.min(demand, maximumCredit);
+        if (target == credit || cancelled || terminated) {
+            return null;
+        }
+        credit = target;
+        // a replayed ConsumerInfo, eg. after a failover, carries the credit
+        info.setPrefetchSize(target);
+        info.setCurrentPrefetchSize(target);
+        ConsumerControl control = new ConsumerControl();
+        control.setConsumerId(info.getConsumerId());
+        control.setDestination(info.getDestination());
+        control.setPrefetch(target);
+        try {
+            session.asyncSendPacket(control);
+        } catch (JMSException e) {
+            return e;
+        }
+        return null;
+    }
+
+    private synchronized boolean isDelivering() {
+        return sessionStarted && subscriber != null && !cancelled && !terminated && demand > 0;
+    }
+
+    private JMSException resume() {
+        synchronized (unconsumedMessages.getMutex()) {
+            if (isDelivering() && !unconsumedMessages.isRunning()) {
+                try {
+                    super.start();
+                } catch (JMSException e) {
+                    return e;
+                }
+            }
+        }
+        return null;
+    }
+
+    private void pause() {
+        synchronized (unconsumedMessages.getMutex()) {
+            if (!isDelivering()) {
+                super.stop();
+            }
+        }
+    }
+
+    private void fail(JMSException error) {
+        MessageFlow.Subscriber s = subscriber;
+        cancel();
+        if (s != null) {
+            s.onError(error);
+        }
+    }
+
+    @Override
+    public void start() throws JMSException {
+        synchronized (this) {
+            sessionStarted = true;
+        }
+        JMSException error = resume();
+        if (error != null) {
+            throw error;
+        }
+    }
+
+    @Override
+    public void stop() {
+        synchronized (unconsumedMessages.getMutex()) {
+            synchronized (this) {
+                sessionStarted = false;
+            }
+            super.stop();
+        }
+    }
+
+    @Override
+    public void dispose() throws JMSException {
+        super.dispose();
+        MessageFlow.Subscriber s;
+        synchronized (this) {
+            if (terminated) {
+                return;
+            }
+            terminated = true;
+            s = cancelled ? null : subscriber;
+        }
+        if (s != null) {
+            IOException error = getFailureError();
+            if (error != null) {
+                s.onError(error);
+            } else {
+                s.onComplete();
+            }
+        }
+    }
+
+    @Override
+    public void setMessageListener(MessageListener listener) throws JMSException {
+        throw new IllegalStateException("A message flow delivers its messages to its subscriber");
+    }
+
+    @Override
+    protected void checkMessageListener() throws JMSException {
+        throw new IllegalStateException("A message flow delivers its messages to its subscriber");
+    }
+
+    @Override
+    public String toString() {
+        return "ActiveMQFlowConsumer { value=" + info.getConsumerId() + ", demand=" + getDemand() + ", credit=" + getCredit() + " }";
+    }
+}
@@ -202,7 +202,13 @@ public class ActiveMQMessageConsumer implements MessageAvailableConsumer, StatsC
                 throw new JMSException("Cannot have a prefetch size less than zero");
             }
         }
-        if (session.connection.isMessagePrioritySupported()) {
+        if (session.connection.isUseArrayDispatchChannel()) {
+            if (session.connection.isMessagePrioritySupported()) {
+                this.unconsumedMessages = new PriorityArrayMessageDispatchChannel(prefetch);
+            } else {
+                this.unconsumedMessages = new ArrayMessageDispatchChannel(prefetch);
+            }
+        } else if (session.connection.isMessagePrioritySupported()) {
             this.unconsumedMessages = new SimplePriorityMessageDispatchChannel();
         }else {
             this.unconsumedMessages = new FifoMessageDispatchChannel();
@@ -442,6 +448,16 @@ public class ActiveMQMessageConsumer implements MessageAvailableConsumer, StatsC
         }
     }
 
+    /**
+     * Sets the listener messages are delivered to while the consumer is
+     * started. Unlike {@link #setMessageListener(MessageListener)} it allows a
+     * zero prefetch, for subclasses that grant the broker a prefetch
+     * themselves.
+     */
+    protected void setDeliveryListener(MessageListener listener) {
+        this.messageListener.set(listener);
+    }
+
     @Override
     public MessageAvailableListener getAvailableListener() {
         return availableListener;
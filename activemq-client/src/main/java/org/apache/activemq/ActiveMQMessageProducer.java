@@ -18,7 +18,11 @@ package org.apache.activemq;
 
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
 import javax.jms.Destination;
 import javax.jms.IllegalStateException;
@@ -82,6 +86,9 @@ public class ActiveMQMessageProducer extends ActiveMQMessageProducerSupport impl
     private final long startTime;
     private MessageTransformer transformer;
     private MemoryUsage producerWindow;
+    private int pipelinedSendWindow;
+    private Semaphore pipelinedSends;
+    private final AtomicReference<JMSException> pipelinedSendFailure = new AtomicReference<JMSException>();
 
     protected ActiveMQMessageProducer(ActiveMQSession session, ProducerId producerId, ActiveMQDestination destination, int sendTimeout) throws JMSException {
         super(session);
@@ -129,6 +136,7 @@ public class ActiveMQMessageProducer extends ActiveMQMessageProducerSupport impl
         }
         this.setSendTimeout(sendTimeout);
         setTransformer(session.getTransformer());
+        setPipelinedSendWindow(session.connection.getPipelinedSendWindow());
     }
 
     @Override
@@ -169,8 +177,12 @@ public class ActiveMQMessageProducer extends ActiveMQMessageProducerSupport impl
     @Override
     public void close() throws JMSException {
         if (!closed) {
-            dispose();
-            this.session.asyncSendPacket(info.createRemoveCommand());
+            try {
+                flushOnClose(session.connection.getCloseTimeout());
+            } finally {
+                dispose();
+                this.session.asyncSendPacket(info.createRemoveCommand());
+            }
         }
     }
 
@@ -252,6 +264,7 @@ public class ActiveMQMessageProducer extends ActiveMQMessageProducerSupport impl
 
     public void send(Destination destination, Message message, int deliveryMode, int priority, long timeToLive, AsyncCallback onComplete) throws JMSException {
         checkClosed();
+        checkPipelinedSendFailure();
         if (destination == null) {
             if (info.getDestination() == null) {
                 throw new UnsupportedOperationException("A destination must be specified.");
@@ -343,6 +356,162 @@ public class ActiveMQMessageProducer extends ActiveMQMessageProducerSupport impl
         return "ActiveMQMessageProducer { value=" + info.getProducerId() + " }";
     }
 
+    public int getPipelinedSendWindow() {
+        return pipelinedSendWindow;
+    }
+
+    /**
+     * Sets the number of sends the producer has outstanding at once when it
+     * would otherwise wait for the broker to acknowledge each one, eg. for a
+     * persistent message outside a transaction, or when a send has an
+     * {@link AsyncCallback}. Sends in a transaction are not pipelined. Zero
+     * disables the pipelining.
+     * <P>
+     * A pipelined send returns once the message is written and blocks only
+     * while the window is full. The failure of a send without a callback is
+     * thrown by the next send, {@link #flush()} or {@link #close()}, or by
+     * closing the session or connection, so a message is known to be stored
+     * once one of them returns. Closing waits no longer than the close timeout
+     * of the connection, and flush no longer than its send timeout. Set it before
+     * the producer sends.
+     */
+    public void setPipelinedSendWindow(int pipelinedSendWindow) {
+        this.pipelinedSendWindow = pipelinedSendWindow;
+        this.pipelinedSends = pipelinedSendWindow > 0 ? new Semaphore(pipelinedSendWindow) : null;
+    }
+
+    /**
+     * Waits for the broker to acknowledge the outstanding pipelined sends, for
+     * at most the send timeout of the connection when it has one.
+     *
+     * @throws JMSException the failure of a pipelined send without a callback,
+     *                 or when the sends are still outstanding after the send
+     *                 timeout
+     */
+    public void flush() throws JMSException {
+        int sendTimeout = session.connection.getSendTimeout();
+        int outstanding = awaitPipelinedSends(sendTimeout);
+        checkPipelinedSendFailure();
+        if (outstanding > 0) {
+            throw new JMSException("Flush timed out after " + sendTimeout + "ms with " + outstanding
+                + " pipelined sends not acknowledged by the broker");
+        }
+    }
+
+    /**
+     * Waits for the outstanding pipelined sends when the producer, its session
+     * or its connection closes. Sends the broker has not acknowledged within
+     * the timeout are logged rather than waited for, eg. while a failover
+     * transport is disconnected.
+     *
+     * @param timeout the milliseconds to wait, 0 waits until they are acknowledged
+     * @throws JMSException the failure of a pipelined send without a callback
+     */
+    void flushOnClose(long timeout) throws JMSException {
+        int outstanding = awaitPipelinedSends(timeout);
+        if (outstanding > 0) {
+            LOG.warn("Closing " + this + " with " + outstanding + " pipelined sends not acknowledged by the broker after "
+                + timeout + "ms, their outcome is unknown");
+        }
+        checkPipelinedSendFailure();
+    }
+
+    /**
+     * @param timeout the milliseconds to wait, 0 waits until they are acknowledged
+     * @return the number of pipelined sends still outstanding
+     */
+    private int awaitPipelinedSends(long timeout) throws JMSException {
+        Semaphore sends = this.pipelinedSends;
+        if (sends == null) {
+            return 0;
+        }
+        try {
+            if (timeout > 0) {
+                if (!sends.tryAcquire(pipelinedSendWindow, timeout, TimeUnit.MILLISECONDS)) {
+                    return Math.max(1, pipelinedSendWindow - sends.availablePermits());
+                }
+            } else {
+                sends.acquire(pipelinedSendWindow);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new JMSException("Flush aborted due to thread interrupt.");
+        }
+        sends.release(pipelinedSendWindow);
+        return 0;
+    }
+
+    private void checkPipelinedSendFailure() throws JMSException {
+        JMSException failure = pipelinedSendFailure.getAndSet(null);
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * Waits for room in the window for a pipelined send.
+     *
+     * @return the callback to send the message with, or null when the send is
+     *         not pipelined
+     */
+    PipelinedSend beginPipelinedSend(AsyncCallback onComplete) throws JMSException {
+        Semaphore sends = this.pipelinedSends;
+        if (sends == null) {
+            return null;
+        }
+        try {
+            sends.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new JMSException("Send aborted due to thread interrupt.");
+        }
+        return new PipelinedSend(sends, onComplete);
+    }
+
+    /**
+     * Frees the room of a pipelined send once the broker responds, or once it
+     * is aborted because it could not be written, whichever comes first.
+     */
+    final class PipelinedSend implements AsyncCallback {
+
+        private final Semaphore sends;
+        private final AsyncCallback onComplete;
+        private final AtomicBoolean done = new AtomicBoolean();
+
+        PipelinedSend(Semaphore sends, AsyncCallback onComplete) {
+            this.sends = sends;
+            this.onComplete = onComplete;
+        }
+
+        @Override
+        public void onSuccess() {
+            if (done.compareAndSet(false, true)) {
+                sends.release();
+            }
+            if (onComplete != null) {
+                onComplete.onSuccess();
+            }
+        }
+
+        @Override
+        public void onException(JMSException exception) {
+            if (onComplete != null) {
+                onComplete.onException(exception);
+            } else {
+                pipelinedSendFailure.compareAndSet(null, exception);
+            }
+            if (done.compareAndSet(false, true)) {
+                sends.release();
+            }
+        }
+
+        void abort() {
+            if (done.compareAndSet(false, true)) {
+                sends.release();
+            }
+        }
+    }
+
     public void onProducerAck(ProducerAck pa) {
         if (this.producerWindow != null) {
             this.producerWindow.decreaseUsage(pa.getSize());
@@ -638,6 +638,7 @@ public class ActiveMQSession implements Session, QueueSession, TopicSession, Sta
 
     private void doClose() throws JMSException {
         boolean interrupted = Thread.interrupted();
+        JMSException pipelinedSendFailure = closed ? null : flushProducers(connection.getCloseTimeout());
         dispose();
         RemoveInfo removeCommand = info.createRemoveCommand();
         removeCommand.setLastDeliveredSequenceId(lastDeliveredSequenceId);
@@ -645,6 +646,32 @@ public class ActiveMQSession implements Session, QueueSession, TopicSession, Sta
         if (interrupted) {
             Thread.currentThread().interrupt();
         }
+        if (pipelinedSendFailure != null) {
+            throw pipelinedSendFailure;
+        }
+    }
+
+    /**
+     * Waits for the outstanding pipelined sends of all the producers of this
+     * session when it closes, see {@link ActiveMQMessageProducer#flush()}.
+     *
+     * @param timeout the milliseconds to wait for all the producers, 0 waits
+     *                until their sends are acknowledged
+     * @return the first failure of a pipelined send without a callback, or null
+     */
+    JMSException flushProducers(long timeout) {
+        JMSException failure = null;
+        long deadline = System.currentTimeMillis() + timeout;
+        for (ActiveMQMessageProducer producer : producers) {
+            try {
+                producer.flushOnClose(timeout > 0 ? Math.max(1, deadline - System.currentTimeMillis()) : 0);
+            } catch (JMSException e) {
+                if (failure == null) {
+                    failure = e;
+                }
+            }
+        }
+        return failure;
     }
 
     void clearMessagesInProgress() {
@@ -1156,6 +1183,58 @@ public class ActiveMQSession implements Session, QueueSession, TopicSession, Sta
                 prefetch, prefetchPolicy.getMaximumPendingMessageLimit(), noLocal, false, isAsyncDispatch(), messageListener);
     }
 
+    /**
+     * Creates a consumer that delivers the messages of the destination to a
+     * {@link MessageFlow.Subscriber} as the subscriber requests them.
+     *
+     * @param destination the <CODE>Destination</CODE> to access
+     * @return the publisher, the one subscriber it accepts is given a
+     *         subscription that closes the consumer when it is cancelled
+     * @throws JMSException if the session fails to create the consumer due to
+     *                 some internal error.
+     * @see #createMessageFlow(Destination, String)
+     */
+    public MessageFlow.Publisher createMessageFlow(Destination destination) throws JMSException {
+        return createMessageFlow(destination, null);
+    }
+
+    /**
+     * Creates a consumer that delivers the messages of the destination to a
+     * {@link MessageFlow.Subscriber} as the subscriber requests them.
+     * <P>
+     * The broker dispatches no more messages than the subscriber requested,
+     * the outstanding demand is the prefetch of the consumer up to the
+     * prefetch of the prefetch policy. The messages are delivered by the
+     * session like they are to a <CODE>MessageListener</CODE> and are
+     * acknowledged according to the acknowledge mode of the session.
+     *
+     * @param destination the <CODE>Destination</CODE> to access
+     * @param messageSelector only messages with properties matching the message
+     *                selector expression are delivered. A value of null or an
+     *                empty string indicates that there is no message selector
+     *                for the message consumer.
+     * @return the publisher, the one subscriber it accepts is given a
+     *         subscription that closes the consumer when it is cancelled
+     * @throws JMSException if the session fails to create the consumer due to
+     *                 some internal error.
+     * @throws InvalidDestinationException if an invalid destination is
+     *                 specified.
+     * @throws InvalidSelectorException if the message selector is invalid.
+     */
+    public MessageFlow.Publisher createMessageFlow(Destination destination, String messageSelector) throws JMSException {
+        checkClosed();
+        ActiveMQPrefetchPolicy prefetchPolicy = connection.getPrefetchPolicy();
+        int prefetch = 0;
+        if (destination instanceof Topic) {
+            prefetch = prefetchPolicy.getTopicPrefetch();
+        } else {
+            prefetch = prefetchPolicy.getQueuePrefetch();
+        }
+        ActiveMQDestination activemqDestination = ActiveMQMessageTransformation.transformDestination(destination);
+        return new ActiveMQFlowConsumer(this, getNextConsumerId(), activemqDestination, messageSelector,
+                prefetch, prefetchPolicy.getMaximumPendingMessageLimit(), isAsyncDispatch());
+    }
+
     /**
      * Creates a queue identity given a <CODE>Queue</CODE> name.
      * <P>
@@ -1803,7 +1882,19 @@ public class ActiveMQSession implements Session, QueueSession, TopicSession, Sta
                     producerWindow.increaseUsage(size);
                 }
             } else {
-                if (sendTimeout > 0 && onComplete==null) {
+                ActiveMQMessageProducer.PipelinedSend pipelined = null;
+                // a transacted send fails before the commit, not with it
+                if (txid == null && (sendTimeout <= 0 || onComplete != null)) {
+                    pipelined = producer.beginPipelinedSend(onComplete);
+                }
+                if (pipelined != null) {
+                    try {
+                        this.connection.syncSendPacket(msg, pipelined);
+                    } catch (JMSException e) {
+                        pipelined.abort();
+                        throw e;
+                    }
+                } else if (sendTimeout > 0 && onComplete==null) {
                     this.connection.syncSendPacket(msg,sendTimeout);
                 }else {
                     this.connection.syncSendPacket(msg, onComplete);
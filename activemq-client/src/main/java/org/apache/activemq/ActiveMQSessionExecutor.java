@@ -17,6 +17,7 @@
 
 package org.apache.activemq;
 
+import java.util.ArrayList;
 import java.util.List;
 import javax.jms.JMSException;
 import org.apache.activemq.command.ConsumerId;
@@ -35,16 +36,28 @@ import org.slf4j.LoggerFactory;
  */
 public class ActiveMQSessionExecutor implements Task {
     private static final Logger LOG = LoggerFactory.getLogger(ActiveMQSessionExecutor.class);
+    // the dispatches taken off the queue at a time
+    private static final int DISPATCH_BATCH_SIZE = 16;
 
     private final ActiveMQSession session;
     private final MessageDispatchChannel messageQueue;
     private boolean dispatchedBySessionPool;
     private volatile TaskRunner taskRunner;
     private boolean startedOrWarnedThatNotStarted;
+    private volatile int clearCount;
 
     ActiveMQSessionExecutor(ActiveMQSession session) {
         this.session = session;
-        if (this.session.connection != null && this.session.connection.isMessagePrioritySupported()) {
+        ActiveMQConnection connection = this.session.connection;
+        if (connection != null && connection.isUseArrayDispatchChannel()) {
+            ActiveMQPrefetchPolicy prefetchPolicy = connection.getPrefetchPolicy();
+            int prefetch = Math.max(prefetchPolicy.getQueuePrefetch(), prefetchPolicy.getTopicPrefetch());
+            if (connection.isMessagePrioritySupported()) {
+                this.messageQueue = new PriorityArrayMessageDispatchChannel(prefetch);
+            } else {
+                this.messageQueue = new ArrayMessageDispatchChannel(prefetch);
+            }
+        } else if (connection != null && connection.isMessagePrioritySupported()) {
            this.messageQueue = new SimplePriorityMessageDispatchChannel();
         }else {
             this.messageQueue = new FifoMessageDispatchChannel();
@@ -169,6 +182,7 @@ public class ActiveMQSessionExecutor implements Task {
     }
 
     void clear() {
+        clearCount++;
         messageQueue.clear();
     }
 
@@ -177,6 +191,7 @@ public class ActiveMQSessionExecutor implements Task {
     }
 
     protected void clearMessagesInProgress() {
+        clearCount++;
         messageQueue.clear();
     }
 
@@ -195,6 +210,28 @@ public class ActiveMQSessionExecutor implements Task {
 
         // No messages left queued on the listeners.. so now dispatch messages
         // queued on the session
+        if (messageQueue instanceof ArrayMessageDispatchChannel) {
+            int cleared = clearCount;
+            List<MessageDispatch> batch = new ArrayList<MessageDispatch>(DISPATCH_BATCH_SIZE);
+            if (((ArrayMessageDispatchChannel) messageQueue).dequeueNoWait(batch, DISPATCH_BATCH_SIZE) == 0) {
+                return false;
+            }
+            for (int i = 0; i < batch.size(); i++) {
+                if (cleared != clearCount) {
+                    // the rest of the batch was cleared with the queue
+                    return false;
+                }
+                if (!messageQueue.isRunning()) {
+                    // stopped, put the rest back for when the session starts again
+                    for (int j = batch.size() - 1; j >= i; j--) {
+                        messageQueue.enqueueFirst(batch.get(j));
+                    }
+                    return false;
+                }
+                dispatch(batch.get(i));
+            }
+            return !messageQueue.isEmpty();
+        }
         MessageDispatch message = messageQueue.dequeueNoWait();
         if (message == null) {
             return false;
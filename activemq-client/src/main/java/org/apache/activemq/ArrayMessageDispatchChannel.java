@@ -0,0 +1,357 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+import org.apache.activemq.command.MessageDispatch;
+
+/**
+ * A FIFO {@link MessageDispatchChannel} that the transport thread enqueues to
+ * without taking the mutex or allocating a list node.
+ *
+ * Dispatches go into an array sized from the prefetch, see
+ * {@link MessageDispatchRing}. The consumer side takes the mutex, which the
+ * producers never do, and a consumer waiting for a dispatch is parked and
+ * unparked rather than waiting on the mutex.
+ */
+public class ArrayMessageDispatchChannel implements MessageDispatchChannel {
+
+    public static final int MIN_CAPACITY = 16;
+    public static final int MAX_CAPACITY = 4096;
+
+    private static final int SPINS = 16;
+
+    private final Object mutex = new Object();
+    private final AtomicReferenceArray<MessageDispatchRing> rings;
+    private final int capacity;
+    private final ConcurrentLinkedQueue<Thread> waiters = new ConcurrentLinkedQueue<Thread>();
+    private volatile boolean closed;
+    private volatile boolean running;
+
+    /**
+     * @param prefetch the prefetch of the consumers the channel holds
+     *                dispatches for, which sizes the array
+     */
+    public ArrayMessageDispatchChannel(int prefetch) {
+        this(prefetch, 1);
+    }
+
+    protected ArrayMessageDispatchChannel(int prefetch, int buckets) {
+        this.capacity = Math.min(Math.max(prefetch, MIN_CAPACITY), MAX_CAPACITY);
+        this.rings = new AtomicReferenceArray<MessageDispatchRing>(buckets);
+    }
+
+    /**
+     * @return the bucket of the dispatch, dispatches in higher buckets are
+     *         taken first
+     */
+    protected int getBucket(MessageDispatch message) {
+        return 0;
+    }
+
+    private MessageDispatchRing getRing(MessageDispatch message) {
+        int bucket = getBucket(message);
+        MessageDispatchRing ring = rings.get(bucket);
+        if (ring == null) {
+            rings.compareAndSet(bucket, null, new MessageDispatchRing(capacity));
+            ring = rings.get(bucket);
+        }
+        return ring;
+    }
+
+    @Override
+    public void enqueue(MessageDispatch message) {
+        getRing(message).offer(message);
+        wakeup();
+    }
+
+    @Override
+    public void enqueueFirst(MessageDispatch message) {
+        synchronized (mutex) {
+            getRing(message).offerFirst(message);
+        }
+        wakeup();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        for (int i = rings.length() - 1; i >= 0; i--) {
+            MessageDispatchRing ring = rings.get(i);
+            if (ring != null && !ring.isEmpty()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public MessageDispatch dequeue(long timeout) throws InterruptedException {
+        long deadline = timeout > 0 ? System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout) : 0;
+        while (true) {
+            boolean wasRunning;
+            synchronized (mutex) {
+                if (closed) {
+                    return null;
+                }
+                wasRunning = running;
+                if (running) {
+                    MessageDispatch md = poll();
+                    if (md != null || timeout == 0) {
+                        return md;
+                    }
+                } else if (timeout == 0) {
+                    return null;
+                }
+            }
+            if (wasRunning && awaitDispatch()) {
+                continue;
+            }
+            // Wait until the consumer is ready to deliver messages.
+            Thread thread = Thread.currentThread();
+            waiters.add(thread);
+            try {
+                if (!closed && (wasRunning ? running && isEmpty() : !running)) {
+                    if (timeout == -1) {
+                        LockSupport.park(this);
+                    } else {
+                        long remaining = deadline - System.nanoTime();
+                        if (remaining > 0) {
+                            LockSupport.parkNanos(this, remaining);
+                        }
+                    }
+                }
+            } finally {
+                waiters.remove(thread);
+            }
+            if (Thread.interrupted()) {
+                passWakeup();
+                throw new InterruptedException();
+            }
+            if (timeout > 0) {
+                // an unpark may be a stale permit, only the deadline, a close
+                // or a stop ends a timed wait without a dispatch
+                MessageDispatch md = dequeueNoWait();
+                if (md != null) {
+                    return md;
+                }
+                if (closed || (wasRunning && !running) || deadline - System.nanoTime() <= 0) {
+                    passWakeup();
+                    return null;
+                }
+            }
+        }
+    }
+
+    @Override
+    public MessageDispatch dequeueNoWait() {
+        synchronized (mutex) {
+            if (closed || !running) {
+                return null;
+            }
+            return poll();
+        }
+    }
+
+    /**
+     * Moves up to max of the enqueued dispatches to the list with one
+     * acquisition of the mutex.
+     *
+     * @return the number of dispatches moved
+     */
+    public int dequeueNoWait(List<MessageDispatch> list, int max) {
+        synchronized (mutex) {
+            if (closed || !running) {
+                return 0;
+            }
+            int count = 0;
+            for (int i = rings.length() - 1; i >= 0 && count < max; i--) {
+                MessageDispatchRing ring = rings.get(i);
+                if (ring != null) {
+                    count += ring.drainTo(list, max - count);
+                }
+            }
+            return count;
+        }
+    }
+
+    @Override
+    public MessageDispatch peek() {
+        synchronized (mutex) {
+            if (closed || !running) {
+                return null;
+            }
+            for (int i = rings.length() - 1; i >= 0; i--) {
+                MessageDispatchRing ring = rings.get(i);
+                if (ring != null) {
+                    MessageDispatch md = ring.peek();
+                    if (md != null) {
+                        return md;
+                    }
+                }
+            }
+            return null;
+        }
+    }
+
+    private MessageDispatch poll() {
+        for (int i = rings.length() - 1; i >= 0; i--) {
+            MessageDispatchRing ring = rings.get(i);
+            if (ring != null) {
+                MessageDispatch md = ring.poll();
+                if (md != null) {
+                    return md;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Gives the producers a few chances to enqueue before the consumer parks.
+     *
+     * @return true if there is a dispatch to take
+     */
+    private boolean awaitDispatch() {
+        for (int i = 0; i < SPINS; i++) {
+            if (!isEmpty()) {
+                return true;
+            }
+            Thread.yield();
+        }
+        return false;
+    }
+
+    /**
+     * Unparks one waiting consumer, it takes the dispatch or wakes the next
+     * one when it gives up.
+     */
+    private void wakeup() {
+        if (!waiters.isEmpty()) {
+            Thread waiter = waiters.poll();
+            if (waiter != null) {
+                LockSupport.unpark(waiter);
+            }
+        }
+    }
+
+    /**
+     * Hands a wakeup this consumer may have taken on to the next one.
+     */
+    private void passWakeup() {
+        if (running && !isEmpty()) {
+            wakeup();
+        }
+    }
+
+    /**
+     * Unparks the waiting consumers so they check the state again.
+     */
+    private void wakeupAll() {
+        Thread waiter;
+        while ((waiter = waiters.poll()) != null) {
+            LockSupport.unpark(waiter);
+        }
+    }
+
+    @Override
+    public void start() {
+        synchronized (mutex) {
+            running = true;
+        }
+        wakeupAll();
+    }
+
+    @Override
+    public void stop() {
+        synchronized (mutex) {
+            running = false;
+        }
+        wakeupAll();
+    }
+
+    @Override
+    public void close() {
+        synchronized (mutex) {
+            if (!closed) {
+                running = false;
+                closed = true;
+            }
+        }
+        wakeupAll();
+    }
+
+    @Override
+    public void clear() {
+        removeAll();
+    }
+
+    @Override
+    public boolean isClosed() {
+        return closed;
+    }
+
+    @Override
+    public int size() {
+        int size = 0;
+        for (int i = rings.length() - 1; i >= 0; i--) {
+            MessageDispatchRing ring = rings.get(i);
+            if (ring != null) {
+                size += ring.size();
+            }
+        }
+        return size;
+    }
+
+    @Override
+    public Object getMutex() {
+        return mutex;
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    @Override
+    public List<MessageDispatch> removeAll() {
+        ArrayList<MessageDispatch> rc = new ArrayList<MessageDispatch>();
+        synchronized (mutex) {
+            for (int i = rings.length() - 1; i >= 0; i--) {
+                MessageDispatchRing ring = rings.get(i);
+                if (ring != null) {
+                    ring.drainTo(rc, Integer.MAX_VALUE);
+                }
+            }
+        }
+        // let the waiting consumers check the state again
+        wakeupAll();
+        return rc;
+    }
+
+    @Override
+    public String toString() {
+        synchronized (mutex) {
+            return "ArrayMessageDispatchChannel[size=" + size() + ", running=" + running + ", closed=" + closed + "]";
+        }
+    }
+}
@@ -0,0 +1,180 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq;
+
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.apache.activemq.command.MessageDispatch;
+
+/**
+ * A multi producer, single consumer queue of dispatches over a fixed array.
+ *
+ * Producers claim a slot with one compare and set, so they neither lock nor
+ * allocate. When the array is full they append to an overflow list under a
+ * lock instead, and keep doing so until the consumer has emptied it, which
+ * keeps the order of each producer. Dispatches put back with offerFirst are
+ * kept apart and taken before the others.
+ *
+ * Only offer may be called concurrently, the other methods must be called by
+ * one thread at a time.
+ */
+final class MessageDispatchRing {
+
+    private final AtomicReferenceArray<MessageDispatch> slots;
+    private final int mask;
+    private final AtomicLong producerIndex = new AtomicLong();
+    private volatile long consumerIndex;
+
+    private final Object overflowLock = new Object();
+    private final ArrayDeque<MessageDispatch> overflow = new ArrayDeque<MessageDispatch>();
+    private volatile boolean overflowing;
+
+    private final ArrayDeque<MessageDispatch> first = new ArrayDeque<MessageDispatch>();
+    private volatile int firstSize;
+
+    /**
+     * @param capacity rounded up to a power of two
+     */
+    MessageDispatchRing(int capacity) {
+        int size = Integer.highestOneBit(Math.max(capacity, 2) - 1) << 1;
+        slots = new AtomicReferenceArray<MessageDispatch>(size);
+        mask = size - 1;
+    }
+
+    void offer(MessageDispatch md) {
+        if (!overflowing && offerSlot(md)) {
+            return;
+        }
+        synchronized (overflowLock) {
+            if (!overflowing && offerSlot(md)) {
+                return;
+            }
+            overflowing = true;
+            overflow.addLast(md);
+        }
+    }
+
+    private boolean offerSlot(MessageDispatch md) {
+        long index;
+        do {
+            index = producerIndex.get();
+            if (index - consumerIndex > mask) {
+                return false;
+            }
+        } while (!producerIndex.compareAndSet(index, index + 1));
+        slots.lazySet((int) index & mask, md);
+        return true;
+    }
+
+    void offerFirst(MessageDispatch md) {
+        first.addFirst(md);
+        firstSize = first.size();
+    }
+
+    MessageDispatch poll() {
+        if (firstSize > 0) {
+            MessageDispatch md = first.pollFirst();
+            firstSize = first.size();
+            return md;
+        }
+        MessageDispatch md = pollSlot(true);
+        if (md == null && overflowing) {
+            synchronized (overflowLock) {
+                // slots claimed before the overflow started come first
+                md = pollSlot(true);
+                if (md == null) {
+                    md = overflow.pollFirst();
+                    overflowing = !overflow.isEmpty();
+                }
+            }
+        }
+        return md;
+    }
+
+    MessageDispatch peek() {
+        if (firstSize > 0) {
+            return first.peekFirst();
+        }
+        MessageDispatch md = pollSlot(false);
+        if (md == null && overflowing) {
+            synchronized (overflowLock) {
+                md = pollSlot(false);
+                if (md == null) {
+                    md = overflow.peekFirst();
+                }
+            }
+        }
+        return md;
+    }
+
+    private MessageDispatch pollSlot(boolean remove) {
+        long index = consumerIndex;
+        int slot = (int) index & mask;
+        MessageDispatch md = slots.get(slot);
+        if (md == null) {
+            if (index == producerIndex.get()) {
+                return null;
+            }
+            // a producer claimed the slot and is about to fill it
+            while ((md = slots.get(slot)) == null) {
+                Thread.yield();
+            }
+        }
+        if (remove) {
+            slots.lazySet(slot, null);
+            consumerIndex = index + 1;
+        }
+        return md;
+    }
+
+    boolean isEmpty() {
+        return firstSize == 0 && producerIndex.get() == consumerIndex && !overflowing;
+    }
+
+    int size() {
+        int size = firstSize + (int) (producerIndex.get() - consumerIndex);
+        if (overflowing) {
+            synchronized (overflowLock) {
+                size += overflow.size();
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Moves up to max dispatches to the list, in the order poll takes them.
+     *
+     * @return the number of dispatches moved
+     */
+    int drainTo(List<MessageDispatch> list, int max) {
+        int count = 0;
+        MessageDispatch md;
+        while (count < max && (md = poll()) != null) {
+            list.add(md);
+            count++;
+        }
+        return count;
+    }
+
+    @Override
+    public String toString() {
+        return "MessageDispatchRing[size=" + size() + "]";
+    }
+}
@@ -0,0 +1,85 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq;
+
+import javax.jms.Message;
+
+/**
+ * Interfaces to consume messages as a stream with back pressure. They have the
+ * shape of the java.util.concurrent.Flow interfaces of Java 9, which ActiveMQ
+ * can not use yet, so a subscriber is easily adapted to them.
+ *
+ * A subscriber gets no more messages than it has requested, and the broker
+ * dispatches no more than that to it, see
+ * {@link ActiveMQSession#createMessageFlow(javax.jms.Destination)}.
+ */
+public final class MessageFlow {
+
+    private MessageFlow() {
+    }
+
+    public interface Publisher {
+
+        /**
+         * Delivers messages to the subscriber as it requests them. A publisher
+         * has only one subscriber, others get an error.
+         */
+        void subscribe(Subscriber subscriber);
+    }
+
+    public interface Subscriber {
+
+        /**
+         * Called before any other method, no message is delivered until the
+         * subscriber requests some from the subscription.
+         */
+        void onSubscribe(Subscription subscription);
+
+        /**
+         * Called for each requested message, one at a time. A message whose
+         * delivery throws a RuntimeException is redelivered like it is to a
+         * MessageListener.
+         */
+        void onNext(Message message);
+
+        /**
+         * Called when the subscription can deliver no more messages because of
+         * an error.
+         */
+        void onError(Throwable error);
+
+        /**
+         * Called when the subscription can deliver no more messages because the
+         * consumer was closed.
+         */
+        void onComplete();
+    }
+
+    public interface Subscription {
+
+        /**
+         * Adds n messages to the demand of the subscriber, Long.MAX_VALUE asks
+         * for all of them.
+         */
+        void request(long n);
+
+        /**
+         * Stops the delivery of messages and closes the consumer.
+         */
+        void cancel();
+    }
+}
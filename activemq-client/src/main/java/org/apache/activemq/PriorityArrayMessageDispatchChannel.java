@@ -0,0 +1,44 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq;
+
+import org.apache.activemq.command.MessageDispatch;
+
+/**
+ * The priority ordered counterpart of {@link ArrayMessageDispatchChannel},
+ * with an array for each JMS priority that is created with its first
+ * dispatch. Dispatches of a higher priority are taken first, dispatches of
+ * the same priority in the order they were enqueued.
+ */
+public class PriorityArrayMessageDispatchChannel extends ArrayMessageDispatchChannel {
+
+    private static final int MAX_PRIORITY = 10;
+
+    public PriorityArrayMessageDispatchChannel(int prefetch) {
+        super(prefetch, MAX_PRIORITY);
+    }
+
+    @Override
+    protected int getBucket(MessageDispatch message) {
+        int priority = javax.jms.Message.DEFAULT_PRIORITY;
+        if (message.getMessage() != null) {
+            priority = Math.max(message.getMessage().getPriority(), 0);
+            priority = Math.min(priority, 9);
+        }
+        return priority;
+    }
+}
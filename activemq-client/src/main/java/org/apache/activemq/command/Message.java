@@ -90,6 +90,8 @@ public abstract class Message extends BaseCommand implements MarshallAware, Mess
 
     private transient short referenceCount;
     private transient ActiveMQConnection connection;
+    private transient boolean marshalledFormShared;
+    private transient volatile Object sharedMarshalledForm;
     transient MessageDestination regionDestination;
     transient MemoryUsage memoryUsage;
 
@@ -191,16 +193,19 @@ public abstract class Message extends BaseCommand implements MarshallAware, Mess
     public void clearProperties() {
         marshalledProperties = null;
         properties = null;
+        sharedMarshalledForm = null;
     }
 
     public void setProperty(String name, Object value) throws IOException {
         lazyCreateProperties();
         properties.put(name, value);
+        sharedMarshalledForm = null;
     }
 
     public void removeProperty(String name) throws IOException {
         lazyCreateProperties();
         properties.remove(name);
+        sharedMarshalledForm = null;
     }
 
     protected void lazyCreateProperties() throws IOException {
@@ -437,6 +442,7 @@ public abstract class Message extends BaseCommand implements MarshallAware, Mess
 
     public void setContent(ByteSequence content) {
         this.content = content;
+        this.sharedMarshalledForm = null;
     }
 
     /**
@@ -448,6 +454,7 @@ public abstract class Message extends BaseCommand implements MarshallAware, Mess
 
     public void setMarshalledProperties(ByteSequence marshalledProperties) {
         this.marshalledProperties = marshalledProperties;
+        this.sharedMarshalledForm = null;
     }
 
     /**
@@ -781,6 +788,32 @@ public abstract class Message extends BaseCommand implements MarshallAware, Mess
         return false;
     }
 
+    public boolean isMarshalledFormShared() {
+        return marshalledFormShared;
+    }
+
+    /**
+     * @param marshalledFormShared when true a wire format may marshal this
+     *                message once and write the same bytes in every command
+     *                that carries it. Apart from its properties, content and
+     *                redelivery counter the message must not change after that,
+     *                receivers see the brokerOutTime it had when first marshalled.
+     */
+    public void setMarshalledFormShared(boolean marshalledFormShared) {
+        this.marshalledFormShared = marshalledFormShared;
+    }
+
+    /**
+     * @return the marshalled forms kept by the wire formats that shared it
+     */
+    public Object getSharedMarshalledForm() {
+        return sharedMarshalledForm;
+    }
+
+    public void setSharedMarshalledForm(Object sharedMarshalledForm) {
+        this.sharedMarshalledForm = sharedMarshalledForm;
+    }
+
     public void compress() throws IOException {
         if (!isCompressed()) {
             storeContent();
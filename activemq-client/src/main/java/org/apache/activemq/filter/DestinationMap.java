@@ -22,6 +22,7 @@ import java.util.List;
 import java.util.Set;
 import java.util.SortedSet;
 import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.activemq.command.ActiveMQDestination;
 
@@ -35,6 +36,9 @@ import org.apache.activemq.command.ActiveMQDestination;
  * pretty fast. <br>
  * Looking up of a value could return a single value or a List of matching
  * values if a wildcard or composite destination is used.
+ * <br>
+ * Changes to the map are serialized while lookups take no lock, and the
+ * matches of each looked up destination are cached until the next change.
  *
  *
  */
@@ -42,10 +46,15 @@ public class DestinationMap {
     protected static final String ANY_DESCENDENT = DestinationFilter.ANY_DESCENDENT;
     protected static final String ANY_CHILD = DestinationFilter.ANY_CHILD;
 
-    private DestinationMapNode queueRootNode = new DestinationMapNode(null);
-    private DestinationMapNode tempQueueRootNode = new DestinationMapNode(null);
-    private DestinationMapNode topicRootNode = new DestinationMapNode(null);
-    private DestinationMapNode tempTopicRootNode = new DestinationMapNode(null);
+    private volatile DestinationMapNode queueRootNode = new DestinationMapNode(null);
+    private volatile DestinationMapNode tempQueueRootNode = new DestinationMapNode(null);
+    private volatile DestinationMapNode topicRootNode = new DestinationMapNode(null);
+    private volatile DestinationMapNode tempTopicRootNode = new DestinationMapNode(null);
+
+    private final ConcurrentHashMap<ActiveMQDestination, CachedMatches> matchCache = new ConcurrentHashMap<ActiveMQDestination, CachedMatches>();
+    // incremented by every change, cached matches of an older version are stale
+    private volatile long version;
+    private int maxMatchCacheSize = 10000;
 
     /**
      * Looks up the value(s) matching the given Destination key. For simple
@@ -58,7 +67,7 @@ public class DestinationMap {
      *         matching values.
      */
     @SuppressWarnings({ "rawtypes", "unchecked" })
-    public synchronized Set get(ActiveMQDestination key) {
+    public Set get(ActiveMQDestination key) {
         if (key.isComposite()) {
             ActiveMQDestination[] destinations = key.getCompositeDestinations();
             Set answer = new HashSet(destinations.length);
@@ -87,6 +96,7 @@ public class DestinationMap {
         }
         String[] paths = key.getDestinationPaths();
         getRootNode(key).add(paths, 0, value);
+        changed();
     }
 
     /**
@@ -103,7 +113,7 @@ public class DestinationMap {
         }
         String[] paths = key.getDestinationPaths();
         getRootNode(key).remove(paths, 0, value);
-
+        changed();
     }
 
     public int getTopicRootChildCount() {
@@ -163,18 +173,39 @@ public class DestinationMap {
 
     @SuppressWarnings({ "rawtypes", "unchecked" })
     protected Set findWildcardMatches(ActiveMQDestination key) {
+        long current = version;
+        CachedMatches cached = matchCache.get(key);
+        if (cached != null && cached.version == current) {
+            // callers are free to modify the returned set
+            return new HashSet(cached.values);
+        }
         String[] paths = key.getDestinationPaths();
         Set answer = new HashSet();
         getRootNode(key).appendMatchingValues(answer, paths, 0);
+        if (maxMatchCacheSize > 0) {
+            if (matchCache.size() >= maxMatchCacheSize) {
+                matchCache.clear();
+            }
+            // a change made while matching bumped the version, so this entry is never used
+            matchCache.put(key, new CachedMatches(current, new HashSet(answer)));
+        }
         return answer;
     }
 
+    /**
+     * Invalidates the cached matches, called with the map locked after each change.
+     */
+    protected void changed() {
+        version++;
+        matchCache.clear();
+    }
+
     /**
      * @param key
      * @return
      */
     @SuppressWarnings({ "rawtypes", "unchecked" })
-    public Set removeAll(ActiveMQDestination key) {
+    public synchronized Set removeAll(ActiveMQDestination key) {
         Set rc = new HashSet();
         if (key.isComposite()) {
             ActiveMQDestination[] destinations = key.getCompositeDestinations();
@@ -185,6 +216,7 @@ public class DestinationMap {
         }
         String[] paths = key.getDestinationPaths();
         getRootNode(key).removeAll(rc, paths, 0);
+        changed();
         return rc;
     }
 
@@ -225,11 +257,25 @@ public class DestinationMap {
         }
     }
 
-    public void reset() {
+    public synchronized void reset() {
         queueRootNode = new DestinationMapNode(null);
         tempQueueRootNode = new DestinationMapNode(null);
         topicRootNode = new DestinationMapNode(null);
         tempTopicRootNode = new DestinationMapNode(null);
+        changed();
+    }
+
+    public int getMaxMatchCacheSize() {
+        return maxMatchCacheSize;
+    }
+
+    /**
+     * Sets how many looked up destinations have their matches cached, 0
+     * disables the cache. The cache is emptied when it is full.
+     */
+    public void setMaxMatchCacheSize(int maxMatchCacheSize) {
+        this.maxMatchCacheSize = maxMatchCacheSize;
+        matchCache.clear();
     }
 
     public boolean isEmpty(){
@@ -254,4 +300,15 @@ public class DestinationMap {
         return existing;
     }
 
+    private static final class CachedMatches {
+        final long version;
+        @SuppressWarnings("rawtypes")
+        final Set values;
+
+        @SuppressWarnings("rawtypes")
+        CachedMatches(long version, Set values) {
+            this.version = version;
+            this.values = values;
+        }
+    }
 }
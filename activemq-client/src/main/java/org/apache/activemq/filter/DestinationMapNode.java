@@ -18,11 +18,12 @@ package org.apache.activemq.filter;
 
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
  * An implementation class used to implement {@link DestinationMap}
@@ -33,10 +34,10 @@ public class DestinationMapNode implements DestinationNode {
     protected static final String ANY_CHILD = DestinationMap.ANY_CHILD;
     protected static final String ANY_DESCENDENT = DestinationMap.ANY_DESCENDENT;
 
-    // we synchronize at the DestinationMap level
+    // changes are serialized by the DestinationMap, lookups are not locked
     private DestinationMapNode parent;
-    private List<Object> values = new ArrayList<Object>();
-    private Map<String, DestinationNode> childNodes = new HashMap<String, DestinationNode>();
+    private List<Object> values = new CopyOnWriteArrayList<Object>();
+    private Map<String, DestinationNode> childNodes = new ConcurrentHashMap<String, DestinationNode>();
     private String path = "Root";
     // private DestinationMapNode anyChild;
     private int pathLength;
@@ -138,7 +139,10 @@ public class DestinationMapNode implements DestinationNode {
             values.remove(value);
             pruneIfEmpty();
         } else {
-            getChildOrCreate(paths[idx]).remove(paths, ++idx, value);
+            DestinationMapNode child = (DestinationMapNode)childNodes.get(paths[idx]);
+            if (child != null) {
+                child.remove(paths, ++idx, value);
+            }
         }
     }
 
@@ -0,0 +1,548 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.filter;
+
+import java.util.Collections;
+import java.util.Map;
+
+import javax.jms.InvalidSelectorException;
+import javax.jms.JMSException;
+
+import org.apache.activemq.selector.SelectorParser;
+import org.apache.activemq.util.LRUCache;
+
+/**
+ * Compiles the expression tree of a selector into a tree of specialized
+ * nodes that evaluate to a primitive three valued result.
+ *
+ * The logic operators of the compiled tree pass TRUE, FALSE or UNKNOWN as an
+ * int instead of casting boxed Booleans, comparisons against a constant
+ * keep the constant unboxed and compare Integer, Long and Double property
+ * values without going through the generic type conversion, and negated
+ * numeric literals are folded. Everything else, and any value the fast paths
+ * do not cover, is evaluated by the original expression so the results are
+ * exactly those of the interpreter.
+ */
+public final class SelectorCompiler {
+
+    static final int FALSE = 0;
+    static final int TRUE = 1;
+    static final int UNKNOWN = 2;
+
+    private static final int EQUAL = 0;
+    private static final int GREATER_THAN = 1;
+    private static final int GREATER_THAN_EQUAL = 2;
+    private static final int LESS_THAN = 3;
+    private static final int LESS_THAN_EQUAL = 4;
+
+    private static final int OTHER = 0;
+    private static final int INTEGRAL = 1;
+    private static final int DOUBLE = 2;
+
+    private static final Map<String, BooleanExpression> CACHE = Collections.synchronizedMap(new LRUCache<String, BooleanExpression>(100));
+
+    private SelectorCompiler() {
+    }
+
+    /**
+     * Parses and compiles the selector, caching the compiled form by selector string.
+     */
+    public static BooleanExpression compile(String selector) throws InvalidSelectorException {
+        BooleanExpression rc = CACHE.get(selector);
+        if (rc == null) {
+            rc = compile(SelectorParser.parse(selector));
+            CACHE.put(selector, rc);
+        }
+        return rc;
+    }
+
+    /**
+     * @return the compiled form of the expression, or the expression itself
+     * when there is nothing to compile
+     */
+    public static BooleanExpression compile(BooleanExpression expression) {
+        if (expression == null || expression instanceof CompiledExpression) {
+            return expression;
+        }
+        Predicate predicate = compilePredicate(expression);
+        if (predicate instanceof GenericPredicate) {
+            return expression;
+        }
+        return new CompiledExpression(expression, predicate);
+    }
+
+    public static void clearCache() {
+        CACHE.clear();
+    }
+
+    private static Predicate compilePredicate(BooleanExpression expression) {
+        if (expression instanceof CompiledExpression) {
+            return ((CompiledExpression) expression).predicate;
+        }
+        if (expression instanceof LogicExpression) {
+            LogicExpression logic = (LogicExpression) expression;
+            Predicate left = compilePredicate((BooleanExpression) logic.getLeft());
+            Predicate right = compilePredicate((BooleanExpression) logic.getRight());
+            if ("AND".equals(logic.getExpressionSymbol())) {
+                return new And(left, right);
+            } else if ("OR".equals(logic.getExpressionSymbol())) {
+                return new Or(left, right);
+            }
+        } else if (expression instanceof ComparisonExpression) {
+            Predicate rc = compileComparison((ComparisonExpression) expression);
+            if (rc != null) {
+                return rc;
+            }
+        } else if (expression instanceof UnaryExpression.BooleanUnaryExpression) {
+            UnaryExpression unary = (UnaryExpression) expression;
+            if ("NOT".equals(unary.getExpressionSymbol())) {
+                return new Not(compilePredicate((BooleanExpression) unary.getRight()));
+            } else if ("".equals(unary.getExpressionSymbol())) {
+                return new BooleanCast(compileValue(unary.getRight()));
+            }
+        }
+        return new GenericPredicate(expression);
+    }
+
+    private static Predicate compileComparison(ComparisonExpression comparison) {
+        int op = operator(comparison.getExpressionSymbol());
+        if (op < 0) {
+            return null;
+        }
+        Value left = compileValue(comparison.getLeft());
+        Value right = compileValue(comparison.getRight());
+        boolean swapped = left instanceof Constant && !(right instanceof Constant);
+        if (swapped || right instanceof Constant && !(left instanceof Constant)) {
+            Value value = swapped ? right : left;
+            Object constant = ((Constant) (swapped ? left : right)).value;
+            if (op == EQUAL && constant == null) {
+                return new IsNull(value);
+            }
+            if (op == EQUAL && constant instanceof String) {
+                return new StringEquals(comparison, value, (String) constant, swapped);
+            }
+            if (kind(constant) != OTHER) {
+                return new NumericConstantComparison(comparison, value, (Number) constant, swapped ? mirror(op) : op, swapped);
+            }
+        }
+        return new Comparison(comparison, left, right, op);
+    }
+
+    private static Value compileValue(Expression expression) {
+        if (expression instanceof ConstantExpression) {
+            return new Constant(((ConstantExpression) expression).getValue());
+        }
+        if (expression instanceof UnaryExpression && !(expression instanceof BooleanExpression)
+                && "-".equals(((UnaryExpression) expression).getExpressionSymbol())
+                && ((UnaryExpression) expression).getRight() instanceof ConstantExpression) {
+            try {
+                // a negative literal, its value does not depend on the message
+                return new Constant(expression.evaluate(null));
+            } catch (JMSException e) {
+                return new GenericValue(expression);
+            } catch (RuntimeException e) {
+                return new GenericValue(expression);
+            }
+        }
+        return new GenericValue(expression);
+    }
+
+    private static int operator(String symbol) {
+        if ("=".equals(symbol)) {
+            return EQUAL;
+        } else if (">".equals(symbol)) {
+            return GREATER_THAN;
+        } else if (">=".equals(symbol)) {
+            return GREATER_THAN_EQUAL;
+        } else if ("<".equals(symbol)) {
+            return LESS_THAN;
+        } else if ("<=".equals(symbol)) {
+            return LESS_THAN_EQUAL;
+        }
+        return -1;
+    }
+
+    private static int mirror(int op) {
+        switch (op) {
+        case GREATER_THAN:
+            return LESS_THAN;
+        case GREATER_THAN_EQUAL:
+            return LESS_THAN_EQUAL;
+        case LESS_THAN:
+            return GREATER_THAN;
+        case LESS_THAN_EQUAL:
+            return GREATER_THAN_EQUAL;
+        default:
+            return op;
+        }
+    }
+
+    private static int test(int op, int comparison) {
+        switch (op) {
+        case EQUAL:
+            return comparison == 0 ? TRUE : FALSE;
+        case GREATER_THAN:
+            return comparison > 0 ? TRUE : FALSE;
+        case GREATER_THAN_EQUAL:
+            return comparison >= 0 ? TRUE : FALSE;
+        case LESS_THAN:
+            return comparison < 0 ? TRUE : FALSE;
+        default:
+            return comparison <= 0 ? TRUE : FALSE;
+        }
+    }
+
+    /**
+     * Only Integer, Long and Double are compared directly, the conversions
+     * {@link ComparisonExpression#compare(Comparable, Comparable)} applies
+     * between them do not depend on the operand order and never lose
+     * precision beyond the double conversion it does itself.
+     */
+    private static int kind(Object value) {
+        if (value == null) {
+            return OTHER;
+        }
+        Class<?> clazz = value.getClass();
+        if (clazz == Integer.class || clazz == Long.class) {
+            return INTEGRAL;
+        }
+        if (clazz == Double.class) {
+            return DOUBLE;
+        }
+        return OTHER;
+    }
+
+    private static int compareNumbers(Number left, int leftKind, Number right, int rightKind) {
+        if (leftKind == INTEGRAL && rightKind == INTEGRAL) {
+            long l = left.longValue();
+            long r = right.longValue();
+            return l < r ? -1 : (l == r ? 0 : 1);
+        }
+        return Double.compare(left.doubleValue(), right.doubleValue());
+    }
+
+    private static int toResult(Object value) {
+        if (value == null) {
+            return UNKNOWN;
+        }
+        return ((Boolean) value).booleanValue() ? TRUE : FALSE;
+    }
+
+    private static Boolean toBoolean(int result) {
+        if (result == TRUE) {
+            return Boolean.TRUE;
+        } else if (result == FALSE) {
+            return Boolean.FALSE;
+        }
+        return null;
+    }
+
+    // the '=' of the interpreter for values the fast paths do not handle
+    @SuppressWarnings("rawtypes")
+    private static int equal(ComparisonExpression comparison, Object lv, Object rv) {
+        if (lv == null ^ rv == null) {
+            return FALSE;
+        }
+        if (lv == rv || lv.equals(rv)) {
+            return TRUE;
+        }
+        if (lv instanceof Comparable && rv instanceof Comparable) {
+            return toResult(comparison.compare((Comparable) lv, (Comparable) rv));
+        }
+        return FALSE;
+    }
+
+    static final class CompiledExpression implements BooleanExpression {
+        private final BooleanExpression source;
+        private final Predicate predicate;
+
+        CompiledExpression(BooleanExpression source, Predicate predicate) {
+            this.source = source;
+            this.predicate = predicate;
+        }
+
+        @Override
+        public Object evaluate(MessageEvaluationContext message) throws JMSException {
+            return toBoolean(predicate.test(message));
+        }
+
+        @Override
+        public boolean matches(MessageEvaluationContext message) throws JMSException {
+            return predicate.test(message) == TRUE;
+        }
+
+        public BooleanExpression getSource() {
+            return source;
+        }
+
+        @Override
+        public String toString() {
+            return source.toString();
+        }
+
+        @Override
+        public int hashCode() {
+            return source.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof CompiledExpression && source.equals(((CompiledExpression) o).source);
+        }
+    }
+
+    abstract static class Predicate {
+        abstract int test(MessageEvaluationContext message) throws JMSException;
+    }
+
+    abstract static class Value {
+        abstract Object get(MessageEvaluationContext message) throws JMSException;
+    }
+
+    private static final class GenericPredicate extends Predicate {
+        private final BooleanExpression expression;
+
+        GenericPredicate(BooleanExpression expression) {
+            this.expression = expression;
+        }
+
+        @Override
+        int test(MessageEvaluationContext message) throws JMSException {
+            return toResult(expression.evaluate(message));
+        }
+    }
+
+    private static final class And extends Predicate {
+        private final Predicate left;
+        private final Predicate right;
+
+        And(Predicate left, Predicate right) {
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        int test(MessageEvaluationContext message) throws JMSException {
+            int lv = left.test(message);
+            if (lv != TRUE) {
+                return lv;
+            }
+            return right.test(message);
+        }
+    }
+
+    private static final class Or extends Predicate {
+        private final Predicate left;
+        private final Predicate right;
+
+        Or(Predicate left, Predicate right) {
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        int test(MessageEvaluationContext message) throws JMSException {
+            // like the interpreter, an unknown left side yields the right side
+            if (left.test(message) == TRUE) {
+                return TRUE;
+            }
+            return right.test(message);
+        }
+    }
+
+    private static final class Not extends Predicate {
+        private final Predicate predicate;
+
+        Not(Predicate predicate) {
+            this.predicate = predicate;
+        }
+
+        @Override
+        int test(MessageEvaluationContext message) throws JMSException {
+            int rc = predicate.test(message);
+            if (rc == UNKNOWN) {
+                return UNKNOWN;
+            }
+            return rc == TRUE ? FALSE : TRUE;
+        }
+    }
+
+    private static final class BooleanCast extends Predicate {
+        private final Value value;
+
+        BooleanCast(Value value) {
+            this.value = value;
+        }
+
+        @Override
+        int test(MessageEvaluationContext message) throws JMSException {
+            Object rc = value.get(message);
+            if (rc == null) {
+                return UNKNOWN;
+            }
+            if (rc.getClass() != Boolean.class) {
+                return FALSE;
+            }
+            return ((Boolean) rc).booleanValue() ? TRUE : FALSE;
+        }
+    }
+
+    private static final class IsNull extends Predicate {
+        private final Value value;
+
+        IsNull(Value value) {
+            this.value = value;
+        }
+
+        @Override
+        int test(MessageEvaluationContext message) throws JMSException {
+            return value.get(message) == null ? TRUE : FALSE;
+        }
+    }
+
+    private static final class StringEquals extends Predicate {
+        private final ComparisonExpression comparison;
+        private final Value value;
+        private final String constant;
+        private final boolean swapped;
+
+        StringEquals(ComparisonExpression comparison, Value value, String constant, boolean swapped) {
+            this.comparison = comparison;
+            this.value = value;
+            this.constant = constant;
+            this.swapped = swapped;
+        }
+
+        @Override
+        int test(MessageEvaluationContext message) throws JMSException {
+            Object rc = value.get(message);
+            if (rc == null) {
+                return FALSE;
+            }
+            if (rc.getClass() == String.class) {
+                return constant.equals(rc) ? TRUE : FALSE;
+            }
+            return swapped ? equal(comparison, constant, rc) : equal(comparison, rc, constant);
+        }
+    }
+
+    private static final class NumericConstantComparison extends Predicate {
+        private final ComparisonExpression comparison;
+        private final Value value;
+        private final Number constant;
+        private final int constantKind;
+        // the operator with the value on the left side
+        private final int op;
+        private final boolean swapped;
+
+        NumericConstantComparison(ComparisonExpression comparison, Value value, Number constant, int op, boolean swapped) {
+            this.comparison = comparison;
+            this.value = value;
+            this.constant = constant;
+            this.constantKind = kind(constant);
+            this.op = op;
+            this.swapped = swapped;
+        }
+
+        @Override
+        @SuppressWarnings("rawtypes")
+        int test(MessageEvaluationContext message) throws JMSException {
+            Object rc = value.get(message);
+            if (rc == null) {
+                return op == EQUAL ? FALSE : UNKNOWN;
+            }
+            int kind = kind(rc);
+            if (kind != OTHER) {
+                return SelectorCompiler.test(op, compareNumbers((Number) rc, kind, constant, constantKind));
+            }
+            if (op == EQUAL) {
+                return swapped ? equal(comparison, constant, rc) : equal(comparison, rc, constant);
+            }
+            Comparable comparable = (Comparable) rc;
+            return toResult(swapped ? comparison.compare((Comparable) constant, comparable) : comparison.compare(comparable, (Comparable) constant));
+        }
+    }
+
+    private static final class Comparison extends Predicate {
+        private final ComparisonExpression comparison;
+        private final Value left;
+        private final Value right;
+        private final int op;
+
+        Comparison(ComparisonExpression comparison, Value left, Value right, int op) {
+            this.comparison = comparison;
+            this.left = left;
+            this.right = right;
+            this.op = op;
+        }
+
+        @Override
+        @SuppressWarnings("rawtypes")
+        int test(MessageEvaluationContext message) throws JMSException {
+            Object lv = left.get(message);
+            if (op == EQUAL) {
+                Object rv = right.get(message);
+                int leftKind = kind(lv);
+                int rightKind = kind(rv);
+                if (leftKind != OTHER && rightKind != OTHER) {
+                    return SelectorCompiler.test(EQUAL, compareNumbers((Number) lv, leftKind, (Number) rv, rightKind));
+                }
+                return equal(comparison, lv, rv);
+            }
+            Comparable lc = (Comparable) lv;
+            if (lc == null) {
+                return UNKNOWN;
+            }
+            Comparable rc = (Comparable) right.get(message);
+            if (rc == null) {
+                return UNKNOWN;
+            }
+            int leftKind = kind(lc);
+            int rightKind = kind(rc);
+            if (leftKind != OTHER && rightKind != OTHER) {
+                return SelectorCompiler.test(op, compareNumbers((Number) lc, leftKind, (Number) rc, rightKind));
+            }
+            return toResult(comparison.compare(lc, rc));
+        }
+    }
+
+    private static final class Constant extends Value {
+        private final Object value;
+
+        Constant(Object value) {
+            this.value = value;
+        }
+
+        @Override
+        Object get(MessageEvaluationContext message) {
+            return value;
+        }
+    }
+
+    private static final class GenericValue extends Value {
+        private final Expression expression;
+
+        GenericValue(Expression expression) {
+            this.expression = expression;
+        }
+
+        @Override
+        Object get(MessageEvaluationContext message) throws JMSException {
+            return expression.evaluate(message);
+        }
+    }
+}
@@ -0,0 +1,506 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.filter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import javax.jms.JMSException;
+
+/**
+ * Indexes a set of values by the selectors they were registered with, so that
+ * the values whose selector may match a message are found without evaluating
+ * every selector.
+ *
+ * Each selector is indexed on one of the predicates its top level AND
+ * combines: an equality against a string literal or an IN list is kept in a
+ * hash table keyed by the literal, and the numeric comparisons of a single
+ * property against literals are combined into an interval kept in an interval
+ * tree. A message is then matched by looking up the value of each indexed
+ * property once. Values whose selector has no such predicate are always
+ * returned.
+ *
+ * The index only discards values whose selector cannot match, the values it
+ * returns still have to be checked against their selector. Property values of
+ * a type the index does not compare exactly return every value indexed on
+ * that property.
+ *
+ * This class is thread safe.
+ */
+public class SelectorIndex<T> {
+
+    private static final Comparator<Entry<?>> ORDER = new Comparator<Entry<?>>() {
+        @Override
+        public int compare(Entry<?> e1, Entry<?> e2) {
+            return e1.sequence < e2.sequence ? -1 : (e1.sequence == e2.sequence ? 0 : 1);
+        }
+    };
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Map<T, Entry<T>> entries = new HashMap<T, Entry<T>>();
+    private final Map<String, PropertyIndex<T>> properties = new LinkedHashMap<String, PropertyIndex<T>>();
+    private final Set<Entry<T>> unindexed = new HashSet<Entry<T>>();
+    private long nextSequence;
+
+    /**
+     * Adds the value with its selector, replacing the selector if the value
+     * was already added. Values are returned by {@link #match} in the order
+     * they were first added.
+     *
+     * @param selector the selector of the value, null when it matches every message
+     */
+    public void add(T value, BooleanExpression selector) {
+        lock.writeLock().lock();
+        try {
+            Entry<T> previous = entries.get(value);
+            Entry<T> entry = new Entry<T>(value, previous != null ? previous.sequence : nextSequence++);
+            analyze(entry, selector);
+            if (previous != null) {
+                unindex(previous);
+            }
+            entries.put(value, entry);
+            if (entry.property == null) {
+                unindexed.add(entry);
+            } else {
+                PropertyIndex<T> index = properties.get(entry.property);
+                if (index == null) {
+                    index = new PropertyIndex<T>(entry.property);
+                    properties.put(entry.property, index);
+                }
+                index.add(entry);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @return true if the value was in the index
+     */
+    public boolean remove(T value) {
+        lock.writeLock().lock();
+        try {
+            Entry<T> entry = entries.remove(value);
+            if (entry == null) {
+                return false;
+            }
+            unindex(entry);
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public boolean contains(T value) {
+        lock.readLock().lock();
+        try {
+            return entries.containsKey(value);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return entries.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return the values whose selector may match the message, in the order
+     * they were added
+     */
+    public List<T> match(MessageEvaluationContext message) throws JMSException {
+        List<Entry<T>> candidates;
+        lock.readLock().lock();
+        try {
+            candidates = new ArrayList<Entry<T>>(unindexed);
+            for (PropertyIndex<T> index : properties.values()) {
+                index.collect(message, candidates);
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        Collections.sort(candidates, ORDER);
+        List<T> rc = new ArrayList<T>(candidates.size());
+        for (Entry<T> entry : candidates) {
+            rc.add(entry.value);
+        }
+        return rc;
+    }
+
+    private void unindex(Entry<T> entry) {
+        if (entry.property == null) {
+            unindexed.remove(entry);
+        } else {
+            PropertyIndex<T> index = properties.get(entry.property);
+            index.remove(entry);
+            if (index.isEmpty()) {
+                properties.remove(entry.property);
+            }
+        }
+    }
+
+    /**
+     * Picks the predicate the entry is indexed on, preferring an equality
+     * over a range.
+     */
+    private static void analyze(Entry<?> entry, BooleanExpression selector) {
+        List<BooleanExpression> conjuncts = new ArrayList<BooleanExpression>();
+        if (selector != null) {
+            addConjuncts(selector, conjuncts);
+        }
+        for (BooleanExpression conjunct : conjuncts) {
+            if (conjunct instanceof UnaryExpression.InExpression) {
+                UnaryExpression.InExpression in = (UnaryExpression.InExpression) conjunct;
+                Collection<Object> list = in.getInList();
+                if (!in.isNot() && list != null && allStrings(list)) {
+                    entry.property = ((PropertyExpression) in.getRight()).getName();
+                    entry.keys = list.toArray(new String[list.size()]);
+                    return;
+                }
+            } else if (conjunct instanceof ComparisonExpression && "=".equals(((ComparisonExpression) conjunct).getExpressionSymbol())) {
+                ComparisonExpression comparison = (ComparisonExpression) conjunct;
+                String property = propertyName(comparison, false);
+                Object constant = constant(comparison, false);
+                if (property == null) {
+                    property = propertyName(comparison, true);
+                    constant = constant(comparison, true);
+                }
+                if (property != null && constant instanceof String) {
+                    entry.property = property;
+                    entry.keys = new String[] {(String) constant};
+                    return;
+                }
+            }
+        }
+        // the numeric comparisons of the first property compared, '=' included
+        for (BooleanExpression conjunct : conjuncts) {
+            if (!(conjunct instanceof ComparisonExpression)) {
+                continue;
+            }
+            ComparisonExpression comparison = (ComparisonExpression) conjunct;
+            String symbol = comparison.getExpressionSymbol();
+            boolean swapped = false;
+            String property = propertyName(comparison, false);
+            if (property == null) {
+                property = propertyName(comparison, true);
+                swapped = true;
+            }
+            Object constant = constant(comparison, swapped);
+            if (property == null || !isNumericConstant(constant) || (entry.property != null && !entry.property.equals(property))) {
+                continue;
+            }
+            double bound = ((Number) constant).doubleValue();
+            if (Double.isNaN(bound)) {
+                continue;
+            }
+            // the bounds are closed, so a strict comparison is indexed as the non strict one
+            boolean lower = ">".equals(symbol) || ">=".equals(symbol);
+            boolean upper = "<".equals(symbol) || "<=".equals(symbol);
+            if (swapped) {
+                boolean tmp = lower;
+                lower = upper;
+                upper = tmp;
+            }
+            boolean equal = "=".equals(symbol);
+            if (!lower && !upper && !equal) {
+                continue;
+            }
+            if (entry.property == null) {
+                entry.property = property;
+                entry.lo = Double.NEGATIVE_INFINITY;
+                entry.hi = Double.POSITIVE_INFINITY;
+            }
+            if (lower || equal) {
+                entry.lo = Math.max(entry.lo, bound);
+            }
+            if (upper || equal) {
+                entry.hi = Math.min(entry.hi, bound);
+            }
+        }
+    }
+
+    private static void addConjuncts(BooleanExpression expression, List<BooleanExpression> conjuncts) {
+        if (expression instanceof SelectorCompiler.CompiledExpression) {
+            addConjuncts(((SelectorCompiler.CompiledExpression) expression).getSource(), conjuncts);
+        } else if (expression instanceof LogicExpression && "AND".equals(((LogicExpression) expression).getExpressionSymbol())) {
+            LogicExpression and = (LogicExpression) expression;
+            addConjuncts((BooleanExpression) and.getLeft(), conjuncts);
+            addConjuncts((BooleanExpression) and.getRight(), conjuncts);
+        } else {
+            conjuncts.add(expression);
+        }
+    }
+
+    private static String propertyName(ComparisonExpression comparison, boolean swapped) {
+        Expression expression = swapped ? comparison.getRight() : comparison.getLeft();
+        return expression instanceof PropertyExpression ? ((PropertyExpression) expression).getName() : null;
+    }
+
+    private static Object constant(ComparisonExpression comparison, boolean swapped) {
+        Expression expression = swapped ? comparison.getLeft() : comparison.getRight();
+        if (expression instanceof ConstantExpression) {
+            return ((ConstantExpression) expression).getValue();
+        }
+        if (expression instanceof UnaryExpression && !(expression instanceof BooleanExpression)
+                && "-".equals(((UnaryExpression) expression).getExpressionSymbol())
+                && ((UnaryExpression) expression).getRight() instanceof ConstantExpression) {
+            try {
+                // a negative literal, its value does not depend on the message
+                return expression.evaluate(null);
+            } catch (JMSException e) {
+                return null;
+            } catch (RuntimeException e) {
+                return null;
+            }
+        }
+        return null;
+    }
+
+    private static boolean allStrings(Collection<Object> values) {
+        for (Object value : values) {
+            if (!(value instanceof String)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Only the literal types of the selector grammar, so the index never
+     * compares with less precision than the interpreter.
+     */
+    private static boolean isNumericConstant(Object value) {
+        return value instanceof Integer || value instanceof Long || value instanceof Double;
+    }
+
+    /**
+     * Property values that the interpreter compares as exact numbers. Float
+     * values are not, the interpreter rounds the literal to a float first.
+     */
+    private static boolean isExactNumber(Object value) {
+        return value instanceof Integer || value instanceof Long || value instanceof Double
+            || value instanceof Short || value instanceof Byte;
+    }
+
+    private static final class Entry<T> {
+        final T value;
+        final long sequence;
+        String property;
+        // the literals of an equality or IN, or null for a range
+        String[] keys;
+        double lo;
+        double hi;
+
+        Entry(T value, long sequence) {
+            this.value = value;
+            this.sequence = sequence;
+        }
+    }
+
+    private static final class PropertyIndex<T> {
+        private final PropertyExpression property;
+        private final Map<String, Set<Entry<T>>> equal = new HashMap<String, Set<Entry<T>>>();
+        private final Set<Entry<T>> hashed = new HashSet<Entry<T>>();
+        private final Set<Entry<T>> ranged = new HashSet<Entry<T>>();
+        // rebuilt by the first match after the ranges change
+        private volatile IntervalNode<T> tree;
+        private volatile boolean stale;
+
+        PropertyIndex(String name) {
+            this.property = new PropertyExpression(name);
+        }
+
+        void add(Entry<T> entry) {
+            if (entry.keys != null) {
+                hashed.add(entry);
+                for (String key : entry.keys) {
+                    Set<Entry<T>> bucket = equal.get(key);
+                    if (bucket == null) {
+                        bucket = new HashSet<Entry<T>>();
+                        equal.put(key, bucket);
+                    }
+                    bucket.add(entry);
+                }
+            } else {
+                ranged.add(entry);
+                stale = true;
+            }
+        }
+
+        void remove(Entry<T> entry) {
+            if (entry.keys != null) {
+                hashed.remove(entry);
+                for (String key : entry.keys) {
+                    Set<Entry<T>> bucket = equal.get(key);
+                    if (bucket != null) {
+                        bucket.remove(entry);
+                        if (bucket.isEmpty()) {
+                            equal.remove(key);
+                        }
+                    }
+                }
+            } else {
+                ranged.remove(entry);
+                stale = true;
+            }
+        }
+
+        boolean isEmpty() {
+            return hashed.isEmpty() && ranged.isEmpty();
+        }
+
+        void collect(MessageEvaluationContext message, List<Entry<T>> candidates) throws JMSException {
+            Object value = property.evaluate(message);
+            if (value == null) {
+                // none of the comparisons can be true
+                return;
+            }
+            if (!hashed.isEmpty()) {
+                if (value instanceof String) {
+                    Set<Entry<T>> bucket = equal.get(value);
+                    if (bucket != null) {
+                        candidates.addAll(bucket);
+                    }
+                } else {
+                    candidates.addAll(hashed);
+                }
+            }
+            if (!ranged.isEmpty()) {
+                double x = isExactNumber(value) ? ((Number) value).doubleValue() : Double.NaN;
+                if (Double.isNaN(x)) {
+                    candidates.addAll(ranged);
+                } else {
+                    IntervalNode.stab(getTree(), x, candidates);
+                }
+            }
+        }
+
+        private IntervalNode<T> getTree() {
+            if (stale) {
+                // the ranges do not change while the read lock is held, so
+                // concurrent rebuilds produce the same tree
+                List<Entry<T>> intervals = new ArrayList<Entry<T>>(ranged.size());
+                for (Entry<T> entry : ranged) {
+                    // an empty interval, like 'a > 2 AND a < 1', matches no value
+                    if (entry.lo <= entry.hi) {
+                        intervals.add(entry);
+                    }
+                }
+                tree = IntervalNode.build(intervals);
+                stale = false;
+            }
+            return tree;
+        }
+    }
+
+    /**
+     * A node of a centered interval tree, it holds the intervals that contain
+     * its center sorted by both bounds.
+     */
+    private static final class IntervalNode<T> {
+        double center;
+        Entry<T>[] byLo;
+        Entry<T>[] byHi;
+        IntervalNode<T> left;
+        IntervalNode<T> right;
+
+        @SuppressWarnings("unchecked")
+        static <T> IntervalNode<T> build(List<Entry<T>> intervals) {
+            if (intervals.isEmpty()) {
+                return null;
+            }
+            double[] bounds = new double[intervals.size() * 2];
+            int i = 0;
+            for (Entry<T> entry : intervals) {
+                bounds[i++] = entry.lo;
+                bounds[i++] = entry.hi;
+            }
+            Arrays.sort(bounds);
+            IntervalNode<T> node = new IntervalNode<T>();
+            node.center = bounds[intervals.size()];
+            List<Entry<T>> left = new ArrayList<Entry<T>>();
+            List<Entry<T>> right = new ArrayList<Entry<T>>();
+            List<Entry<T>> here = new ArrayList<Entry<T>>();
+            for (Entry<T> entry : intervals) {
+                if (entry.hi < node.center) {
+                    left.add(entry);
+                } else if (entry.lo > node.center) {
+                    right.add(entry);
+                } else {
+                    here.add(entry);
+                }
+            }
+            node.byLo = here.toArray(new Entry[here.size()]);
+            Arrays.sort(node.byLo, new Comparator<Entry<T>>() {
+                @Override
+                public int compare(Entry<T> e1, Entry<T> e2) {
+                    return Double.compare(e1.lo, e2.lo);
+                }
+            });
+            node.byHi = here.toArray(new Entry[here.size()]);
+            Arrays.sort(node.byHi, new Comparator<Entry<T>>() {
+                @Override
+                public int compare(Entry<T> e1, Entry<T> e2) {
+                    return Double.compare(e2.hi, e1.hi);
+                }
+            });
+            node.left = build(left);
+            node.right = build(right);
+            return node;
+        }
+
+        static <T> void stab(IntervalNode<T> node, double x, List<Entry<T>> candidates) {
+            while (node != null) {
+                if (x < node.center) {
+                    for (Entry<T> entry : node.byLo) {
+                        if (entry.lo > x) {
+                            break;
+                        }
+                        candidates.add(entry);
+                    }
+                    node = node.left;
+                } else if (x > node.center) {
+                    for (Entry<T> entry : node.byHi) {
+                        if (entry.hi < x) {
+                            break;
+                        }
+                        candidates.add(entry);
+                    }
+                    node = node.right;
+                } else {
+                    candidates.addAll(Arrays.asList(node.byLo));
+                    return;
+                }
+            }
+        }
+    }
+}
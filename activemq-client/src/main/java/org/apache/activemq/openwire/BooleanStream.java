@@ -20,6 +20,10 @@ import java.io.DataInput;
 import java.io.DataOutput;
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.activemq.util.ByteSequence;
 
 public final class BooleanStream {
 
@@ -27,6 +31,9 @@ public final class BooleanStream {
     short arrayLimit;
     short arrayPos;
     byte bytePos;
+    // shared marshalled forms sized by the first pass, written by the second
+    private List<ByteSequence> nestedForms;
+    private int nestedFormPos;
 
     public boolean readBoolean() throws IOException {
         assert arrayPos <= arrayLimit;
@@ -107,6 +114,7 @@ public final class BooleanStream {
     public void clear() {
         arrayPos = 0;
         bytePos = 0;
+        nestedFormPos = 0;
     }
 
     public int marshalledSize() {
@@ -119,4 +127,17 @@ public final class BooleanStream {
         }
     }
 
+    void addNestedForm(ByteSequence form) {
+        if (nestedForms == null) {
+            nestedForms = new ArrayList<ByteSequence>(1);
+        }
+        nestedForms.add(form);
+    }
+
+    ByteSequence nextNestedForm() throws IOException {
+        if (nestedForms == null || nestedFormPos >= nestedForms.size()) {
+            throw new IOException("No marshalled form was sized for this nested object");
+        }
+        return nestedForms.get(nestedFormPos++);
+    }
 }
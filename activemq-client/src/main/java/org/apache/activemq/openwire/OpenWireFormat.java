@@ -22,9 +22,11 @@ import java.io.IOException;
 import java.lang.reflect.Method;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
 
 import org.apache.activemq.command.CommandTypes;
 import org.apache.activemq.command.DataStructure;
+import org.apache.activemq.command.Message;
 import org.apache.activemq.command.WireFormatInfo;
 import org.apache.activemq.util.ByteSequence;
 import org.apache.activemq.util.ByteSequenceData;
@@ -45,6 +47,15 @@ public final class OpenWireFormat implements WireFormat {
     static final byte NULL_TYPE = CommandTypes.NULL;
     private static final int MARSHAL_CACHE_SIZE = Short.MAX_VALUE / 2;
     private static final int MARSHAL_CACHE_FREE_SPACE = 100;
+    private static final int MAX_SCRATCH_SIZE = 64 * 1024;
+    private static final Short NOT_CACHED = Short.valueOf((short)-1);
+
+    private static final ThreadLocal<DataByteArrayOutputStream> SCRATCH = new ThreadLocal<DataByteArrayOutputStream>() {
+        @Override
+        protected DataByteArrayOutputStream initialValue() {
+            return new DataByteArrayOutputStream();
+        }
+    };
 
     private DataStreamMarshaller dataMarshallers[];
     private int version;
@@ -61,8 +72,9 @@ public final class OpenWireFormat implements WireFormat {
     private Map<DataStructure, Short> marshallCacheMap = new HashMap<DataStructure, Short>();
     private DataStructure marshallCache[] = null;
     private DataStructure unmarshallCache[] = null;
-    private DataByteArrayOutputStream bytesOut = new DataByteArrayOutputStream();
-    private DataByteArrayInputStream bytesIn = new DataByteArrayInputStream();
+    // the marshal cache is only used by the thread holding this lock
+    private final ReentrantLock marshallCacheLock = new ReentrantLock();
+    private boolean marshallCacheSuspended;
     private WireFormatInfo preferedWireFormatInfo;
     
     public OpenWireFormat() {
@@ -113,52 +125,54 @@ public final class OpenWireFormat implements WireFormat {
         return version;
     }
 
-    public synchronized ByteSequence marshal(Object command) throws IOException {
-
-        if (cacheEnabled) {
+    /**
+     * Marshals the command, using the marshal cache when it is enabled. The
+     * cached values are only sent once, so with the cache enabled the frames
+     * must be written in the order this method returned them, and are
+     * marshalled one at a time.
+     */
+    public ByteSequence marshal(Object command) throws IOException {
+        if (!cacheEnabled) {
+            return doMarshal(command);
+        }
+        marshallCacheLock.lock();
+        try {
             runMarshallCacheEvictionSweep();
+            return doMarshal(command);
+        } finally {
+            marshallCacheLock.unlock();
         }
+    }
 
-//        MarshallAware ma = null;
-//        // If not using value caching, then the marshaled form is always the
-//        // same
-//        if (!cacheEnabled && ((DataStructure)command).isMarshallAware()) {
-//            ma = (MarshallAware)command;
-//        }
-
+    private ByteSequence doMarshal(Object command) throws IOException {
         ByteSequence sequence = null;
-        // if( ma!=null ) {
-        // sequence = ma.getCachedMarshalledForm(this);
-        // }
+        int size = 1;
+        if (command != null) {
 
-        if (sequence == null) {
+            DataStructure c = (DataStructure)command;
+            byte type = c.getDataStructureType();
+            DataStreamMarshaller dsm = (DataStreamMarshaller)dataMarshallers[type & 0xFF];
+            if (dsm == null) {
+                throw new IOException("Unknown data type: " + type);
+            }
+            if (tightEncodingEnabled) {
 
-            int size = 1;
-            if (command != null) {
+                BooleanStream bs = new BooleanStream();
+                size += dsm.tightMarshal1(this, c, bs);
+                size += bs.marshalledSize();
 
-                DataStructure c = (DataStructure)command;
-                byte type = c.getDataStructureType();
-                DataStreamMarshaller dsm = (DataStreamMarshaller)dataMarshallers[type & 0xFF];
-                if (dsm == null) {
-                    throw new IOException("Unknown data type: " + type);
+                DataByteArrayOutputStream bytesOut = new DataByteArrayOutputStream(sizePrefixDisabled ? size : size + 4);
+                if (!sizePrefixDisabled) {
+                    bytesOut.writeInt(size);
                 }
-                if (tightEncodingEnabled) {
-
-                    BooleanStream bs = new BooleanStream();
-                    size += dsm.tightMarshal1(this, c, bs);
-                    size += bs.marshalledSize();
-
-                    bytesOut.restart(size);
-                    if (!sizePrefixDisabled) {
-                        bytesOut.writeInt(size);
-                    }
-                    bytesOut.writeByte(type);
-                    bs.marshal(bytesOut);
-                    dsm.tightMarshal2(this, c, bytesOut, bs);
-                    sequence = bytesOut.toByteSequence();
+                bytesOut.writeByte(type);
+                bs.marshal(bytesOut);
+                dsm.tightMarshal2(this, c, bytesOut, bs);
+                sequence = bytesOut.toByteSequence();
 
-                } else {
-                    bytesOut.restart();
+            } else {
+                DataByteArrayOutputStream bytesOut = takeScratch();
+                try {
                     if (!sizePrefixDisabled) {
                         bytesOut.writeInt(0); // we don't know the final size
                                                 // yet but write this here for
@@ -166,34 +180,33 @@ public final class OpenWireFormat implements WireFormat {
                     }
                     bytesOut.writeByte(type);
                     dsm.looseMarshal(this, c, bytesOut);
-                    sequence = bytesOut.toByteSequence();
 
-                    if (!sizePrefixDisabled) {
-                        size = sequence.getLength() - 4;
-                        int pos = sequence.offset;
-                        ByteSequenceData.writeIntBig(sequence, size);
-                        sequence.offset = pos;
-                    }
+                    byte[] data = new byte[bytesOut.size()];
+                    System.arraycopy(bytesOut.getData(), 0, data, 0, data.length);
+                    sequence = new ByteSequence(data, 0, data.length);
+                } finally {
+                    releaseScratch(bytesOut);
                 }
 
-            } else {
-                bytesOut.restart(5);
-                bytesOut.writeInt(size);
-                bytesOut.writeByte(NULL_TYPE);
-                sequence = bytesOut.toByteSequence();
+                if (!sizePrefixDisabled) {
+                    size = sequence.getLength() - 4;
+                    int pos = sequence.offset;
+                    ByteSequenceData.writeIntBig(sequence, size);
+                    sequence.offset = pos;
+                }
             }
 
-            // if( ma!=null ) {
-            // ma.setCachedMarshalledForm(this, sequence);
-            // }
+        } else {
+            DataByteArrayOutputStream bytesOut = new DataByteArrayOutputStream(5);
+            bytesOut.writeInt(size);
+            bytesOut.writeByte(NULL_TYPE);
+            sequence = bytesOut.toByteSequence();
         }
         return sequence;
     }
 
-    public synchronized Object unmarshal(ByteSequence sequence) throws IOException {
-        bytesIn.restart(sequence);
-        // DataInputStream dis = new DataInputStream(new
-        // ByteArrayInputStream(sequence));
+    public Object unmarshal(ByteSequence sequence) throws IOException {
+        DataByteArrayInputStream bytesIn = new DataByteArrayInputStream(sequence);
 
         if (!sizePrefixDisabled) {
             int size = bytesIn.readInt();
@@ -207,19 +220,28 @@ public final class OpenWireFormat implements WireFormat {
             }
         }
 
-        Object command = doUnmarshal(bytesIn);
-        // if( !cacheEnabled && ((DataStructure)command).isMarshallAware() ) {
-        // ((MarshallAware) command).setCachedMarshalledForm(this, sequence);
-        // }
-        return command;
+        return doUnmarshal(bytesIn);
     }
 
-    public synchronized void marshal(Object o, DataOutput dataOut) throws IOException {
-
-        if (cacheEnabled) {
+    /**
+     * Marshals the command to the stream, using the marshal cache when it is
+     * enabled, see {@link #marshal(Object)}.
+     */
+    public void marshal(Object o, DataOutput dataOut) throws IOException {
+        if (!cacheEnabled) {
+            doMarshal(o, dataOut);
+            return;
+        }
+        marshallCacheLock.lock();
+        try {
             runMarshallCacheEvictionSweep();
+            doMarshal(o, dataOut);
+        } finally {
+            marshallCacheLock.unlock();
         }
+    }
 
+    private void doMarshal(Object o, DataOutput dataOut) throws IOException {
         int size = 1;
         if (o != null) {
 
@@ -242,23 +264,21 @@ public final class OpenWireFormat implements WireFormat {
                 bs.marshal(dataOut);
                 dsm.tightMarshal2(this, c, dataOut, bs);
 
-            } else {
-                DataOutput looseOut = dataOut;
-
-                if (!sizePrefixDisabled) {
-                    bytesOut.restart();
-                    looseOut = bytesOut;
-                }
+            } else if (sizePrefixDisabled) {
+                dataOut.writeByte(type);
+                dsm.looseMarshal(this, c, dataOut);
 
-                looseOut.writeByte(type);
-                dsm.looseMarshal(this, c, looseOut);
+            } else {
+                DataByteArrayOutputStream bytesOut = takeScratch();
+                try {
+                    bytesOut.writeByte(type);
+                    dsm.looseMarshal(this, c, bytesOut);
 
-                if (!sizePrefixDisabled) {
-                    ByteSequence sequence = bytesOut.toByteSequence();
-                    dataOut.writeInt(sequence.getLength());
-                    dataOut.write(sequence.getData(), sequence.getOffset(), sequence.getLength());
+                    dataOut.writeInt(bytesOut.size());
+                    dataOut.write(bytesOut.getData(), 0, bytesOut.size());
+                } finally {
+                    releaseScratch(bytesOut);
                 }
-
             }
 
         } else {
@@ -269,6 +289,27 @@ public final class OpenWireFormat implements WireFormat {
         }
     }
 
+    /**
+     * @return the buffer of the current thread to marshal into when the size
+     *         is not known up front, or a new one if it is already in use
+     */
+    private DataByteArrayOutputStream takeScratch() {
+        DataByteArrayOutputStream scratch = SCRATCH.get();
+        if (scratch.size() != 0) {
+            return new DataByteArrayOutputStream();
+        }
+        return scratch;
+    }
+
+    private void releaseScratch(DataByteArrayOutputStream scratch) {
+        if (scratch.getData().length > MAX_SCRATCH_SIZE) {
+            // don't hold on to the buffer of a large message
+            scratch.restart();
+        } else {
+            scratch.reset();
+        }
+    }
+
     public Object unmarshal(DataInput dis) throws IOException {
         DataInput dataIn = dis;
         if (!sizePrefixDisabled) {
@@ -309,10 +350,6 @@ public final class OpenWireFormat implements WireFormat {
      * of this method.
      */
     public void tightMarshal2(Object o, DataOutput ds, BooleanStream bs) throws IOException {
-        if (cacheEnabled) {
-            runMarshallCacheEvictionSweep();
-        }
-
         if (o != null) {
             DataStructure c = (DataStructure)o;
             byte type = c.getDataStructureType();
@@ -389,11 +426,12 @@ public final class OpenWireFormat implements WireFormat {
         }
 
         if (o.isMarshallAware()) {
-            // MarshallAware ma = (MarshallAware)o;
-            ByteSequence sequence = null;
-            // sequence=ma.getCachedMarshalledForm(this);
+            ByteSequence sequence = getSharedMarshalledForm(o);
             bs.writeBoolean(sequence != null);
             if (sequence != null) {
+                // the second pass writes this very form, even if the message
+                // is marshalled for another encoding in the meantime
+                bs.addNestedForm(sequence);
                 return 1 + sequence.getLength();
             }
         }
@@ -417,12 +455,8 @@ public final class OpenWireFormat implements WireFormat {
 
         if (o.isMarshallAware() && bs.readBoolean()) {
 
-            // We should not be doing any caching
-            throw new IOException("Corrupted stream");
-            // MarshallAware ma = (MarshallAware) o;
-            // ByteSequence sequence=ma.getCachedMarshalledForm(this);
-            // ds.write(sequence.getData(), sequence.getOffset(),
-            // sequence.getLength());
+            ByteSequence sequence = bs.nextNestedForm();
+            ds.write(sequence.getData(), sequence.getOffset(), sequence.getLength());
 
         } else {
 
@@ -498,6 +532,105 @@ public final class OpenWireFormat implements WireFormat {
         }
     }
 
+    /**
+     * @return the tight encoding of a message marked with
+     *         {@link Message#setMarshalledFormShared(boolean)}, complete with
+     *         its size and type, marshalled once for all the wire formats with
+     *         the same version and options.
+     */
+    private ByteSequence getSharedMarshalledForm(DataStructure o) throws IOException {
+        if (!(o instanceof Message) || !((Message)o).isMarshalledFormShared()) {
+            return null;
+        }
+        Message message = (Message)o;
+        Object forms = message.getSharedMarshalledForm();
+        SharedMarshalledForm form = forms instanceof SharedMarshalledForm ? (SharedMarshalledForm)forms : null;
+        for (SharedMarshalledForm candidate = form; candidate != null; candidate = candidate.next) {
+            if (candidate.isFor(this, message)) {
+                return candidate.sequence;
+            }
+        }
+
+        // the form is written to many connections, so it must not refer to
+        // the marshal cache of this one
+        boolean suspendCache = marshallCacheLock.isHeldByCurrentThread();
+        if (suspendCache) {
+            marshallCacheSuspended = true;
+        }
+        try {
+            byte type = message.getDataStructureType();
+            DataStreamMarshaller dsm = (DataStreamMarshaller)dataMarshallers[type & 0xFF];
+            BooleanStream bs = new BooleanStream();
+            int size = 1 + dsm.tightMarshal1(this, message, bs);
+            size += bs.marshalledSize();
+
+            DataByteArrayOutputStream bytesOut = new DataByteArrayOutputStream(size + 4);
+            bytesOut.writeInt(size);
+            bytesOut.writeByte(type);
+            bs.marshal(bytesOut);
+            dsm.tightMarshal2(this, message, bytesOut, bs);
+            ByteSequence sequence = bytesOut.toByteSequence();
+            message.setSharedMarshalledForm(new SharedMarshalledForm(getSharedEncoding(), message.getRedeliveryCounter(), sequence, form));
+            return sequence;
+        } finally {
+            if (suspendCache) {
+                marshallCacheSuspended = false;
+            }
+        }
+    }
+
+    /**
+     * @return the options a shared marshalled form depends on
+     */
+    private int getSharedEncoding() {
+        return version << 2 | (cacheEnabled ? 1 : 0) | (stackTraceEnabled ? 2 : 0);
+    }
+
+    /**
+     * The forms of one message are chained, one per encoding, so that
+     * subscribers on connections with different options do not keep replacing
+     * each other's form.
+     */
+    private static final class SharedMarshalledForm {
+        static final int MAX_ENCODINGS = 4;
+
+        final int encoding;
+        final int redeliveryCounter;
+        final ByteSequence sequence;
+        final SharedMarshalledForm next;
+
+        SharedMarshalledForm(int encoding, int redeliveryCounter, ByteSequence sequence, SharedMarshalledForm others) {
+            this.encoding = encoding;
+            this.redeliveryCounter = redeliveryCounter;
+            this.sequence = sequence;
+            this.next = copyOthers(others, encoding, redeliveryCounter, MAX_ENCODINGS - 1);
+        }
+
+        private SharedMarshalledForm(SharedMarshalledForm form, SharedMarshalledForm next) {
+            this.encoding = form.encoding;
+            this.redeliveryCounter = form.redeliveryCounter;
+            this.sequence = form.sequence;
+            this.next = next;
+        }
+
+        /**
+         * @return the still valid forms of the other encodings, at most limit of them
+         */
+        private static SharedMarshalledForm copyOthers(SharedMarshalledForm form, int encoding, int redeliveryCounter, int limit) {
+            while (form != null && (form.encoding == encoding || form.redeliveryCounter != redeliveryCounter)) {
+                form = form.next;
+            }
+            if (form == null || limit == 0) {
+                return null;
+            }
+            return new SharedMarshalledForm(form, copyOthers(form.next, encoding, redeliveryCounter, limit - 1));
+        }
+
+        boolean isFor(OpenWireFormat wireFormat, Message message) {
+            return encoding == wireFormat.getSharedEncoding() && redeliveryCounter == message.getRedeliveryCounter();
+        }
+    }
+
     public void runMarshallCacheEvictionSweep() {
         // Do we need to start evicting??
         while (marshallCacheMap.size() > marshallCache.length - MARSHAL_CACHE_FREE_SPACE) {
@@ -514,10 +647,16 @@ public final class OpenWireFormat implements WireFormat {
     }
 
     public Short getMarshallCacheIndex(DataStructure o) {
+        if (!marshallCacheLock.isHeldByCurrentThread() || marshallCacheSuspended) {
+            return null;
+        }
         return marshallCacheMap.get(o);
     }
 
     public Short addToMarshallCache(DataStructure o) {
+        if (!marshallCacheLock.isHeldByCurrentThread() || marshallCacheSuspended) {
+            return NOT_CACHED;
+        }
         short i = nextMarshallCacheIndex++;
         if (nextMarshallCacheIndex >= marshallCache.length) {
             nextMarshallCacheIndex = 0;
@@ -532,7 +671,7 @@ public final class OpenWireFormat implements WireFormat {
         } else {
             // Use -1 to indicate that the value was not cached due to cache
             // being full.
-            return new Short((short)-1);
+            return NOT_CACHED;
         }
     }
 
@@ -140,7 +140,7 @@ public class ConnectionStateTracker extends CommandVisitorAdapter {
         if (command != null) {
             if (trackMessages && command.isMessage()) {
                 Message message = (Message) command;
-                if (message.getTransactionId()==null) {
+                if (message.getTransactionId()==null && !message.isResponseRequired()) {
                     currentCacheSize = currentCacheSize +  message.getSize();
                 }
             } else if (command instanceof MessagePull) {
@@ -476,7 +476,10 @@ public class ConnectionStateTracker extends CommandVisitorAdapter {
                     }
                 }
                 return TRACKED_RESPONSE_MARKER;
-            }else if (trackMessages) {
+            }else if (trackMessages && !send.isResponseRequired()) {
+                // a send that waits for a response, eg. one in the window of a
+                // pipelining producer, is replayed by the transport until the
+                // response comes, so it is not cached to be replayed again
                 messageCache.put(send.getMessageId(), send);
             }
         }
@@ -49,6 +49,7 @@ public class TaskRunnerFactory implements Executor {
     private boolean daemon;
     private AtomicLong id = new AtomicLong(0);
     private boolean dedicatedTaskRunner;
+    private boolean useVirtualThreads;
     private long shutdownAwaitTermination = 30000;
     private AtomicBoolean initDone = new AtomicBoolean(false);
     private int maxThreadPoolSize = Integer.MAX_VALUE;
@@ -81,9 +82,18 @@ public class TaskRunnerFactory implements Executor {
 
     public void init() {
         if (initDone.compareAndSet(false, true)) {
+            boolean virtual = useVirtualThreads || "true".equalsIgnoreCase(System.getProperty("org.apache.activemq.UseVirtualThreads"));
+            if (virtual && !VirtualThreads.isSupported()) {
+                LOG.info("TaskRunnerFactory[{}] uses platform threads, virtual threads need Java 21 or later", name);
+                virtual = false;
+            }
             // If your OS/JVM combination has a good thread model, you may want to
             // avoid using a thread pool to run tasks and use a DedicatedTaskRunner instead.
-            if (dedicatedTaskRunner || "true".equalsIgnoreCase(System.getProperty("org.apache.activemq.UseDedicatedTaskRunner"))) {
+            if (virtual) {
+                if (executor == null) {
+                    executor = VirtualThreads.newExecutor(name);
+                }
+            } else if (dedicatedTaskRunner || "true".equalsIgnoreCase(System.getProperty("org.apache.activemq.UseDedicatedTaskRunner"))) {
                 executor = null;
             } else if (executor == null) {
                 executor = createDefaultExecutor();
@@ -229,6 +239,19 @@ public class TaskRunnerFactory implements Executor {
         this.dedicatedTaskRunner = dedicatedTaskRunner;
     }
 
+    public boolean isUseVirtualThreads() {
+        return useVirtualThreads;
+    }
+
+    /**
+     * Runs the tasks on virtual threads when the JVM supports them, which
+     * takes precedence over dedicatedTaskRunner. Tasks run on platform
+     * threads as configured otherwise.
+     */
+    public void setUseVirtualThreads(boolean useVirtualThreads) {
+        this.useVirtualThreads = useVirtualThreads;
+    }
+
     public int getMaxThreadPoolSize() {
         return maxThreadPoolSize;
     }
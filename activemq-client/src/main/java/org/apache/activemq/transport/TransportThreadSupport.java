@@ -16,6 +16,8 @@
  */
 package org.apache.activemq.transport;
 
+import org.apache.activemq.thread.VirtualThreads;
+
 /**
  * A useful base class for a transport implementation which has a background
  * reading thread.
@@ -25,6 +27,7 @@ package org.apache.activemq.transport;
 public abstract class TransportThreadSupport extends TransportSupport implements Runnable {
 
     private boolean daemon;
+    private boolean useVirtualThreads;
     private Thread runner;
     // should be a multiple of 128k
     private long stackSize;
@@ -37,9 +40,25 @@ public abstract class TransportThreadSupport extends TransportSupport implements
         this.daemon = daemon;
     }
 
+    public boolean isUseVirtualThreads() {
+        return useVirtualThreads;
+    }
+
+    /**
+     * Reads on a virtual thread when the JVM supports them, a virtual thread
+     * is always a daemon and ignores the stackSize.
+     */
+    public void setUseVirtualThreads(boolean useVirtualThreads) {
+        this.useVirtualThreads = useVirtualThreads;
+    }
+
     protected void doStart() throws Exception {
-        runner = new Thread(null, this, "ActiveMQ Transport: " + toString(), stackSize);
-        runner.setDaemon(daemon);
+        if (useVirtualThreads && VirtualThreads.isSupported()) {
+            runner = VirtualThreads.newThread(this, "ActiveMQ Transport: " + toString());
+        } else {
+            runner = new Thread(null, this, "ActiveMQ Transport: " + toString(), stackSize);
+            runner.setDaemon(daemon);
+        }
         runner.start();
     }
 
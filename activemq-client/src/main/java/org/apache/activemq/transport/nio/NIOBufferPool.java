@@ -0,0 +1,137 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.transport.nio;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A pool of direct buffers shared by the NIO transports to read frames into.
+ *
+ * Buffers come in power of two size classes from MIN_BUFFER_SIZE up to
+ * maxBufferSize. Larger frames get a heap buffer that is not pooled. Released
+ * buffers are kept until the pool holds maxPoolSize bytes, after that they are
+ * left to the garbage collector.
+ *
+ * A frame buffer can be released as soon as the command has been unmarshalled
+ * from it, the OpenWire marshallers copy everything they keep.
+ */
+public final class NIOBufferPool {
+
+    public static final int MIN_BUFFER_SIZE = 4 * 1024;
+
+    private static final NIOBufferPool SINGLETON = new NIOBufferPool();
+
+    private static final int CLASSES = 31 - Integer.numberOfLeadingZeros(MIN_BUFFER_SIZE);
+
+    @SuppressWarnings("unchecked")
+    private final ConcurrentLinkedQueue<ByteBuffer>[] pools = new ConcurrentLinkedQueue[32];
+    private final AtomicLong pooledBytes = new AtomicLong();
+    private final AtomicLong allocatedBytes = new AtomicLong();
+    private volatile int maxBufferSize = 16 * 1024 * 1024;
+    private volatile long maxPoolSize = 64 * 1024 * 1024;
+
+    public NIOBufferPool() {
+        for (int i = 0; i < pools.length; i++) {
+            pools[i] = new ConcurrentLinkedQueue<ByteBuffer>();
+        }
+    }
+
+    public static NIOBufferPool getInstance() {
+        return SINGLETON;
+    }
+
+    /**
+     * @return a buffer with its position at 0 and its limit at size
+     */
+    public ByteBuffer acquire(int size) {
+        if (size > maxBufferSize) {
+            return ByteBuffer.allocate(size);
+        }
+        int sizeClass = sizeClass(size);
+        ByteBuffer buffer = pools[sizeClass].poll();
+        if (buffer == null) {
+            int capacity = 1 << sizeClass;
+            allocatedBytes.addAndGet(capacity);
+            buffer = ByteBuffer.allocateDirect(capacity);
+        } else {
+            pooledBytes.addAndGet(-buffer.capacity());
+        }
+        buffer.clear();
+        buffer.limit(size);
+        return buffer;
+    }
+
+    /**
+     * Gives back a buffer returned by acquire, it must not be used afterwards.
+     */
+    public void release(ByteBuffer buffer) {
+        int capacity = buffer.capacity();
+        if (!buffer.isDirect() || Integer.bitCount(capacity) != 1 || capacity < MIN_BUFFER_SIZE) {
+            return;
+        }
+        if (pooledBytes.addAndGet(capacity) > maxPoolSize) {
+            pooledBytes.addAndGet(-capacity);
+            allocatedBytes.addAndGet(-capacity);
+            return;
+        }
+        pools[Integer.numberOfTrailingZeros(capacity)].add(buffer);
+    }
+
+    private int sizeClass(int size) {
+        return Math.max(CLASSES, 32 - Integer.numberOfLeadingZeros(size - 1));
+    }
+
+    /**
+     * @return the bytes held by released buffers waiting to be reused
+     */
+    public long getPooledBytes() {
+        return pooledBytes.get();
+    }
+
+    /**
+     * @return the bytes of direct buffers allocated by the pool and not
+     *         yet handed to the garbage collector
+     */
+    public long getAllocatedBytes() {
+        return allocatedBytes.get();
+    }
+
+    public int getMaxBufferSize() {
+        return maxBufferSize;
+    }
+
+    /**
+     * @param maxBufferSize frames larger than this are read into heap buffers
+     *                that are not pooled
+     */
+    public void setMaxBufferSize(int maxBufferSize) {
+        this.maxBufferSize = maxBufferSize;
+    }
+
+    public long getMaxPoolSize() {
+        return maxPoolSize;
+    }
+
+    /**
+     * @param maxPoolSize the bytes of released buffers kept for reuse
+     */
+    public void setMaxPoolSize(long maxPoolSize) {
+        this.maxPoolSize = maxPoolSize;
+    }
+}
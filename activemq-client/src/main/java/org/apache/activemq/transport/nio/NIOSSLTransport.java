@@ -251,7 +251,7 @@ public class NIOSSLTransport extends NIOTransport {
 
             // now we got the data, lets reallocate and store the size for the marshaler.
             // if there's more data in plain, then the next call will start processing it.
-            currentBuffer = ByteBuffer.allocate(nextFrameSize + 4);
+            currentBuffer = NIOBufferPool.getInstance().acquire(nextFrameSize + 4);
             currentBuffer.putInt(nextFrameSize);
 
         } else {
@@ -261,9 +261,10 @@ public class NIOSSLTransport extends NIOTransport {
             if (currentBuffer.remaining() >= plain.remaining()) {
                 currentBuffer.put(plain);
             } else {
-                byte[] fill = new byte[currentBuffer.remaining()];
-                plain.get(fill);
-                currentBuffer.put(fill);
+                int limit = plain.limit();
+                plain.limit(plain.position() + currentBuffer.remaining());
+                currentBuffer.put(plain);
+                plain.limit(limit);
             }
 
             // Either we have enough data for a new command or we have to wait for some more.
@@ -271,10 +272,15 @@ public class NIOSSLTransport extends NIOTransport {
                 return;
             } else {
                 currentBuffer.flip();
-                Object command = wireFormat.unmarshal(new DataInputStream(new NIOInputStream(currentBuffer)));
+                Object command;
+                try {
+                    command = wireFormat.unmarshal(new DataInputStream(new NIOInputStream(currentBuffer)));
+                } finally {
+                    NIOBufferPool.getInstance().release(currentBuffer);
+                    nextFrameSize = -1;
+                    currentBuffer = null;
+                }
                 doConsume((Command) command);
-                nextFrameSize = -1;
-                currentBuffer = null;
             }
         }
     }
@@ -87,6 +87,7 @@ public class NIOTransport extends TcpTransport {
         NIOOutputStream outPutStream = new NIOOutputStream(channel, 16 * 1024);
         this.dataOut = new DataOutputStream(outPutStream);
         this.buffOut = outPutStream;
+        initializeWriteCoalescer(outPutStream);
     }
 
     protected void serviceRead() {
@@ -111,9 +112,8 @@ public class NIOTransport extends TcpTransport {
                 if (nextFrameSize == -1) {
                     assert inputBuffer == currentBuffer;
 
-                    // If the frame is too big to fit in our direct byte buffer,
-                    // Then allocate a non direct byte buffer of the right size
-                    // for it.
+                    // If the frame is too big to fit in our byte buffer,
+                    // then take a buffer of the right size for it from the pool.
                     inputBuffer.flip();
                     nextFrameSize = inputBuffer.getInt() + 4;
 
@@ -125,7 +125,7 @@ public class NIOTransport extends TcpTransport {
                     }
 
                     if (nextFrameSize > inputBuffer.capacity()) {
-                        currentBuffer = ByteBuffer.allocate(nextFrameSize);
+                        currentBuffer = NIOBufferPool.getInstance().acquire(nextFrameSize);
                         currentBuffer.putInt(nextFrameSize);
                     } else {
                         inputBuffer.limit(nextFrameSize);
@@ -134,13 +134,20 @@ public class NIOTransport extends TcpTransport {
                 } else {
                     currentBuffer.flip();
 
-                    Object command = wireFormat.unmarshal(new DataInputStream(new NIOInputStream(currentBuffer)));
+                    Object command;
+                    try {
+                        command = wireFormat.unmarshal(new DataInputStream(new NIOInputStream(currentBuffer)));
+                    } finally {
+                        // the command does not refer to the frame once unmarshalled
+                        if (currentBuffer != inputBuffer) {
+                            NIOBufferPool.getInstance().release(currentBuffer);
+                        }
+                        nextFrameSize = -1;
+                        inputBuffer.clear();
+                        inputBuffer.limit(4);
+                        currentBuffer = inputBuffer;
+                    }
                     doConsume((Command)command);
-
-                    nextFrameSize = -1;
-                    inputBuffer.clear();
-                    inputBuffer.limit(4);
-                    currentBuffer = inputBuffer;
                 }
 
             }
@@ -33,6 +33,7 @@ import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.InterruptedIOException;
+import java.io.OutputStream;
 import java.net.*;
 import java.util.HashMap;
 import java.util.Map;
@@ -127,6 +128,10 @@ public class TcpTransport extends TransportThreadSupport implements Transport, S
     private Boolean keepAlive;
     private Boolean tcpNoDelay;
     private Thread runnerThread;
+    private boolean coalesceWrites;
+    private long coalesceDelay;
+    private int maxCoalescePendingSize = 4 * 1024 * 1024;
+    private TcpWriteCoalescer writeCoalescer;
 
     /**
      * Connect to a remote Node - e.g. a Broker
@@ -172,6 +177,10 @@ public class TcpTransport extends TransportThreadSupport implements Transport, S
      */
     public void oneway(Object command) throws IOException {
         checkStarted();
+        if (writeCoalescer != null) {
+            writeCoalescer.write(wireFormat.marshal(command));
+            return;
+        }
         wireFormat.marshal(command, dataOut);
         dataOut.flush();
     }
@@ -403,6 +412,45 @@ public class TcpTransport extends TransportThreadSupport implements Transport, S
         this.closeAsync = closeAsync;
     }
 
+    public boolean isCoalesceWrites() {
+        return coalesceWrites;
+    }
+
+    /**
+     * @param coalesceWrites when true commands are marshalled by the sending
+     *                thread and written by a pooled writer task, which writes
+     *                all the commands queued while it was busy with a single
+     *                flush of the socket stream
+     */
+    public void setCoalesceWrites(boolean coalesceWrites) {
+        this.coalesceWrites = coalesceWrites;
+    }
+
+    public long getCoalesceDelay() {
+        return coalesceDelay;
+    }
+
+    /**
+     * @param coalesceDelay the microseconds the writer waits for more
+     *                commands before writing less than ioBufferSize bytes,
+     *                0 writes them immediately
+     */
+    public void setCoalesceDelay(long coalesceDelay) {
+        this.coalesceDelay = coalesceDelay;
+    }
+
+    public int getMaxCoalescePendingSize() {
+        return maxCoalescePendingSize;
+    }
+
+    /**
+     * @param maxCoalescePendingSize the bytes that may wait for the writer
+     *                before senders block
+     */
+    public void setMaxCoalescePendingSize(int maxCoalescePendingSize) {
+        this.maxCoalescePendingSize = maxCoalescePendingSize;
+    }
+
     // Implementation methods
     // -------------------------------------------------------------------------
     protected String resolveHostName(String host) throws UnknownHostException {
@@ -520,6 +568,11 @@ public class TcpTransport extends TransportThreadSupport implements Transport, S
             LOG.debug("Stopping transport " + this);
         }
 
+        if (writeCoalescer != null) {
+            // give the queued commands a chance to go out before the socket closes
+            writeCoalescer.stop(1000);
+        }
+
         // Closing the streams flush the sockets before closing.. if the socket
         // is hung.. then this hangs the close.
         // closeStreams();
@@ -608,6 +661,17 @@ public class TcpTransport extends TransportThreadSupport implements Transport, S
         TcpBufferedOutputStream outputStream = new TcpBufferedOutputStream(socket.getOutputStream(), ioBufferSize);
         this.dataOut = new DataOutputStream(outputStream);
         this.buffOut = outputStream;
+        initializeWriteCoalescer(outputStream);
+    }
+
+    /**
+     * Sets up the writer of coalesced commands when enabled, to be called once
+     * the buffered output stream of the socket is created.
+     */
+    protected void initializeWriteCoalescer(OutputStream out) {
+        if (coalesceWrites) {
+            this.writeCoalescer = new TcpWriteCoalescer(this, out, ioBufferSize, coalesceDelay, maxCoalescePendingSize);
+        }
     }
 
     protected void closeStreams() throws IOException {
@@ -103,6 +103,7 @@ public class TcpTransportServer extends TransportServerThreadSupport implements
      * TransportConnector URIs.
      */
     protected boolean startLogging = true;
+    protected boolean useVirtualThreads;
     protected final ServerSocketFactory serverSocketFactory;
     protected BlockingQueue<Socket> socketQueue = new LinkedBlockingQueue<Socket>();
     protected Thread socketHandlerThread;
@@ -258,6 +259,18 @@ public class TcpTransportServer extends TransportServerThreadSupport implements
         this.startLogging = startLogging;
     }
 
+    public boolean isUseVirtualThreads() {
+        return useVirtualThreads;
+    }
+
+    /**
+     * Makes the accepted transports read on virtual threads when the JVM
+     * supports them.
+     */
+    public void setUseVirtualThreads(boolean useVirtualThreads) {
+        this.useVirtualThreads = useVirtualThreads;
+    }
+
     /**
      * @return the backlog
      */
@@ -425,6 +438,7 @@ public class TcpTransportServer extends TransportServerThreadSupport implements
                 options.put("logWriterName", logWriterName);
                 options.put("dynamicManagement", Boolean.valueOf(dynamicManagement));
                 options.put("startLogging", Boolean.valueOf(startLogging));
+                options.put("useVirtualThreads", Boolean.valueOf(useVirtualThreads));
                 options.putAll(transportOptions);
 
                 WireFormat format = wireFormatFactory.createWireFormat();
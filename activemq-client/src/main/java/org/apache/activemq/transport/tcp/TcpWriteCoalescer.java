@@ -0,0 +1,159 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.transport.tcp;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import org.apache.activemq.thread.Task;
+import org.apache.activemq.thread.TaskRunner;
+import org.apache.activemq.thread.TaskRunnerFactory;
+import org.apache.activemq.util.ByteSequence;
+
+/**
+ * Writes the frames of a {@link TcpTransport} from a pooled writer task.
+ *
+ * Callers only queue their marshalled frame. The writer takes every frame
+ * queued while it was busy, copies them into the buffered socket stream and
+ * flushes once, so a burst of dispatches to one connection costs a few
+ * socket writes instead of one per command. The writer may wait a bounded
+ * delay for more frames before a small flush. Callers block while more than
+ * maxPendingSize bytes wait to be written.
+ */
+class TcpWriteCoalescer implements Task {
+
+    private static final TaskRunnerFactory WRITERS = new TaskRunnerFactory("ActiveMQ Transport Writer", Thread.NORM_PRIORITY, true, 1000, false);
+
+    private final TcpTransport transport;
+    private final OutputStream out;
+    private final int flushSize;
+    private final long delayNanos;
+    private final int maxPendingSize;
+    private final ConcurrentLinkedQueue<ByteSequence> frames = new ConcurrentLinkedQueue<ByteSequence>();
+    private final AtomicInteger pendingSize = new AtomicInteger();
+    private final Object writeMutex = new Object();
+    private final TaskRunner runner;
+    private volatile IOException failure;
+    private volatile boolean stopped;
+
+    TcpWriteCoalescer(TcpTransport transport, OutputStream out, int flushSize, long delayMicros, int maxPendingSize) {
+        this.transport = transport;
+        this.out = out;
+        this.flushSize = flushSize;
+        this.delayNanos = TimeUnit.MICROSECONDS.toNanos(delayMicros);
+        this.maxPendingSize = maxPendingSize;
+        this.runner = WRITERS.createTaskRunner(this, "ActiveMQ Transport Writer: " + transport);
+    }
+
+    /**
+     * Queues the frame to be written, frames are written in the order they
+     * are queued.
+     */
+    void write(ByteSequence frame) throws IOException {
+        checkFailure();
+        frames.add(frame);
+        int pending = pendingSize.addAndGet(frame.getLength());
+        wakeup();
+        if (pending > maxPendingSize) {
+            synchronized (writeMutex) {
+                while (pendingSize.get() > maxPendingSize && failure == null && !stopped) {
+                    try {
+                        writeMutex.wait(100);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new InterruptedIOException("Interrupted while waiting for queued frames to be written");
+                    }
+                }
+            }
+            checkFailure();
+        }
+    }
+
+    /**
+     * Waits up to the timeout for the queued frames to be written, then stops the writer.
+     */
+    void stop(long timeout) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeout;
+        synchronized (writeMutex) {
+            while (pendingSize.get() > 0 && failure == null) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    break;
+                }
+                writeMutex.wait(remaining);
+            }
+            stopped = true;
+            writeMutex.notifyAll();
+        }
+        runner.shutdown(timeout);
+    }
+
+    @Override
+    public boolean iterate() {
+        if (stopped || failure != null) {
+            frames.clear();
+            return false;
+        }
+        if (delayNanos > 0 && pendingSize.get() < flushSize) {
+            // let more frames join a small batch
+            LockSupport.parkNanos(delayNanos);
+        }
+        int written = 0;
+        try {
+            ByteSequence frame;
+            while ((frame = frames.poll()) != null) {
+                out.write(frame.getData(), frame.getOffset(), frame.getLength());
+                written += frame.getLength();
+            }
+            out.flush();
+        } catch (IOException e) {
+            failure = e;
+            frames.clear();
+            transport.onException(e);
+        } finally {
+            if (pendingSize.addAndGet(-written) <= maxPendingSize || failure != null) {
+                synchronized (writeMutex) {
+                    writeMutex.notifyAll();
+                }
+            }
+        }
+        return failure == null && !frames.isEmpty();
+    }
+
+    private void wakeup() throws InterruptedIOException {
+        try {
+            runner.wakeup();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waking up the transport writer");
+        }
+    }
+
+    private void checkFailure() throws IOException {
+        if (failure != null) {
+            throw failure;
+        }
+        if (stopped) {
+            throw new IOException("The transport writer is stopped");
+        }
+    }
+}
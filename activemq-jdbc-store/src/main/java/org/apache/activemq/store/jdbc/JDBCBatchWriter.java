@@ -0,0 +1,302 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.store.jdbc;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import org.apache.activemq.command.Message;
+import org.apache.activemq.command.MessageId;
+import org.apache.activemq.util.IOExceptionSupport;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Writes the messages added and removed outside of a transaction on a single
+ * thread.
+ *
+ * The writes queued by concurrent producers and consumers while the previous
+ * batch commits are coalesced into one JDBC transaction, so the adds and
+ * removes go to the database as statement batches and share a single commit.
+ * The future of each write completes once its batch has committed. When a
+ * batch fails its writes are retried one by one so that a single bad write
+ * does not fail the others.
+ *
+ * Sequence ids are assigned on the writer thread so that they increase in
+ * commit order, which the store cursors rely on.
+ */
+class JDBCBatchWriter {
+
+    private static final Logger LOG = LoggerFactory.getLogger(JDBCBatchWriter.class);
+    private static final Runnable NOOP = new Runnable() {
+        @Override
+        public void run() {
+        }
+    };
+
+    private final JDBCPersistenceAdapter persistenceAdapter;
+    private final int maxBatchSize;
+    private final LinkedBlockingQueue<Write> queue = new LinkedBlockingQueue<Write>();
+    // adds that are not committed yet, so that a remove can find their sequence id
+    private final ConcurrentHashMap<MessageId, AddMessage> pendingAdds = new ConcurrentHashMap<MessageId, AddMessage>();
+    private final Write shutdown = new Write() {
+        @Override
+        void execute(TransactionContext c) {
+        }
+    };
+    private Thread thread;
+    private boolean running;
+
+    JDBCBatchWriter(JDBCPersistenceAdapter persistenceAdapter, int maxBatchSize) {
+        this.persistenceAdapter = persistenceAdapter;
+        this.maxBatchSize = Math.max(1, maxBatchSize);
+    }
+
+    synchronized void start() {
+        if (running) {
+            return;
+        }
+        running = true;
+        thread = new Thread("ActiveMQ JDBC Batch Writer") {
+            @Override
+            public void run() {
+                processQueue();
+            }
+        };
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Stops accepting writes and waits for the queued ones to be written.
+     */
+    void stop() throws InterruptedException {
+        Thread writer;
+        synchronized (this) {
+            if (!running) {
+                return;
+            }
+            running = false;
+            queue.add(shutdown);
+            writer = thread;
+            thread = null;
+        }
+        writer.join();
+    }
+
+    /**
+     * Queues the message to be added to the store.
+     *
+     * @return a future that completes once the message is committed
+     */
+    Future<Object> addMessage(JDBCMessageStore store, Message message, byte[] data) throws IOException {
+        AddMessage write = new AddMessage(store, message, data);
+        pendingAdds.put(message.getMessageId(), write);
+        try {
+            enqueue(write);
+        } catch (IOException e) {
+            pendingAdds.remove(message.getMessageId());
+            throw e;
+        }
+        return write;
+    }
+
+    /**
+     * Queues the message to be removed from the store.
+     *
+     * @return a future that completes once the removal is committed
+     */
+    Future<Object> removeMessage(JDBCMessageStore store, MessageId messageId) throws IOException {
+        RemoveMessage write = new RemoveMessage(store, messageId);
+        enqueue(write);
+        return write;
+    }
+
+    /**
+     * Waits for a write of the message to be committed.
+     */
+    static void waitFor(Future<Object> write, MessageId messageId) throws IOException {
+        try {
+            write.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while writing message: " + messageId);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw IOExceptionSupport.create("Failed to write message: " + messageId + ". Reason: " + e.getCause(), e.getCause());
+        }
+    }
+
+    int getMaxBatchSize() {
+        return maxBatchSize;
+    }
+
+    private synchronized void enqueue(Write write) throws IOException {
+        if (!running) {
+            throw new IOException("The JDBC batch writer is stopped");
+        }
+        queue.add(write);
+    }
+
+    private void processQueue() {
+        List<Write> batch = new ArrayList<Write>(maxBatchSize);
+        boolean stopping = false;
+        while (!stopping) {
+            try {
+                batch.add(queue.take());
+            } catch (InterruptedException e) {
+                LOG.warn("JDBC batch writer interrupted, " + queue.size() + " queued writes are not written");
+                break;
+            }
+            queue.drainTo(batch, maxBatchSize - 1);
+            // nothing is queued after the shutdown marker
+            if (batch.get(batch.size() - 1) == shutdown) {
+                batch.remove(batch.size() - 1);
+                stopping = true;
+            }
+            if (!batch.isEmpty()) {
+                write(batch);
+            }
+            batch.clear();
+        }
+    }
+
+    private void write(List<Write> batch) {
+        try {
+            commit(batch);
+            for (Write write : batch) {
+                write.committed();
+            }
+        } catch (Exception e) {
+            if (batch.size() == 1) {
+                LOG.warn("JDBC write failed: " + e, e);
+                batch.get(0).failed(e);
+                return;
+            }
+            LOG.debug("Batch of " + batch.size() + " writes failed, retrying them one at a time: " + e);
+            for (Write write : batch) {
+                try {
+                    commit(Collections.singletonList(write));
+                    write.committed();
+                } catch (Exception failure) {
+                    LOG.warn("JDBC write failed: " + failure, failure);
+                    write.failed(failure);
+                }
+            }
+        }
+    }
+
+    private void commit(List<Write> batch) throws SQLException, IOException {
+        TransactionContext c = persistenceAdapter.getTransactionContext();
+        c.begin();
+        boolean executed = false;
+        try {
+            for (Write write : batch) {
+                write.execute(c);
+            }
+            executed = true;
+        } finally {
+            if (!executed) {
+                try {
+                    c.rollback();
+                } catch (IOException e) {
+                    LOG.debug("Rollback of a failed batch failed: " + e);
+                }
+            }
+        }
+        c.commit();
+    }
+
+    private abstract static class Write extends FutureTask<Object> {
+
+        Write() {
+            super(NOOP, null);
+        }
+
+        abstract void execute(TransactionContext c) throws SQLException, IOException;
+
+        void committed() {
+            set(null);
+        }
+
+        void failed(Exception e) {
+            setException(e);
+        }
+    }
+
+    private final class AddMessage extends Write {
+        private final JDBCMessageStore store;
+        private final Message message;
+        private final byte[] data;
+        private volatile long sequenceId;
+
+        AddMessage(JDBCMessageStore store, Message message, byte[] data) {
+            this.store = store;
+            this.message = message;
+            this.data = data;
+        }
+
+        @Override
+        void execute(TransactionContext c) throws SQLException, IOException {
+            sequenceId = persistenceAdapter.getNextSequenceId();
+            store.adapter.doAddMessage(c, sequenceId, message.getMessageId(), store.getDestination(), data, message.getExpiration(),
+                    store.isPrioritizedMessages() ? message.getPriority() : 0, null);
+        }
+
+        @Override
+        void committed() {
+            pendingAdds.remove(message.getMessageId());
+            store.onAdd(message.getMessageId(), sequenceId, message.getPriority());
+            super.committed();
+        }
+
+        @Override
+        void failed(Exception e) {
+            pendingAdds.remove(message.getMessageId());
+            super.failed(e);
+        }
+    }
+
+    private final class RemoveMessage extends Write {
+        private final JDBCMessageStore store;
+        private final MessageId messageId;
+
+        RemoveMessage(JDBCMessageStore store, MessageId messageId) {
+            this.store = store;
+            this.messageId = messageId;
+        }
+
+        @Override
+        void execute(TransactionContext c) throws SQLException, IOException {
+            // the add may still be queued with this or an earlier batch when the message was dispatched before its commit
+            AddMessage pending = pendingAdds.get(messageId);
+            long seq = pending != null ? pending.sequenceId : store.adapter.getStoreSequenceId(c, store.getDestination(), messageId)[0];
+            store.adapter.doRemoveMessage(c, seq, null);
+        }
+    }
+}
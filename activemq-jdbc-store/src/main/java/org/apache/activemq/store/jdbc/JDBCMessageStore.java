@@ -18,6 +18,10 @@ package org.apache.activemq.store.jdbc;
 
 import java.io.IOException;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Future;
 import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.activemq.ActiveMQMessageAudit;
@@ -105,17 +109,17 @@ public class JDBCMessageStore extends AbstractMessageStore {
             }
             return;
         }
+
+        JDBCBatchWriter batchWriter = getBatchWriter(context);
+        if (batchWriter != null) {
+            JDBCBatchWriter.waitFor(batchWriter.addMessage(this, message, marshal(message)), messageId);
+            return;
+        }
         
         long sequenceId = persistenceAdapter.getNextSequenceId();
         
         // Serialize the Message..
-        byte data[];
-        try {
-            ByteSequence packet = wireFormat.marshal(message);
-            data = ByteSequenceData.toByteArray(packet);
-        } catch (IOException e) {
-            throw IOExceptionSupport.create("Failed to broker message: " + messageId + " in container: " + e, e);
-        }
+        byte data[] = marshal(message);
 
         // Get a connection and insert the message into the DB.
         TransactionContext c = persistenceAdapter.getTransactionContext(context);
@@ -138,6 +142,131 @@ public class JDBCMessageStore extends AbstractMessageStore {
     protected void onAdd(MessageId messageId, long sequenceId, byte priority) {
     }
 
+    /**
+     * Adds the messages with a single statement batch, in one database
+     * transaction when the context is not in one already, or in the batches of
+     * the batch writer when it is enabled.
+     */
+    @Override
+    public void addMessages(ConnectionContext context, List<Message> messages) throws IOException {
+        if (context != null && context.getXid() != null) {
+            super.addMessages(context, messages);
+            return;
+        }
+        List<Message> added = new ArrayList<Message>(messages.size());
+        for (Message message : messages) {
+            if (audit != null && audit.isDuplicate(message)) {
+                if (LOG.isDebugEnabled()) {
+                    LOG.debug(destination.getPhysicalName()
+                        + " ignoring duplicated (add) message, already stored: "
+                        + message.getMessageId());
+                }
+            } else {
+                added.add(message);
+            }
+        }
+
+        JDBCBatchWriter batchWriter = getBatchWriter(context);
+        if (batchWriter != null) {
+            List<Future<Object>> writes = new ArrayList<Future<Object>>(added.size());
+            for (Message message : added) {
+                writes.add(batchWriter.addMessage(this, message, marshal(message)));
+            }
+            for (int i = 0; i < writes.size(); i++) {
+                JDBCBatchWriter.waitFor(writes.get(i), added.get(i).getMessageId());
+            }
+            return;
+        }
+
+        boolean inTransaction = context != null && persistenceAdapter.getTransactionContext(context).isInTransaction();
+        TransactionContext c = inTransaction ? persistenceAdapter.getTransactionContext(context) : persistenceAdapter.getTransactionContext();
+        if (!inTransaction) {
+            c.begin();
+        }
+        long[] sequenceIds = new long[added.size()];
+        MessageId messageId = null;
+        try {
+            for (int i = 0; i < sequenceIds.length; i++) {
+                Message message = added.get(i);
+                messageId = message.getMessageId();
+                sequenceIds[i] = persistenceAdapter.getNextSequenceId();
+                adapter.doAddMessage(c, sequenceIds[i], messageId, destination, marshal(message), message.getExpiration(),
+                        this.isPrioritizedMessages() ? message.getPriority() : 0, null);
+            }
+        } catch (SQLException e) {
+            JDBCPersistenceAdapter.log("JDBC Failure: ", e);
+            if (!inTransaction) {
+                c.rollback();
+            }
+            throw IOExceptionSupport.create("Failed to broker message: " + messageId + " in container: " + e, e);
+        } catch (IOException e) {
+            if (!inTransaction) {
+                c.rollback();
+            }
+            throw e;
+        }
+        if (!inTransaction) {
+            c.commit();
+        }
+        for (int i = 0; i < sequenceIds.length; i++) {
+            onAdd(added.get(i).getMessageId(), sequenceIds[i], added.get(i).getPriority());
+        }
+    }
+
+    /**
+     * When the batch writer is enabled the returned future completes once the
+     * message is committed, so the broker can dispatch the message meanwhile.
+     */
+    @Override
+    public Future<Object> asyncAddQueueMessage(ConnectionContext context, Message message) throws IOException {
+        return asyncAddMessage(context, message);
+    }
+
+    @Override
+    public Future<Object> asyncAddQueueMessage(ConnectionContext context, Message message, boolean canOptimizeHint) throws IOException {
+        return asyncAddMessage(context, message);
+    }
+
+    protected Future<Object> asyncAddMessage(ConnectionContext context, Message message) throws IOException {
+        JDBCBatchWriter batchWriter = getBatchWriter(context);
+        if (batchWriter == null) {
+            addMessage(context, message);
+            return FUTURE;
+        }
+        if (audit != null && audit.isDuplicate(message)) {
+            if (LOG.isDebugEnabled()) {
+                LOG.debug(destination.getPhysicalName()
+                    + " ignoring duplicated (add) message, already stored: "
+                    + message.getMessageId());
+            }
+            return FUTURE;
+        }
+        return batchWriter.addMessage(this, message, marshal(message));
+    }
+
+    /**
+     * @return the batch writer of the persistence adapter if it is enabled and
+     * the operation is not part of a transaction, which has to stay on its own
+     * connection
+     */
+    protected JDBCBatchWriter getBatchWriter(ConnectionContext context) throws IOException {
+        JDBCBatchWriter batchWriter = persistenceAdapter.getBatchWriter();
+        if (batchWriter != null && context != null
+                && (context.getXid() != null || persistenceAdapter.getTransactionContext(context).isInTransaction())) {
+            return null;
+        }
+        return batchWriter;
+    }
+
+    protected byte[] marshal(Message message) throws IOException {
+        try {
+            ByteSequence packet = wireFormat.marshal(message);
+            return ByteSequenceData.toByteArray(packet);
+        } catch (IOException e) {
+            throw IOExceptionSupport.create("Failed to broker message: " + message.getMessageId() + " in container: " + e, e);
+        }
+    }
+
     public void addMessageReference(ConnectionContext context, MessageId messageId, long expirationTime, String messageRef) throws IOException {
         // Get a connection and insert the message into the DB.
         TransactionContext c = persistenceAdapter.getTransactionContext(context);
@@ -190,6 +319,11 @@ public class JDBCMessageStore extends AbstractMessageStore {
     }
 
     public void removeMessage(ConnectionContext context, MessageAck ack) throws IOException {
+        JDBCBatchWriter batchWriter = getBatchWriter(context);
+        if (batchWriter != null) {
+            JDBCBatchWriter.waitFor(batchWriter.removeMessage(this, ack.getLastMessageId()), ack.getLastMessageId());
+            return;
+        }
 
     	long seq = persistenceAdapter.getStoreSequenceIdForMessageId(ack.getLastMessageId(), destination)[0];
 
@@ -208,6 +342,50 @@ public class JDBCMessageStore extends AbstractMessageStore {
         }
     }
 
+    /**
+     * Removes the messages in one database transaction, or in the batches of
+     * the batch writer when it is enabled, rather than committing each one.
+     */
+    @Override
+    public void removeMessages(ConnectionContext context, Collection<MessageAck> acks) throws IOException {
+        if (context != null && (context.getXid() != null || persistenceAdapter.getTransactionContext(context).isInTransaction())) {
+            super.removeMessages(context, acks);
+            return;
+        }
+
+        JDBCBatchWriter batchWriter = getBatchWriter(context);
+        if (batchWriter != null) {
+            List<Future<Object>> writes = new ArrayList<Future<Object>>(acks.size());
+            for (MessageAck ack : acks) {
+                writes.add(batchWriter.removeMessage(this, ack.getLastMessageId()));
+            }
+            int i = 0;
+            for (MessageAck ack : acks) {
+                JDBCBatchWriter.waitFor(writes.get(i++), ack.getLastMessageId());
+            }
+            return;
+        }
+
+        TransactionContext c = persistenceAdapter.getTransactionContext();
+        c.begin();
+        MessageId messageId = null;
+        try {
+            for (MessageAck ack : acks) {
+                messageId = ack.getLastMessageId();
+                long seq = persistenceAdapter.getStoreSequenceIdForMessageId(messageId, destination)[0];
+                adapter.doRemoveMessage(c, seq, null);
+            }
+        } catch (SQLException e) {
+            JDBCPersistenceAdapter.log("JDBC Failure: ", e);
+            c.rollback();
+            throw IOExceptionSupport.create("Failed to broker message: " + messageId + " in container: " + e, e);
+        } catch (IOException e) {
+            c.rollback();
+            throw e;
+        }
+        c.commit();
+    }
+
     public void recover(final MessageRecoveryListener listener) throws Exception {
 
         // Get all the Message ids out of the database.
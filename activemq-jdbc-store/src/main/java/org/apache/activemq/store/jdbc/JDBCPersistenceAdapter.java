@@ -101,6 +101,9 @@ public class JDBCPersistenceAdapter extends DataSourceServiceSupport implements
 
     protected LongSequenceGenerator sequenceGenerator = new LongSequenceGenerator();
     protected int maxRows = DefaultJDBCAdapter.MAX_ROWS;
+    protected boolean asyncWrites;
+    protected int maxAsyncWriteBatchSize = 500;
+    private volatile JDBCBatchWriter batchWriter;
 
     {
         setLockKeepAlivePeriod(DEFAULT_LOCK_KEEP_ALIVE_PERIOD);
@@ -327,10 +330,19 @@ public class JDBCPersistenceAdapter extends DataSourceServiceSupport implements
             }, 0, cleanupPeriod, TimeUnit.MILLISECONDS);
         }
         createMessageAudit();
+
+        if (asyncWrites) {
+            batchWriter = new JDBCBatchWriter(this, maxAsyncWriteBatchSize);
+            batchWriter.start();
+        }
     }
 
     @Override
     public synchronized void doStop(ServiceStopper stopper) throws Exception {
+        if (batchWriter != null) {
+            batchWriter.stop();
+            batchWriter = null;
+        }
         if (cleanupTicket != null) {
             cleanupTicket.cancel(true);
             cleanupTicket = null;
@@ -744,6 +756,38 @@ public class JDBCPersistenceAdapter extends DataSourceServiceSupport implements
         }
     }
 
+    public boolean isAsyncWrites() {
+        return asyncWrites;
+    }
+
+    /**
+     * Whether the messages added and removed outside of transactions are
+     * written by a single writer thread that batches the concurrent writes
+     * into one JDBC transaction and commit. Queue sends complete once their
+     * batch commits, so the broker can dispatch meanwhile. The default value
+     * is false.
+     *
+     * @param asyncWrites true to batch the writes
+     */
+    public void setAsyncWrites(boolean asyncWrites) {
+        this.asyncWrites = asyncWrites;
+    }
+
+    public int getMaxAsyncWriteBatchSize() {
+        return maxAsyncWriteBatchSize;
+    }
+
+    /**
+     * The maximum number of writes committed together when asyncWrites is enabled.
+     */
+    public void setMaxAsyncWriteBatchSize(int maxAsyncWriteBatchSize) {
+        this.maxAsyncWriteBatchSize = maxAsyncWriteBatchSize;
+    }
+
+    JDBCBatchWriter getBatchWriter() {
+        return batchWriter;
+    }
+
     public int getMaxRows() {
         return maxRows;
     }
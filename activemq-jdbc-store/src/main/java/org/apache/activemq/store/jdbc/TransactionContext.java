@@ -163,6 +163,10 @@ public class TransactionContext {
         connection = getConnection();
     }
 
+    public boolean isInTransaction() {
+        return inTx;
+    }
+
     public void commit() throws IOException {
         if (!inTx) {
             throw new IOException("Not started.");
@@ -233,6 +233,15 @@ public class KahaDBPersistenceAdapter extends LockableServiceSupport implements
                     return letter.getJournal().getFileMap().keySet().toString();
                 }
             });
+            view.setStatisticsViewCallable(new Callable<String>() {
+                @Override
+                public String call() throws Exception {
+                    return "journal: {" + letter.getJournal().getStatistics() + "}, pageCache: {"
+                            + letter.getPageFile().getPageCacheStatistics() + "}";
+                }
+            });
+            view.setJournalStatistics(letter.getJournal().getStatistics());
+            view.setPageCacheStatistics(letter.getPageFile().getPageCacheStatistics());
             AnnotatedMBean.registerMBean(brokerService.getManagementContext(), view,
                     createPersistenceAdapterName(brokerService.getBrokerObjectName().toString(), toString()));
         }
@@ -430,6 +439,87 @@ public class KahaDBPersistenceAdapter extends LockableServiceSupport implements
         this.letter.setEnableJournalDiskSyncs(enableJournalDiskSyncs);
     }
 
+    /**
+     * Get the enableJournalMemoryMapping
+     *
+     * @return the enableJournalMemoryMapping
+     */
+    public boolean isEnableJournalMemoryMapping() {
+        return this.letter.isEnableJournalMemoryMapping();
+    }
+
+    /**
+     * When set the journal appends through memory mapped data file segments
+     * and reads records back through read only mappings
+     *
+     * @param enableJournalMemoryMapping
+     *            the enableJournalMemoryMapping to set
+     */
+    public void setEnableJournalMemoryMapping(boolean enableJournalMemoryMapping) {
+        this.letter.setEnableJournalMemoryMapping(enableJournalMemoryMapping);
+    }
+
+    /**
+     * Get the journalGroupCommitWindow
+     *
+     * @return the journalGroupCommitWindow in microseconds
+     */
+    public long getJournalGroupCommitWindow() {
+        return this.letter.getJournalGroupCommitWindow();
+    }
+
+    /**
+     * Set the maximum time in microseconds a journal batch that needs a disk
+     * sync is held open so that concurrent writers share one sync. The window
+     * adapts to the observed sync latency, 0 disables group commit.
+     *
+     * @param journalGroupCommitWindow
+     *            the journalGroupCommitWindow to set
+     */
+    public void setJournalGroupCommitWindow(long journalGroupCommitWindow) {
+        this.letter.setJournalGroupCommitWindow(journalGroupCommitWindow);
+    }
+
+    /**
+     * Get the journalRecoveryThreads
+     *
+     * @return the journalRecoveryThreads
+     */
+    public int getJournalRecoveryThreads() {
+        return this.letter.getJournalRecoveryThreads();
+    }
+
+    /**
+     * Set the number of threads that read and decode the journal ahead of the
+     * index replay when the index is recovered, 1 reads it on the recovering thread
+     *
+     * @param journalRecoveryThreads
+     *            the journalRecoveryThreads to set
+     */
+    public void setJournalRecoveryThreads(int journalRecoveryThreads) {
+        this.letter.setJournalRecoveryThreads(journalRecoveryThreads);
+    }
+
+    /**
+     * Get the journalGroupCommitBatchThreshold
+     *
+     * @return the journalGroupCommitBatchThreshold
+     */
+    public int getJournalGroupCommitBatchThreshold() {
+        return this.letter.getJournalGroupCommitBatchThreshold();
+    }
+
+    /**
+     * Set the size in bytes at which a batch held open for group commit is
+     * written without waiting for the rest of the window
+     *
+     * @param journalGroupCommitBatchThreshold
+     *            the journalGroupCommitBatchThreshold to set
+     */
+    public void setJournalGroupCommitBatchThreshold(int journalGroupCommitBatchThreshold) {
+        this.letter.setJournalGroupCommitBatchThreshold(journalGroupCommitBatchThreshold);
+    }
+
     /**
      * Get the indexCacheSize
      *
@@ -450,6 +540,26 @@ public class KahaDBPersistenceAdapter extends LockableServiceSupport implements
         this.letter.setIndexCacheSize(indexCacheSize);
     }
 
+    /**
+     * Get the indexOffHeapCacheSize
+     *
+     * @return the indexOffHeapCacheSize in bytes
+     */
+    public long getIndexOffHeapCacheSize() {
+        return this.letter.getIndexOffHeapCacheSize();
+    }
+
+    /**
+     * Set the number of bytes of raw index pages cached in direct memory, 0 disables the cache
+     * When set using Xbean, values of the form "20 Mb", "1024kb", and "1g" can be used
+     * @org.apache.xbean.Property propertyEditor="org.apache.activemq.util.MemoryPropertyEditor"
+     * @param indexOffHeapCacheSize
+     *            the indexOffHeapCacheSize to set
+     */
+    public void setIndexOffHeapCacheSize(long indexOffHeapCacheSize) {
+        this.letter.setIndexOffHeapCacheSize(indexOffHeapCacheSize);
+    }
+
     /**
      * Get the ignoreMissingJournalfiles
      *
@@ -20,6 +20,7 @@ import java.io.DataInputStream;
 import java.io.IOException;
 import java.io.InterruptedIOException;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -428,6 +429,31 @@ public class KahaDBStore extends MessageDatabase implements PersistenceAdapter {
 
         @Override
         public void removeAsyncMessage(ConnectionContext context, MessageAck ack) throws IOException {
+            if (!cancelAsyncAdd(ack)) {
+                removeMessage(context, ack);
+            }
+        }
+
+        @Override
+        public void removeMessages(ConnectionContext context, Collection<MessageAck> acks) throws IOException {
+            List<KahaRemoveMessageCommand> commands = new ArrayList<KahaRemoveMessageCommand>(acks.size());
+            boolean sync = false;
+            for (MessageAck ack : acks) {
+                if (ack.isInTransaction()) {
+                    removeAsyncMessage(context, ack);
+                } else if (!cancelAsyncAdd(ack)) {
+                    commands.add(createRemoveCommand(ack));
+                    sync |= isEnableJournalDiskSyncs() && ack.isResponseRequired();
+                }
+            }
+            store(commands, sync);
+        }
+
+        /**
+         * @return true if the ack cancelled the pending async add of its
+         *         message, which then has nothing to remove
+         */
+        private boolean cancelAsyncAdd(MessageAck ack) throws IOException {
             if (isConcurrentStoreAndDispatchQueues()) {
                 AsyncJobKey key = new AsyncJobKey(ack.getLastMessageId(), getDestination());
                 StoreQueueTask task = null;
@@ -443,22 +469,34 @@ public class KahaDBStore extends MessageDatabase implements PersistenceAdapter {
                         } catch (Exception ignored) {
                             LOG.debug("removeAsync: cannot cancel, waiting for add resulted in ex", ignored);
                         }
-                        removeMessage(context, ack);
                     } else {
                         synchronized (asyncTaskMap) {
                             asyncTaskMap.remove(key);
                         }
+                        return true;
                     }
-                } else {
-                    removeMessage(context, ack);
                 }
-            } else {
-                removeMessage(context, ack);
             }
+            return false;
         }
 
         @Override
         public void addMessage(ConnectionContext context, Message message) throws IOException {
+            store(createAddCommand(message), isEnableJournalDiskSyncs() && message.isResponseRequired(), null, null);
+        }
+
+        @Override
+        public void addMessages(ConnectionContext context, List<Message> messages) throws IOException {
+            List<KahaAddMessageCommand> commands = new ArrayList<KahaAddMessageCommand>(messages.size());
+            boolean sync = false;
+            for (Message message : messages) {
+                commands.add(createAddCommand(message));
+                sync |= isEnableJournalDiskSyncs() && message.isResponseRequired();
+            }
+            store(commands, sync);
+        }
+
+        private KahaAddMessageCommand createAddCommand(Message message) throws IOException {
             KahaAddMessageCommand command = new KahaAddMessageCommand();
             command.setDestination(dest);
             command.setMessageId(message.getMessageId().toProducerKey());
@@ -467,12 +505,15 @@ public class KahaDBStore extends MessageDatabase implements PersistenceAdapter {
             command.setPrioritySupported(isPrioritizedMessages());
             org.apache.activemq.util.ByteSequence packet = wireFormat.marshal(message);
             command.setMessage(new Buffer(packet.getData(), packet.getOffset(), packet.getLength()));
-            store(command, isEnableJournalDiskSyncs() && message.isResponseRequired(), null, null);
-
+            return command;
         }
 
         @Override
         public void removeMessage(ConnectionContext context, MessageAck ack) throws IOException {
+            store(createRemoveCommand(ack), isEnableJournalDiskSyncs() && ack.isResponseRequired(), null, null);
+        }
+
+        private KahaRemoveMessageCommand createRemoveCommand(MessageAck ack) throws IOException {
             KahaRemoveMessageCommand command = new KahaRemoveMessageCommand();
             command.setDestination(dest);
             command.setMessageId(ack.getLastMessageId().toProducerKey());
@@ -480,7 +521,7 @@ public class KahaDBStore extends MessageDatabase implements PersistenceAdapter {
 
             org.apache.activemq.util.ByteSequence packet = wireFormat.marshal(ack);
             command.setAck(new Buffer(packet.getData(), packet.getOffset(), packet.getLength()));
-            store(command, isEnableJournalDiskSyncs() && ack.isResponseRequired(), null, null);
+            return command;
         }
 
         @Override
@@ -19,7 +19,9 @@ package org.apache.activemq.store.kahadb;
 import java.io.DataInputStream;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.CancellationException;
@@ -111,11 +113,27 @@ public class KahaDBTransactionStore implements TransactionStore {
          */
         public List<Future<Object>> commit() throws IOException {
             List<Future<Object>> results = new ArrayList<Future<Object>>();
-            // Do all the message adds.
+            // Do all the message adds, a batch per destination.
+            Map<MessageStore, List<Message>> batches = new LinkedHashMap<MessageStore, List<Message>>();
+            ConnectionContext batchContext = null;
             for (Iterator<AddMessageCommand> iter = messages.iterator(); iter.hasNext();) {
                 AddMessageCommand cmd = iter.next();
-                results.add(cmd.run());
-
+                MessageStore store = cmd.getBatchStore();
+                if (store == null) {
+                    results.add(cmd.run());
+                } else {
+                    List<Message> batch = batches.get(store);
+                    if (batch == null) {
+                        batch = new ArrayList<Message>();
+                        batches.put(store, batch);
+                    }
+                    batch.add(cmd.getMessage());
+                    batchContext = cmd.ctx;
+                }
+            }
+            for (Map.Entry<MessageStore, List<Message>> batch : batches.entrySet()) {
+                batch.getKey().addMessages(batchContext, batch.getValue());
+                results.add(AbstractMessageStore.FUTURE);
             }
             // And removes..
             for (Iterator<RemoveMessageCommand> iter = acks.iterator(); iter.hasNext();) {
@@ -138,6 +156,14 @@ public class KahaDBTransactionStore implements TransactionStore {
             return run(this.ctx);
         }
         abstract Future<Object> run(ConnectionContext ctx) throws IOException;
+
+        /**
+         * @return the store to add the message to in a batch with the other
+         *         messages of the transaction, or null to run the command
+         */
+        MessageStore getBatchStore() {
+            return null;
+        }
     }
 
     public abstract class RemoveMessageCommand {
@@ -184,6 +210,11 @@ public class KahaDBTransactionStore implements TransactionStore {
             public void removeAsyncMessage(ConnectionContext context, MessageAck ack) throws IOException {
                 KahaDBTransactionStore.this.removeAsyncMessage(context, getDelegate(), ack);
             }
+
+            @Override
+            public void removeMessages(ConnectionContext context, Collection<MessageAck> acks) throws IOException {
+                KahaDBTransactionStore.this.removeMessages(context, getDelegate(), acks);
+            }
         };
     }
 
@@ -381,6 +412,10 @@ public class KahaDBTransactionStore implements TransactionStore {
                         destination.addMessage(ctx, message);
                         return AbstractMessageStore.FUTURE;
                     }
+                    @Override
+                    MessageStore getBatchStore() {
+                        return destination;
+                    }
 
                 });
             }
@@ -407,6 +442,10 @@ public class KahaDBTransactionStore implements TransactionStore {
                     public Future<Object> run(ConnectionContext ctx) throws IOException {
                         return destination.asyncAddQueueMessage(ctx, message);
                     }
+                    @Override
+                    MessageStore getBatchStore() {
+                        return destination;
+                    }
 
                 });
                 return AbstractMessageStore.FUTURE;
@@ -499,6 +538,21 @@ public class KahaDBTransactionStore implements TransactionStore {
         }
     }
 
+    final void removeMessages(ConnectionContext context, final MessageStore destination, final Collection<MessageAck> acks)
+            throws IOException {
+
+        for (MessageAck ack : acks) {
+            if (ack.isInTransaction()) {
+                // the transaction defers its acks, so the batch goes one at a time
+                for (MessageAck each : acks) {
+                    removeAsyncMessage(context, destination, each);
+                }
+                return;
+            }
+        }
+        destination.removeMessages(context, acks);
+    }
+
     final void acknowledge(ConnectionContext context, final TopicMessageStore destination, final String clientId, final String subscriptionName,
                            final MessageId messageId, final MessageAck ack) throws IOException {
 
@@ -43,7 +43,6 @@ import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
 import java.util.SortedSet;
-import java.util.TreeMap;
 import java.util.TreeSet;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
@@ -83,6 +82,7 @@ import org.apache.activemq.store.kahadb.disk.util.LongMarshaller;
 import org.apache.activemq.store.kahadb.disk.util.Marshaller;
 import org.apache.activemq.store.kahadb.disk.util.Sequence;
 import org.apache.activemq.store.kahadb.disk.util.SequenceSet;
+import org.apache.activemq.store.kahadb.disk.util.SortedLongLongMap;
 import org.apache.activemq.store.kahadb.disk.util.StringMarshaller;
 import org.apache.activemq.store.kahadb.disk.util.VariableMarshaller;
 import org.apache.activemq.util.ByteSequence;
@@ -226,6 +226,10 @@ public abstract class MessageDatabase extends ServiceSupport implements BrokerSe
     protected File directory = DEFAULT_DIRECTORY;
     protected Thread checkpointThread;
     protected boolean enableJournalDiskSyncs=true;
+    protected boolean enableJournalMemoryMapping=false;
+    protected long journalGroupCommitWindow=0;
+    protected int journalRecoveryThreads=1;
+    protected int journalGroupCommitBatchThreshold=Journal.DEFAULT_GROUP_COMMIT_BATCH_THRESHOLD;
     protected boolean archiveDataLogs;
     protected File directoryArchive;
     protected AtomicLong journalSize = new AtomicLong(0);
@@ -239,6 +243,7 @@ public abstract class MessageDatabase extends ServiceSupport implements BrokerSe
     protected AtomicBoolean opened = new AtomicBoolean();
     private boolean ignoreMissingJournalfiles = false;
     private int indexCacheSize = 10000;
+    private long indexOffHeapCacheSize = 0;
     private boolean checkForCorruptJournalFiles = false;
     private boolean checksumJournalFiles = true;
     protected boolean forceRecoverIndex = false;
@@ -579,15 +584,19 @@ public abstract class MessageDatabase extends ServiceSupport implements BrokerSe
             if (recoveryPosition != null) {
                 int redoCounter = 0;
                 LOG.info("Recovering from the journal ...");
-                while (recoveryPosition != null) {
-                    JournalCommand<?> message = load(recoveryPosition);
-                    metadata.lastUpdate = recoveryPosition;
-                    process(message, recoveryPosition, lastIndoubtPosition);
-                    redoCounter++;
-                    recoveryPosition = journal.getNextLocation(recoveryPosition);
-                     if (LOG.isInfoEnabled() && redoCounter % 100000 == 0) {
-                         LOG.info("@" + recoveryPosition +  ", "  + redoCounter + " entries recovered ..");
-                     }
+                if (getJournalRecoveryThreads() > 1) {
+                    redoCounter = recoverInParallel(recoveryPosition, lastIndoubtPosition);
+                } else {
+                    while (recoveryPosition != null) {
+                        JournalCommand<?> message = load(recoveryPosition);
+                        metadata.lastUpdate = recoveryPosition;
+                        process(message, recoveryPosition, lastIndoubtPosition);
+                        redoCounter++;
+                        recoveryPosition = journal.getNextLocation(recoveryPosition);
+                         if (LOG.isInfoEnabled() && redoCounter % 100000 == 0) {
+                             LOG.info("@" + recoveryPosition +  ", "  + redoCounter + " entries recovered ..");
+                         }
+                    }
                 }
                 if (LOG.isInfoEnabled()) {
                     long end = System.currentTimeMillis();
@@ -640,6 +649,29 @@ public abstract class MessageDatabase extends ServiceSupport implements BrokerSe
         }
     }
 
+    /**
+     * Replays the journal like the sequential loop in recover() but with the
+     * data files read and decoded ahead on journalRecoveryThreads threads.
+     */
+    private int recoverInParallel(Location recoveryPosition, Location lastIndoubtPosition) throws IOException {
+        int redoCounter = 0;
+        ParallelJournalReader reader = new ParallelJournalReader(this, recoveryPosition, getJournalRecoveryThreads());
+        try {
+            ParallelJournalReader.Record record;
+            while ((record = reader.next()) != null) {
+                metadata.lastUpdate = record.location;
+                process(record.command, record.location, lastIndoubtPosition);
+                redoCounter++;
+                if (LOG.isInfoEnabled() && redoCounter % 100000 == 0) {
+                    LOG.info("@" + record.location + ", " + redoCounter + " entries recovered ..");
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        return redoCounter;
+    }
+
     @SuppressWarnings("unused")
     private KahaTransactionInfo createLocalTransactionInfo(TransactionId tx) {
         return TransactionIdConversion.convertToLocal(tx);
@@ -975,6 +1007,88 @@ public abstract class MessageDatabase extends ServiceSupport implements BrokerSe
         }
     }
 
+    /**
+     * Stores a batch of message adds and removes. Each one is logged to the
+     * journal like a single store does, so recovery replays them as usual,
+     * but the index is updated for all the non transactional ones in one page
+     * file transaction.
+     */
+    public void store(final List<? extends JournalCommand<?>> commands, boolean sync) throws IOException {
+        if (commands.isEmpty()) {
+            return;
+        }
+        try {
+            final List<JournalCommand<?>> indexed = new ArrayList<JournalCommand<?>>(commands.size());
+            final List<Location> locations = new ArrayList<Location>(commands.size());
+            checkpointLock.readLock().lock();
+            try {
+                long start = System.currentTimeMillis();
+                // the journal appends in order, syncing the last write syncs them all
+                for (int i = 0; i < commands.size(); i++) {
+                    JournalCommand<?> command = commands.get(i);
+                    Location location = journal.write(toByteSequence(command), sync && i == commands.size() - 1);
+                    if (isIndexedInBatch(command)) {
+                        indexed.add(command);
+                        locations.add(location);
+                    } else {
+                        process(command, location, null, null);
+                    }
+                }
+                long start2 = System.currentTimeMillis();
+                if (!indexed.isEmpty()) {
+                    this.indexLock.writeLock().lock();
+                    try {
+                        pageFile.tx().execute(new Transaction.Closure<IOException>() {
+                            @Override
+                            public void execute(Transaction tx) throws IOException {
+                                for (int i = 0; i < indexed.size(); i++) {
+                                    JournalCommand<?> command = indexed.get(i);
+                                    if (command instanceof KahaAddMessageCommand) {
+                                        upadateIndex(tx, (KahaAddMessageCommand) command, locations.get(i));
+                                    } else {
+                                        updateIndex(tx, (KahaRemoveMessageCommand) command, locations.get(i));
+                                    }
+                                }
+                            }
+                        });
+                    } finally {
+                        this.indexLock.writeLock().unlock();
+                    }
+                }
+
+                long end = System.currentTimeMillis();
+                if( LOG_SLOW_ACCESS_TIME>0 && end-start > LOG_SLOW_ACCESS_TIME) {
+                    if (LOG.isInfoEnabled()) {
+                        LOG.info("Slow KahaDB access: Journal append of " + commands.size() + " commands took: "+(start2-start)+" ms, Index update took "+(end-start2)+" ms");
+                    }
+                }
+            } finally {
+                checkpointLock.readLock().unlock();
+            }
+
+            if (checkpointThread != null && !checkpointThread.isAlive()) {
+                startCheckpoint();
+            }
+        } catch (IOException ioe) {
+            LOG.error("KahaDB failed to store to Journal", ioe);
+            brokerService.handleIOException(ioe);
+            throw ioe;
+        }
+    }
+
+    /**
+     * Transactional commands only update the index on commit, so they are
+     * processed one by one.
+     */
+    private boolean isIndexedInBatch(JournalCommand<?> command) {
+        if (command instanceof KahaAddMessageCommand) {
+            return !((KahaAddMessageCommand) command).hasTransactionInfo();
+        } else if (command instanceof KahaRemoveMessageCommand) {
+            return !((KahaRemoveMessageCommand) command).hasTransactionInfo();
+        }
+        return false;
+    }
+
     /**
      * Loads a previously stored JournalMessage
      *
@@ -991,6 +1105,13 @@ public abstract class MessageDatabase extends ServiceSupport implements BrokerSe
                 LOG.info("Slow KahaDB access: Journal read took: "+(end-start)+" ms");
             }
         }
+        return decode(location, data);
+    }
+
+    /**
+     * Decodes a journal record, safe to call from several threads.
+     */
+    JournalCommand<?> decode(Location location, ByteSequence data) throws IOException {
         DataByteArrayInputStream is = new DataByteArrayInputStream(data);
         byte readByte = is.readByte();
         KahaEntryType type = KahaEntryType.valueOf(readByte);
@@ -1815,7 +1936,7 @@ public abstract class MessageDatabase extends ServiceSupport implements BrokerSe
         ListIndex<String, Location> subLocations;
 
         // Transient data used to track which Messages are no longer needed.
-        final TreeMap<Long, Long> messageReferences = new TreeMap<Long, Long>();
+        final SortedLongLongMap messageReferences = new SortedLongLongMap();
         final HashSet<String> subscriptionCache = new LinkedHashSet<String>();
     }
 
@@ -2059,17 +2180,14 @@ public abstract class MessageDatabase extends ServiceSupport implements BrokerSe
                 Entry<String, SequenceSet> subscription = subscriptions.next();
                 SequenceSet pendingAcks = subscription.getValue();
                 if (pendingAcks != null && !pendingAcks.isEmpty()) {
-                    Long lastPendingAck = pendingAcks.getTail().getLast();
+                    long lastPendingAck = pendingAcks.getTail().getLast();
                     for(Long sequenceId : pendingAcks) {
-                        Long current = rc.messageReferences.get(sequenceId);
-                        if (current == null) {
-                            current = new Long(0);
-                        }
+                        long current = rc.messageReferences.get(sequenceId, 0L);
 
                         // We always add a trailing empty entry for the next position to start from
                         // so we need to ensure we don't count that as a message reference on reload.
-                        if (!sequenceId.equals(lastPendingAck)) {
-                            current = current.longValue() + 1;
+                        if (sequenceId.longValue() != lastPendingAck) {
+                            current++;
                         }
 
                         rc.messageReferences.put(sequenceId, current);
@@ -2095,7 +2213,7 @@ public abstract class MessageDatabase extends ServiceSupport implements BrokerSe
             } else {
                 // update based on ackPositions for unmatched, last entry is always the next
                 if (!rc.messageReferences.isEmpty()) {
-                    Long nextMessageId = (Long) rc.messageReferences.keySet().toArray()[rc.messageReferences.size() - 1];
+                    long nextMessageId = rc.messageReferences.lastKey();
                     rc.orderIndex.nextMessageId =
                             Math.max(rc.orderIndex.nextMessageId, nextMessageId);
                 }
@@ -2120,12 +2238,8 @@ public abstract class MessageDatabase extends ServiceSupport implements BrokerSe
             sd.ackPositions.put(tx, subscriptionKey, sequences);
         }
 
-        Long count = sd.messageReferences.get(messageSequence);
-        if (count == null) {
-            count = Long.valueOf(0L);
-        }
-        count = count.longValue() + 1;
-        sd.messageReferences.put(messageSequence, count);
+        long count = sd.messageReferences.get(messageSequence, 0L);
+        sd.messageReferences.put(messageSequence, count + 1);
     }
 
     // new sub is interested in potentially all existing messages
@@ -2141,9 +2255,8 @@ public abstract class MessageDatabase extends ServiceSupport implements BrokerSe
         sd.ackPositions.put(tx, subscriptionKey, allOutstanding);
 
         for (Long ackPosition : allOutstanding) {
-            Long count = sd.messageReferences.get(ackPosition);
-            count = count.longValue() + 1;
-            sd.messageReferences.put(ackPosition, count);
+            long count = sd.messageReferences.get(ackPosition, 0L);
+            sd.messageReferences.put(ackPosition, count + 1);
         }
     }
 
@@ -2160,13 +2273,9 @@ public abstract class MessageDatabase extends ServiceSupport implements BrokerSe
                 sd.ackPositions.put(tx, subscriptionKey, sequences);
             }
 
-            Long count = sd.messageReferences.get(messageSequence);
-            if (count == null) {
-                count = Long.valueOf(0L);
-            }
-            count = count.longValue() + 1;
-            sd.messageReferences.put(messageSequence, count);
-            sd.messageReferences.put(messageSequence+1, Long.valueOf(0L));
+            long count = sd.messageReferences.get(messageSequence, 0L);
+            sd.messageReferences.put(messageSequence, count + 1);
+            sd.messageReferences.put(messageSequence+1, 0L);
         }
     }
 
@@ -2180,11 +2289,11 @@ public abstract class MessageDatabase extends ServiceSupport implements BrokerSe
             ArrayList<Long> unreferenced = new ArrayList<Long>();
 
             for(Long sequenceId : sequences) {
-                Long references = sd.messageReferences.get(sequenceId);
-                if (references != null) {
-                    references = references.longValue() - 1;
+                long references = sd.messageReferences.get(sequenceId, -1L);
+                if (references >= 0) {
+                    references--;
 
-                    if (references.longValue() > 0) {
+                    if (references > 0) {
                         sd.messageReferences.put(sequenceId, references);
                     } else {
                         sd.messageReferences.remove(sequenceId);
@@ -2228,11 +2337,11 @@ public abstract class MessageDatabase extends ServiceSupport implements BrokerSe
                 }
 
                 // Check if the message is reference by any other subscription.
-                Long count = sd.messageReferences.get(messageSequence);
-                if (count != null){
-                long references = count.longValue() - 1;
+                long count = sd.messageReferences.get(messageSequence, -1L);
+                if (count >= 0) {
+                    long references = count - 1;
                     if (references > 0) {
-                        sd.messageReferences.put(messageSequence, Long.valueOf(references));
+                        sd.messageReferences.put(messageSequence, references);
                         return;
                     } else {
                         sd.messageReferences.remove(messageSequence);
@@ -2381,6 +2490,7 @@ public abstract class MessageDatabase extends ServiceSupport implements BrokerSe
         index.setEnableWriteThread(isEnableIndexWriteAsync());
         index.setWriteBatchSize(getIndexWriteBatchSize());
         index.setPageCacheSize(indexCacheSize);
+        index.setOffHeapPageCacheSize(indexOffHeapCacheSize);
         index.setUseLFRUEviction(isUseIndexLFRUEviction());
         index.setLFUEvictionFactor(getIndexLFUEvictionFactor());
         index.setEnableDiskSyncs(isEnableIndexDiskSyncs());
@@ -2399,6 +2509,9 @@ public abstract class MessageDatabase extends ServiceSupport implements BrokerSe
         manager.setArchiveDataLogs(isArchiveDataLogs());
         manager.setSizeAccumulator(journalSize);
         manager.setEnableAsyncDiskSync(isEnableJournalDiskSyncs());
+        manager.setEnableMemoryMapping(isEnableJournalMemoryMapping());
+        manager.setGroupCommitWindow(getJournalGroupCommitWindow());
+        manager.setGroupCommitBatchThreshold(getJournalGroupCommitBatchThreshold());
         if (getDirectoryArchive() != null) {
             IOHelper.mkdirs(getDirectoryArchive());
             manager.setDirectoryArchive(getDirectoryArchive());
@@ -2454,6 +2567,38 @@ public abstract class MessageDatabase extends ServiceSupport implements BrokerSe
         this.enableJournalDiskSyncs = syncWrites;
     }
 
+    public boolean isEnableJournalMemoryMapping() {
+        return enableJournalMemoryMapping;
+    }
+
+    public void setEnableJournalMemoryMapping(boolean enableJournalMemoryMapping) {
+        this.enableJournalMemoryMapping = enableJournalMemoryMapping;
+    }
+
+    public long getJournalGroupCommitWindow() {
+        return journalGroupCommitWindow;
+    }
+
+    public void setJournalGroupCommitWindow(long journalGroupCommitWindow) {
+        this.journalGroupCommitWindow = journalGroupCommitWindow;
+    }
+
+    public int getJournalRecoveryThreads() {
+        return journalRecoveryThreads;
+    }
+
+    public void setJournalRecoveryThreads(int journalRecoveryThreads) {
+        this.journalRecoveryThreads = journalRecoveryThreads;
+    }
+
+    public int getJournalGroupCommitBatchThreshold() {
+        return journalGroupCommitBatchThreshold;
+    }
+
+    public void setJournalGroupCommitBatchThreshold(int journalGroupCommitBatchThreshold) {
+        this.journalGroupCommitBatchThreshold = journalGroupCommitBatchThreshold;
+    }
+
     public long getCheckpointInterval() {
         return checkpointInterval;
     }
@@ -2532,6 +2677,14 @@ public abstract class MessageDatabase extends ServiceSupport implements BrokerSe
         this.indexCacheSize = indexCacheSize;
     }
 
+    public long getIndexOffHeapCacheSize() {
+        return indexOffHeapCacheSize;
+    }
+
+    public void setIndexOffHeapCacheSize(long indexOffHeapCacheSize) {
+        this.indexOffHeapCacheSize = indexOffHeapCacheSize;
+    }
+
     public boolean isCheckForCorruptJournalFiles() {
         return checkForCorruptJournalFiles;
     }
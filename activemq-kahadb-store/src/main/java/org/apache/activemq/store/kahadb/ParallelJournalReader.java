@@ -0,0 +1,161 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.store.kahadb;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import org.apache.activemq.store.kahadb.disk.journal.Journal;
+import org.apache.activemq.store.kahadb.disk.journal.Location;
+import org.apache.activemq.util.ByteSequence;
+import org.apache.activemq.util.IOExceptionSupport;
+
+/**
+ * Reads and decodes the journal for recovery on several threads, while
+ * handing the commands back in journal order.
+ *
+ * Each data file is read sequentially and decoded by its own task. At most
+ * one data file per thread is read ahead of the file being replayed, which
+ * bounds the memory used by the decoded commands. Replaying the commands
+ * into the index stays on the recovering thread as the index is single
+ * writer and the transaction and producer audit state is order sensitive.
+ */
+class ParallelJournalReader {
+
+    private final MessageDatabase store;
+    private final Journal journal;
+    private final ExecutorService executor;
+    private final int readAhead;
+    private final Iterator<Integer> dataFileIds;
+    private final LinkedList<Future<DataFileRecords>> pending = new LinkedList<Future<DataFileRecords>>();
+    private Location start;
+    private DataFileRecords current;
+    private int index;
+    private boolean endOfJournal;
+
+    ParallelJournalReader(MessageDatabase store, Location start, int threads) {
+        this.store = store;
+        this.journal = store.journal;
+        this.start = start;
+        this.readAhead = threads;
+        List<Integer> ids = new ArrayList<Integer>();
+        for (Integer dataFileId : journal.getFileMap().keySet()) {
+            if (dataFileId >= start.getDataFileId()) {
+                ids.add(dataFileId);
+            }
+        }
+        this.dataFileIds = ids.iterator();
+        this.executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "KahaDB Journal Recovery Reader");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * @return the next record of the journal, or null once it has all been read
+     */
+    Record next() throws IOException {
+        while (current == null || index >= current.records.size()) {
+            if (current != null && !current.complete) {
+                endOfJournal = true;
+            }
+            current = null;
+            if (endOfJournal) {
+                return null;
+            }
+            fill();
+            if (pending.isEmpty()) {
+                return null;
+            }
+            current = take(pending.removeFirst());
+            index = 0;
+        }
+        return current.records.get(index++);
+    }
+
+    void close() {
+        executor.shutdownNow();
+    }
+
+    private void fill() {
+        while (pending.size() < readAhead && dataFileIds.hasNext()) {
+            final int dataFileId = dataFileIds.next();
+            final int offset = start != null ? start.getOffset() : 0;
+            start = null;
+            pending.add(executor.submit(new Callable<DataFileRecords>() {
+                @Override
+                public DataFileRecords call() throws Exception {
+                    return read(dataFileId, offset);
+                }
+            }));
+        }
+    }
+
+    private DataFileRecords read(int dataFileId, int offset) throws IOException {
+        final DataFileRecords result = new DataFileRecords();
+        result.complete = journal.readUserRecords(dataFileId, offset, new Journal.RecordVisitor() {
+            @Override
+            public void visit(Location location, ByteSequence data) throws IOException {
+                result.records.add(new Record(location, store.decode(location, data)));
+            }
+        });
+        return result;
+    }
+
+    private DataFileRecords take(Future<DataFileRecords> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while reading the journal");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw IOExceptionSupport.create(e.getCause());
+        }
+    }
+
+    static class Record {
+        final Location location;
+        final JournalCommand<?> command;
+
+        Record(Location location, JournalCommand<?> command) {
+            this.location = location;
+            this.command = command;
+        }
+    }
+
+    private static class DataFileRecords {
+        final List<Record> records = new ArrayList<Record>();
+        boolean complete;
+    }
+}
@@ -91,19 +91,15 @@ class CallerBufferingDataFileAppender extends DataFileAppender {
                 Object o = null;
 
                 // Block till we get a command.
-                synchronized (enqueueMutex) {
-                    while (true) {
-                        if (nextWriteBatch != null) {
-                            o = nextWriteBatch;
-                            nextWriteBatch = null;
-                            break;
-                        }
-                        if (shutdown) {
-                            return;
-                        }
-                        enqueueMutex.wait();
+                enqueueLock.lock();
+                try {
+                    o = takeNextWriteBatch();
+                    if (o == null) {
+                        return;
                     }
-                    enqueueMutex.notifyAll();
+                    enqueueCondition.signalAll();
+                } finally {
+                    enqueueLock.unlock();
                 }
 
                 wb = (WriteBatch)o;
@@ -154,7 +150,9 @@ class CallerBufferingDataFileAppender extends DataFileAppender {
                 }
                 
                 if (forceToDisk) {
+                    long start = System.nanoTime();
                     file.getFD().sync();
+                    forced(System.nanoTime() - start);
                 }
 
                 Journal.WriteCommand lastWrite = wb.writes.getTail();
@@ -164,7 +162,8 @@ class CallerBufferingDataFileAppender extends DataFileAppender {
 
             }
         } catch (IOException e) {
-            synchronized (enqueueMutex) {
+            enqueueLock.lock();
+            try {
                 firstAsyncException = e;
                 if (wb != null) {
                     wb.exception.set(e);
@@ -174,6 +173,8 @@ class CallerBufferingDataFileAppender extends DataFileAppender {
                     nextWriteBatch.exception.set(e);
                     nextWriteBatch.latch.countDown();
                 }
+            } finally {
+                enqueueLock.unlock();
             }
         } catch (InterruptedException e) {
         } finally {
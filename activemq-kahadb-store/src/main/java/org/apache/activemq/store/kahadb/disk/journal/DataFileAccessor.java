@@ -18,8 +18,10 @@ package org.apache.activemq.store.kahadb.disk.journal;
 
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
 import java.util.Map;
 
+import org.apache.activemq.store.kahadb.disk.util.MappedByteBufferSupport;
 import org.apache.activemq.util.ByteSequence;
 
 /**
@@ -33,6 +35,8 @@ final class DataFileAccessor {
     private final DataFile dataFile;
     private final Map<Journal.WriteKey, Journal.WriteCommand> inflightWrites;
     private final RandomAccessFile file;
+    private final boolean memoryMapped;
+    private MappedByteBuffer mapped;
     private boolean disposed;
 
     /**
@@ -45,6 +49,7 @@ final class DataFileAccessor {
         this.dataFile = dataFile;
         this.inflightWrites = dataManager.getInflightWrites();
         this.file = dataFile.openRandomAccessFile();
+        this.memoryMapped = dataManager.isEnableMemoryMapping();
     }
 
     public DataFile getDataFile() {
@@ -56,6 +61,8 @@ final class DataFileAccessor {
             return;
         }
         disposed = true;
+        MappedByteBufferSupport.unmap(mapped);
+        mapped = null;
         try {
             dataFile.closeRandomAccessFile(file);
         } catch (IOException e) {
@@ -76,6 +83,23 @@ final class DataFileAccessor {
 
         try {
 
+            MappedByteBuffer buffer = mappedBufferFor(location.getOffset() + Journal.RECORD_HEAD_SPACE);
+            if (buffer != null) {
+                buffer.position(location.getOffset());
+                if (location.getSize() == Location.NOT_SET) {
+                    location.setSize(buffer.getInt());
+                    location.setType(buffer.get());
+                } else {
+                    buffer.position(location.getOffset() + Journal.RECORD_HEAD_SPACE);
+                }
+                int length = location.getSize() - Journal.RECORD_HEAD_SPACE;
+                if (buffer.remaining() >= length) {
+                    byte[] data = new byte[length];
+                    buffer.get(data);
+                    return new ByteSequence(data, 0, data.length);
+                }
+            }
+
             if (location.getSize() == Location.NOT_SET) {
                 file.seek(location.getOffset());
                 location.setSize(file.readInt());
@@ -109,10 +133,38 @@ final class DataFileAccessor {
             location.setSize(asyncWrite.location.getSize());
             location.setType(asyncWrite.location.getType());
         } else {
-            file.seek(location.getOffset());
-            location.setSize(file.readInt());
-            location.setType(file.readByte());
+            MappedByteBuffer buffer = mappedBufferFor(location.getOffset() + Journal.RECORD_HEAD_SPACE);
+            if (buffer != null) {
+                buffer.position(location.getOffset());
+                location.setSize(buffer.getInt());
+                location.setType(buffer.get());
+            } else {
+                file.seek(location.getOffset());
+                location.setSize(file.readInt());
+                location.setType(file.readByte());
+            }
+        }
+    }
+
+    /**
+     * Returns a read only mapping of the data file that covers the given
+     * offset, remapping when the file has grown past the current mapping, or
+     * null when memory mapping is disabled or the offset is past the end of
+     * the file.
+     */
+    private MappedByteBuffer mappedBufferFor(long end) throws IOException {
+        if (!memoryMapped) {
+            return null;
+        }
+        if (mapped == null || end > mapped.capacity()) {
+            long length = Math.min(file.length(), Integer.MAX_VALUE);
+            if (end > length) {
+                return null;
+            }
+            MappedByteBufferSupport.unmap(mapped);
+            mapped = MappedByteBufferSupport.map(file, length, true);
         }
+        return mapped;
     }
 
 //    public boolean readLocationDetailsAndValidate(Location location) {
@@ -21,7 +21,10 @@ import java.io.InterruptedIOException;
 import java.io.RandomAccessFile;
 import java.util.Map;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.zip.Adler32;
 import java.util.zip.Checksum;
 
@@ -42,7 +45,8 @@ class DataFileAppender implements FileAppender {
 
     protected final Journal journal;
     protected final Map<Journal.WriteKey, Journal.WriteCommand> inflightWrites;
-    protected final Object enqueueMutex = new Object();
+    protected final ReentrantLock enqueueLock = new ReentrantLock();
+    protected final Condition enqueueCondition = enqueueLock.newCondition();
     protected WriteBatch nextWriteBatch;
 
     protected boolean shutdown;
@@ -50,6 +54,11 @@ class DataFileAppender implements FileAppender {
     protected final CountDownLatch shutdownDone = new CountDownLatch(1);
     protected int maxWriteBatchSize;
     protected final boolean syncOnComplete;
+    protected final long groupCommitMaxWindowNanos;
+    protected final int groupCommitBatchThreshold;
+    protected final JournalStatistics statistics;
+    // moving average of the observed force to disk latency, used to size the group commit window
+    protected long averageForceNanos;
 
     protected boolean running;
     private Thread thread;
@@ -88,6 +97,9 @@ class DataFileAppender implements FileAppender {
         protected final int offset;
         public int size = Journal.BATCH_CONTROL_RECORD_SIZE;
         public AtomicReference<IOException> exception = new AtomicReference<IOException>();
+        protected final long created = System.nanoTime();
+        protected boolean forceRequested;
+        protected boolean full;
 
         public WriteBatch(DataFile dataFile,int offset) {
             this.dataFile = dataFile;
@@ -115,6 +127,7 @@ class DataFileAppender implements FileAppender {
             write.location.setDataFileId(dataFile.getDataFileId());
             write.location.setOffset(offset+size);
             int s = write.location.getSize();
+            forceRequested |= write.sync | (syncOnComplete && write.onComplete != null);
             size += s;
             dataFile.incrementLength(s);
             journal.addToTotalLength(s);
@@ -129,6 +142,9 @@ class DataFileAppender implements FileAppender {
         this.inflightWrites = this.journal.getInflightWrites();
         this.maxWriteBatchSize = this.journal.getWriteBatchSize();
         this.syncOnComplete = this.journal.isEnableAsyncDiskSync();
+        this.groupCommitMaxWindowNanos = TimeUnit.MICROSECONDS.toNanos(this.journal.getGroupCommitWindow());
+        this.groupCommitBatchThreshold = this.journal.getGroupCommitBatchThreshold();
+        this.statistics = this.journal.getStatistics();
     }
 
     public Location storeItem(ByteSequence data, byte type, boolean sync) throws IOException {
@@ -176,7 +192,8 @@ class DataFileAppender implements FileAppender {
     }
 
     private WriteBatch enqueue(Journal.WriteCommand write) throws IOException {
-        synchronized (enqueueMutex) {
+        enqueueLock.lock();
+        try {
             if (shutdown) {
                 throw new IOException("Async Writter Thread Shutdown");
             }
@@ -207,19 +224,25 @@ class DataFileAppender implements FileAppender {
                     }
 
                     nextWriteBatch = newWriteBatch(write, file);
-                    enqueueMutex.notifyAll();
+                    enqueueCondition.signalAll();
                     break;
                 } else {
                     // Append to current batch if possible..
                     if (nextWriteBatch.canAppend(write)) {
                         nextWriteBatch.append(write);
+                        if (isGroupCommit() && nextWriteBatch.size >= groupCommitBatchThreshold) {
+                            enqueueCondition.signalAll();
+                        }
                         break;
                     } else {
+                        // Let a writer holding the batch open for group commit take it now
+                        nextWriteBatch.full = true;
+                        enqueueCondition.signalAll();
                         // Otherwise wait for the queuedCommand to be null
                         try {
                             while (nextWriteBatch != null) {
                                 final long start = System.currentTimeMillis();
-                                enqueueMutex.wait();
+                                enqueueCondition.await();
                                 if (maxStat > 0) {
                                     logger.info("Watiting for write to finish with full batch... millis: " +
                                                 (System.currentTimeMillis() - start));
@@ -238,6 +261,8 @@ class DataFileAppender implements FileAppender {
                 inflightWrites.put(new Journal.WriteKey(write.location), write);
             }
             return nextWriteBatch;
+        } finally {
+            enqueueLock.unlock();
         }
     }
 
@@ -245,16 +270,71 @@ class DataFileAppender implements FileAppender {
         return new WriteBatch(file, file.getLength(), write);
     }
 
+    protected boolean isGroupCommit() {
+        return groupCommitMaxWindowNanos > 0;
+    }
+
+    /**
+     * Blocks until a batch is ready to be written. In group commit mode a
+     * batch that needs a force to disk is held open for up to the current
+     * commit window, or until it reaches the byte threshold or fills up, so
+     * that more writers can share the same force. Must be called holding the
+     * enqueueLock.
+     *
+     * @return the batch or null if the appender is shutting down
+     */
+    protected WriteBatch takeNextWriteBatch() throws InterruptedException {
+        while (true) {
+            if (nextWriteBatch != null) {
+                long remaining = groupCommitRemainingNanos(nextWriteBatch);
+                if (remaining <= 0 || shutdown) {
+                    WriteBatch batch = nextWriteBatch;
+                    nextWriteBatch = null;
+                    return batch;
+                }
+                enqueueCondition.awaitNanos(remaining);
+                continue;
+            }
+            if (shutdown) {
+                return null;
+            }
+            enqueueCondition.await();
+        }
+    }
+
+    private long groupCommitRemainingNanos(WriteBatch batch) {
+        if (!isGroupCommit() || !batch.forceRequested || batch.full || batch.size >= groupCommitBatchThreshold) {
+            return 0;
+        }
+        return getGroupCommitWindowNanos() - (System.nanoTime() - batch.created);
+    }
+
+    /**
+     * The commit window adapts to the disk: it is half the moving average of
+     * the force latency, bounded by the configured maximum window.
+     */
+    protected long getGroupCommitWindowNanos() {
+        return Math.min(groupCommitMaxWindowNanos, averageForceNanos / 2);
+    }
+
+    protected void forced(long nanos) {
+        averageForceNanos += (nanos - averageForceNanos) / 8;
+        statistics.getForceTime().addTime(TimeUnit.NANOSECONDS.toMicros(nanos));
+    }
+
     public void close() throws IOException {
-        synchronized (enqueueMutex) {
+        enqueueLock.lock();
+        try {
             if (!shutdown) {
                 shutdown = true;
                 if (running) {
-                    enqueueMutex.notifyAll();
+                    enqueueCondition.signalAll();
                 } else {
                     shutdownDone.countDown();
                 }
             }
+        } finally {
+            enqueueLock.unlock();
         }
 
         try {
@@ -285,19 +365,15 @@ class DataFileAppender implements FileAppender {
             while (true) {
 
                 // Block till we get a command.
-                synchronized (enqueueMutex) {
-                    while (true) {
-                        if (nextWriteBatch != null) {
-                            wb = nextWriteBatch;
-                            nextWriteBatch = null;
-                            break;
-                        }
-                        if (shutdown) {
-                            return;
-                        }
-                        enqueueMutex.wait();
+                enqueueLock.lock();
+                try {
+                    wb = takeNextWriteBatch();
+                    if (wb == null) {
+                        return;
                     }
-                    enqueueMutex.notifyAll();
+                    enqueueCondition.signalAll();
+                } finally {
+                    enqueueLock.unlock();
                 }
 
                 if (dataFile != wb.dataFile) {
@@ -364,7 +440,9 @@ class DataFileAppender implements FileAppender {
                 }
 
                 if (forceToDisk) {
+                    long start = System.nanoTime();
                     file.getFD().sync();
+                    forced(System.nanoTime() - start);
                 }
 
                 Journal.WriteCommand lastWrite = wb.writes.getTail();
@@ -373,7 +451,8 @@ class DataFileAppender implements FileAppender {
                 signalDone(wb);
             }
         } catch (IOException e) {
-            synchronized (enqueueMutex) {
+            enqueueLock.lock();
+            try {
                 firstAsyncException = e;
                 if (wb != null) {
                     wb.exception.set(e);
@@ -383,6 +462,8 @@ class DataFileAppender implements FileAppender {
                     nextWriteBatch.exception.set(e);
                     nextWriteBatch.latch.countDown();
                 }
+            } finally {
+                enqueueLock.unlock();
             }
         } catch (InterruptedException e) {
         } finally {
@@ -401,8 +482,14 @@ class DataFileAppender implements FileAppender {
         // Now that the data is on disk, remove the writes from the in
         // flight
         // cache.
+        int writes = 0;
+        int forcedWrites = 0;
         Journal.WriteCommand write = wb.writes.getHead();
         while (write != null) {
+            writes++;
+            if (write.sync | (syncOnComplete && write.onComplete != null)) {
+                forcedWrites++;
+            }
             if (!write.sync) {
                 inflightWrites.remove(new Journal.WriteKey(write.location));
             }
@@ -416,6 +503,13 @@ class DataFileAppender implements FileAppender {
             write = write.getNext();
         }
 
+        statistics.getBatchSize().addSize(wb.size);
+        statistics.getBatchWrites().addSize(writes);
+        if (forcedWrites > 0) {
+            statistics.getForcedWrites().addSize(forcedWrites);
+        }
+        statistics.getCommitWaitTime().addTime(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - wb.created));
+
         // Signal any waiting threads that the write is on disk.
         wb.latch.countDown();
     }
@@ -16,7 +16,11 @@
  */
 package org.apache.activemq.store.kahadb.disk.journal;
 
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FilenameFilter;
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
@@ -89,6 +93,7 @@ public class Journal {
     public static final int DEFAULT_CLEANUP_INTERVAL = 1000 * 30;
     public static final int PREFERED_DIFF = 1024 * 512;
     public static final int DEFAULT_MAX_WRITE_BATCH_SIZE = 1024 * 1024 * 4;
+    public static final int DEFAULT_GROUP_COMMIT_BATCH_THRESHOLD = 1024 * 256;
 
     private static final Logger LOG = LoggerFactory.getLogger(Journal.class);
 
@@ -119,6 +124,10 @@ public class Journal {
     protected boolean checksum;
     protected boolean checkForCorruptionOnStartup;
     protected boolean enableAsyncDiskSync = true;
+    protected boolean enableMemoryMapping;
+    protected long groupCommitWindow;
+    protected int groupCommitBatchThreshold = DEFAULT_GROUP_COMMIT_BATCH_THRESHOLD;
+    protected final JournalStatistics statistics = new JournalStatistics();
     private Timer timer;
 
     public synchronized void start() throws IOException {
@@ -131,7 +140,7 @@ public class Journal {
         started = true;
         preferedFileLength = Math.max(PREFERED_DIFF, getMaxFileLength() - PREFERED_DIFF);
 
-        appender = callerBufferAppender ? new CallerBufferingDataFileAppender(this) : new DataFileAppender(this);
+        appender = createAppender();
 
         File[] files = directory.listFiles(new FilenameFilter() {
             public boolean accept(File dir, String n) {
@@ -410,10 +419,17 @@ public class Journal {
 
         // reopen open file handles...
         accessorPool = new DataFileAccessorPool(this);
-        appender = new DataFileAppender(this);
+        appender = createAppender();
         return result;
     }
 
+    protected FileAppender createAppender() {
+        if (enableMemoryMapping) {
+            return new MappedDataFileAppender(this);
+        }
+        return callerBufferAppender ? new CallerBufferingDataFileAppender(this) : new DataFileAppender(this);
+    }
+
     public synchronized void removeDataFiles(Set<Integer> files) throws IOException {
         for (Integer key : files) {
             // Can't remove the data file (or subsequent files) that is currently being written to.
@@ -596,6 +612,67 @@ public class Journal {
         }
     }
 
+    /**
+     * Callback for {@link Journal#readUserRecords(int, int, RecordVisitor)}.
+     */
+    public interface RecordVisitor {
+        void visit(Location location, ByteSequence data) throws IOException;
+    }
+
+    /**
+     * Reads the user records of a data file from the given offset to the end
+     * of the file in one sequential pass through a private stream, without
+     * holding the journal lock, so different data files can be read
+     * concurrently. Only meant to be used when no writes to the data file are
+     * in flight, like during recovery.
+     *
+     * @return false if the end of the journal was found before the end of the
+     *         data file, as {@link #getNextLocation(Location)} would report it
+     */
+    public boolean readUserRecords(int dataFileId, int offset, RecordVisitor visitor) throws IOException {
+        DataFile dataFile;
+        synchronized (this) {
+            dataFile = fileMap.get(Integer.valueOf(dataFileId));
+        }
+        if (dataFile == null) {
+            throw new IOException("Could not locate data file " + getFile(dataFileId));
+        }
+        int length = dataFile.getLength();
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(dataFile.getFile()), 1024 * 64));
+        try {
+            long skip = offset;
+            while (skip > 0) {
+                long skipped = in.skip(skip);
+                if (skipped <= 0) {
+                    throw new EOFException("Could not skip to offset " + offset + " of " + dataFile);
+                }
+                skip -= skipped;
+            }
+            while (offset < length) {
+                int size = in.readInt();
+                byte type = in.readByte();
+                if (type == 0) {
+                    return false;
+                }
+                if (size < RECORD_HEAD_SPACE) {
+                    throw new IOException("Invalid record size " + size + " at offset " + offset + " of " + dataFile);
+                }
+                byte[] data = new byte[size - RECORD_HEAD_SPACE];
+                in.readFully(data);
+                if (type == USER_RECORD_TYPE) {
+                    Location location = new Location(dataFileId, offset);
+                    location.setSize(size);
+                    location.setType(type);
+                    visitor.visit(location, new ByteSequence(data));
+                }
+                offset += size;
+            }
+            return true;
+        } finally {
+            in.close();
+        }
+    }
+
     public synchronized ByteSequence read(Location location) throws IOException, IllegalStateException {
         DataFile dataFile = getDataFile(location);
         DataFileAccessor reader = accessorPool.openDataFileAccessor(dataFile);
@@ -760,6 +837,49 @@ public class Journal {
         return enableAsyncDiskSync;
     }
 
+    /**
+     * When enabled batches are appended through a memory mapped segment of
+     * the current data file and records are read back through read only
+     * mappings rather than RandomAccessFile seek and read calls.
+     */
+    public void setEnableMemoryMapping(boolean enableMemoryMapping) {
+        this.enableMemoryMapping = enableMemoryMapping;
+    }
+
+    public boolean isEnableMemoryMapping() {
+        return enableMemoryMapping;
+    }
+
+    /**
+     * Sets the maximum time in microseconds a batch that needs a force to
+     * disk is held open so that concurrent writers can share the force. The
+     * effective window adapts to the observed force latency and never exceeds
+     * this value. Zero, the default, disables group commit.
+     */
+    public void setGroupCommitWindow(long groupCommitWindow) {
+        this.groupCommitWindow = groupCommitWindow;
+    }
+
+    public long getGroupCommitWindow() {
+        return groupCommitWindow;
+    }
+
+    /**
+     * Sets the batch size in bytes at which a batch held open for group
+     * commit is written without waiting for the rest of the window.
+     */
+    public void setGroupCommitBatchThreshold(int groupCommitBatchThreshold) {
+        this.groupCommitBatchThreshold = groupCommitBatchThreshold;
+    }
+
+    public int getGroupCommitBatchThreshold() {
+        return groupCommitBatchThreshold;
+    }
+
+    public JournalStatistics getStatistics() {
+        return statistics;
+    }
+
     public static class WriteCommand extends LinkedNode<WriteCommand> {
         public final Location location;
         public final ByteSequence data;
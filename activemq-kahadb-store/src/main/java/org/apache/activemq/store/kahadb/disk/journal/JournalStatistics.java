@@ -0,0 +1,71 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.store.kahadb.disk.journal;
+
+import org.apache.activemq.management.SizeStatisticImpl;
+import org.apache.activemq.management.StatsImpl;
+import org.apache.activemq.management.TimeStatisticImpl;
+
+/**
+ * The statistics for the write batches of a Journal.
+ */
+public class JournalStatistics extends StatsImpl {
+
+    protected SizeStatisticImpl batchSize;
+    protected SizeStatisticImpl batchWrites;
+    protected SizeStatisticImpl forcedWrites;
+    protected TimeStatisticImpl forceTime;
+    protected TimeStatisticImpl commitWaitTime;
+
+    public JournalStatistics() {
+        batchSize = new SizeStatisticImpl("batchSize", "bytes", "Size of the batches written to the journal");
+        batchWrites = new SizeStatisticImpl("batchWrites", "writes", "Number of writes in the batches written to the journal");
+        forcedWrites = new SizeStatisticImpl("forcedWrites", "writes", "Number of writes waiting for a batch to be forced to disk, for each batch that was forced");
+        forceTime = new TimeStatisticImpl("forceTime", "microseconds", "Time taken to force a batch to disk");
+        commitWaitTime = new TimeStatisticImpl("commitWaitTime", "microseconds", "Time from a batch being opened to it being written and forced to disk");
+        addStatistic("batchSize", batchSize);
+        addStatistic("batchWrites", batchWrites);
+        addStatistic("forcedWrites", forcedWrites);
+        addStatistic("forceTime", forceTime);
+        addStatistic("commitWaitTime", commitWaitTime);
+    }
+
+    public SizeStatisticImpl getBatchSize() {
+        return batchSize;
+    }
+
+    public SizeStatisticImpl getBatchWrites() {
+        return batchWrites;
+    }
+
+    public SizeStatisticImpl getForcedWrites() {
+        return forcedWrites;
+    }
+
+    public TimeStatisticImpl getForceTime() {
+        return forceTime;
+    }
+
+    public TimeStatisticImpl getCommitWaitTime() {
+        return commitWaitTime;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return batchSize + ", " + batchWrites + ", " + forcedWrites + ", " + forceTime + ", " + commitWaitTime;
+    }
+}
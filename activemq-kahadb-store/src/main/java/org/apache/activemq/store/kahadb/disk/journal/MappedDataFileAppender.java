@@ -0,0 +1,167 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.store.kahadb.disk.journal;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.util.zip.Adler32;
+import java.util.zip.Checksum;
+
+import org.apache.activemq.store.kahadb.disk.util.DataByteArrayOutputStream;
+import org.apache.activemq.store.kahadb.disk.util.MappedByteBufferSupport;
+import org.apache.activemq.util.ByteSequence;
+
+/**
+ * A DataFileAppender that writes batches into a memory mapped segment of the
+ * current data file instead of going through RandomAccessFile.write().
+ *
+ * The data file is preallocated to the max file length when it is first
+ * mapped, which leaves the same zero filled tail on disk as the default
+ * appender's preallocation so recovery is unchanged. A force to disk is a
+ * MappedByteBuffer.force() of the segment.
+ */
+class MappedDataFileAppender extends DataFileAppender {
+
+    public MappedDataFileAppender(Journal dataManager) {
+        super(dataManager);
+    }
+
+    @Override
+    protected void processQueue() {
+        DataFile dataFile = null;
+        RandomAccessFile file = null;
+        MappedByteBuffer mapped = null;
+        WriteBatch wb = null;
+        try {
+
+            DataByteArrayOutputStream buff = new DataByteArrayOutputStream(maxWriteBatchSize);
+            while (true) {
+
+                // Block till we get a command.
+                enqueueLock.lock();
+                try {
+                    wb = takeNextWriteBatch();
+                    if (wb == null) {
+                        return;
+                    }
+                    enqueueCondition.signalAll();
+                } finally {
+                    enqueueLock.unlock();
+                }
+
+                if (dataFile != wb.dataFile) {
+                    if (file != null) {
+                        MappedByteBufferSupport.unmap(mapped);
+                        mapped = null;
+                        file.setLength(dataFile.getLength());
+                        dataFile.closeRandomAccessFile(file);
+                    }
+                    dataFile = wb.dataFile;
+                    file = dataFile.openRandomAccessFile();
+                    mapped = MappedByteBufferSupport.map(file, Math.max(file.length(), journal.getMaxFileLength()), false);
+                }
+
+                Journal.WriteCommand write = wb.writes.getHead();
+
+                // Write an empty batch control record.
+                buff.reset();
+                buff.write(Journal.BATCH_CONTROL_RECORD_HEADER);
+                buff.writeInt(0);
+                buff.writeLong(0);
+
+                boolean forceToDisk = false;
+                while (write != null) {
+                    forceToDisk |= write.sync | (syncOnComplete && write.onComplete != null);
+                    buff.writeInt(write.location.getSize());
+                    buff.writeByte(write.location.getType());
+                    buff.write(write.data.getData(), write.data.getOffset(), write.data.getLength());
+                    write = write.getNext();
+                }
+
+                ByteSequence sequence = buff.toByteSequence();
+
+                // Now we can fill in the batch control record properly.
+                buff.reset();
+                buff.skip(5+Journal.BATCH_CONTROL_RECORD_MAGIC.length);
+                buff.writeInt(sequence.getLength()-Journal.BATCH_CONTROL_RECORD_SIZE);
+                if( journal.isChecksum() ) {
+                    Checksum checksum = new Adler32();
+                    checksum.update(sequence.getData(), sequence.getOffset()+Journal.BATCH_CONTROL_RECORD_SIZE, sequence.getLength()-Journal.BATCH_CONTROL_RECORD_SIZE);
+                    buff.writeLong(checksum.getValue());
+                }
+
+                // A single oversized record can take the file past the max length, grow the mapping.
+                int end = wb.offset + sequence.getLength();
+                if (end > mapped.capacity()) {
+                    mapped.force();
+                    MappedByteBufferSupport.unmap(mapped);
+                    mapped = MappedByteBufferSupport.map(file, end, false);
+                }
+
+                // Now do the 1 big write.
+                mapped.position(wb.offset);
+                mapped.put(sequence.getData(), sequence.getOffset(), sequence.getLength());
+
+                ReplicationTarget replicationTarget = journal.getReplicationTarget();
+                if( replicationTarget!=null ) {
+                    replicationTarget.replicate(wb.writes.getHead().location, sequence, forceToDisk);
+                }
+
+                if (forceToDisk) {
+                    long start = System.nanoTime();
+                    mapped.force();
+                    forced(System.nanoTime() - start);
+                }
+
+                Journal.WriteCommand lastWrite = wb.writes.getTail();
+                journal.setLastAppendLocation(lastWrite.location);
+
+                signalDone(wb);
+            }
+        } catch (IOException e) {
+            enqueueLock.lock();
+            try {
+                firstAsyncException = e;
+                if (wb != null) {
+                    wb.exception.set(e);
+                    wb.latch.countDown();
+                }
+                if (nextWriteBatch != null) {
+                    nextWriteBatch.exception.set(e);
+                    nextWriteBatch.latch.countDown();
+                }
+            } finally {
+                enqueueLock.unlock();
+            }
+        } catch (InterruptedException e) {
+        } finally {
+            try {
+                if (mapped != null) {
+                    mapped.force();
+                    MappedByteBufferSupport.unmap(mapped);
+                }
+                if (file != null) {
+                    dataFile.closeRandomAccessFile(file);
+                }
+            } catch (Throwable ignore) {
+            }
+            shutdownDone.countDown();
+            running = false;
+        }
+    }
+}
@@ -0,0 +1,304 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.store.kahadb.disk.page;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A cache of raw page bytes kept in direct memory so that large indexes do not
+ * add to the heap the garbage collector has to scan.
+ *
+ * The cache is split into segments, each guarded by its own lock and holding a
+ * fixed number of page sized slots in one direct buffer. The slot of a page is
+ * found through an open addressing table of primitive longs, and a full segment
+ * evicts with the CLOCK (second chance) policy, so lookups and evictions in
+ * different segments never contend.
+ *
+ * The cache mirrors what is on disk, so the page file puts every page it writes
+ * to disk back into the cache.
+ */
+class OffHeapPageCache {
+
+    static final int DEFAULT_SEGMENT_COUNT = 16;
+
+    private final int pageSize;
+    private final Segment[] segments;
+    private final PageCacheStatistics statistics;
+
+    OffHeapPageCache(long maxSize, int pageSize, PageCacheStatistics statistics) {
+        this(maxSize, pageSize, DEFAULT_SEGMENT_COUNT, statistics);
+    }
+
+    OffHeapPageCache(long maxSize, int pageSize, int segmentCount, PageCacheStatistics statistics) {
+        long pages = maxSize / pageSize;
+        if (pages < 1) {
+            throw new IllegalArgumentException("The cache size must hold at least one page of " + pageSize + " bytes");
+        }
+        segmentCount = (int) Math.max(1, Math.min(segmentCount, pages));
+        long segmentPages = pages / segmentCount;
+        if (segmentPages * pageSize > Integer.MAX_VALUE) {
+            segmentPages = Integer.MAX_VALUE / pageSize;
+        }
+        this.pageSize = pageSize;
+        this.statistics = statistics;
+        this.segments = new Segment[segmentCount];
+        for (int i = 0; i < segmentCount; i++) {
+            segments[i] = new Segment((int) segmentPages);
+        }
+    }
+
+    /**
+     * Copies the start of the page into data, loading the whole page through
+     * the reader on a miss. The segment stays locked while the page is read
+     * so that a concurrent write through {@link #put(long, byte[])} cannot be
+     * overwritten by the stale bytes.
+     */
+    void read(long pageId, byte[] data, PageReader reader) throws IOException {
+        Segment segment = segmentFor(pageId);
+        segment.lock.lock();
+        try {
+            if (segment.get(pageId, data)) {
+                statistics.getHits().increment();
+                return;
+            }
+            statistics.getMisses().increment();
+            byte[] page = data.length == pageSize ? data : new byte[pageSize];
+            reader.readPage(pageId, page);
+            segment.put(pageId, page);
+            if (page != data) {
+                System.arraycopy(page, 0, data, 0, data.length);
+            }
+        } finally {
+            segment.lock.unlock();
+        }
+    }
+
+    /**
+     * Stores the page, replacing any cached copy.
+     */
+    void put(long pageId, byte[] data) {
+        Segment segment = segmentFor(pageId);
+        segment.lock.lock();
+        try {
+            segment.put(pageId, data);
+        } finally {
+            segment.lock.unlock();
+        }
+    }
+
+    void remove(long pageId) {
+        Segment segment = segmentFor(pageId);
+        segment.lock.lock();
+        try {
+            segment.remove(pageId);
+        } finally {
+            segment.lock.unlock();
+        }
+    }
+
+    void clear() {
+        for (Segment segment : segments) {
+            segment.lock.lock();
+            try {
+                segment.clear();
+            } finally {
+                segment.lock.unlock();
+            }
+        }
+    }
+
+    int size() {
+        int rc = 0;
+        for (Segment segment : segments) {
+            segment.lock.lock();
+            try {
+                rc += segment.used;
+            } finally {
+                segment.lock.unlock();
+            }
+        }
+        return rc;
+    }
+
+    long getMaxSize() {
+        return (long) segments.length * segments[0].capacity * pageSize;
+    }
+
+    private Segment segmentFor(long pageId) {
+        // use different bits than the slot tables so that a segment's pages do not cluster in its table
+        return segments[(int) ((pageId * 0xC2B2AE3D27D4EB4FL) >>> 40) % segments.length];
+    }
+
+    private static int mix(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    interface PageReader {
+        void readPage(long pageId, byte[] data) throws IOException;
+    }
+
+    private final class Segment {
+        private static final long EMPTY = -1;
+
+        final ReentrantLock lock = new ReentrantLock();
+        final int capacity;
+        final ByteBuffer buffer;
+        // the page held in each slot and its CLOCK reference bit
+        final long[] slotKeys;
+        final boolean[] referenced;
+        // open addressing table of page id -> slot, with linear probing
+        final long[] tableKeys;
+        final int[] tableSlots;
+        final int tableMask;
+        int used;
+        int hand;
+
+        Segment(int capacity) {
+            this.capacity = capacity;
+            this.buffer = ByteBuffer.allocateDirect(capacity * pageSize);
+            this.slotKeys = new long[capacity];
+            this.referenced = new boolean[capacity];
+            int tableSize = Integer.highestOneBit(Math.max(2, capacity * 2 - 1)) << 1;
+            this.tableKeys = new long[tableSize];
+            this.tableSlots = new int[tableSize];
+            this.tableMask = tableSize - 1;
+            clear();
+        }
+
+        boolean get(long pageId, byte[] data) {
+            int slot = lookup(pageId);
+            if (slot < 0) {
+                return false;
+            }
+            referenced[slot] = true;
+            ByteBuffer view = buffer.duplicate();
+            view.position(slot * pageSize);
+            view.get(data, 0, Math.min(data.length, pageSize));
+            return true;
+        }
+
+        void put(long pageId, byte[] data) {
+            int slot = lookup(pageId);
+            if (slot < 0) {
+                slot = used < capacity ? used++ : evict();
+                slotKeys[slot] = pageId;
+                insert(pageId, slot);
+            }
+            referenced[slot] = true;
+            ByteBuffer view = buffer.duplicate();
+            view.position(slot * pageSize);
+            view.put(data, 0, pageSize);
+        }
+
+        void remove(long pageId) {
+            int slot = lookup(pageId);
+            if (slot < 0) {
+                return;
+            }
+            delete(pageId);
+            // keep the used slots packed at the front so that free slots are found without a scan
+            int last = --used;
+            if (slot != last) {
+                long moved = slotKeys[last];
+                slotKeys[slot] = moved;
+                referenced[slot] = referenced[last];
+                ByteBuffer from = buffer.duplicate();
+                from.position(last * pageSize);
+                from.limit(last * pageSize + pageSize);
+                ByteBuffer to = buffer.duplicate();
+                to.position(slot * pageSize);
+                to.put(from);
+                tableSlots[find(moved)] = slot;
+            }
+            slotKeys[last] = EMPTY;
+            referenced[last] = false;
+        }
+
+        void clear() {
+            Arrays.fill(slotKeys, EMPTY);
+            Arrays.fill(referenced, false);
+            Arrays.fill(tableKeys, EMPTY);
+            used = 0;
+            hand = 0;
+        }
+
+        private int evict() {
+            while (true) {
+                int slot = hand;
+                hand = (hand + 1) % capacity;
+                if (referenced[slot]) {
+                    referenced[slot] = false;
+                } else {
+                    delete(slotKeys[slot]);
+                    statistics.getEvictions().increment();
+                    return slot;
+                }
+            }
+        }
+
+        private int lookup(long pageId) {
+            int index = find(pageId);
+            return index < 0 ? -1 : tableSlots[index];
+        }
+
+        private int find(long pageId) {
+            int index = mix(pageId) & tableMask;
+            while (true) {
+                long key = tableKeys[index];
+                if (key == pageId) {
+                    return index;
+                }
+                if (key == EMPTY) {
+                    return -1;
+                }
+                index = (index + 1) & tableMask;
+            }
+        }
+
+        private void insert(long pageId, int slot) {
+            int index = mix(pageId) & tableMask;
+            while (tableKeys[index] != EMPTY) {
+                index = (index + 1) & tableMask;
+            }
+            tableKeys[index] = pageId;
+            tableSlots[index] = slot;
+        }
+
+        private void delete(long pageId) {
+            int index = find(pageId);
+            if (index < 0) {
+                return;
+            }
+            // shift back the following entries of the probe run so lookups never hit a hole
+            int next = (index + 1) & tableMask;
+            while (tableKeys[next] != EMPTY) {
+                int home = mix(tableKeys[next]) & tableMask;
+                if (((next - home) & tableMask) >= ((next - index) & tableMask)) {
+                    tableKeys[index] = tableKeys[next];
+                    tableSlots[index] = tableSlots[next];
+                    index = next;
+                }
+                next = (next + 1) & tableMask;
+            }
+            tableKeys[index] = EMPTY;
+        }
+    }
+}
@@ -0,0 +1,65 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.store.kahadb.disk.page;
+
+import org.apache.activemq.management.CountStatisticImpl;
+import org.apache.activemq.management.StatsImpl;
+
+/**
+ * The statistics for the off heap page cache of a PageFile.
+ */
+public class PageCacheStatistics extends StatsImpl {
+
+    protected CountStatisticImpl hits;
+    protected CountStatisticImpl misses;
+    protected CountStatisticImpl evictions;
+
+    public PageCacheStatistics() {
+        hits = new CountStatisticImpl("hits", "Number of page reads served from the cache");
+        misses = new CountStatisticImpl("misses", "Number of page reads that went to disk");
+        evictions = new CountStatisticImpl("evictions", "Number of pages evicted to make room for others");
+        addStatistic("hits", hits);
+        addStatistic("misses", misses);
+        addStatistic("evictions", evictions);
+        setEnabled(true);
+    }
+
+    public CountStatisticImpl getHits() {
+        return hits;
+    }
+
+    public CountStatisticImpl getMisses() {
+        return misses;
+    }
+
+    public CountStatisticImpl getEvictions() {
+        return evictions;
+    }
+
+    @Override
+    public void setEnabled(boolean enabled) {
+        super.setEnabled(enabled);
+        hits.setEnabled(enabled);
+        misses.setEnabled(enabled);
+        evictions.setEnabled(enabled);
+    }
+
+    @Override
+    public synchronized String toString() {
+        return hits + ", " + misses + ", " + evictions;
+    }
+}
@@ -113,6 +113,10 @@ public class PageFile {
     private boolean enablePageCaching = true;
     // How many pages will we keep in the cache?
     private int pageCacheSize = DEFAULT_PAGE_CACHE_SIZE;
+    // The raw page bytes kept off heap, sized in bytes. 0 disables it.
+    private long offHeapPageCacheSize;
+    private OffHeapPageCache offHeapPageCache;
+    private final PageCacheStatistics pageCacheStatistics = new PageCacheStatistics();
 
     // Should first log the page write to the recovery buffer? Avoids partial
     // page write failures..
@@ -396,6 +400,10 @@ public class PageFile {
                 storeMetaData();
             }
 
+            if (offHeapPageCacheSize > 0) {
+                offHeapPageCache = new OffHeapPageCache(offHeapPageCacheSize, pageSize, pageCacheStatistics);
+            }
+
             if (enableRecoveryFile) {
                 recoveryFile = new RandomAccessFile(getRecoveryFile(), "rw");
             }
@@ -475,6 +483,7 @@ public class PageFile {
                 if (pageCache != null) {
                     pageCache = null;
                 }
+                offHeapPageCache = null;
                 synchronized (writes) {
                     writes.clear();
                 }
@@ -730,6 +739,30 @@ public class PageFile {
         this.pageCacheSize = pageCacheSize;
     }
 
+    /**
+     * @return the maximum number of bytes of raw page data kept in the off heap page cache.
+     */
+    public long getOffHeapPageCacheSize() {
+        return this.offHeapPageCacheSize;
+    }
+
+    /**
+     * @param offHeapPageCacheSize Sets the maximum number of bytes of raw page data kept in direct memory
+     *                             so that page reads which miss the page cache do not go to disk.  0, the
+     *                             default, disables the off heap page cache.
+     */
+    public void setOffHeapPageCacheSize(long offHeapPageCacheSize) {
+        assertNotLoaded();
+        this.offHeapPageCacheSize = offHeapPageCacheSize;
+    }
+
+    /**
+     * @return the hit, miss and eviction statistics of the off heap page cache.
+     */
+    public PageCacheStatistics getPageCacheStatistics() {
+        return pageCacheStatistics;
+    }
+
     public boolean isEnabledWriteThread() {
         return enabledWriteThread;
     }
@@ -871,14 +904,33 @@ public class PageFile {
         return nextTxid.incrementAndGet();
     }
 
-    synchronized void readPage(long pageId, byte[] data) throws IOException {
+    void readPage(long pageId, byte[] data) throws IOException {
+        OffHeapPageCache cache = offHeapPageCache;
+        if (cache != null) {
+            cache.read(pageId, data, diskReader);
+        } else {
+            readPageFromDisk(pageId, data);
+        }
+    }
+
+    private synchronized void readPageFromDisk(long pageId, byte[] data) throws IOException {
         readFile.seek(toOffset(pageId));
         readFile.readFully(data);
     }
 
+    private final OffHeapPageCache.PageReader diskReader = new OffHeapPageCache.PageReader() {
+        @Override
+        public void readPage(long pageId, byte[] data) throws IOException {
+            readPageFromDisk(pageId, data);
+        }
+    };
+
     public void freePage(long pageId) {
         freeList.add(pageId);
         removeFromCache(pageId);
+        if (offHeapPageCache != null) {
+            offHeapPageCache.remove(pageId);
+        }
     }
 
     @SuppressWarnings("unchecked")
@@ -1060,6 +1112,9 @@ public class PageFile {
 
             writeFile.seek(toOffset(w.page.getPageId()));
             writeFile.write(w.getDiskBound(), 0, pageSize);
+            if (offHeapPageCache != null) {
+                offHeapPageCache.put(w.page.getPageId(), w.getDiskBound());
+            }
             w.done();
         }
 
@@ -1187,6 +1242,9 @@ public class PageFile {
         for (Map.Entry<Long, byte[]> e : batch.entrySet()) {
             writeFile.seek(toOffset(e.getKey()));
             writeFile.write(e.getValue());
+            if (offHeapPageCache != null) {
+                offHeapPageCache.remove(e.getKey());
+            }
         }
 
         // And sync it to disk
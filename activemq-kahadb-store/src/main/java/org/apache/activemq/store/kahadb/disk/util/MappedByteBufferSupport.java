@@ -0,0 +1,128 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.store.kahadb.disk.util;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Helpers for working with memory mapped files.
+ */
+public final class MappedByteBufferSupport {
+
+    private static final Logger LOG = LoggerFactory.getLogger(MappedByteBufferSupport.class);
+
+    private MappedByteBufferSupport() {
+    }
+
+    /**
+     * Maps the first <code>length</code> bytes of the file, growing the file
+     * if needed when mapping for write.
+     */
+    public static MappedByteBuffer map(RandomAccessFile file, long length, boolean readOnly) throws IOException {
+        if (length > Integer.MAX_VALUE) {
+            throw new IOException("Cannot map more than " + Integer.MAX_VALUE + " bytes: " + length);
+        }
+        FileChannel.MapMode mode = readOnly ? FileChannel.MapMode.READ_ONLY : FileChannel.MapMode.READ_WRITE;
+        return file.getChannel().map(mode, 0, length);
+    }
+
+    /**
+     * Releases the mapping eagerly rather than waiting for the buffer to be
+     * garbage collected, so that the file can be truncated or deleted and its
+     * address space is given back. The buffer must not be used afterwards.
+     *
+     * @return false if the JVM offers no way to release the mapping, it is then
+     *         left to the garbage collector
+     */
+    public static boolean unmap(MappedByteBuffer buffer) {
+        if (buffer == null) {
+            return true;
+        }
+        Unmapper unmapper = UNMAPPER;
+        if (unmapper == null) {
+            return false;
+        }
+        try {
+            unmapper.unmap(buffer);
+            return true;
+        } catch (Throwable e) {
+            LOG.warn("Could not unmap buffer, leaving it to the garbage collector", e);
+            return false;
+        }
+    }
+
+    /**
+     * @return true if {@link #unmap(MappedByteBuffer)} can release mappings on this JVM
+     */
+    public static boolean isUnmapSupported() {
+        return UNMAPPER != null;
+    }
+
+    private interface Unmapper {
+        void unmap(MappedByteBuffer buffer) throws Exception;
+    }
+
+    private static final Unmapper UNMAPPER = createUnmapper();
+
+    private static Unmapper createUnmapper() {
+        Throwable failure;
+        try {
+            // Java 9 and later, the cleaner of the buffer is no longer accessible
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            final Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+            Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+            theUnsafe.setAccessible(true);
+            final Object unsafe = theUnsafe.get(null);
+            return new Unmapper() {
+                @Override
+                public void unmap(MappedByteBuffer buffer) throws Exception {
+                    invokeCleaner.invoke(unsafe, buffer);
+                }
+            };
+        } catch (Throwable e) {
+            failure = e;
+        }
+        try {
+            // Java 8 and earlier
+            final Method cleanerMethod = Class.forName("java.nio.DirectByteBuffer").getMethod("cleaner");
+            cleanerMethod.setAccessible(true);
+            final Method cleanMethod = Class.forName("sun.misc.Cleaner").getMethod("clean");
+            cleanMethod.setAccessible(true);
+            return new Unmapper() {
+                @Override
+                public void unmap(MappedByteBuffer buffer) throws Exception {
+                    Object cleaner = cleanerMethod.invoke(buffer);
+                    if (cleaner != null) {
+                        cleanMethod.invoke(cleaner);
+                    }
+                }
+            };
+        } catch (Throwable e) {
+            LOG.warn("Memory mapped files cannot be unmapped eagerly on this JVM, mappings are released by the garbage collector: " + failure + ", " + e);
+            return null;
+        }
+    }
+}
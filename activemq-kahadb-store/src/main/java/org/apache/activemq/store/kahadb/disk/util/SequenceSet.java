@@ -88,7 +88,16 @@ public class SequenceSet extends LinkedNodeList<Sequence> implements Iterable<Lo
     }
 
     public void add(Sequence value) {
-        // TODO we can probably optimize this a bit
+        // appending past the tail is the common case, it needs no walk of the list
+        Sequence tail = getTail();
+        if (tail == null || value.first > tail.last + 1) {
+            addLast(new Sequence(value.first, value.last));
+            return;
+        }
+        if (value.first == tail.last + 1) {
+            tail.last = value.last;
+            return;
+        }
         for(long i=value.first; i<value.last+1; i++) {
             add(i);
         }
@@ -113,6 +122,10 @@ public class SequenceSet extends LinkedNodeList<Sequence> implements Iterable<Lo
             sequence.last = value;
             return true;
         }
+        if (value > sequence.last) {
+            addLast(new Sequence(value));
+            return true;
+        }
 
         sequence = getHead();
         while (sequence != null) {
@@ -323,7 +336,7 @@ public class SequenceSet extends LinkedNodeList<Sequence> implements Iterable<Lo
      * @return true if the value is contained in the set.
      */
     public boolean contains(long value) {
-        if (isEmpty()) {
+        if (isEmpty() || value > getTail().last) {
             return false;
         }
 
@@ -0,0 +1,198 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.store.kahadb.disk.util;
+
+import java.util.NoSuchElementException;
+
+/**
+ * A sorted map of primitive long keys to primitive long values, kept in two
+ * parallel sorted arrays.
+ *
+ * It is meant for keys that mostly arrive in increasing order and leave from
+ * the low end, like message sequence ids: appending a larger key and removing
+ * the smallest one are constant time as the used part of the arrays can start
+ * anywhere, other updates shift the shorter side of the arrays. Lookups are a
+ * binary search. No entry objects or boxed values are created.
+ *
+ * Not thread safe.
+ */
+public class SortedLongLongMap {
+
+    private static final int DEFAULT_CAPACITY = 16;
+
+    private long[] keys;
+    private long[] values;
+    // the entries are held in [start, end)
+    private int start;
+    private int end;
+
+    public SortedLongLongMap() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public SortedLongLongMap(int initialCapacity) {
+        keys = new long[Math.max(1, initialCapacity)];
+        values = new long[keys.length];
+    }
+
+    public int size() {
+        return end - start;
+    }
+
+    public boolean isEmpty() {
+        return end == start;
+    }
+
+    public boolean containsKey(long key) {
+        return indexOf(key) >= 0;
+    }
+
+    /**
+     * @return the value mapped to the key or defaultValue if there is none
+     */
+    public long get(long key, long defaultValue) {
+        int index = indexOf(key);
+        return index >= 0 ? values[index] : defaultValue;
+    }
+
+    public void put(long key, long value) {
+        // fast path for the usual append of a new largest key
+        if (end > start && key > keys[end - 1] && end < keys.length) {
+            keys[end] = key;
+            values[end++] = value;
+            return;
+        }
+        int index = indexOf(key);
+        if (index >= 0) {
+            values[index] = value;
+            return;
+        }
+        insert(-(index + 1), key, value);
+    }
+
+    /**
+     * @return true if the key was mapped
+     */
+    public boolean remove(long key) {
+        int index = indexOf(key);
+        if (index < 0) {
+            return false;
+        }
+        if (index - start < end - index - 1) {
+            System.arraycopy(keys, start, keys, start + 1, index - start);
+            System.arraycopy(values, start, values, start + 1, index - start);
+            start++;
+        } else {
+            System.arraycopy(keys, index + 1, keys, index, end - index - 1);
+            System.arraycopy(values, index + 1, values, index, end - index - 1);
+            end--;
+        }
+        if (start == end) {
+            start = end = 0;
+        }
+        return true;
+    }
+
+    public long firstKey() {
+        if (isEmpty()) {
+            throw new NoSuchElementException();
+        }
+        return keys[start];
+    }
+
+    public long lastKey() {
+        if (isEmpty()) {
+            throw new NoSuchElementException();
+        }
+        return keys[end - 1];
+    }
+
+    public void clear() {
+        start = end = 0;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("{");
+        for (int i = start; i < end; i++) {
+            if (i > start) {
+                sb.append(", ");
+            }
+            sb.append(keys[i]).append('=').append(values[i]);
+        }
+        return sb.append('}').toString();
+    }
+
+    /**
+     * @return the array index of the key, or (-(insertion point) - 1)
+     */
+    private int indexOf(long key) {
+        int low = start;
+        int high = end - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            long midKey = keys[mid];
+            if (midKey < key) {
+                low = mid + 1;
+            } else if (midKey > key) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -(low + 1);
+    }
+
+    private void insert(int index, long key, long value) {
+        if (index - start < end - index && start > 0) {
+            // shift the lower part down into the free space before start
+            System.arraycopy(keys, start, keys, start - 1, index - start);
+            System.arraycopy(values, start, values, start - 1, index - start);
+            start--;
+            keys[index - 1] = key;
+            values[index - 1] = value;
+            return;
+        }
+        if (end == keys.length) {
+            index -= start;
+            makeRoom();
+            index += start;
+        }
+        System.arraycopy(keys, index, keys, index + 1, end - index);
+        System.arraycopy(values, index, values, index + 1, end - index);
+        keys[index] = key;
+        values[index] = value;
+        end++;
+    }
+
+    // moves the entries to the front of the arrays, growing them when more than half full
+    private void makeRoom() {
+        int size = size();
+        long[] newKeys = keys;
+        long[] newValues = values;
+        if (size >= keys.length / 2) {
+            newKeys = new long[keys.length * 2];
+            newValues = new long[keys.length * 2];
+        }
+        System.arraycopy(keys, start, newKeys, 0, size);
+        System.arraycopy(values, start, newValues, 0, size);
+        keys = newKeys;
+        values = newValues;
+        start = 0;
+        end = size;
+    }
+}
@@ -0,0 +1,226 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.store.kahadb.plist;
+
+import java.io.IOException;
+import java.util.NoSuchElementException;
+
+import org.apache.activemq.store.PList;
+import org.apache.activemq.store.PListEntry;
+import org.apache.activemq.util.ByteSequence;
+
+/**
+ * A {@link PList} of the {@link MappedPListStore}. The list is a queue of
+ * segment offsets held in memory, the entries themselves are the locators so
+ * removing one does not need a lookup.
+ */
+public class MappedPList implements PList {
+    final MappedPListStore store;
+    private final String name;
+    private Entry head;
+    private Entry tail;
+    private long size;
+
+    static final class Entry {
+        final String id;
+        final MappedPListSegment segment;
+        final int offset;
+        final int length;
+        MappedPList list;
+        Entry previous;
+        Entry next;
+
+        Entry(String id, MappedPListSegment segment, int offset, int length) {
+            this.id = id;
+            this.segment = segment;
+            this.offset = offset;
+            this.length = length;
+        }
+
+        boolean isRemoved() {
+            return list == null;
+        }
+    }
+
+    MappedPList(MappedPListStore store, String name) {
+        this.store = store;
+        this.name = name;
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public synchronized void destroy() throws IOException {
+        Entry entry = head;
+        head = tail = null;
+        size = 0;
+        while (entry != null) {
+            entry.list = null;
+            store.release(entry);
+            entry = entry.next;
+        }
+    }
+
+    /**
+     * Forgets the entries without releasing them, the store drops all of its
+     * segments when it stops.
+     */
+    synchronized void unload() {
+        for (Entry entry = head; entry != null; entry = entry.next) {
+            entry.list = null;
+        }
+        head = tail = null;
+        size = 0;
+    }
+
+    @Override
+    public synchronized Object addLast(String id, ByteSequence bs) throws IOException {
+        Entry entry = store.append(id, bs);
+        entry.list = this;
+        entry.previous = tail;
+        if (tail == null) {
+            head = entry;
+        } else {
+            tail.next = entry;
+        }
+        tail = entry;
+        size++;
+        return entry;
+    }
+
+    @Override
+    public synchronized Object addFirst(String id, ByteSequence bs) throws IOException {
+        Entry entry = store.append(id, bs);
+        entry.list = this;
+        entry.next = head;
+        if (head == null) {
+            tail = entry;
+        } else {
+            head.previous = entry;
+        }
+        head = entry;
+        size++;
+        return entry;
+    }
+
+    @Override
+    public synchronized boolean remove(Object position) throws IOException {
+        Entry entry = (Entry) position;
+        if (entry == null || entry.list != this) {
+            return false;
+        }
+        unlink(entry);
+        store.release(entry);
+        return true;
+    }
+
+    /**
+     * Takes the entry out of the queue but leaves its own next pointer alone,
+     * so that an iterator positioned on it can still move on.
+     */
+    private void unlink(Entry entry) {
+        if (entry.previous == null) {
+            head = entry.next;
+        } else {
+            entry.previous.next = entry.next;
+        }
+        if (entry.next == null) {
+            tail = entry.previous;
+        } else {
+            entry.next.previous = entry.previous;
+        }
+        entry.list = null;
+        size--;
+    }
+
+    @Override
+    public synchronized boolean isEmpty() {
+        return size == 0;
+    }
+
+    @Override
+    public synchronized long size() {
+        return size;
+    }
+
+    @Override
+    public PListIterator iterator() throws IOException {
+        return new PListIteratorImpl();
+    }
+
+    final class PListIteratorImpl implements PListIterator {
+        private Entry current;
+
+        private Entry peek() {
+            Entry candidate = current != null ? current.next : head;
+            while (candidate != null && candidate.isRemoved()) {
+                candidate = candidate.next;
+            }
+            return candidate;
+        }
+
+        @Override
+        public boolean hasNext() {
+            synchronized (MappedPList.this) {
+                return peek() != null;
+            }
+        }
+
+        @Override
+        public PListEntry next() {
+            synchronized (MappedPList.this) {
+                Entry entry = peek();
+                if (entry == null) {
+                    throw new NoSuchElementException();
+                }
+                current = entry;
+                try {
+                    return new PListEntry(entry.id, store.read(entry), entry);
+                } catch (IOException unexpected) {
+                    NoSuchElementException e = new NoSuchElementException(unexpected.getLocalizedMessage());
+                    e.initCause(unexpected);
+                    throw e;
+                }
+            }
+        }
+
+        @Override
+        public void remove() {
+            try {
+                if (!MappedPList.this.remove(current)) {
+                    throw new IllegalStateException("No current entry to remove");
+                }
+            } catch (IOException unexpected) {
+                IllegalStateException e = new IllegalStateException(unexpected);
+                e.initCause(unexpected);
+                throw e;
+            }
+        }
+
+        @Override
+        public void release() {
+        }
+    }
+
+    @Override
+    public String toString() {
+        return name + "[size=" + size() + "]";
+    }
+}
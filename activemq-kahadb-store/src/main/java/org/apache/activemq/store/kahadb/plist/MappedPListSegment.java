@@ -0,0 +1,139 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.store.kahadb.plist;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+
+import org.apache.activemq.store.kahadb.disk.util.MappedByteBufferSupport;
+import org.apache.activemq.util.ByteSequence;
+
+/**
+ * An append only, memory mapped log file holding the payloads of the
+ * {@link MappedPList} entries. A segment only counts the records that are
+ * still referenced, it is reclaimed as a whole once that count drops to zero.
+ *
+ * All access is guarded by the lock of the owning {@link MappedPListStore}.
+ */
+class MappedPListSegment {
+
+    final int id;
+    final File file;
+    private RandomAccessFile randomAccessFile;
+    private MappedByteBuffer buffer;
+    private int writeOffset;
+    private int liveRecords;
+
+    MappedPListSegment(int id, File file, int length) throws IOException {
+        this.id = id;
+        this.file = file;
+        this.randomAccessFile = new RandomAccessFile(file, "rw");
+        try {
+            this.buffer = MappedByteBufferSupport.map(randomAccessFile, length, false);
+        } catch (IOException e) {
+            randomAccessFile.close();
+            throw e;
+        }
+    }
+
+    boolean hasSpace(int length) {
+        return buffer.capacity() - writeOffset >= length;
+    }
+
+    /**
+     * @return the offset the payload was written at
+     */
+    int append(ByteSequence payload) {
+        int offset = writeOffset;
+        buffer.position(offset);
+        buffer.put(payload.getData(), payload.getOffset(), payload.getLength());
+        writeOffset += payload.getLength();
+        liveRecords++;
+        return offset;
+    }
+
+    ByteSequence read(int offset, int length) {
+        byte[] data = new byte[length];
+        ByteBuffer view = buffer.duplicate();
+        view.position(offset);
+        view.get(data);
+        return new ByteSequence(data);
+    }
+
+    /**
+     * @return true if the segment no longer holds any referenced record
+     */
+    boolean release() {
+        return --liveRecords == 0;
+    }
+
+    boolean isEmpty() {
+        return liveRecords == 0;
+    }
+
+    /**
+     * Starts writing from the beginning again, only valid when the segment is
+     * empty so that the pages that are already mapped get reused.
+     */
+    void rewind() {
+        writeOffset = 0;
+    }
+
+    boolean isClosed() {
+        return buffer == null;
+    }
+
+    long length() {
+        return buffer == null ? 0 : buffer.capacity();
+    }
+
+    /**
+     * Drops the mapping right away. Where the JVM can't unmap, the mapping
+     * lives until the buffer is collected, so the file is truncated to give
+     * its disk space back now.
+     */
+    void close() throws IOException {
+        MappedByteBuffer mapped = buffer;
+        buffer = null;
+        try {
+            if (!MappedByteBufferSupport.unmap(mapped)) {
+                try {
+                    randomAccessFile.setLength(0);
+                } catch (IOException e) {
+                    MappedPListStore.LOG.debug("Could not truncate the still mapped " + file, e);
+                }
+            }
+        } finally {
+            randomAccessFile.close();
+        }
+    }
+
+    void delete() throws IOException {
+        close();
+        if (!file.delete() && file.exists()) {
+            MappedPListStore.LOG.warn("Could not delete " + file);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "MappedPListSegment:[" + file + ", live=" + liveRecords + ", writeOffset=" + writeOffset + "]";
+    }
+}
@@ -0,0 +1,256 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.store.kahadb.plist;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.activemq.store.PListStore;
+import org.apache.activemq.util.ByteSequence;
+import org.apache.activemq.util.IOHelper;
+import org.apache.activemq.util.LockFile;
+import org.apache.activemq.util.ServiceStopper;
+import org.apache.activemq.util.ServiceSupport;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A {@link PListStore} for spooling non persistent messages that appends the
+ * payloads to memory mapped segment files and keeps the order of each list in
+ * memory. There is no index to update and nothing is ever synced, a segment is
+ * deleted as soon as none of its records are referenced any more. The content
+ * does not survive a restart, which is all the temporary store needs.
+ *
+ * @org.apache.xbean.XBean
+ */
+public class MappedPListStore extends ServiceSupport implements PListStore {
+    static final Logger LOG = LoggerFactory.getLogger(MappedPListStore.class);
+    public static final int DEFAULT_SEGMENT_LENGTH = 1024 * 1024 * 32;
+    private static final String SEGMENT_PREFIX = "plist-";
+    private static final String SEGMENT_SUFFIX = ".log";
+
+    private File directory;
+    private LockFile lockFile;
+    private int segmentLength = DEFAULT_SEGMENT_LENGTH;
+    private boolean initialized = false;
+    private boolean lazyInit = true;
+    final Map<String, MappedPList> lists = new HashMap<String, MappedPList>();
+    final Object segmentLock = new Object();
+    private final Map<Integer, MappedPListSegment> segments = new HashMap<Integer, MappedPListSegment>();
+    private MappedPListSegment writeSegment;
+    private int nextSegmentId;
+
+    @Override
+    public File getDirectory() {
+        return directory;
+    }
+
+    @Override
+    public void setDirectory(File directory) {
+        this.directory = directory;
+    }
+
+    @Override
+    public long size() {
+        synchronized (segmentLock) {
+            long result = 0;
+            for (MappedPListSegment segment : segments.values()) {
+                result += segment.length();
+            }
+            return result;
+        }
+    }
+
+    @Override
+    public MappedPList getPList(String name) throws Exception {
+        if (!isStarted()) {
+            throw new IllegalStateException("Not started");
+        }
+        intialize();
+        synchronized (this) {
+            MappedPList result = lists.get(name);
+            if (result == null) {
+                result = new MappedPList(this, name);
+                lists.put(name, result);
+            }
+            return result;
+        }
+    }
+
+    @Override
+    public boolean removePList(String name) throws Exception {
+        MappedPList result;
+        synchronized (this) {
+            result = lists.remove(name);
+        }
+        if (result != null) {
+            result.destroy();
+        }
+        return result != null;
+    }
+
+    protected synchronized void intialize() throws Exception {
+        if (isStarted() && !initialized) {
+            if (directory == null) {
+                directory = new File(IOHelper.getDefaultDataDirectory(), "tmpDB");
+            }
+            IOHelper.mkdirs(directory);
+            lock();
+            File[] stale = directory.listFiles(new FilenameFilter() {
+                @Override
+                public boolean accept(File dir, String name) {
+                    return name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX);
+                }
+            });
+            if (stale != null) {
+                for (File file : stale) {
+                    file.delete();
+                }
+            }
+            initialized = true;
+            LOG.info(this + " initialized");
+        }
+    }
+
+    private void lock() throws IOException {
+        if (lockFile == null) {
+            lockFile = new LockFile(new File(directory, "lock"), true);
+            lockFile.lock();
+        }
+    }
+
+    /**
+     * Appends the payload to the current write segment, rolling over to a new
+     * segment when it does not fit.
+     */
+    MappedPList.Entry append(String id, ByteSequence payload) throws IOException {
+        synchronized (segmentLock) {
+            if (writeSegment == null || writeSegment.isClosed() || !writeSegment.hasSpace(payload.getLength())) {
+                MappedPListSegment previous = writeSegment;
+                writeSegment = createSegment(Math.max(segmentLength, payload.getLength()));
+                if (previous != null && previous.isEmpty()) {
+                    deleteSegment(previous);
+                }
+            }
+            int offset = writeSegment.append(payload);
+            return new MappedPList.Entry(id, writeSegment, offset, payload.getLength());
+        }
+    }
+
+    ByteSequence read(MappedPList.Entry entry) throws IOException {
+        synchronized (segmentLock) {
+            if (entry.segment.isClosed()) {
+                throw new IOException("Segment " + entry.segment.id + " of " + this + " is closed");
+            }
+            return entry.segment.read(entry.offset, entry.length);
+        }
+    }
+
+    /**
+     * Drops the reference an entry holds on its segment, a segment that is no
+     * longer referenced is deleted unless it is still being written to, in which
+     * case writing simply starts over at the beginning.
+     */
+    void release(MappedPList.Entry entry) throws IOException {
+        synchronized (segmentLock) {
+            MappedPListSegment segment = entry.segment;
+            if (!segment.isClosed() && segment.release()) {
+                if (segment == writeSegment) {
+                    segment.rewind();
+                } else {
+                    deleteSegment(segment);
+                }
+            }
+        }
+    }
+
+    private MappedPListSegment createSegment(int length) throws IOException {
+        int id = nextSegmentId++;
+        MappedPListSegment segment = new MappedPListSegment(id, new File(directory, SEGMENT_PREFIX + id + SEGMENT_SUFFIX), length);
+        segments.put(id, segment);
+        LOG.trace("Created {}", segment);
+        return segment;
+    }
+
+    private void deleteSegment(MappedPListSegment segment) throws IOException {
+        segments.remove(segment.id);
+        segment.delete();
+        LOG.trace("Reclaimed {}", segment);
+    }
+
+    @Override
+    protected synchronized void doStart() throws Exception {
+        if (!lazyInit) {
+            intialize();
+        }
+        LOG.info(this + " started");
+    }
+
+    @Override
+    protected synchronized void doStop(ServiceStopper stopper) throws Exception {
+        for (MappedPList list : lists.values()) {
+            list.unload();
+        }
+        lists.clear();
+        synchronized (segmentLock) {
+            for (MappedPListSegment segment : new ArrayList<MappedPListSegment>(segments.values())) {
+                try {
+                    deleteSegment(segment);
+                } catch (IOException e) {
+                    stopper.onException(this, e);
+                }
+            }
+            writeSegment = null;
+        }
+        if (lockFile != null) {
+            lockFile.unlock();
+            lockFile = null;
+        }
+        initialized = false;
+        LOG.info(this + " stopped");
+    }
+
+    public int getSegmentLength() {
+        return segmentLength;
+    }
+
+    /**
+     * Sets the length of each memory mapped segment file, a payload larger
+     * than this gets a segment of its own.
+     */
+    public void setSegmentLength(int segmentLength) {
+        this.segmentLength = segmentLength;
+    }
+
+    public boolean isLazyInit() {
+        return lazyInit;
+    }
+
+    public void setLazyInit(boolean lazyInit) {
+        this.lazyInit = lazyInit;
+    }
+
+    @Override
+    public String toString() {
+        String path = getDirectory() != null ? getDirectory().getAbsolutePath() : "DIRECTORY_NOT_SET";
+        return "MappedPListStore:[" + path + "]";
+    }
+}
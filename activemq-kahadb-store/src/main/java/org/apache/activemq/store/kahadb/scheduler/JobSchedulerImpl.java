@@ -20,11 +20,22 @@ import java.io.DataInput;
 import java.io.DataOutput;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.jms.MessageFormatException;
 
@@ -36,6 +47,7 @@ import org.apache.activemq.store.kahadb.disk.index.BTreeIndex;
 import org.apache.activemq.store.kahadb.disk.journal.Location;
 import org.apache.activemq.store.kahadb.disk.page.Transaction;
 import org.apache.activemq.store.kahadb.disk.util.LongMarshaller;
+import org.apache.activemq.store.kahadb.disk.util.StringMarshaller;
 import org.apache.activemq.store.kahadb.disk.util.VariableMarshaller;
 import org.apache.activemq.util.ByteSequence;
 import org.apache.activemq.util.IdGenerator;
@@ -55,6 +67,11 @@ class JobSchedulerImpl extends ServiceSupport implements Runnable, JobScheduler
     private final List<JobListener> jobListeners = new CopyOnWriteArrayList<JobListener>();
     private static final IdGenerator ID_GENERATOR = new IdGenerator();
     private final ScheduleTime scheduleTime = new ScheduleTime();
+    // the time each job is indexed at, so a job can be removed without a scan of the index
+    BTreeIndex<String, Long> jobTimes;
+    // jobs waiting to be stored by whichever caller next gets to run a transaction
+    private final List<ScheduleRequest> pendingSchedules = new ArrayList<ScheduleRequest>();
+    private ExecutorService firingExecutor;
 
     JobSchedulerImpl(JobSchedulerStoreImpl store) {
         this.store = store;
@@ -95,34 +112,60 @@ class JobSchedulerImpl extends ServiceSupport implements Runnable, JobScheduler
     }
 
     @Override
-    public synchronized void schedule(final String jobId, final ByteSequence payload, final long delay) throws IOException {
-        this.store.getPageFile().tx().execute(new Transaction.Closure<IOException>() {
-            @Override
-            public void execute(Transaction tx) throws IOException {
-                schedule(tx, jobId, payload, "", 0, delay, 0);
-            }
-        });
+    public void schedule(final String jobId, final ByteSequence payload, final long delay) throws IOException {
+        schedule(new ScheduleRequest(jobId, payload, "", 0, delay, 0));
     }
 
     @Override
-    public synchronized void schedule(final String jobId, final ByteSequence payload, final String cronEntry) throws Exception {
-        this.store.getPageFile().tx().execute(new Transaction.Closure<IOException>() {
-            @Override
-            public void execute(Transaction tx) throws IOException {
-                schedule(tx, jobId, payload, cronEntry, 0, 0, 0);
-            }
-        });
+    public void schedule(final String jobId, final ByteSequence payload, final String cronEntry) throws Exception {
+        schedule(new ScheduleRequest(jobId, payload, cronEntry, 0, 0, 0));
     }
 
     @Override
-    public synchronized void schedule(final String jobId, final ByteSequence payload, final String cronEntry, final long delay, final long period,
+    public void schedule(final String jobId, final ByteSequence payload, final String cronEntry, final long delay, final long period,
         final int repeat) throws IOException {
-        this.store.getPageFile().tx().execute(new Transaction.Closure<IOException>() {
-            @Override
-            public void execute(Transaction tx) throws IOException {
-                schedule(tx, jobId, payload, cronEntry, delay, period, repeat);
+        schedule(new ScheduleRequest(jobId, payload, cronEntry, delay, period, repeat));
+    }
+
+    /**
+     * Stores a job together with the jobs of the callers which queued up
+     * behind the transaction of another caller, so concurrent callers share
+     * one page file transaction and each time in the index is written once
+     * per batch rather than once per job.
+     */
+    private void schedule(ScheduleRequest request) throws IOException {
+        synchronized (this.pendingSchedules) {
+            this.pendingSchedules.add(request);
+        }
+        synchronized (this) {
+            if (!request.done) {
+                final List<ScheduleRequest> batch;
+                synchronized (this.pendingSchedules) {
+                    batch = new ArrayList<ScheduleRequest>(this.pendingSchedules);
+                    this.pendingSchedules.clear();
+                }
+                try {
+                    this.store.getPageFile().tx().execute(new Transaction.Closure<IOException>() {
+                        @Override
+                        public void execute(Transaction tx) throws IOException {
+                            schedule(tx, batch);
+                        }
+                    });
+                } catch (IOException e) {
+                    for (ScheduleRequest scheduled : batch) {
+                        scheduled.exception = e;
+                    }
+                } finally {
+                    for (ScheduleRequest scheduled : batch) {
+                        scheduled.done = true;
+                    }
+                }
             }
-        });
+        }
+        if (request.exception != null) {
+            throw request.exception;
+        }
+        this.scheduleTime.newJob();
     }
 
     /*
@@ -140,15 +183,6 @@ class JobSchedulerImpl extends ServiceSupport implements Runnable, JobScheduler
         });
     }
 
-    synchronized void removeFromIndex(final long time, final String jobId) throws IOException {
-        this.store.getPageFile().tx().execute(new Transaction.Closure<IOException>() {
-            @Override
-            public void execute(Transaction tx) throws IOException {
-                removeFromIndex(tx, time, jobId);
-            }
-        });
-    }
-
     /*
      * (non-Javadoc)
      *
@@ -281,65 +315,55 @@ class JobSchedulerImpl extends ServiceSupport implements Runnable, JobScheduler
         return this.store.getPayload(location);
     }
 
-    void schedule(Transaction tx, String jobId, ByteSequence payload, String cronEntry, long delay, long period, int repeat) throws IOException {
-        long startTime = System.currentTimeMillis();
-        // round startTime - so we can schedule more jobs
-        // at the same time
-        startTime = (startTime / 1000) * 1000;
-        long time = 0;
-        if (cronEntry != null && cronEntry.length() > 0) {
-            try {
-                time = CronParser.getNextScheduledTime(cronEntry, startTime);
-            } catch (MessageFormatException e) {
-                throw new IOException(e.getMessage());
+    void schedule(Transaction tx, List<ScheduleRequest> batch) throws IOException {
+        Map<Integer, Integer> journalReferences = new HashMap<Integer, Integer>();
+        Map<Long, List<JobLocation>> jobsByTime = new LinkedHashMap<Long, List<JobLocation>>();
+        for (ScheduleRequest request : batch) {
+            Location location = this.store.write(request.payload, false);
+            Integer references = journalReferences.get(location.getDataFileId());
+            journalReferences.put(location.getDataFileId(), references != null ? references + 1 : 1);
+            JobLocation jobLocation = new JobLocation(location);
+            jobLocation.setJobId(request.jobId);
+            jobLocation.setStartTime(request.startTime);
+            jobLocation.setCronEntry(request.cronEntry);
+            jobLocation.setDelay(request.delay);
+            jobLocation.setPeriod(request.period);
+            jobLocation.setRepeat(request.repeat);
+            jobLocation.setNextTime(request.time);
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("Scheduling " + jobLocation);
             }
+            List<JobLocation> jobs = jobsByTime.get(request.time);
+            if (jobs == null) {
+                jobs = new ArrayList<JobLocation>();
+                jobsByTime.put(request.time, jobs);
+            }
+            jobs.add(jobLocation);
         }
-
-        if (time == 0) {
-            // start time not set by CRON - so it it to the current time
-            time = startTime;
-        }
-        if (delay > 0) {
-            time += delay;
-        } else {
-            time += period;
+        for (Map.Entry<Integer, Integer> entry : journalReferences.entrySet()) {
+            this.store.incrementJournalCount(tx, entry.getKey(), entry.getValue());
         }
-
-        Location location = this.store.write(payload, false);
-        JobLocation jobLocation = new JobLocation(location);
-        this.store.incrementJournalCount(tx, location);
-        jobLocation.setJobId(jobId);
-        jobLocation.setStartTime(startTime);
-        jobLocation.setCronEntry(cronEntry);
-        jobLocation.setDelay(delay);
-        jobLocation.setPeriod(period);
-        jobLocation.setRepeat(repeat);
-        if (LOG.isDebugEnabled()) {
-            LOG.debug("Scheduling " + jobLocation);
+        for (Map.Entry<Long, List<JobLocation>> entry : jobsByTime.entrySet()) {
+            storeJobs(tx, entry.getValue(), entry.getKey());
         }
-        storeJob(tx, jobLocation, time);
-        this.scheduleTime.newJob();
     }
 
-    synchronized void storeJob(final JobLocation jobLocation, final long nextExecutionTime) throws IOException {
-        this.store.getPageFile().tx().execute(new Transaction.Closure<IOException>() {
-            @Override
-            public void execute(Transaction tx) throws IOException {
-                storeJob(tx, jobLocation, nextExecutionTime);
-            }
-        });
+    void storeJob(final Transaction tx, final JobLocation jobLocation, final long nextExecutionTime) throws IOException {
+        List<JobLocation> jobs = new ArrayList<JobLocation>(1);
+        jobs.add(jobLocation);
+        storeJobs(tx, jobs, nextExecutionTime);
     }
 
-    void storeJob(final Transaction tx, final JobLocation jobLocation, final long nextExecutionTime) throws IOException {
-        List<JobLocation> values = null;
-        jobLocation.setNextTime(nextExecutionTime);
-        if (this.index.containsKey(tx, nextExecutionTime)) {
-            values = this.index.remove(tx, nextExecutionTime);
-        }
+    void storeJobs(final Transaction tx, final List<JobLocation> jobs, final long nextExecutionTime) throws IOException {
+        List<JobLocation> values = this.index.get(tx, nextExecutionTime);
         if (values == null) {
-            values = new ArrayList<JobLocation>();
+            values = new ArrayList<JobLocation>(jobs.size());
+        }
+        for (JobLocation jobLocation : jobs) {
+            jobLocation.setNextTime(nextExecutionTime);
+            values.add(jobLocation);
+            this.jobTimes.put(tx, jobLocation.getJobId(), nextExecutionTime);
         }
-        values.add(jobLocation);
         this.index.put(tx, nextExecutionTime, values);
     }
 
@@ -352,7 +376,7 @@ class JobSchedulerImpl extends ServiceSupport implements Runnable, JobScheduler
 
     JobLocation removeFromIndex(Transaction tx, long time, String jobId) throws IOException {
         JobLocation result = null;
-        List<JobLocation> values = this.index.remove(tx, time);
+        List<JobLocation> values = this.index.get(tx, time);
         if (values != null) {
             for (int i = 0; i < values.size(); i++) {
                 JobLocation jl = values.get(i);
@@ -360,7 +384,10 @@ class JobSchedulerImpl extends ServiceSupport implements Runnable, JobScheduler
                     values.remove(i);
                     if (!values.isEmpty()) {
                         this.index.put(tx, time, values);
+                    } else {
+                        this.index.remove(tx, time);
                     }
+                    forgetJob(tx, jobId, time);
                     result = jl;
                     break;
                 }
@@ -373,23 +400,23 @@ class JobSchedulerImpl extends ServiceSupport implements Runnable, JobScheduler
         List<JobLocation> values = this.index.remove(tx, time);
         if (values != null) {
             for (JobLocation jl : values) {
+                forgetJob(tx, jl.getJobId(), time);
                 this.store.decrementJournalCount(tx, jl.getLocation());
             }
         }
     }
 
     void remove(Transaction tx, String id) throws IOException {
-        for (Iterator<Map.Entry<Long, List<JobLocation>>> i = this.index.iterator(tx); i.hasNext();) {
-            Map.Entry<Long, List<JobLocation>> entry = i.next();
-            List<JobLocation> values = entry.getValue();
-            if (values != null) {
-                for (JobLocation jl : values) {
-                    if (jl.getJobId().equals(id)) {
-                        remove(tx, entry.getKey(), id);
-                        return;
-                    }
-                }
-            }
+        Long time = this.jobTimes.get(tx, id);
+        if (time != null) {
+            remove(tx, time, id);
+        }
+    }
+
+    private void forgetJob(Transaction tx, String jobId, long time) throws IOException {
+        Long indexed = this.jobTimes.get(tx, jobId);
+        if (indexed != null && indexed.longValue() == time) {
+            this.jobTimes.remove(tx, jobId);
         }
     }
 
@@ -409,6 +436,7 @@ class JobSchedulerImpl extends ServiceSupport implements Runnable, JobScheduler
         for (Long l : keys) {
             this.index.remove(tx, l);
         }
+        this.jobTimes.clear(tx);
     }
 
     synchronized void destroy(Transaction tx, long start, long finish) throws IOException {
@@ -420,6 +448,7 @@ class JobSchedulerImpl extends ServiceSupport implements Runnable, JobScheduler
                 List<JobLocation> values = entry.getValue();
                 if (values != null) {
                     for (JobLocation jl : values) {
+                        forgetJob(tx, jl.getJobId(), entry.getKey());
                         this.store.decrementJournalCount(tx, jl.getLocation());
                     }
                 }
@@ -441,16 +470,189 @@ class JobSchedulerImpl extends ServiceSupport implements Runnable, JobScheduler
         return null;
     }
 
-    void fireJob(JobLocation job) throws IllegalStateException, IOException {
+    void fireJob(JobLocation job, ByteSequence bs) {
         if (LOG.isDebugEnabled()) {
             LOG.debug("Firing " + job);
         }
-        ByteSequence bs = this.store.getPayload(job.getLocation());
         for (JobListener l : jobListeners) {
             l.scheduledJob(job.getJobId(), bs);
         }
     }
 
+    /**
+     * Hands a batch of due jobs to the listeners, split over the firing
+     * threads when the store has more than one, and waits for all of them.
+     */
+    void fireJobs(List<JobLocation> jobs, final Map<String, ByteSequence> payloads) throws Exception {
+        ExecutorService executor = this.firingExecutor;
+        if (executor == null || jobs.size() < 2) {
+            for (JobLocation job : jobs) {
+                fireJob(job, payloads.get(job.getJobId()));
+            }
+            return;
+        }
+        int threads = this.store.getFiringThreads();
+        int sliceSize = (jobs.size() + threads - 1) / threads;
+        List<Future<Object>> futures = new ArrayList<Future<Object>>(threads);
+        for (int i = 0; i < jobs.size(); i += sliceSize) {
+            final List<JobLocation> slice = jobs.subList(i, Math.min(i + sliceSize, jobs.size()));
+            futures.add(executor.submit(new Callable<Object>() {
+                @Override
+                public Object call() throws Exception {
+                    for (JobLocation job : slice) {
+                        fireJob(job, payloads.get(job.getJobId()));
+                    }
+                    return null;
+                }
+            }));
+        }
+        for (Future<Object> future : futures) {
+            try {
+                future.get();
+            } catch (ExecutionException e) {
+                throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+            }
+        }
+    }
+
+    /**
+     * Reads the jobs of the times which are due, up to the firing batch size,
+     * together with their payloads. The jobs stay in the index until they have
+     * been fired, the rest of a time which didn't fit is read on the next pass.
+     */
+    private synchronized void readDueJobs(final long currentTime, final List<JobLocation> due, final Map<String, ByteSequence> payloads)
+        throws IOException {
+        if (this.store.isStopped() || this.store.isStopping()) {
+            return;
+        }
+        final int batchSize = this.store.getFiringBatchSize();
+        this.store.getPageFile().tx().execute(new Transaction.Closure<IOException>() {
+            @Override
+            public void execute(Transaction tx) throws IOException {
+                for (Iterator<Map.Entry<Long, List<JobLocation>>> i = index.iterator(tx); i.hasNext() && due.size() < batchSize;) {
+                    Map.Entry<Long, List<JobLocation>> entry = i.next();
+                    if (entry.getKey().longValue() > currentTime) {
+                        break;
+                    }
+                    for (JobLocation job : entry.getValue()) {
+                        if (due.size() >= batchSize) {
+                            break;
+                        }
+                        job.setNextTime(entry.getKey());
+                        due.add(job);
+                        payloads.put(job.getJobId(), getPayload(job.getLocation()));
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Takes the fired jobs out of the index in one transaction, and stores
+     * again the ones which repeat. Jobs which were removed while they were
+     * being fired are left alone.
+     *
+     * @return the next time a job is due, or -1 if there are no jobs
+     */
+    private synchronized long completeJobs(final List<JobLocation> fired, final Map<String, ByteSequence> payloads, final long currentTime)
+        throws IOException {
+        if (this.store.isStopped() || this.store.isStopping()) {
+            return -1;
+        }
+        final Map<Long, Set<String>> firedByTime = new LinkedHashMap<Long, Set<String>>();
+        for (JobLocation job : fired) {
+            Set<String> ids = firedByTime.get(job.getNextTime());
+            if (ids == null) {
+                ids = new HashSet<String>();
+                firedByTime.put(job.getNextTime(), ids);
+            }
+            ids.add(job.getJobId());
+        }
+        final long[] nextTime = new long[] {-1};
+        this.store.getPageFile().tx().execute(new Transaction.Closure<IOException>() {
+            @Override
+            public void execute(Transaction tx) throws IOException {
+                Map<Integer, Integer> journalReferences = new HashMap<Integer, Integer>();
+                List<ScheduleRequest> spawned = new ArrayList<ScheduleRequest>();
+                for (Map.Entry<Long, Set<String>> entry : firedByTime.entrySet()) {
+                    long executionTime = entry.getKey();
+                    List<JobLocation> values = index.get(tx, executionTime);
+                    if (values == null) {
+                        continue;
+                    }
+                    // jobs may have been added to this time while the others were fired
+                    List<JobLocation> remaining = new ArrayList<JobLocation>();
+                    List<JobLocation> completed = new ArrayList<JobLocation>();
+                    for (JobLocation job : values) {
+                        if (entry.getValue().contains(job.getJobId())) {
+                            completed.add(job);
+                        } else {
+                            remaining.add(job);
+                        }
+                    }
+                    if (remaining.isEmpty()) {
+                        index.remove(tx, executionTime);
+                    } else {
+                        index.put(tx, executionTime, remaining);
+                    }
+                    for (JobLocation job : completed) {
+                        forgetJob(tx, job.getJobId(), executionTime);
+                        if (!reschedule(tx, job, payloads.get(job.getJobId()), currentTime, spawned)) {
+                            int logId = job.getLocation().getDataFileId();
+                            Integer references = journalReferences.get(logId);
+                            journalReferences.put(logId, references != null ? references + 1 : 1);
+                        }
+                    }
+                }
+                for (Map.Entry<Integer, Integer> entry : journalReferences.entrySet()) {
+                    store.decrementJournalCount(tx, entry.getKey(), entry.getValue());
+                }
+                if (!spawned.isEmpty()) {
+                    schedule(tx, spawned);
+                }
+                Map.Entry<Long, List<JobLocation>> first = index.getFirst(tx);
+                if (first != null) {
+                    nextTime[0] = first.getKey();
+                }
+            }
+        });
+        return nextTime[0];
+    }
+
+    /**
+     * Stores a fired job again if it repeats, and schedules the separate
+     * repeating job of a cron entry which has one.
+     *
+     * @return true if the job is still in the index
+     */
+    private boolean reschedule(Transaction tx, JobLocation job, ByteSequence payload, long currentTime, List<ScheduleRequest> spawned)
+        throws IOException {
+        int repeat = job.getRepeat();
+        long nextExecutionTime;
+        try {
+            nextExecutionTime = calculateNextExecutionTime(job, currentTime, repeat);
+        } catch (MessageFormatException e) {
+            throw new IOException(e.getMessage());
+        }
+        if (!job.isCron()) {
+            if (repeat != 0) {
+                job.setRepeat(repeat - 1);
+                storeJob(tx, job, nextExecutionTime);
+                return true;
+            }
+            return false;
+        }
+        if (nextExecutionTime > currentTime) {
+            storeJob(tx, job, nextExecutionTime);
+            if (repeat != 0) {
+                // the cron entry starts a separate schedule of its own
+                spawned.add(new ScheduleRequest(ID_GENERATOR.generateId(), payload, "", job.getDelay(), job.getPeriod(), job.getRepeat()));
+            }
+            return true;
+        }
+        return false;
+    }
+
     @Override
     public void run() {
         try {
@@ -479,81 +681,38 @@ class JobSchedulerImpl extends ServiceSupport implements Runnable, JobScheduler
         while (this.running.get()) {
             this.scheduleTime.clearNewJob();
             try {
-                // peek the next job
                 long currentTime = System.currentTimeMillis();
-
-                // Reads the list of the next entries and removes them from the store in one atomic step.
-                // Prevents race conditions on short delays, when storeJob() tries to append new items to the
-                // existing list during this read operation (see AMQ-3141).
-                synchronized (this) {
+                List<JobLocation> due = new ArrayList<JobLocation>();
+                Map<String, ByteSequence> payloads = new HashMap<String, ByteSequence>();
+                readDueJobs(currentTime, due, payloads);
+                long nextTime;
+                if (due.isEmpty()) {
                     Map.Entry<Long, List<JobLocation>> first = getNextToSchedule();
-                    if (first != null) {
-                        List<JobLocation> list = new ArrayList<JobLocation>(first.getValue());
-                        final long executionTime = first.getKey();
-                        long nextExecutionTime = 0;
-                        if (executionTime <= currentTime) {
-                            for (final JobLocation job : list) {
-                                int repeat = job.getRepeat();
-                                nextExecutionTime = calculateNextExecutionTime(job, currentTime, repeat);
-                                long waitTime = nextExecutionTime - currentTime;
-                                this.scheduleTime.setWaitTime(waitTime);
-                                if (job.isCron() == false) {
-                                    fireJob(job);
-                                    if (repeat != 0) {
-                                        repeat--;
-                                        job.setRepeat(repeat);
-                                        // remove this job from the index so it doesn't get destroyed
-                                        removeFromIndex(executionTime, job.getJobId());
-                                        // and re-store it
-                                        storeJob(job, nextExecutionTime);
-                                    }
-                                } else {
-                                    // cron job
-                                    if (repeat == 0) {
-                                        // we haven't got a separate scheduler to execute at
-                                        // this time - just a cron job - so fire it
-                                        fireJob(job);
-                                    }
-                                    if (nextExecutionTime > currentTime) {
-                                        // we will run again ...
-                                        // remove this job from the index - so it doesn't get destroyed
-                                        removeFromIndex(executionTime, job.getJobId());
-                                        // and re-store it
-                                        storeJob(job, nextExecutionTime);
-                                        if (repeat != 0) {
-                                            // we have a separate schedule to run at this time
-                                            // so the cron job is used to set of a separate schedule
-                                            // hence we won't fire the original cron job to the
-                                            // listeners but we do need to start a separate schedule
-                                            String jobId = ID_GENERATOR.generateId();
-                                            ByteSequence payload = getPayload(job.getLocation());
-                                            schedule(jobId, payload, "", job.getDelay(), job.getPeriod(), job.getRepeat());
-                                            waitTime = job.getDelay() != 0 ? job.getDelay() : job.getPeriod();
-                                            this.scheduleTime.setWaitTime(waitTime);
-                                        }
-                                    }
-                                }
-                            }
-                            // now remove all jobs that have not been
-                            // rescheduled from this execution time
-                            remove(executionTime);
-
-                            // If there is a job that should fire before the currently set wait time
-                            // we need to reset wait time otherwise we'll miss it.
-                            Map.Entry<Long, List<JobLocation>> nextUp = getNextToSchedule();
-                            if (nextUp != null) {
-                                final long timeUntilNextScheduled = nextUp.getKey() - currentTime;
-                                if (timeUntilNextScheduled < this.scheduleTime.getWaitTime()) {
-                                    this.scheduleTime.setWaitTime(timeUntilNextScheduled);
-                                }
-                            }
-                        } else {
-                            if (LOG.isDebugEnabled()) {
-                                LOG.debug("Not yet time to execute the job, waiting " + (executionTime - currentTime) + " ms");
-                            }
-                            this.scheduleTime.setWaitTime(executionTime - currentTime);
+                    nextTime = first != null ? first.getKey() : -1;
+                } else {
+                    // cron entries with a repeat only start a separate schedule
+                    List<JobLocation> toFire = new ArrayList<JobLocation>(due.size());
+                    for (JobLocation job : due) {
+                        if (!job.isCron() || job.getRepeat() == 0) {
+                            toFire.add(job);
                         }
                     }
+                    // the scheduler isn't locked while the jobs are fired, so
+                    // new jobs can be scheduled meanwhile
+                    fireJobs(toFire, payloads);
+                    nextTime = completeJobs(due, payloads, currentTime);
+                }
+                if (nextTime >= 0 && nextTime <= System.currentTimeMillis()) {
+                    // more jobs are due already
+                    continue;
+                }
+                if (nextTime >= 0) {
+                    if (LOG.isDebugEnabled()) {
+                        LOG.debug("Not yet time to execute the job, waiting " + (nextTime - currentTime) + " ms");
+                    }
+                    this.scheduleTime.setWaitTime(nextTime - System.currentTimeMillis());
+                } else {
+                    this.scheduleTime.setWaitTime(0);
                 }
                 this.scheduleTime.pause();
             } catch (Exception ioe) {
@@ -574,6 +733,18 @@ class JobSchedulerImpl extends ServiceSupport implements Runnable, JobScheduler
         }
 
         if (started.compareAndSet(false, true)) {
+            if (this.store.getFiringThreads() > 1) {
+                this.firingExecutor = Executors.newFixedThreadPool(this.store.getFiringThreads(), new ThreadFactory() {
+                    private final AtomicInteger count = new AtomicInteger();
+
+                    @Override
+                    public Thread newThread(Runnable runnable) {
+                        Thread thread = new Thread(runnable, "JobScheduler:" + name + " firing-" + count.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+            }
             this.thread = new Thread(this, "JobScheduler:" + this.name);
             this.thread.setDaemon(true);
             this.thread.start();
@@ -589,6 +760,11 @@ class JobSchedulerImpl extends ServiceSupport implements Runnable, JobScheduler
             if (t != null) {
                 t.join(1000);
             }
+            ExecutorService executor = this.firingExecutor;
+            this.firingExecutor = null;
+            if (executor != null) {
+                executor.shutdown();
+            }
         }
     }
 
@@ -616,12 +792,74 @@ class JobSchedulerImpl extends ServiceSupport implements Runnable, JobScheduler
 
     void createIndexes(Transaction tx) throws IOException {
         this.index = new BTreeIndex<Long, List<JobLocation>>(this.store.getPageFile(), tx.allocate().getPageId());
+        this.jobTimes = new BTreeIndex<String, Long>(this.store.getPageFile(), tx.allocate().getPageId());
     }
 
     void load(Transaction tx) throws IOException {
         this.index.setKeyMarshaller(LongMarshaller.INSTANCE);
         this.index.setValueMarshaller(ValueMarshaller.INSTANCE);
         this.index.load(tx);
+        this.jobTimes.setKeyMarshaller(StringMarshaller.INSTANCE);
+        this.jobTimes.setValueMarshaller(LongMarshaller.INSTANCE);
+        this.jobTimes.load(tx);
+    }
+
+    void load(Transaction tx, long jobTimesPageId) throws IOException {
+        this.jobTimes = new BTreeIndex<String, Long>(this.store.getPageFile(), jobTimesPageId);
+        load(tx);
+    }
+
+    /**
+     * Loads a scheduler stored before the job ids were indexed, indexing the
+     * time of each of its jobs once.
+     */
+    void upgrade(Transaction tx) throws IOException {
+        this.jobTimes = new BTreeIndex<String, Long>(this.store.getPageFile(), tx.allocate().getPageId());
+        load(tx);
+        indexJobTimes(tx);
+    }
+
+    /**
+     * Checks the job id index against the jobs of the index, so a store an
+     * older broker has scheduled or removed jobs in, without updating the job
+     * id index, is found on load.
+     *
+     * @return true if the job id index holds the time of every job and nothing else
+     */
+    boolean isJobTimesConsistent(Transaction tx) throws IOException {
+        long jobs = 0;
+        for (Iterator<Map.Entry<Long, List<JobLocation>>> i = this.index.iterator(tx); i.hasNext();) {
+            Map.Entry<Long, List<JobLocation>> entry = i.next();
+            for (JobLocation jl : entry.getValue()) {
+                Long time = this.jobTimes.get(tx, jl.getJobId());
+                if (time == null || time.longValue() != entry.getKey().longValue()) {
+                    return false;
+                }
+                jobs++;
+            }
+        }
+        long indexed = 0;
+        for (Iterator<Map.Entry<String, Long>> i = this.jobTimes.iterator(tx); i.hasNext(); i.next()) {
+            indexed++;
+        }
+        return indexed == jobs;
+    }
+
+    /**
+     * Builds the job id index again from the jobs of the index.
+     */
+    void rebuildJobTimes(Transaction tx) throws IOException {
+        this.jobTimes.clear(tx);
+        indexJobTimes(tx);
+    }
+
+    private void indexJobTimes(Transaction tx) throws IOException {
+        for (Iterator<Map.Entry<Long, List<JobLocation>>> i = this.index.iterator(tx); i.hasNext();) {
+            Map.Entry<Long, List<JobLocation>> entry = i.next();
+            for (JobLocation jl : entry.getValue()) {
+                this.jobTimes.put(tx, jl.getJobId(), entry.getKey());
+            }
+        }
     }
 
     void read(DataInput in) throws IOException {
@@ -660,6 +898,53 @@ class JobSchedulerImpl extends ServiceSupport implements Runnable, JobScheduler
         }
     }
 
+    /**
+     * A job waiting to be stored, with its time worked out when it was
+     * scheduled.
+     */
+    static class ScheduleRequest {
+        final String jobId;
+        final ByteSequence payload;
+        final String cronEntry;
+        final long delay;
+        final long period;
+        final int repeat;
+        final long startTime;
+        final long time;
+        boolean done;
+        IOException exception;
+
+        ScheduleRequest(String jobId, ByteSequence payload, String cronEntry, long delay, long period, int repeat) throws IOException {
+            this.jobId = jobId;
+            this.payload = payload;
+            this.cronEntry = cronEntry;
+            this.delay = delay;
+            this.period = period;
+            this.repeat = repeat;
+            // round startTime - so we can schedule more jobs
+            // at the same time
+            this.startTime = (System.currentTimeMillis() / 1000) * 1000;
+            long time = 0;
+            if (cronEntry != null && cronEntry.length() > 0) {
+                try {
+                    time = CronParser.getNextScheduledTime(cronEntry, startTime);
+                } catch (MessageFormatException e) {
+                    throw new IOException(e.getMessage());
+                }
+            }
+            if (time == 0) {
+                // start time not set by CRON - so it it to the current time
+                time = startTime;
+            }
+            if (delay > 0) {
+                time += delay;
+            } else {
+                time += period;
+            }
+            this.time = time;
+        }
+    }
+
     static class ScheduleTime {
         private final int DEFAULT_WAIT = 500;
         private final int DEFAULT_NEW_JOB_WAIT = 100;
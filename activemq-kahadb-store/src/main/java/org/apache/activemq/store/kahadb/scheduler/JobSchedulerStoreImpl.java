@@ -18,6 +18,7 @@ package org.apache.activemq.store.kahadb.scheduler;
 
 import java.io.DataInput;
 import java.io.DataOutput;
+import java.io.EOFException;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
@@ -39,6 +40,7 @@ import org.apache.activemq.store.kahadb.disk.page.Page;
 import org.apache.activemq.store.kahadb.disk.page.PageFile;
 import org.apache.activemq.store.kahadb.disk.page.Transaction;
 import org.apache.activemq.store.kahadb.disk.util.IntegerMarshaller;
+import org.apache.activemq.store.kahadb.disk.util.LongMarshaller;
 import org.apache.activemq.store.kahadb.disk.util.StringMarshaller;
 import org.apache.activemq.store.kahadb.disk.util.VariableMarshaller;
 import org.apache.activemq.util.ByteSequence;
@@ -65,6 +67,8 @@ public class JobSchedulerStoreImpl extends ServiceSupport implements JobSchedule
     private int journalMaxFileLength = Journal.DEFAULT_MAX_FILE_LENGTH;
     private int journalMaxWriteBatchSize = Journal.DEFAULT_MAX_WRITE_BATCH_SIZE;
     private boolean enableIndexWriteAsync = false;
+    private int firingThreads = 1;
+    private int firingBatchSize = 1000;
     MetaData metaData = new MetaData(this);
     final MetaDataMarshaller metaDataMarshaller = new MetaDataMarshaller(this);
     Map<String, JobSchedulerImpl> schedulers = new HashMap<String, JobSchedulerImpl>();
@@ -78,10 +82,16 @@ public class JobSchedulerStoreImpl extends ServiceSupport implements JobSchedule
         Page<MetaData> page;
         BTreeIndex<Integer, Integer> journalRC;
         BTreeIndex<String, JobSchedulerImpl> storedSchedulers;
+        // the root page of the job id index of each scheduler, added to the
+        // meta data after the existing fields. A store without it is upgraded
+        // on load. An older broker ignores it and does not update the job id
+        // indexes, so each index is checked on load and rebuilt when stale.
+        BTreeIndex<String, Long> jobTimeIndexes;
 
         void createIndexes(Transaction tx) throws IOException {
             this.storedSchedulers = new BTreeIndex<String, JobSchedulerImpl>(pageFile, tx.allocate().getPageId());
             this.journalRC = new BTreeIndex<Integer, Integer>(pageFile, tx.allocate().getPageId());
+            this.jobTimeIndexes = new BTreeIndex<String, Long>(pageFile, tx.allocate().getPageId());
         }
 
         void load(Transaction tx) throws IOException {
@@ -91,12 +101,25 @@ public class JobSchedulerStoreImpl extends ServiceSupport implements JobSchedule
             this.journalRC.setKeyMarshaller(IntegerMarshaller.INSTANCE);
             this.journalRC.setValueMarshaller(IntegerMarshaller.INSTANCE);
             this.journalRC.load(tx);
+            this.jobTimeIndexes.setKeyMarshaller(StringMarshaller.INSTANCE);
+            this.jobTimeIndexes.setValueMarshaller(LongMarshaller.INSTANCE);
+            this.jobTimeIndexes.load(tx);
         }
 
         void loadScheduler(Transaction tx, Map<String, JobSchedulerImpl> schedulers) throws IOException {
             for (Iterator<Entry<String, JobSchedulerImpl>> i = this.storedSchedulers.iterator(tx); i.hasNext();) {
                 Entry<String, JobSchedulerImpl> entry = i.next();
-                entry.getValue().load(tx);
+                Long jobTimesPageId = this.jobTimeIndexes.get(tx, entry.getKey());
+                if (jobTimesPageId != null) {
+                    entry.getValue().load(tx, jobTimesPageId);
+                    if (!entry.getValue().isJobTimesConsistent(tx)) {
+                        LOG.info("Rebuilding the job id index of " + entry.getKey() + ", its jobs were changed by an older version");
+                        entry.getValue().rebuildJobTimes(tx);
+                    }
+                } else {
+                    entry.getValue().upgrade(tx);
+                    this.jobTimeIndexes.put(tx, entry.getKey(), entry.getValue().jobTimes.getPageId());
+                }
                 schedulers.put(entry.getKey(), entry.getValue());
             }
         }
@@ -108,11 +131,17 @@ public class JobSchedulerStoreImpl extends ServiceSupport implements JobSchedule
             this.journalRC = new BTreeIndex<Integer, Integer>(pageFile, is.readLong());
             this.journalRC.setKeyMarshaller(IntegerMarshaller.INSTANCE);
             this.journalRC.setValueMarshaller(IntegerMarshaller.INSTANCE);
+            try {
+                this.jobTimeIndexes = new BTreeIndex<String, Long>(pageFile, is.readLong());
+            } catch (EOFException expectedOnUpgrade) {
+                this.jobTimeIndexes = null;
+            }
         }
 
         public void write(DataOutput os) throws IOException {
             os.writeLong(this.storedSchedulers.getPageId());
             os.writeLong(this.journalRC.getPageId());
+            os.writeLong(this.jobTimeIndexes.getPageId());
         }
     }
 
@@ -212,6 +241,7 @@ public class JobSchedulerStoreImpl extends ServiceSupport implements JobSchedule
                     js.createIndexes(tx);
                     js.load(tx);
                     metaData.storedSchedulers.put(tx, name, js);
+                    metaData.jobTimeIndexes.put(tx, name, js.jobTimes.getPageId());
                 }
             });
             result = js;
@@ -235,6 +265,7 @@ public class JobSchedulerStoreImpl extends ServiceSupport implements JobSchedule
                 @Override
                 public void execute(Transaction tx) throws IOException {
                     metaData.storedSchedulers.remove(tx, name);
+                    metaData.jobTimeIndexes.remove(tx, name);
                     js.destroy(tx);
                 }
             });
@@ -274,6 +305,11 @@ public class JobSchedulerStoreImpl extends ServiceSupport implements JobSchedule
                     Page<MetaData> page = tx.load(0, metaDataMarshaller);
                     metaData = page.get();
                     metaData.page = page;
+                    if (metaData.jobTimeIndexes == null) {
+                        // stored before the job ids were indexed
+                        metaData.jobTimeIndexes = new BTreeIndex<String, Long>(pageFile, tx.allocate().getPageId());
+                        tx.store(metaData.page, metaDataMarshaller, true);
+                    }
                 }
                 metaData.load(tx);
                 metaData.loadScheduler(tx, schedulers);
@@ -309,17 +345,23 @@ public class JobSchedulerStoreImpl extends ServiceSupport implements JobSchedule
         LOG.info(this + " stopped");
     }
 
-    synchronized void incrementJournalCount(Transaction tx, Location location) throws IOException {
-        int logId = location.getDataFileId();
+    void incrementJournalCount(Transaction tx, Location location) throws IOException {
+        incrementJournalCount(tx, location.getDataFileId(), 1);
+    }
+
+    synchronized void incrementJournalCount(Transaction tx, int logId, int count) throws IOException {
         Integer val = this.metaData.journalRC.get(tx, logId);
-        int refCount = val != null ? val.intValue() + 1 : 1;
+        int refCount = val != null ? val.intValue() + count : count;
         this.metaData.journalRC.put(tx, logId, refCount);
     }
 
-    synchronized void decrementJournalCount(Transaction tx, Location location) throws IOException {
-        int logId = location.getDataFileId();
+    void decrementJournalCount(Transaction tx, Location location) throws IOException {
+        decrementJournalCount(tx, location.getDataFileId(), 1);
+    }
+
+    synchronized void decrementJournalCount(Transaction tx, int logId, int count) throws IOException {
         int refCount = this.metaData.journalRC.get(tx, logId);
-        refCount--;
+        refCount -= count;
         if (refCount <= 0) {
             this.metaData.journalRC.remove(tx, logId);
             Set<Integer> set = new HashSet<Integer>();
@@ -401,6 +443,31 @@ public class JobSchedulerStoreImpl extends ServiceSupport implements JobSchedule
         this.enableIndexWriteAsync = enableIndexWriteAsync;
     }
 
+    public int getFiringThreads() {
+        return firingThreads;
+    }
+
+    /**
+     * Sets the number of threads the jobs which are due at the same time are
+     * fired on. With more than one thread the jobs of a batch are no longer
+     * fired in the order they were scheduled.
+     */
+    public void setFiringThreads(int firingThreads) {
+        this.firingThreads = firingThreads;
+    }
+
+    public int getFiringBatchSize() {
+        return firingBatchSize;
+    }
+
+    /**
+     * Sets the number of due jobs read and taken out of the index in one
+     * transaction.
+     */
+    public void setFiringBatchSize(int firingBatchSize) {
+        this.firingBatchSize = firingBatchSize;
+    }
+
     @Override
     public String toString() {
         return "JobSchedulerStore:" + this.directory;
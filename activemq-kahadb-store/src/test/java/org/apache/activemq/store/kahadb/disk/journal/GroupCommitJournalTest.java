@@ -0,0 +1,101 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.store.kahadb.disk.journal;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.activemq.util.ByteSequence;
+
+public class GroupCommitJournalTest extends JournalTest {
+
+    @Override
+    protected void configure(Journal dataManager) {
+        dataManager.setGroupCommitWindow(2000);
+    }
+
+    public void testConcurrentSyncWritesShareForce() throws Exception {
+        final int writers = 10;
+        final int iterations = 100;
+        final CountDownLatch done = new CountDownLatch(writers);
+        final AtomicReference<Exception> failure = new AtomicReference<Exception>();
+        for (int t = 0; t < writers; t++) {
+            new Thread("writer-" + t) {
+                public void run() {
+                    try {
+                        for (int i = 0; i < iterations; i++) {
+                            dataManager.write(new ByteSequence(("DATA-" + i).getBytes()), true);
+                        }
+                    } catch (Exception e) {
+                        failure.set(e);
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }.start();
+        }
+        assertTrue("all writes completed", done.await(60, TimeUnit.SECONDS));
+        assertNull(failure.get());
+
+        JournalStatistics statistics = dataManager.getStatistics();
+        assertTrue("batches were recorded", statistics.getBatchSize().getCount() > 0);
+        assertEquals(writers * iterations, statistics.getBatchWrites().getTotalSize());
+        assertEquals("every sync write waited for a force", writers * iterations, statistics.getForcedWrites().getTotalSize());
+        assertTrue("forces were recorded", statistics.getForceTime().getCount() > 0);
+        assertTrue("a force was shared", statistics.getForcedWrites().getMaxSize() > 1);
+    }
+
+    public void testWindowHoldsTheForceForConcurrentWriters() throws Exception {
+        dataManager.close();
+        dataManager = new Journal();
+        dataManager.setDirectory(dir);
+        dataManager.setGroupCommitWindow(1000000);
+        dataManager.start();
+        // as if forces had been slow, so the whole window is used at once
+        ((DataFileAppender) dataManager.appender).averageForceNanos = TimeUnit.SECONDS.toNanos(10);
+
+        final int writers = 10;
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(writers);
+        final AtomicReference<Exception> failure = new AtomicReference<Exception>();
+        for (int t = 0; t < writers; t++) {
+            final int id = t;
+            new Thread("writer-" + t) {
+                public void run() {
+                    try {
+                        start.await();
+                        dataManager.write(new ByteSequence(("DATA-" + id).getBytes()), true);
+                    } catch (Exception e) {
+                        failure.set(e);
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }.start();
+        }
+        start.countDown();
+        assertTrue("all writes completed", done.await(30, TimeUnit.SECONDS));
+        assertNull(failure.get());
+
+        // without the window the first write is forced on its own, and the
+        // writes that arrive while it is forced share the next force
+        JournalStatistics statistics = dataManager.getStatistics();
+        assertEquals("one force for all the writers", 1, statistics.getForceTime().getCount());
+        assertEquals(writers, statistics.getForcedWrites().getMaxSize());
+    }
+}
@@ -17,6 +17,8 @@
 package org.apache.activemq.store.kahadb.disk.journal;
 
 import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
 
@@ -49,6 +51,45 @@ public class JournalTest extends TestCase {
         IOHelper.delete(dir);
     }
 
+    public void testReadUserRecordsMatchesNextLocation() throws Exception {
+        dataManager.setMaxFileLength(1024 * 64);
+        for (int i = 0; i < 500; i++) {
+            dataManager.write(new ByteSequence(("DATA-" + i + "-" + new String(new byte[256])).getBytes()), i % 50 == 0);
+        }
+        dataManager.close();
+        dataManager = new Journal();
+        dataManager.setDirectory(dir);
+        dataManager.setMaxFileLength(1024 * 64);
+        configure(dataManager);
+        dataManager.start();
+        assertTrue("rotated to more than one data file", dataManager.getFileMap().size() > 1);
+
+        final List<Location> expected = new ArrayList<Location>();
+        for (Location location = dataManager.getNextLocation(null); location != null; location = dataManager.getNextLocation(location)) {
+            expected.add(location);
+        }
+        assertEquals(500, expected.size());
+
+        // start part way through the first data file, like a recovery would
+        Location start = expected.get(3);
+        final List<Location> actual = new ArrayList<Location>();
+        final List<String> data = new ArrayList<String>();
+        for (Integer dataFileId : dataManager.getFileMap().keySet()) {
+            int offset = dataFileId == start.getDataFileId() ? start.getOffset() : 0;
+            assertTrue(dataManager.readUserRecords(dataFileId, offset, new Journal.RecordVisitor() {
+                public void visit(Location location, ByteSequence record) {
+                    actual.add(location);
+                    data.add(new String(record.getData(), record.getOffset(), record.getLength()));
+                }
+            }));
+        }
+        assertEquals(expected.subList(3, expected.size()), actual);
+        for (int i = 0; i < actual.size(); i++) {
+            assertEquals(expected.get(i + 3).getSize(), actual.get(i).getSize());
+            assertTrue(data.get(i).startsWith("DATA-" + (i + 3) + "-"));
+        }
+    }
+
     public void testBatchWriteCallbackCompleteAfterTimeout() throws Exception {
         final int iterations = 10;
         final CountDownLatch latch = new CountDownLatch(iterations);
@@ -0,0 +1,70 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.store.kahadb.disk.journal;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.activemq.util.ByteSequence;
+
+public class MappedJournalTest extends JournalTest {
+
+    @Override
+    protected void configure(Journal dataManager) {
+        dataManager.setEnableMemoryMapping(true);
+        dataManager.setMaxFileLength(1024 * 512);
+    }
+
+    public void testReadBackAcrossFiles() throws Exception {
+        List<Location> locations = new ArrayList<Location>();
+        for (int i = 0; i < 2000; i++) {
+            locations.add(dataManager.write(new ByteSequence(("DATA-" + i + "-" + new String(new byte[512])).getBytes()), false));
+        }
+        dataManager.write(new ByteSequence("SYNC".getBytes()), true);
+        assertTrue("rotated to more than one data file", dataManager.getFileMap().size() > 1);
+
+        for (int i = 0; i < locations.size(); i++) {
+            String read = new String(dataManager.read(locations.get(i)).getData());
+            assertTrue("record " + i + " was read back", read.startsWith("DATA-" + i + "-"));
+        }
+    }
+
+    public void testRecoveryAfterRestart() throws Exception {
+        Location last = null;
+        for (int i = 0; i < 100; i++) {
+            last = dataManager.write(new ByteSequence(("DATA-" + i).getBytes()), true);
+        }
+        dataManager.close();
+
+        dataManager = new Journal();
+        dataManager.setDirectory(dir);
+        configure(dataManager);
+        dataManager.start();
+
+        assertEquals("recovered append location", last.getDataFileId(), dataManager.getLastAppendLocation().getDataFileId());
+        assertEquals("recovered append location", last.getOffset() + last.getSize(), dataManager.getLastAppendLocation().getOffset());
+
+        int count = 0;
+        Location location = dataManager.getNextLocation(null);
+        while (location != null) {
+            assertEquals("DATA-" + count, new String(dataManager.read(location).getData()));
+            count++;
+            location = dataManager.getNextLocation(location);
+        }
+        assertEquals(100, count);
+    }
+}
@@ -0,0 +1,137 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.store.kahadb.disk.page;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+import org.apache.activemq.store.kahadb.disk.util.StringMarshaller;
+
+public class OffHeapPageCacheTest extends TestCase {
+
+    private static final int PAGE_SIZE = 64;
+
+    private final AtomicInteger diskReads = new AtomicInteger();
+    private final OffHeapPageCache.PageReader reader = new OffHeapPageCache.PageReader() {
+        @Override
+        public void readPage(long pageId, byte[] data) throws IOException {
+            diskReads.incrementAndGet();
+            Arrays.fill(data, (byte) pageId);
+        }
+    };
+
+    public void testReadThrough() throws Exception {
+        PageCacheStatistics statistics = new PageCacheStatistics();
+        OffHeapPageCache cache = new OffHeapPageCache(PAGE_SIZE * 16, PAGE_SIZE, 4, statistics);
+
+        byte[] data = new byte[PAGE_SIZE];
+        cache.read(3, data, reader);
+        cache.read(3, data, reader);
+        assertEquals(1, diskReads.get());
+        assertEquals(1, statistics.getMisses().getCount());
+        assertEquals(1, statistics.getHits().getCount());
+        assertEquals(3, data[PAGE_SIZE - 1]);
+
+        // a header sized read is served from the cached page
+        byte[] header = new byte[8];
+        cache.read(3, header, reader);
+        assertEquals(1, diskReads.get());
+        assertEquals(3, header[7]);
+
+        // writes replace the cached copy
+        byte[] update = new byte[PAGE_SIZE];
+        Arrays.fill(update, (byte) 42);
+        cache.put(3, update);
+        cache.read(3, data, reader);
+        assertEquals(42, data[0]);
+        assertEquals(1, diskReads.get());
+    }
+
+    public void testEvictionAndRemove() throws Exception {
+        PageCacheStatistics statistics = new PageCacheStatistics();
+        OffHeapPageCache cache = new OffHeapPageCache(PAGE_SIZE * 8, PAGE_SIZE, 1, statistics);
+        assertEquals(PAGE_SIZE * 8, cache.getMaxSize());
+
+        byte[] data = new byte[PAGE_SIZE];
+        for (int i = 0; i < 100; i++) {
+            cache.read(i, data, reader);
+            assertEquals((byte) i, data[0]);
+        }
+        assertEquals(8, cache.size());
+        assertEquals(92, statistics.getEvictions().getCount());
+
+        // the last pages read are still cached
+        diskReads.set(0);
+        cache.read(99, data, reader);
+        assertEquals(0, diskReads.get());
+
+        for (int i = 0; i < 100; i++) {
+            cache.remove(i);
+        }
+        assertEquals(0, cache.size());
+        for (int i = 0; i < 8; i++) {
+            cache.read(i, data, reader);
+        }
+        for (int i = 0; i < 8; i += 2) {
+            cache.remove(i);
+        }
+        assertEquals(4, cache.size());
+        diskReads.set(0);
+        for (int i = 1; i < 8; i += 2) {
+            cache.read(i, data, reader);
+            assertEquals((byte) i, data[0]);
+        }
+        assertEquals(0, diskReads.get());
+    }
+
+    public void testPageFileReadsThroughCache() throws Exception {
+        PageFile pf = new PageFile(new File("target/test-data"), getName());
+        pf.delete();
+        pf.setEnablePageCaching(false);
+        pf.setOffHeapPageCacheSize(1024 * 1024);
+        pf.load();
+
+        Transaction tx = pf.tx();
+        for (int i = 0; i < 100; i++) {
+            Page<String> page = tx.allocate();
+            page.set("page:" + i);
+            tx.store(page, StringMarshaller.INSTANCE, false);
+            tx.commit();
+        }
+        pf.flush();
+
+        PageCacheStatistics statistics = pf.getPageCacheStatistics();
+        for (int round = 0; round < 2; round++) {
+            tx = pf.tx();
+            int count = 0;
+            for (Page<String> page : tx) {
+                tx.load(page, StringMarshaller.INSTANCE);
+                assertEquals("page:" + count++, page.get());
+            }
+            assertEquals(100, count);
+        }
+        assertEquals("written pages are cached", 0, statistics.getMisses().getCount());
+        assertTrue(statistics.getHits().getCount() > 0);
+
+        pf.unload();
+        pf.delete();
+    }
+}
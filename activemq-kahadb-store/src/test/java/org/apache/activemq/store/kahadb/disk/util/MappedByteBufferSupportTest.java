@@ -0,0 +1,78 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.store.kahadb.disk.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+
+import org.apache.activemq.util.IOHelper;
+import org.junit.Assume;
+import org.junit.Test;
+
+public class MappedByteBufferSupportTest {
+
+    @Test
+    public void testUnmapReleasesMappingOfDeletedFile() throws Exception {
+        assertTrue("unmap supported", MappedByteBufferSupport.isUnmapSupported());
+
+        File directory = new File("target/test/MappedByteBufferSupport");
+        IOHelper.mkdirs(directory);
+        File file = new File(directory, "mapped-" + System.nanoTime() + ".dat");
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+        MappedByteBuffer buffer = MappedByteBufferSupport.map(randomAccessFile, 1024 * 1024, false);
+        buffer.put(0, (byte) 1);
+        assertEquals(1, buffer.get(0));
+        randomAccessFile.close();
+
+        File maps = new File("/proc/self/maps");
+        Assume.assumeTrue(maps.canRead());
+        String path = file.getCanonicalPath();
+        assertTrue("mapping listed", isMapped(maps, path));
+
+        assertTrue(MappedByteBufferSupport.unmap(buffer));
+        assertTrue(file.delete());
+        assertFalse("mapping released", isMapped(maps, path));
+    }
+
+    @Test
+    public void testUnmapNull() {
+        assertTrue(MappedByteBufferSupport.unmap(null));
+    }
+
+    private boolean isMapped(File maps, String path) throws IOException {
+        BufferedReader reader = new BufferedReader(new FileReader(maps));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.contains(path)) {
+                    return true;
+                }
+            }
+            return false;
+        } finally {
+            reader.close();
+        }
+    }
+}
@@ -66,6 +66,26 @@ public class SequenceSetTest {
         assertTrue(set.isEmpty());
     }
 
+    @Test
+    public void testAddSequenceAppends() {
+        SequenceSet set = new SequenceSet();
+        set.add(new Sequence(1, 2));
+        set.add(new Sequence(3, 4));
+        assertEquals(1, set.size());
+        set.add(new Sequence(10, 11));
+        assertEquals(2, set.size());
+        set.add(5);
+        assertEquals(2, set.size());
+        set.add(new Sequence(7, 8));
+        assertEquals(3, set.size());
+        set.add(6);
+        set.add(9);
+        assertEquals(1, set.size());
+        assertEquals(11, set.rangeSize());
+        assertFalse(set.contains(12));
+        assertTrue(set.contains(11));
+    }
+
     @Test
     public void testContains() {
         SequenceSet set = new SequenceSet();
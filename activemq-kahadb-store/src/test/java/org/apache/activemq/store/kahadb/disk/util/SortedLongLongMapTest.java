@@ -0,0 +1,152 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.store.kahadb.disk.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+public class SortedLongLongMapTest {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SortedLongLongMapTest.class);
+
+    @Test
+    public void testPutGetRemove() {
+        SortedLongLongMap map = new SortedLongLongMap(2);
+        assertTrue(map.isEmpty());
+        assertEquals(-1, map.get(1, -1));
+
+        map.put(10, 1);
+        map.put(20, 2);
+        map.put(5, 3);
+        map.put(15, 4);
+        map.put(15, 5);
+        assertEquals(4, map.size());
+        assertEquals(5, map.firstKey());
+        assertEquals(20, map.lastKey());
+        assertEquals(5, map.get(15, -1));
+        assertEquals("{5=3, 10=1, 15=5, 20=2}", map.toString());
+
+        assertTrue(map.remove(5));
+        assertFalse(map.remove(5));
+        assertTrue(map.remove(20));
+        assertEquals(2, map.size());
+        assertEquals(10, map.firstKey());
+        assertEquals(15, map.lastKey());
+        assertFalse(map.containsKey(20));
+
+        map.clear();
+        assertTrue(map.isEmpty());
+    }
+
+    @Test
+    public void testMatchesTreeMap() {
+        Random random = new Random(42);
+        SortedLongLongMap map = new SortedLongLongMap();
+        TreeMap<Long, Long> expected = new TreeMap<Long, Long>();
+        long next = 0;
+        for (int i = 0; i < 200000; i++) {
+            int op = random.nextInt(10);
+            if (op < 4) {
+                // mostly increasing keys like message sequences
+                long key = next++;
+                map.put(key, i);
+                expected.put(key, (long) i);
+            } else if (op < 6) {
+                long key = random.nextInt((int) next + 1);
+                map.put(key, i);
+                expected.put(key, (long) i);
+            } else if (op < 8 && !expected.isEmpty()) {
+                long key = expected.firstKey();
+                assertEquals(true, map.remove(key));
+                expected.remove(key);
+            } else {
+                long key = random.nextInt((int) next + 1);
+                assertEquals(expected.remove(key) != null, map.remove(key));
+            }
+            assertEquals(expected.size(), map.size());
+        }
+        for (Map.Entry<Long, Long> entry : expected.entrySet()) {
+            assertEquals(entry.getValue().longValue(), map.get(entry.getKey(), -1));
+        }
+        assertEquals(expected.firstKey().longValue(), map.firstKey());
+        assertEquals(expected.lastKey().longValue(), map.lastKey());
+    }
+
+    /**
+     * Compares the map against the TreeMap it replaces for the message
+     * reference counts of a topic: every message is added with a count per
+     * subscription, acked by every subscription and removed from the front.
+     */
+    @Test
+    public void testMessageReferencesBenchmark() {
+        final int messages = 500000;
+        final int subscriptions = 4;
+        for (int run = 0; run < 3; run++) {
+            long start = System.nanoTime();
+            SortedLongLongMap map = new SortedLongLongMap();
+            for (long sequence = 0; sequence < messages; sequence++) {
+                for (int s = 0; s < subscriptions; s++) {
+                    map.put(sequence, map.get(sequence, 0L) + 1);
+                }
+                if (sequence >= 1000) {
+                    long acked = sequence - 1000;
+                    for (int s = 0; s < subscriptions; s++) {
+                        long count = map.get(acked, -1L) - 1;
+                        if (count > 0) {
+                            map.put(acked, count);
+                        } else {
+                            map.remove(acked);
+                        }
+                    }
+                }
+            }
+            long primitive = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            TreeMap<Long, Long> tree = new TreeMap<Long, Long>();
+            for (long sequence = 0; sequence < messages; sequence++) {
+                for (int s = 0; s < subscriptions; s++) {
+                    Long count = tree.get(sequence);
+                    tree.put(sequence, count == null ? 1L : count + 1);
+                }
+                if (sequence >= 1000) {
+                    long acked = sequence - 1000;
+                    for (int s = 0; s < subscriptions; s++) {
+                        long count = tree.get(acked) - 1;
+                        if (count > 0) {
+                            tree.put(acked, count);
+                        } else {
+                            tree.remove(acked);
+                        }
+                    }
+                }
+            }
+            long boxed = System.nanoTime() - start;
+            assertEquals(tree.size(), map.size());
+            LOG.info("SortedLongLongMap: " + primitive / 1000000 + " ms, TreeMap<Long, Long>: " + boxed / 1000000 + " ms");
+        }
+    }
+}
@@ -0,0 +1,154 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.store.kahadb.plist;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.activemq.store.PList;
+import org.apache.activemq.store.PListStore;
+import org.apache.activemq.store.PListTestSupport;
+import org.apache.activemq.util.ByteSequence;
+import org.apache.activemq.util.IOHelper;
+import org.junit.Test;
+
+public class MappedPListTest extends PListTestSupport {
+
+    @Override
+    protected MappedPListStore createPListStore() {
+        return new MappedPListStore();
+    }
+
+    @Override
+    protected PListStore createConcurrentAddIteratePListStore() {
+        MappedPListStore store = createPListStore();
+        store.setSegmentLength(1024 * 1024);
+        return store;
+    }
+
+    @Override
+    protected PListStore createConcurrentAddRemovePListStore() {
+        MappedPListStore store = createPListStore();
+        store.setSegmentLength(1024 * 5);
+        store.setLazyInit(false);
+        return store;
+    }
+
+    @Override
+    protected PListStore createConcurrentAddRemoveWithPreloadPListStore() {
+        MappedPListStore store = createPListStore();
+        store.setSegmentLength(1024 * 5);
+        return store;
+    }
+
+    @Override
+    protected PListStore createConcurrentAddIterateRemovePListStore(boolean enablePageCache) {
+        MappedPListStore store = createPListStore();
+        store.setSegmentLength(enablePageCache ? MappedPListStore.DEFAULT_SEGMENT_LENGTH : 1024 * 1024);
+        return store;
+    }
+
+    @Test
+    public void testDrainedSegmentsGiveTheirSpaceBack() throws Exception {
+        final int segmentLength = 64 * 1024;
+        File directory = new File("target/test/MappedPListReclaim");
+        IOHelper.mkdirs(directory);
+        IOHelper.deleteChildren(directory);
+        MappedPListStore store = createPListStore();
+        store.setDirectory(directory);
+        store.setSegmentLength(segmentLength);
+        store.start();
+        try {
+            MappedPList list = store.getPList("reclaim");
+            byte[] payload = new byte[1024];
+            for (int i = 0; i < 640; i++) {
+                list.addLast(String.valueOf(i), new ByteSequence(payload));
+            }
+            List<File> filled = segmentFiles(directory);
+            assertTrue("spread over segments: " + filled, filled.size() >= 10);
+            assertEquals(filled.size() * (long) segmentLength, diskUsage(directory));
+
+            PList.PListIterator iterator = list.iterator();
+            while (iterator.hasNext()) {
+                iterator.next();
+                iterator.remove();
+            }
+            assertTrue(list.isEmpty());
+
+            // only the segment being written to is kept
+            assertEquals(segmentLength, store.size());
+            assertEquals(segmentLength, diskUsage(directory));
+            File maps = new File("/proc/self/maps");
+            for (File file : filled) {
+                if (!file.exists()) {
+                    assertFalse("mapping of " + file + " released", maps.canRead() && isMapped(maps, file.getCanonicalPath()));
+                }
+            }
+        } finally {
+            store.stop();
+        }
+        assertEquals(0, diskUsage(directory));
+    }
+
+    private List<File> segmentFiles(File directory) {
+        List<File> result = new ArrayList<File>();
+        File[] files = directory.listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.startsWith("plist-");
+            }
+        });
+        if (files != null) {
+            for (File file : files) {
+                result.add(file);
+            }
+        }
+        return result;
+    }
+
+    private long diskUsage(File directory) {
+        long result = 0;
+        for (File file : segmentFiles(directory)) {
+            result += file.length();
+        }
+        return result;
+    }
+
+    private boolean isMapped(File maps, String path) throws IOException {
+        BufferedReader reader = new BufferedReader(new FileReader(maps));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.contains(path)) {
+                    return true;
+                }
+            }
+            return false;
+        } finally {
+            reader.close();
+        }
+    }
+}
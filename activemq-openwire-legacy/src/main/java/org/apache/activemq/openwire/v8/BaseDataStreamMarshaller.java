@@ -174,7 +174,8 @@ public abstract class BaseDataStreamMarshaller implements DataStreamMarshaller {
         if (wireFormat.isCacheEnabled()) {
             Short index = wireFormat.getMarshallCacheIndex(o);
             if (bs.readBoolean()) {
-                dataOut.writeShort(index.shortValue());
+                // a value that was not added to the cache goes with index -1
+                dataOut.writeShort(index == null ? -1 : index.shortValue());
                 wireFormat.tightMarshalNestedObject2(o, dataOut, bs);
             } else {
                 dataOut.writeShort(index.shortValue());
@@ -0,0 +1,229 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.jms.Destination;
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.MessageConsumer;
+import javax.jms.MessageProducer;
+import javax.jms.Session;
+import javax.jms.TextMessage;
+
+import junit.framework.TestCase;
+
+import org.apache.activemq.broker.BrokerService;
+import org.apache.activemq.broker.TransportConnector;
+
+public class ActiveMQFlowConsumerTest extends TestCase {
+
+    private BrokerService broker;
+    private ActiveMQConnection connection;
+    private ActiveMQSession session;
+
+    @Override
+    protected void setUp() throws Exception {
+        broker = new BrokerService();
+        broker.setPersistent(false);
+        broker.setUseJmx(false);
+        TransportConnector connector = broker.addConnector("tcp://localhost:0");
+        broker.start();
+        connection = (ActiveMQConnection) new ActiveMQConnectionFactory(connector.getConnectUri()).createConnection();
+        connection.start();
+        session = (ActiveMQSession) connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        connection.close();
+        broker.stop();
+    }
+
+    public void testDemandBoundsTheDispatchedMessages() throws Exception {
+        Destination queue = session.createQueue("FLOW");
+        send(queue, 100);
+        ActiveMQFlowConsumer publisher = (ActiveMQFlowConsumer) session.createMessageFlow(queue);
+        RecordingSubscriber subscriber = new RecordingSubscriber(0);
+        publisher.subscribe(subscriber);
+        Thread.sleep(200);
+        assertEquals("nothing is delivered before it is requested", 0, subscriber.messages.size());
+
+        subscriber.subscription.request(10);
+        subscriber.await(10);
+        Thread.sleep(200);
+        assertEquals(10, subscriber.messages.size());
+        assertEquals(0, publisher.getDemand());
+        assertEquals(0, publisher.getCredit());
+        assertEquals("the broker dispatched no more than requested", 0, publisher.getMessageSize());
+
+        // the others are left to the other consumers of the queue
+        MessageConsumer consumer = connection.createSession(false, Session.AUTO_ACKNOWLEDGE).createConsumer(queue);
+        for (int i = 10; i < 100; i++) {
+            assertEquals("message " + i, ((TextMessage) consumer.receive(5000)).getText());
+        }
+        consumer.close();
+
+        send(queue, 10);
+        subscriber.subscription.request(Long.MAX_VALUE);
+        subscriber.await(20);
+        for (int i = 0; i < 20; i++) {
+            assertEquals("message " + i % 10, ((TextMessage) subscriber.messages.get(i)).getText());
+        }
+    }
+
+    public void testRequestOneAtATime() throws Exception {
+        Destination topic = session.createTopic("FLOW");
+        ActiveMQFlowConsumer publisher = (ActiveMQFlowConsumer) session.createMessageFlow(topic);
+        RecordingSubscriber subscriber = new RecordingSubscriber(1);
+        publisher.subscribe(subscriber);
+        send(topic, 500);
+        subscriber.await(500);
+        for (int i = 0; i < 500; i++) {
+            assertEquals("message " + i, ((TextMessage) subscriber.messages.get(i)).getText());
+        }
+        assertEquals(1, publisher.getDemand());
+        assertEquals(1, publisher.getCredit());
+        assertEquals(0, publisher.getMessageSize());
+    }
+
+    public void testConnectionStartDoesNotDeliverWithoutDemand() throws Exception {
+        Destination queue = session.createQueue("FLOW");
+        send(queue, 10);
+        ActiveMQFlowConsumer publisher = (ActiveMQFlowConsumer) session.createMessageFlow(queue);
+        RecordingSubscriber subscriber = new RecordingSubscriber(0);
+        publisher.subscribe(subscriber);
+        connection.stop();
+        subscriber.subscription.request(3);
+        Thread.sleep(200);
+        assertEquals("the connection is stopped", 0, subscriber.messages.size());
+        connection.start();
+        subscriber.await(3);
+        connection.stop();
+        connection.start();
+        Thread.sleep(200);
+        assertEquals(3, subscriber.messages.size());
+    }
+
+    public void testCancelAndComplete() throws Exception {
+        Destination queue = session.createQueue("FLOW");
+        send(queue, 10);
+        ActiveMQFlowConsumer publisher = (ActiveMQFlowConsumer) session.createMessageFlow(queue);
+        final RecordingSubscriber subscriber = new RecordingSubscriber(0) {
+            @Override
+            public void onNext(Message message) {
+                super.onNext(message);
+                if (messages.size() == 2) {
+                    subscription.cancel();
+                }
+            }
+        };
+        publisher.subscribe(subscriber);
+
+        RecordingSubscriber second = new RecordingSubscriber(0);
+        publisher.subscribe(second);
+        assertTrue(second.error.get() instanceof IllegalStateException);
+        try {
+            publisher.receive(100);
+            fail("a message flow has no synchronous receive");
+        } catch (JMSException expected) {
+        }
+
+        subscriber.subscription.request(5);
+        subscriber.await(2);
+        Thread.sleep(200);
+        assertEquals(2, subscriber.messages.size());
+        assertEquals("a cancelled subscription does not complete", 1, subscriber.done.getCount());
+        // the acknowledged messages are gone, the others are still there
+        MessageConsumer consumer = connection.createSession(false, Session.AUTO_ACKNOWLEDGE).createConsumer(queue);
+        for (int i = 2; i < 10; i++) {
+            assertEquals("message " + i, ((TextMessage) consumer.receive(5000)).getText());
+        }
+
+        RecordingSubscriber completing = new RecordingSubscriber(0);
+        session.createMessageFlow(queue).subscribe(completing);
+        completing.subscription.request(0);
+        assertTrue(completing.error.get() instanceof IllegalArgumentException);
+
+        completing = new RecordingSubscriber(Long.MAX_VALUE);
+        session.createMessageFlow(queue).subscribe(completing);
+        connection.close();
+        assertTrue(completing.done.await(5, TimeUnit.SECONDS));
+        assertNull(completing.error.get());
+    }
+
+    private void send(Destination destination, int count) throws JMSException {
+        MessageProducer producer = session.createProducer(destination);
+        for (int i = 0; i < count; i++) {
+            producer.send(session.createTextMessage("message " + i));
+        }
+        producer.close();
+    }
+
+    private static class RecordingSubscriber implements MessageFlow.Subscriber {
+
+        final long requestEach;
+        final List<Message> messages = new CopyOnWriteArrayList<Message>();
+        final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+        final CountDownLatch done = new CountDownLatch(1);
+        MessageFlow.Subscription subscription;
+
+        RecordingSubscriber(long requestEach) {
+            this.requestEach = requestEach;
+        }
+
+        @Override
+        public void onSubscribe(MessageFlow.Subscription subscription) {
+            this.subscription = subscription;
+            if (requestEach > 0) {
+                subscription.request(requestEach);
+            }
+        }
+
+        @Override
+        public void onNext(Message message) {
+            messages.add(message);
+            if (requestEach == 1) {
+                subscription.request(1);
+            }
+        }
+
+        @Override
+        public void onError(Throwable error) {
+            this.error.set(error);
+            done.countDown();
+        }
+
+        @Override
+        public void onComplete() {
+            done.countDown();
+        }
+
+        void await(int count) throws InterruptedException {
+            long deadline = System.currentTimeMillis() + 10000;
+            while (messages.size() < count && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            assertEquals(count, messages.size());
+        }
+    }
+}
@@ -0,0 +1,323 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+import javax.jms.Connection;
+import javax.jms.DeliveryMode;
+import javax.jms.Message;
+import javax.jms.MessageConsumer;
+import javax.jms.MessageProducer;
+import javax.jms.Queue;
+import javax.jms.Session;
+import javax.jms.TextMessage;
+
+import junit.framework.TestCase;
+
+import org.apache.activemq.broker.BrokerService;
+import org.apache.activemq.command.ActiveMQMessage;
+import org.apache.activemq.command.MessageDispatch;
+import org.apache.activemq.command.MessageId;
+import org.apache.activemq.command.ProducerId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+public class ArrayMessageDispatchChannelTest extends TestCase {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ArrayMessageDispatchChannelTest.class);
+
+    public void testOrderWithOverflow() throws Exception {
+        ArrayMessageDispatchChannel channel = new ArrayMessageDispatchChannel(16);
+        channel.start();
+        for (int i = 0; i < 100; i++) {
+            channel.enqueue(createDispatch(0, i, 4));
+        }
+        assertEquals(100, channel.size());
+        for (int i = 0; i < 50; i++) {
+            assertEquals(i, sequence(channel.dequeueNoWait()));
+        }
+        for (int i = 100; i < 150; i++) {
+            channel.enqueue(createDispatch(0, i, 4));
+        }
+        channel.enqueueFirst(createDispatch(0, 49, 4));
+        assertEquals(49, sequence(channel.peek()));
+        List<MessageDispatch> batch = new ArrayList<MessageDispatch>();
+        assertEquals(10, channel.dequeueNoWait(batch, 10));
+        for (int i = 0; i < 10; i++) {
+            assertEquals(49 + i, sequence(batch.get(i)));
+        }
+        for (int i = 59; i < 150; i++) {
+            assertEquals(i, sequence(channel.dequeue(0)));
+        }
+        assertTrue(channel.isEmpty());
+        assertNull(channel.dequeueNoWait());
+    }
+
+    public void testPriorityOrder() throws Exception {
+        ArrayMessageDispatchChannel channel = new PriorityArrayMessageDispatchChannel(16);
+        channel.start();
+        for (int i = 0; i < 60; i++) {
+            channel.enqueue(createDispatch(0, i, i % 3 * 4));
+        }
+        channel.enqueueFirst(createDispatch(0, -1, 4));
+        int last = -1;
+        for (int priority : new int[] {8, 4, 0}) {
+            for (int i = 0; i < 20; i++) {
+                if (priority == 4 && i == 0) {
+                    assertEquals(-1, sequence(channel.dequeueNoWait()));
+                    last = -1;
+                }
+                MessageDispatch md = channel.dequeueNoWait();
+                assertEquals(priority, md.getMessage().getPriority());
+                assertTrue(sequence(md) > last);
+                last = sequence(md);
+            }
+            last = -1;
+        }
+        assertTrue(channel.isEmpty());
+    }
+
+    public void testStateChangesWakeTheConsumer() throws Exception {
+        final ArrayMessageDispatchChannel channel = new ArrayMessageDispatchChannel(16);
+        channel.enqueue(createDispatch(0, 0, 4));
+        assertNull("not started", channel.dequeueNoWait());
+        long start = System.currentTimeMillis();
+        assertNull(channel.dequeue(100));
+        assertTrue(System.currentTimeMillis() - start >= 90);
+
+        final AtomicReference<MessageDispatch> received = new AtomicReference<MessageDispatch>();
+        final CountDownLatch done = new CountDownLatch(1);
+        Thread consumer = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    received.set(channel.dequeue(-1));
+                    received.set(channel.dequeue(-1));
+                } catch (InterruptedException e) {
+                } finally {
+                    done.countDown();
+                }
+            }
+        };
+        consumer.start();
+        channel.start();
+        Thread.sleep(100);
+        assertEquals(0, sequence(received.get()));
+        assertEquals(1, done.getCount());
+        channel.close();
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertNull(received.get());
+    }
+
+    public void testTimedDequeueOutlivesAStalePermit() throws Exception {
+        ArrayMessageDispatchChannel channel = new ArrayMessageDispatchChannel(16);
+        channel.start();
+        // a wakeup that reached this thread after it stopped waiting
+        LockSupport.unpark(Thread.currentThread());
+        long start = System.currentTimeMillis();
+        assertNull(channel.dequeue(200));
+        assertTrue(System.currentTimeMillis() - start >= 190);
+
+        channel.enqueue(createDispatch(0, 0, 4));
+        assertEquals(0, sequence(channel.dequeue(200)));
+        channel.stop();
+        start = System.currentTimeMillis();
+        assertNull(channel.dequeue(100));
+        assertTrue(System.currentTimeMillis() - start >= 90);
+    }
+
+    public void testRedeliveryOverTheBroker() throws Exception {
+        BrokerService broker = new BrokerService();
+        broker.setPersistent(false);
+        broker.setUseJmx(false);
+        broker.start();
+        ActiveMQConnectionFactory factory = new ActiveMQConnectionFactory("vm://localhost?create=false");
+        factory.getRedeliveryPolicy().setInitialRedeliveryDelay(0);
+        Connection connection = factory.createConnection();
+        try {
+            connection.start();
+            Session session = connection.createSession(true, Session.SESSION_TRANSACTED);
+            Queue queue = session.createQueue("TEST");
+            MessageProducer producer = session.createProducer(queue);
+            for (int i = 0; i < 100; i++) {
+                TextMessage message = session.createTextMessage("message " + i);
+                producer.send(message, DeliveryMode.NON_PERSISTENT, i < 50 ? 4 : 9, 0);
+            }
+            session.commit();
+
+            MessageConsumer consumer = session.createConsumer(queue);
+            for (int i = 0; i < 10; i++) {
+                assertNotNull(consumer.receive(5000));
+            }
+            // the rolled back messages are redelivered first
+            session.rollback();
+            List<String> received = new ArrayList<String>();
+            Message message;
+            while ((message = consumer.receive(1000)) != null) {
+                received.add(((TextMessage) message).getText());
+            }
+            session.commit();
+            assertEquals(100, received.size());
+            assertEquals(new HashSet<String>(received).size(), received.size());
+        } finally {
+            connection.close();
+            broker.stop();
+        }
+    }
+
+    public void testConcurrentProducers() throws Exception {
+        for (int run = 0; run < 3; run++) {
+            long locked = produceAndConsume(new FifoMessageDispatchChannel());
+            long array = produceAndConsume(new ArrayMessageDispatchChannel(1000));
+            long lockedPriority = produceAndConsume(new SimplePriorityMessageDispatchChannel());
+            long arrayPriority = produceAndConsume(new PriorityArrayMessageDispatchChannel(1000));
+            LOG.info("4 producers, 1 consumer, dispatches/sec FifoMessageDispatchChannel: " + locked
+                + ", ArrayMessageDispatchChannel: " + array + ", SimplePriorityMessageDispatchChannel: " + lockedPriority
+                + ", PriorityArrayMessageDispatchChannel: " + arrayPriority);
+        }
+    }
+
+    public void testConsumerThroughput() throws Exception {
+        BrokerService broker = new BrokerService();
+        broker.setPersistent(false);
+        broker.setUseJmx(false);
+        broker.start();
+        try {
+            for (int run = 0; run < 3; run++) {
+                long locked = sendAndReceive(false);
+                long array = sendAndReceive(true);
+                LOG.info("1 consumer, messages/sec useArrayDispatchChannel=false: " + locked
+                    + ", useArrayDispatchChannel=true: " + array);
+            }
+        } finally {
+            broker.stop();
+        }
+    }
+
+    /**
+     * Sends over the vm transport while the consumer receives, so the
+     * dispatches are enqueued while the consumer dequeues.
+     *
+     * @return the messages received per second
+     */
+    private long sendAndReceive(boolean useArrayDispatchChannel) throws Exception {
+        final int messages = 20000;
+        ActiveMQConnectionFactory factory = new ActiveMQConnectionFactory("vm://localhost?create=false");
+        factory.setUseArrayDispatchChannel(useArrayDispatchChannel);
+        factory.setUseAsyncSend(true);
+        Connection connection = factory.createConnection();
+        try {
+            connection.start();
+            final Session session = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+            final Queue queue = session.createQueue("THROUGHPUT." + useArrayDispatchChannel);
+            MessageConsumer consumer = session.createConsumer(queue);
+            final Session producerSession = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+            long start = System.nanoTime();
+            Thread producer = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        MessageProducer producer = producerSession.createProducer(queue);
+                        producer.setDeliveryMode(DeliveryMode.NON_PERSISTENT);
+                        for (int i = 0; i < messages; i++) {
+                            producer.send(producerSession.createTextMessage("message " + i));
+                        }
+                    } catch (Exception e) {
+                        LOG.error("send failed", e);
+                    }
+                }
+            };
+            producer.start();
+            for (int i = 0; i < messages; i++) {
+                assertNotNull("received " + i, consumer.receive(5000));
+            }
+            long duration = Math.max(1, System.nanoTime() - start);
+            producer.join();
+            return messages * 1000000000L / duration;
+        } finally {
+            connection.close();
+        }
+    }
+
+    /**
+     * Checks the consumer gets the dispatches of each producer in order.
+     *
+     * @return the dispatches per second
+     */
+    private long produceAndConsume(final MessageDispatchChannel channel) throws Exception {
+        final int producers = 4;
+        final int dispatches = 100000;
+        final MessageDispatch[][] sent = new MessageDispatch[producers][dispatches];
+        for (int i = 0; i < producers; i++) {
+            for (int j = 0; j < dispatches; j++) {
+                sent[i][j] = createDispatch(i, j, 4);
+            }
+        }
+        // like the broker, keep at most a prefetch of dispatches in the channel
+        final Semaphore prefetch = new Semaphore(1000);
+        channel.start();
+        long start = System.nanoTime();
+        for (int i = 0; i < producers; i++) {
+            final int producer = i;
+            new Thread() {
+                @Override
+                public void run() {
+                    for (MessageDispatch md : sent[producer]) {
+                        prefetch.acquireUninterruptibly();
+                        channel.enqueue(md);
+                    }
+                }
+            }.start();
+        }
+        int[] next = new int[producers];
+        for (int i = 0; i < producers * dispatches; i++) {
+            // a timed dequeue may return early, like a timed wait
+            MessageDispatch md;
+            long deadline = System.currentTimeMillis() + 5000;
+            while ((md = channel.dequeue(1000)) == null) {
+                assertTrue(System.currentTimeMillis() < deadline);
+            }
+            prefetch.release();
+            int producer = (int) md.getMessage().getMessageId().getProducerId().getValue();
+            assertEquals(next[producer]++, sequence(md));
+        }
+        long duration = Math.max(1, System.nanoTime() - start);
+        assertTrue(channel.isEmpty());
+        return producers * dispatches * 1000000000L / duration;
+    }
+
+    private MessageDispatch createDispatch(int producer, int sequence, int priority) {
+        ActiveMQMessage message = new ActiveMQMessage();
+        message.setMessageId(new MessageId(new ProducerId("ID:test:1:1:" + producer), sequence));
+        message.setPriority((byte) priority);
+        MessageDispatch md = new MessageDispatch();
+        md.setMessage(message);
+        return md;
+    }
+
+    private int sequence(MessageDispatch md) {
+        return md == null ? -1 : (int) md.getMessage().getMessageId().getProducerSequenceId();
+    }
+}
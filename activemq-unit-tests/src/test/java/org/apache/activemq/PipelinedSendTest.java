@@ -0,0 +1,354 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.jms.DeliveryMode;
+import javax.jms.JMSException;
+import javax.jms.MessageConsumer;
+import javax.jms.Queue;
+import javax.jms.Session;
+import javax.jms.TextMessage;
+
+import junit.framework.TestCase;
+
+import org.apache.activemq.broker.BrokerPlugin;
+import org.apache.activemq.broker.BrokerPluginSupport;
+import org.apache.activemq.broker.BrokerService;
+import org.apache.activemq.broker.ProducerBrokerExchange;
+import org.apache.activemq.broker.TransportConnector;
+import org.apache.activemq.command.ActiveMQQueue;
+import org.apache.activemq.command.ActiveMQTextMessage;
+import org.apache.activemq.command.ConnectionId;
+import org.apache.activemq.command.ConnectionInfo;
+import org.apache.activemq.command.Message;
+import org.apache.activemq.command.MessageId;
+import org.apache.activemq.command.ProducerId;
+import org.apache.activemq.state.ConnectionStateTracker;
+import org.apache.activemq.transport.Transport;
+import org.apache.activemq.transport.TransportFilter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+public class PipelinedSendTest extends TestCase {
+
+    private static final Logger LOG = LoggerFactory.getLogger(PipelinedSendTest.class);
+
+    private BrokerService broker;
+    private ActiveMQConnectionFactory factory;
+    private final AtomicInteger received = new AtomicInteger();
+    private volatile CountDownLatch hold;
+
+    @Override
+    protected void setUp() throws Exception {
+        broker = new BrokerService();
+        broker.setPersistent(false);
+        broker.setUseJmx(false);
+        broker.setPlugins(new BrokerPlugin[] {new BrokerPluginSupport() {
+            @Override
+            public void send(ProducerBrokerExchange producerExchange, Message message) throws Exception {
+                received.incrementAndGet();
+                CountDownLatch latch = hold;
+                if (latch != null) {
+                    latch.await(10, TimeUnit.SECONDS);
+                }
+                if (message.getProperty("reject") != null) {
+                    throw new JMSException("rejected " + message.getMessageId());
+                }
+                super.send(producerExchange, message);
+            }
+        }});
+        TransportConnector connector = broker.addConnector("tcp://localhost:0");
+        broker.start();
+        factory = new ActiveMQConnectionFactory(connector.getConnectUri());
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        broker.stop();
+    }
+
+    public void testWindowBoundsTheOutstandingSends() throws Exception {
+        factory.setPipelinedSendWindow(5);
+        ActiveMQConnection connection = (ActiveMQConnection) factory.createConnection();
+        try {
+            Session session = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+            final ActiveMQMessageProducer producer = (ActiveMQMessageProducer) session.createProducer(session.createQueue("PIPELINED"));
+            assertEquals(5, producer.getPipelinedSendWindow());
+            final TextMessage message = session.createTextMessage("message");
+            hold = new CountDownLatch(1);
+            final AtomicInteger sent = new AtomicInteger();
+            final AtomicReference<Exception> error = new AtomicReference<Exception>();
+            Thread sender = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        for (int i = 0; i < 10; i++) {
+                            producer.send(message);
+                            sent.incrementAndGet();
+                        }
+                        producer.flush();
+                    } catch (Exception e) {
+                        error.set(e);
+                    }
+                }
+            };
+            sender.start();
+            Thread.sleep(500);
+            assertEquals("the window is full", 5, sent.get());
+            hold.countDown();
+            sender.join(10000);
+            assertNull(error.get());
+            assertEquals(10, sent.get());
+            assertEquals(10, received.get());
+        } finally {
+            connection.close();
+        }
+    }
+
+    public void testFailuresAreReported() throws Exception {
+        factory.setPipelinedSendWindow(10);
+        ActiveMQConnection connection = (ActiveMQConnection) factory.createConnection();
+        try {
+            Session session = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+            ActiveMQMessageProducer producer = (ActiveMQMessageProducer) session.createProducer(session.createQueue("PIPELINED"));
+            TextMessage rejected = session.createTextMessage("rejected");
+            rejected.setBooleanProperty("reject", true);
+            producer.send(rejected);
+            try {
+                producer.flush();
+                fail("the failed send is reported");
+            } catch (JMSException expected) {
+                assertTrue(expected.getMessage().startsWith("rejected"));
+            }
+            producer.flush();
+
+            final CountDownLatch done = new CountDownLatch(2);
+            final AtomicReference<JMSException> failure = new AtomicReference<JMSException>();
+            AsyncCallback callback = new AsyncCallback() {
+                @Override
+                public void onSuccess() {
+                    done.countDown();
+                }
+
+                @Override
+                public void onException(JMSException exception) {
+                    failure.set(exception);
+                    done.countDown();
+                }
+            };
+            producer.send(session.createTextMessage("accepted"), callback);
+            producer.send(rejected, callback);
+            assertTrue(done.await(10, TimeUnit.SECONDS));
+            assertNotNull(failure.get());
+            // reported to the callback only
+            producer.flush();
+
+            producer.send(rejected);
+            Thread.sleep(200);
+            try {
+                producer.send(session.createTextMessage("next"));
+                fail("the failed send is reported by the next one");
+            } catch (JMSException expected) {
+            }
+            producer.send(rejected);
+            try {
+                producer.close();
+                fail("the failed send is reported on close");
+            } catch (JMSException expected) {
+            }
+        } finally {
+            connection.close();
+        }
+    }
+
+    public void testFailuresAreReportedWhenTheSessionCloses() throws Exception {
+        factory.setPipelinedSendWindow(10);
+        ActiveMQConnection connection = (ActiveMQConnection) factory.createConnection();
+        try {
+            Session session = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+            ActiveMQMessageProducer producer = (ActiveMQMessageProducer) session.createProducer(session.createQueue("PIPELINED"));
+            TextMessage rejected = session.createTextMessage("rejected");
+            rejected.setBooleanProperty("reject", true);
+            hold = new CountDownLatch(1);
+            producer.send(rejected);
+            hold.countDown();
+            try {
+                session.close();
+                fail("the failed send is reported on close of the session");
+            } catch (JMSException expected) {
+                assertTrue(expected.getMessage().startsWith("rejected"));
+            }
+            assertTrue(((ActiveMQSession) session).isClosed());
+
+            session = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+            producer = (ActiveMQMessageProducer) session.createProducer(session.createQueue("PIPELINED"));
+            hold = new CountDownLatch(1);
+            producer.send(rejected);
+            hold.countDown();
+        } finally {
+            try {
+                connection.close();
+                fail("the failed send is reported on close of the connection");
+            } catch (JMSException expected) {
+                assertTrue(expected.getMessage().startsWith("rejected"));
+            }
+        }
+        assertTrue(connection.isClosed());
+    }
+
+    public void testTransactedSendsAreNotPipelined() throws Exception {
+        factory.setPipelinedSendWindow(10);
+        factory.setAlwaysSyncSend(true);
+        ActiveMQConnection connection = (ActiveMQConnection) factory.createConnection();
+        try {
+            Session session = connection.createSession(true, Session.SESSION_TRANSACTED);
+            ActiveMQMessageProducer producer = (ActiveMQMessageProducer) session.createProducer(session.createQueue("PIPELINED"));
+            TextMessage rejected = session.createTextMessage("rejected");
+            rejected.setBooleanProperty("reject", true);
+            try {
+                producer.send(rejected);
+                fail("the failed send is reported by the send itself");
+            } catch (JMSException expected) {
+                assertTrue(expected.getMessage().startsWith("rejected"));
+            }
+            producer.send(session.createTextMessage("accepted"));
+            session.commit();
+            assertEquals(2, received.get());
+        } finally {
+            connection.close();
+        }
+    }
+
+    public void testFlushAndCloseAreBoundedByTheirTimeouts() throws Exception {
+        factory.setPipelinedSendWindow(10);
+        factory.setSendTimeout(500);
+        factory.setCloseTimeout(500);
+        ActiveMQConnection connection = (ActiveMQConnection) factory.createConnection();
+        hold = new CountDownLatch(1);
+        try {
+            Session session = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+            ActiveMQMessageProducer producer = (ActiveMQMessageProducer) session.createProducer(session.createQueue("PIPELINED"));
+            // with a send timeout only sends with a callback are pipelined
+            producer.send(session.createTextMessage("held"), new AsyncCallback() {
+                @Override
+                public void onSuccess() {
+                }
+
+                @Override
+                public void onException(JMSException exception) {
+                }
+            });
+            long start = System.currentTimeMillis();
+            try {
+                producer.flush();
+                fail("the held send is not acknowledged within the send timeout");
+            } catch (JMSException expected) {
+                assertTrue(expected.getMessage().startsWith("Flush timed out"));
+            }
+            assertTrue(System.currentTimeMillis() - start < 5000);
+
+            // the broker does not answer, like a disconnected failover transport
+            start = System.currentTimeMillis();
+            connection.close();
+            assertTrue("close waited " + (System.currentTimeMillis() - start) + "ms",
+                System.currentTimeMillis() - start < 5000);
+            assertTrue(connection.isClosed());
+        } finally {
+            hold.countDown();
+            connection.close();
+        }
+    }
+
+    public void testPipelinedSendThroughput() throws Exception {
+        for (int run = 0; run < 3; run++) {
+            long sync = sendAndReceive(0);
+            long pipelined = sendAndReceive(100);
+            LOG.info("persistent sends/sec synchronous: " + sync + ", pipelined with a window of 100: " + pipelined);
+        }
+    }
+
+    private long sendAndReceive(int window) throws Exception {
+        final int count = 2000;
+        factory.setPipelinedSendWindow(window);
+        ActiveMQConnection connection = (ActiveMQConnection) factory.createConnection();
+        try {
+            connection.start();
+            Session session = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+            Queue queue = session.createQueue("PIPELINED." + window);
+            ActiveMQMessageProducer producer = (ActiveMQMessageProducer) session.createProducer(queue);
+            producer.setDeliveryMode(DeliveryMode.PERSISTENT);
+            long start = System.nanoTime();
+            for (int i = 0; i < count; i++) {
+                producer.send(session.createTextMessage("message " + i));
+            }
+            producer.flush();
+            long duration = Math.max(1, System.nanoTime() - start);
+
+            MessageConsumer consumer = session.createConsumer(queue);
+            for (int i = 0; i < count; i++) {
+                TextMessage message = (TextMessage) consumer.receive(5000);
+                assertEquals("message " + i, message.getText());
+            }
+            assertNull(consumer.receiveNoWait());
+            return count * TimeUnit.SECONDS.toNanos(1) / duration;
+        } finally {
+            connection.close();
+        }
+    }
+
+    public void testTrackerLeavesSendsAwaitingResponsesToTheTransport() throws Exception {
+        ConnectionStateTracker tracker = new ConnectionStateTracker();
+        tracker.setTrackMessages(true);
+        ConnectionInfo info = new ConnectionInfo(new ConnectionId("test"));
+        tracker.track(info);
+        ProducerId producerId = new ProducerId("test:1:1");
+        Message pipelined = createMessage(producerId, 1);
+        pipelined.setResponseRequired(true);
+        tracker.track(pipelined);
+        tracker.trackBack(pipelined);
+        Message async = createMessage(producerId, 2);
+        tracker.track(async);
+        tracker.trackBack(async);
+
+        final List<Object> replayed = new ArrayList<Object>();
+        Transport transport = new TransportFilter(null) {
+            @Override
+            public void oneway(Object command) {
+                replayed.add(command);
+            }
+        };
+        tracker.restore(transport);
+        assertTrue(replayed.contains(async));
+        assertFalse(replayed.contains(pipelined));
+    }
+
+    private Message createMessage(ProducerId producerId, int sequence) throws Exception {
+        ActiveMQTextMessage message = new ActiveMQTextMessage();
+        message.setText("message " + sequence);
+        message.setDestination(new ActiveMQQueue("PIPELINED"));
+        message.setMessageId(new MessageId(producerId, sequence));
+        message.setProducerId(producerId);
+        return message;
+    }
+}
@@ -0,0 +1,115 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.broker.policy;
+
+import javax.jms.Connection;
+import javax.jms.Message;
+import javax.jms.MessageConsumer;
+import javax.jms.MessageProducer;
+import javax.jms.Session;
+import javax.jms.Topic;
+
+import junit.framework.TestCase;
+
+import org.apache.activemq.ActiveMQConnectionFactory;
+import org.apache.activemq.broker.BrokerService;
+import org.apache.activemq.broker.region.policy.PolicyEntry;
+import org.apache.activemq.broker.region.policy.PolicyMap;
+
+public class SelectorIndexDispatchTest extends TestCase {
+
+    private static final String[] REGIONS = {"EU", "US", "APAC"};
+
+    protected BrokerService broker;
+    protected Connection connection;
+
+    @Override
+    protected void setUp() throws Exception {
+        broker = new BrokerService();
+        broker.setPersistent(false);
+        broker.setUseJmx(false);
+        PolicyEntry policy = new PolicyEntry();
+        policy.setUseSelectorIndex(true);
+        PolicyMap policyMap = new PolicyMap();
+        policyMap.setDefaultEntry(policy);
+        broker.setDestinationPolicy(policyMap);
+        broker.start();
+        connection = new ActiveMQConnectionFactory("vm://localhost?create=false").createConnection();
+        connection.setClientID("selector-index");
+        connection.start();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        connection.close();
+        broker.stop();
+    }
+
+    public void testSubscriptionsOnlyGetMatchingMessages() throws Exception {
+        Session session = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+        Topic topic = session.createTopic("TEST");
+        MessageConsumer eu = session.createConsumer(topic, "region = 'EU'");
+        MessageConsumer americas = session.createConsumer(topic, "region IN ('US', 'CA') AND price >= 50");
+        MessageConsumer expensive = session.createConsumer(topic, "price > 90");
+        MessageConsumer all = session.createConsumer(topic);
+        MessageConsumer durable = session.createDurableSubscriber(topic, "durable", "region = 'APAC'", false);
+
+        MessageProducer producer = session.createProducer(topic);
+        for (int i = 0; i < 300; i++) {
+            Message message = session.createMessage();
+            message.setStringProperty("region", REGIONS[i % REGIONS.length]);
+            message.setIntProperty("price", i % 100);
+            producer.send(message);
+        }
+
+        assertEquals(100, count(eu));
+        assertEquals(50, count(americas));
+        assertEquals(27, count(expensive));
+        assertEquals(300, count(all));
+        assertEquals(100, count(durable));
+    }
+
+    public void testConsumersAddedAndRemoved() throws Exception {
+        Session session = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+        Topic topic = session.createTopic("TEST");
+        MessageConsumer eu = session.createConsumer(topic, "region = 'EU'");
+        MessageConsumer us = session.createConsumer(topic, "region = 'US'");
+        MessageProducer producer = session.createProducer(topic);
+        send(session, producer, "EU");
+        us.close();
+        send(session, producer, "US");
+        us = session.createConsumer(topic, "region = 'US'");
+        send(session, producer, "US");
+
+        assertEquals(1, count(eu));
+        assertEquals(1, count(us));
+    }
+
+    private void send(Session session, MessageProducer producer, String region) throws Exception {
+        Message message = session.createMessage();
+        message.setStringProperty("region", region);
+        producer.send(message);
+    }
+
+    private int count(MessageConsumer consumer) throws Exception {
+        int count = 0;
+        while (consumer.receive(1000) != null) {
+            count++;
+        }
+        return count;
+    }
+}
@@ -0,0 +1,103 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.broker.policy;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.jms.Connection;
+import javax.jms.MessageConsumer;
+import javax.jms.MessageProducer;
+import javax.jms.Session;
+import javax.jms.TextMessage;
+import javax.jms.Topic;
+
+import junit.framework.TestCase;
+
+import org.apache.activemq.ActiveMQConnectionFactory;
+import org.apache.activemq.broker.BrokerService;
+import org.apache.activemq.broker.TransportConnector;
+import org.apache.activemq.broker.region.policy.PolicyEntry;
+import org.apache.activemq.broker.region.policy.PolicyMap;
+
+public class SharedMarshalledMessageDispatchTest extends TestCase {
+
+    private static final String[] OPTIONS = {
+        "", "?wireFormat.cacheEnabled=false", "?wireFormat.tightEncodingEnabled=false", "?wireFormat.version=9"};
+
+    protected BrokerService broker;
+    protected List<Connection> connections = new ArrayList<Connection>();
+    protected String uri;
+
+    @Override
+    protected void setUp() throws Exception {
+        broker = new BrokerService();
+        broker.setPersistent(false);
+        broker.setUseJmx(false);
+        PolicyEntry policy = new PolicyEntry();
+        policy.setShareMarshalledMessages(true);
+        PolicyMap policyMap = new PolicyMap();
+        policyMap.setDefaultEntry(policy);
+        broker.setDestinationPolicy(policyMap);
+        TransportConnector connector = broker.addConnector("tcp://localhost:0");
+        broker.start();
+        uri = "tcp://localhost:" + connector.getConnectUri().getPort();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        for (Connection connection : connections) {
+            connection.close();
+        }
+        broker.stop();
+    }
+
+    public void testEverySubscriberGetsTheMessages() throws Exception {
+        List<MessageConsumer> consumers = new ArrayList<MessageConsumer>();
+        for (String options : OPTIONS) {
+            for (int i = 0; i < 3; i++) {
+                Session session = createConnection(uri + options).createSession(false, Session.AUTO_ACKNOWLEDGE);
+                consumers.add(session.createConsumer(session.createTopic("FANOUT")));
+            }
+        }
+
+        Session session = createConnection(uri).createSession(false, Session.AUTO_ACKNOWLEDGE);
+        Topic topic = session.createTopic("FANOUT");
+        MessageProducer producer = session.createProducer(topic);
+        for (int i = 0; i < 100; i++) {
+            TextMessage message = session.createTextMessage("message " + i);
+            message.setIntProperty("sequence", i);
+            producer.send(message);
+        }
+
+        for (MessageConsumer consumer : consumers) {
+            for (int i = 0; i < 100; i++) {
+                TextMessage message = (TextMessage) consumer.receive(5000);
+                assertNotNull(message);
+                assertEquals("message " + i, message.getText());
+                assertEquals(i, message.getIntProperty("sequence"));
+            }
+        }
+    }
+
+    private Connection createConnection(String uri) throws Exception {
+        Connection connection = new ActiveMQConnectionFactory(uri).createConnection();
+        connections.add(connection);
+        connection.start();
+        return connection;
+    }
+}
@@ -0,0 +1,167 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.broker.region;
+
+import javax.jms.DeliveryMode;
+import javax.jms.Message;
+import javax.jms.MessageConsumer;
+import javax.jms.MessageProducer;
+import javax.jms.Session;
+
+import junit.framework.TestCase;
+
+import org.apache.activemq.ActiveMQConnection;
+import org.apache.activemq.ActiveMQConnectionFactory;
+import org.apache.activemq.RedeliveryPolicy;
+import org.apache.activemq.broker.BrokerPlugin;
+import org.apache.activemq.broker.BrokerService;
+import org.apache.activemq.broker.region.policy.PolicyEntry;
+import org.apache.activemq.broker.region.policy.PolicyMap;
+import org.apache.activemq.broker.region.policy.RedeliveryPolicyMap;
+import org.apache.activemq.broker.util.RedeliveryPlugin;
+import org.apache.activemq.command.ActiveMQQueue;
+import org.apache.activemq.util.Wait;
+
+public class ExpiryTimingWheelTest extends TestCase {
+
+    private final ActiveMQQueue destination = new ActiveMQQueue("EXPIRY.WHEEL");
+    private BrokerService broker;
+    private ActiveMQConnection connection;
+
+    @Override
+    protected void tearDown() throws Exception {
+        connection.close();
+        broker.stop();
+    }
+
+    private void startBroker(boolean redelivery) throws Exception {
+        // no browsing, only the wheel expires messages
+        startBroker(redelivery, 0);
+    }
+
+    private void startBroker(boolean redelivery, long expireMessagesPeriod) throws Exception {
+        broker = new BrokerService();
+        broker.setPersistent(false);
+        broker.setUseJmx(false);
+        PolicyEntry policy = new PolicyEntry();
+        policy.setExpiryTimingWheelTick(50);
+        policy.setExpireMessagesPeriod(expireMessagesPeriod);
+        PolicyMap policyMap = new PolicyMap();
+        policyMap.setDefaultEntry(policy);
+        broker.setDestinationPolicy(policyMap);
+
+        if (redelivery) {
+            broker.setSchedulerSupport(true);
+            RedeliveryPolicy redeliveryPolicy = new RedeliveryPolicy();
+            redeliveryPolicy.setInitialRedeliveryDelay(1000);
+            redeliveryPolicy.setRedeliveryDelay(1000);
+            redeliveryPolicy.setMaximumRedeliveries(1);
+            RedeliveryPolicyMap redeliveryPolicyMap = new RedeliveryPolicyMap();
+            redeliveryPolicyMap.setDefaultEntry(redeliveryPolicy);
+            RedeliveryPlugin redeliveryPlugin = new RedeliveryPlugin();
+            redeliveryPlugin.setRedeliveryPolicyMap(redeliveryPolicyMap);
+            redeliveryPlugin.setTimingWheelTick(50);
+            broker.setPlugins(new BrokerPlugin[] {redeliveryPlugin});
+        }
+        broker.start();
+
+        connection = (ActiveMQConnection) new ActiveMQConnectionFactory(broker.getVmConnectorURI()).createConnection();
+        RedeliveryPolicy clientPolicy = new RedeliveryPolicy();
+        clientPolicy.setInitialRedeliveryDelay(0);
+        clientPolicy.setMaximumRedeliveries(0);
+        connection.setRedeliveryPolicy(clientPolicy);
+        connection.start();
+    }
+
+    public void testDueMessagesAreExpired() throws Exception {
+        startBroker(false);
+        Session session = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+        // pages the messages in without consuming them
+        session.createConsumer(destination, "none = 'matches'");
+        MessageProducer producer = session.createProducer(destination);
+        producer.setDeliveryMode(DeliveryMode.NON_PERSISTENT);
+        for (int i = 0; i < 10; i++) {
+            producer.send(session.createTextMessage("kept " + i));
+        }
+        producer.setTimeToLive(500);
+        for (int i = 0; i < 100; i++) {
+            producer.send(session.createTextMessage("expiring " + i));
+        }
+
+        final Queue queue = (Queue) broker.getRegionBroker().getDestinationMap().get(destination);
+        assertEquals(0, queue.getDestinationStatistics().getExpired().getCount());
+        assertTrue(Wait.waitFor(new Wait.Condition() {
+            @Override
+            public boolean isSatisified() throws Exception {
+                return queue.getDestinationStatistics().getExpired().getCount() == 100;
+            }
+        }, 5000));
+        assertEquals(10, queue.getDestinationStatistics().getMessages().getCount());
+
+        MessageConsumer consumer = session.createConsumer(destination);
+        for (int i = 0; i < 10; i++) {
+            assertNotNull(consumer.receive(5000));
+        }
+        assertNull(consumer.receive(200));
+    }
+
+    public void testBrowseHeldBackByThePeriodStillRuns() throws Exception {
+        startBroker(false, 1000);
+        broker.getRegionBroker().addDestination(broker.getAdminConnectionContext(), destination, false);
+        Queue queue = (Queue) broker.getRegionBroker().getDestinationMap().get(destination);
+        // a browse pages in a single message, so the last one is left in the cursor
+        queue.setMaxPageSize(1);
+        Session session = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+        MessageProducer producer = session.createProducer(destination);
+        producer.setDeliveryMode(DeliveryMode.NON_PERSISTENT);
+        producer.setTimeToLive(300);
+        producer.send(session.createTextMessage("expires first"));
+        producer.setTimeToLive(0);
+        producer.send(session.createTextMessage("kept"));
+        // due within the period of the browse the first one starts
+        producer.setTimeToLive(700);
+        producer.send(session.createTextMessage("expires within the period"));
+
+        final DestinationStatistics statistics = queue.getDestinationStatistics();
+        assertTrue("the held back browse runs once the period is over", Wait.waitFor(new Wait.Condition() {
+            @Override
+            public boolean isSatisified() throws Exception {
+                return statistics.getExpired().getCount() == 2;
+            }
+        }, 5000));
+        assertEquals(1, statistics.getMessages().getCount());
+    }
+
+    public void testNonPersistentRedeliveryWaitsOnTheWheel() throws Exception {
+        startBroker(true);
+        Session producerSession = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+        MessageProducer producer = producerSession.createProducer(destination);
+        producer.setDeliveryMode(DeliveryMode.NON_PERSISTENT);
+        producer.send(producerSession.createTextMessage("redelivered"));
+
+        Session session = connection.createSession(true, Session.SESSION_TRANSACTED);
+        MessageConsumer consumer = session.createConsumer(destination);
+        assertNotNull(consumer.receive(5000));
+        session.rollback();
+
+        assertNull("waits for the redelivery delay", consumer.receive(500));
+        Message redelivered = consumer.receive(5000);
+        assertNotNull(redelivered);
+        assertEquals(1000, redelivered.getLongProperty(RedeliveryPlugin.REDELIVERY_DELAY));
+        session.commit();
+    }
+}
@@ -0,0 +1,219 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.broker.region;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.apache.activemq.command.ActiveMQTextMessage;
+import org.apache.activemq.command.MessageId;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+public class PagedInMessageIndexTest {
+
+    private static final Logger LOG = LoggerFactory.getLogger(PagedInMessageIndexTest.class);
+
+    @Test
+    public void testInsertionOrder() throws Exception {
+        PagedInMessageIndex index = new PagedInMessageIndex();
+        for (int i = 1; i <= 10; i++) {
+            assertTrue(index.putIfAbsent(createReference(i)));
+        }
+        assertEquals(10, index.size());
+
+        index.remove(createMessageId(5));
+        assertEquals(9, index.size());
+        assertFalse(index.containsKey(createMessageId(5)));
+
+        Iterator<QueueMessageReference> iter = index.values().iterator();
+        long last = 0;
+        while (iter.hasNext()) {
+            long current = iter.next().getMessageId().getProducerSequenceId();
+            assertTrue(current > last);
+            assertTrue(current != 5);
+            last = current;
+        }
+        assertEquals(9, index.snapshot().size());
+    }
+
+    @Test
+    public void testPutIfAbsent() throws Exception {
+        PagedInMessageIndex index = new PagedInMessageIndex();
+        QueueMessageReference first = createReference(1);
+        assertTrue(index.putIfAbsent(first));
+        assertFalse(index.putIfAbsent(createReference(1)));
+        assertSame(first, index.get(createMessageId(1)));
+        assertEquals(1, index.values().size());
+
+        assertSame(first, index.remove(createMessageId(1)));
+        assertNull(index.get(createMessageId(1)));
+        assertTrue(index.isEmpty());
+        assertTrue(index.values().isEmpty());
+    }
+
+    @Test
+    public void testConcurrentAddRemoveLeavesNoOrphans() throws Exception {
+        final PagedInMessageIndex index = new PagedInMessageIndex();
+        final int count = 20000;
+        final CountDownLatch done = new CountDownLatch(2);
+        Thread adder = new Thread() {
+            public void run() {
+                for (int i = 0; i < count; i++) {
+                    index.putIfAbsent(createReference(i));
+                }
+                done.countDown();
+            }
+        };
+        Thread remover = new Thread() {
+            public void run() {
+                int removed = 0;
+                while (removed < count) {
+                    if (index.remove(createMessageId(removed)) != null) {
+                        removed++;
+                    }
+                }
+                done.countDown();
+            }
+        };
+        adder.start();
+        remover.start();
+        assertTrue(done.await(60, TimeUnit.SECONDS));
+        assertTrue(index.isEmpty());
+        assertTrue(index.values().isEmpty());
+    }
+
+    /**
+     * Simulates many consumers acking paged in messages on a single queue and
+     * reports the ack rate for the index against the previous read/write
+     * locked LinkedHashMap as the number of acking threads grows.
+     */
+    @Test
+    public void testAckContention() throws Exception {
+        final int messagesPerThread = 50000;
+        int maxThreads = Math.max(2, Runtime.getRuntime().availableProcessors());
+        for (int threads = 1; threads <= maxThreads; threads *= 2) {
+            long indexRate = runAckBenchmark(new IndexAcks(), threads, messagesPerThread);
+            long lockedRate = runAckBenchmark(new LockedMapAcks(), threads, messagesPerThread);
+            LOG.info("threads: " + threads + ", PagedInMessageIndex acks/sec: " + indexRate
+                    + ", locked LinkedHashMap acks/sec: " + lockedRate);
+        }
+    }
+
+    private long runAckBenchmark(final Acks acks, int threads, final int messagesPerThread) throws Exception {
+        final int total = threads * messagesPerThread;
+        for (int i = 0; i < total; i++) {
+            acks.add(createReference(i));
+        }
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(threads);
+        for (int t = 0; t < threads; t++) {
+            final int offset = t;
+            final int stride = threads;
+            new Thread("acker-" + t) {
+                public void run() {
+                    try {
+                        start.await();
+                        for (int i = offset; i < total; i += stride) {
+                            MessageId id = createMessageId(i);
+                            acks.lookup(id);
+                            acks.remove(id);
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }.start();
+        }
+        long startTime = System.nanoTime();
+        start.countDown();
+        assertTrue(done.await(120, TimeUnit.SECONDS));
+        long elapsed = Math.max(1, System.nanoTime() - startTime);
+        return (total * TimeUnit.SECONDS.toNanos(1)) / elapsed;
+    }
+
+    private static QueueMessageReference createReference(long sequence) {
+        ActiveMQTextMessage message = new ActiveMQTextMessage();
+        message.setMessageId(createMessageId(sequence));
+        return new IndirectMessageReference(message);
+    }
+
+    private static MessageId createMessageId(long sequence) {
+        return new MessageId("ID:test-producer:1:1:1", sequence);
+    }
+
+    private interface Acks {
+        void add(QueueMessageReference ref);
+        QueueMessageReference lookup(MessageId id);
+        void remove(MessageId id);
+    }
+
+    private static class IndexAcks implements Acks {
+        private final PagedInMessageIndex index = new PagedInMessageIndex();
+
+        public void add(QueueMessageReference ref) {
+            index.putIfAbsent(ref);
+        }
+
+        public QueueMessageReference lookup(MessageId id) {
+            return index.get(id);
+        }
+
+        public void remove(MessageId id) {
+            index.remove(id);
+        }
+    }
+
+    private static class LockedMapAcks implements Acks {
+        private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+        private final LinkedHashMap<MessageId, QueueMessageReference> map = new LinkedHashMap<MessageId, QueueMessageReference>();
+
+        public void add(QueueMessageReference ref) {
+            map.put(ref.getMessageId(), ref);
+        }
+
+        public QueueMessageReference lookup(MessageId id) {
+            lock.readLock().lock();
+            try {
+                return map.get(id);
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+
+        public void remove(MessageId id) {
+            lock.writeLock().lock();
+            try {
+                map.remove(id);
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+    }
+}
@@ -0,0 +1,147 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.broker.region;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import javax.jms.DeliveryMode;
+import javax.jms.Message;
+import javax.jms.MessageConsumer;
+import javax.jms.MessageProducer;
+import javax.jms.Session;
+import javax.jms.TextMessage;
+
+import junit.framework.TestCase;
+
+import org.apache.activemq.ActiveMQConnection;
+import org.apache.activemq.ActiveMQConnectionFactory;
+import org.apache.activemq.broker.BrokerService;
+import org.apache.activemq.broker.ConnectionContext;
+import org.apache.activemq.command.ActiveMQQueue;
+import org.apache.activemq.command.MessageAck;
+import org.apache.activemq.store.MessageStore;
+import org.apache.activemq.store.ProxyMessageStore;
+import org.apache.activemq.store.memory.MemoryPersistenceAdapter;
+import org.apache.activemq.util.Wait;
+
+public class QueueBatchAckTest extends TestCase {
+
+    private final List<Integer> batches = new CopyOnWriteArrayList<Integer>();
+    private final List<MessageAck> removed = new CopyOnWriteArrayList<MessageAck>();
+    private BrokerService broker;
+    private ActiveMQConnection connection;
+    private ActiveMQQueue queue = new ActiveMQQueue("BATCH.ACK");
+
+    @Override
+    protected void setUp() throws Exception {
+        broker = new BrokerService();
+        broker.setPersistent(false);
+        broker.setUseJmx(false);
+        broker.setPersistenceAdapter(new MemoryPersistenceAdapter() {
+            @Override
+            public MessageStore createQueueMessageStore(ActiveMQQueue destination) throws IOException {
+                return new ProxyMessageStore(super.createQueueMessageStore(destination)) {
+                    @Override
+                    public void removeAsyncMessage(ConnectionContext context, MessageAck ack) throws IOException {
+                        removed.add(ack);
+                        super.removeAsyncMessage(context, ack);
+                    }
+
+                    @Override
+                    public void removeMessages(ConnectionContext context, Collection<MessageAck> acks) throws IOException {
+                        batches.add(acks.size());
+                        super.removeMessages(context, acks);
+                    }
+                };
+            }
+        });
+        broker.start();
+        connection = (ActiveMQConnection) new ActiveMQConnectionFactory(broker.getVmConnectorURI()).createConnection();
+        connection.start();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        connection.close();
+        broker.stop();
+    }
+
+    public void testClientAckRemovesTheRangeInOneBatch() throws Exception {
+        Session session = connection.createSession(false, Session.CLIENT_ACKNOWLEDGE);
+        send(session, 150);
+        MessageConsumer consumer = session.createConsumer(queue);
+        Message last = null;
+        for (int i = 0; i < 100; i++) {
+            last = consumer.receive(5000);
+            assertNotNull(last);
+        }
+        last.acknowledge();
+        consumer.close();
+
+        // the ack is sent asynchronously
+        final Queue destination = (Queue) broker.getRegionBroker().getDestinationMap().get(queue);
+        assertTrue(Wait.waitFor(new Wait.Condition() {
+            @Override
+            public boolean isSatisified() throws Exception {
+                return destination.getDestinationStatistics().getDequeues().getCount() == 100;
+            }
+        }));
+        assertEquals(50, destination.getDestinationStatistics().getMessages().getCount());
+        assertEquals("one batch for the whole range", 1, batches.size());
+        assertEquals(100, batches.get(0).intValue());
+        assertEquals(100, removed.size());
+        for (int i = 0; i < 100; i++) {
+            MessageAck ack = removed.get(i);
+            assertEquals("each message is removed with its own ack", 1, ack.getMessageCount());
+            assertEquals(ack.getFirstMessageId(), ack.getLastMessageId());
+        }
+
+        consumer = connection.createSession(false, Session.AUTO_ACKNOWLEDGE).createConsumer(queue);
+        for (int i = 100; i < 150; i++) {
+            assertEquals("message " + i, ((TextMessage) consumer.receive(5000)).getText());
+        }
+        assertNull("the acknowledged messages are gone", consumer.receive(500));
+    }
+
+    public void testTransactedAckIsRemovedOnCommit() throws Exception {
+        Session session = connection.createSession(true, Session.SESSION_TRANSACTED);
+        send(session, 10);
+        session.commit();
+        MessageConsumer consumer = session.createConsumer(queue);
+        for (int i = 0; i < 10; i++) {
+            assertNotNull(consumer.receive(5000));
+        }
+        session.commit();
+        consumer.close();
+
+        assertTrue("a transaction removes its messages one at a time", batches.isEmpty());
+        assertEquals(10, removed.size());
+        assertNull(connection.createSession(false, Session.AUTO_ACKNOWLEDGE).createConsumer(queue).receive(500));
+    }
+
+    private void send(Session session, int count) throws Exception {
+        MessageProducer producer = session.createProducer(queue);
+        producer.setDeliveryMode(DeliveryMode.PERSISTENT);
+        for (int i = 0; i < count; i++) {
+            producer.send(session.createTextMessage("message " + i));
+        }
+        producer.close();
+    }
+}
@@ -0,0 +1,198 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.broker.region.cursors;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+import org.apache.activemq.broker.BrokerService;
+import org.apache.activemq.broker.ConnectionContext;
+import org.apache.activemq.broker.region.DestinationStatistics;
+import org.apache.activemq.broker.region.MessageReference;
+import org.apache.activemq.broker.region.Queue;
+import org.apache.activemq.command.ActiveMQDestination;
+import org.apache.activemq.command.ActiveMQQueue;
+import org.apache.activemq.command.ActiveMQTextMessage;
+import org.apache.activemq.command.Message;
+import org.apache.activemq.command.MessageId;
+import org.apache.activemq.store.MessageRecoveryListener;
+import org.apache.activemq.store.memory.MemoryMessageStore;
+import org.apache.activemq.usage.SystemUsage;
+
+public class StoreQueueCursorReadAheadTest extends TestCase {
+    ActiveMQQueue destination = new ActiveMQQueue("queue-" + StoreQueueCursorReadAheadTest.class.getSimpleName());
+    BrokerService brokerService;
+    ExecutorService executor;
+    final AtomicInteger readsAhead = new AtomicInteger();
+    final Executor countingExecutor = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            readsAhead.incrementAndGet();
+            executor.execute(command);
+        }
+    };
+
+    final static String mesageIdRoot = "11111:22222:0:";
+    final int messageBytesSize = 1024;
+    final String text = new String(new byte[messageBytesSize]);
+
+    @Override
+    public void setUp() throws Exception {
+        brokerService = new BrokerService();
+        brokerService.setPersistent(false);
+        brokerService.setUseJmx(false);
+        brokerService.start();
+        executor = Executors.newSingleThreadExecutor();
+    }
+
+    @Override
+    public void tearDown() throws Exception {
+        executor.shutdown();
+        brokerService.stop();
+    }
+
+    public void testBatchesAreReadAheadInOrder() throws Exception {
+        final int count = 5000;
+        SystemUsage systemUsage = new SystemUsage();
+        systemUsage.getMemoryUsage().setLimit(64 * 1024 * 1024);
+        QueueStorePrefetch underTest = createCursor(systemUsage, count, false);
+
+        drain(underTest, count);
+        assertTrue("read ahead " + readsAhead.get() + " times", readsAhead.get() > 0);
+    }
+
+    public void testReferencesAreLoadedWhenReadAhead() throws Exception {
+        final int count = 5000;
+        SystemUsage systemUsage = new SystemUsage();
+        systemUsage.getMemoryUsage().setLimit(64 * 1024 * 1024);
+        QueueStorePrefetch underTest = createCursor(systemUsage, count, true);
+
+        drain(underTest, count);
+        assertTrue("read ahead " + readsAhead.get() + " times", readsAhead.get() > 0);
+    }
+
+    public void testNoReadAheadWithoutSpace() throws Exception {
+        final int count = 500;
+        SystemUsage systemUsage = new SystemUsage();
+        // full as soon as a batch is in memory
+        systemUsage.getMemoryUsage().setLimit(messageBytesSize * 10);
+        QueueStorePrefetch underTest = createCursor(systemUsage, count, false);
+
+        drain(underTest, count);
+        assertEquals(0, readsAhead.get());
+    }
+
+    private QueueStorePrefetch createCursor(SystemUsage systemUsage, int count, boolean references) throws Exception {
+        final BoundedMemoryMessageStore queueMessageStore = new BoundedMemoryMessageStore(destination, references);
+        final Queue queue = new Queue(brokerService, destination, queueMessageStore, new DestinationStatistics(), null);
+        queueMessageStore.start();
+
+        QueueStorePrefetch underTest = new QueueStorePrefetch(queue, brokerService.getBroker());
+        underTest.setSystemUsage(systemUsage);
+        underTest.setUseCache(false);
+        underTest.setReadAheadExecutor(countingExecutor);
+        underTest.start();
+
+        final ConnectionContext contextNotInTx = new ConnectionContext();
+        for (int i = 0; i < count; i++) {
+            ActiveMQTextMessage msg = getMessage(i);
+            msg.setMemoryUsage(systemUsage.getMemoryUsage());
+            queueMessageStore.addMessage(contextNotInTx, msg);
+            underTest.addMessageLast(msg);
+        }
+        assertFalse(underTest.isCacheEnabled());
+        return underTest;
+    }
+
+    private void drain(QueueStorePrefetch underTest, int count) throws Exception {
+        int dequeueCount = 0;
+        while (dequeueCount < count) {
+            // pages in the way a queue does
+            underTest.setMaxBatchSize(50);
+            underTest.reset();
+            int paged = 0;
+            while (paged++ < 50 && underTest.hasNext()) {
+                MessageReference ref = underTest.next();
+                underTest.remove();
+                ref.decrementReferenceCount();
+                assertEquals(dequeueCount++, ref.getMessageId().getProducerSequenceId());
+                // the consumer acks and the message leaves memory
+                ref.decrementReferenceCount();
+            }
+            underTest.release();
+            assertTrue("no more messages after " + dequeueCount, paged > 1 || dequeueCount == count);
+        }
+        assertTrue(underTest.isEmpty());
+        underTest.reset();
+        assertFalse(underTest.hasNext());
+    }
+
+    private ActiveMQTextMessage getMessage(int i) throws Exception {
+        ActiveMQTextMessage message = new ActiveMQTextMessage();
+        MessageId id = new MessageId(mesageIdRoot + i);
+        id.setBrokerSequenceId(i);
+        id.setProducerSequenceId(i);
+        message.setMessageId(id);
+        message.setDestination(destination);
+        message.setPersistent(true);
+        message.setText("Msg:" + i + " " + text);
+        return message;
+    }
+
+    /**
+     * Returns at most the requested number of messages per batch, and takes a
+     * while about it like a store on disk would. Optionally only the ids are
+     * recovered, like a store which keeps the messages apart from its index.
+     */
+    static class BoundedMemoryMessageStore extends MemoryMessageStore {
+        private final boolean references;
+
+        BoundedMemoryMessageStore(ActiveMQDestination destination, boolean references) {
+            super(destination);
+            this.references = references;
+        }
+
+        @Override
+        public void recoverNextMessages(int maxReturned, MessageRecoveryListener listener) throws Exception {
+            Thread.sleep(1);
+            synchronized (messageTable) {
+                boolean pastLastBatch = lastBatchId == null;
+                int count = 0;
+                for (Iterator<Map.Entry<MessageId, Message>> iter = messageTable.entrySet().iterator(); iter.hasNext() && count < maxReturned;) {
+                    Map.Entry<MessageId, Message> entry = iter.next();
+                    if (pastLastBatch) {
+                        count++;
+                        lastBatchId = entry.getKey();
+                        if (references) {
+                            listener.recoverMessageReference(entry.getKey());
+                        } else {
+                            listener.recoverMessage(entry.getValue());
+                        }
+                    } else {
+                        pastLastBatch = entry.getKey().equals(lastBatchId);
+                    }
+                }
+            }
+        }
+    }
+}
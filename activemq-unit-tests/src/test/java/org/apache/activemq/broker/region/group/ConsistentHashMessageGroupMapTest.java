@@ -0,0 +1,172 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.broker.region.group;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.jms.Connection;
+import javax.jms.Message;
+import javax.jms.MessageConsumer;
+import javax.jms.MessageProducer;
+import javax.jms.Session;
+
+import org.apache.activemq.ActiveMQConnectionFactory;
+import org.apache.activemq.broker.BrokerService;
+import org.apache.activemq.broker.region.Queue;
+import org.apache.activemq.broker.region.policy.PolicyEntry;
+import org.apache.activemq.broker.region.policy.PolicyMap;
+import org.apache.activemq.command.ActiveMQQueue;
+import org.apache.activemq.command.ConsumerId;
+
+public class ConsistentHashMessageGroupMapTest extends MessageGroupMapTest {
+
+    private static final int GROUPS = 10000;
+
+    protected MessageGroupMap createMessageGroupMap() {
+        return new ConsistentHashMessageGroupMap(1024 * 1024, 128);
+    }
+
+    public void testLeastRecentlyUsedGroupsAreEvicted() throws Exception {
+        long entry = ConsistentHashMessageGroupMap.sizeOf("group-0");
+        ConsistentHashMessageGroupMap map = new ConsistentHashMessageGroupMap(entry * 10, 128);
+        ConsumerId consumer = createConsumerId();
+        for (int i = 0; i < 10; i++) {
+            map.put("group-" + i, consumer);
+        }
+        assertEquals(consumer, map.get("group-0"));
+        map.put("group-a", consumer);
+
+        assertEquals(10, map.getGroupCount());
+        assertEquals(1, map.getEvictions());
+        assertEquals(entry * 10, map.getMemoryUsage());
+        assertNull("the least recently used group is evicted", map.get("group-1"));
+        assertEquals(consumer, map.get("group-0"));
+
+        map.removeConsumer(consumer);
+        assertEquals(0, map.getGroupCount());
+        assertEquals(0, map.getMemoryUsage());
+    }
+
+    public void testGroupsWithoutAnOwnerAreHomedOnTheRing() throws Exception {
+        ConsistentHashMessageGroupMap map = new ConsistentHashMessageGroupMap(1024, 128);
+        assertNull("any consumer may own a group before one joins", map.selectOwner("group"));
+
+        ConsumerId[] consumers = new ConsumerId[4];
+        for (int i = 0; i < consumers.length; i++) {
+            consumers[i] = createConsumerId();
+            map.addConsumer(consumers[i]);
+        }
+        Map<String, ConsumerId> before = new HashMap<String, ConsumerId>();
+        Map<ConsumerId, Integer> load = new HashMap<ConsumerId, Integer>();
+        for (int i = 0; i < GROUPS; i++) {
+            ConsumerId owner = map.selectOwner("group-" + i);
+            assertEquals("the same home every time", owner, map.selectOwner("group-" + i));
+            before.put("group-" + i, owner);
+            Integer count = load.get(owner);
+            load.put(owner, count == null ? 1 : count + 1);
+        }
+        for (ConsumerId consumer : consumers) {
+            int share = load.get(consumer);
+            assertTrue("balanced share: " + share, share > GROUPS / 8 && share < GROUPS / 2);
+        }
+
+        ConsumerId joined = createConsumerId();
+        map.addConsumer(joined);
+        int moved = 0;
+        for (int i = 0; i < GROUPS; i++) {
+            ConsumerId owner = map.selectOwner("group-" + i);
+            if (!owner.equals(before.get("group-" + i))) {
+                assertEquals("groups only move to the new consumer", joined, owner);
+                moved++;
+            }
+        }
+        assertTrue("about 1/5 of the groups move: " + moved, moved > GROUPS / 10 && moved < GROUPS * 3 / 10);
+
+        map.removeConsumer(joined);
+        for (int i = 0; i < GROUPS; i++) {
+            assertEquals(before.get("group-" + i), map.selectOwner("group-" + i));
+        }
+    }
+
+    public void testCollidingVirtualNodesAreKept() throws Exception {
+        // with this many nodes a few hashes collide, see the birthday bound
+        int virtualNodes = 128;
+        ConsistentHashMessageGroupMap map = new ConsistentHashMessageGroupMap(1024, virtualNodes);
+        ConsumerId[] consumers = new ConsumerId[2000];
+        for (int i = 0; i < consumers.length; i++) {
+            consumers[i] = createConsumerId();
+            map.addConsumer(consumers[i]);
+        }
+        assertEquals("no consumer loses a node to another", consumers.length * virtualNodes, map.getRingSize());
+
+        map.addConsumer(consumers[0]);
+        assertEquals("adding a consumer again adds no nodes", consumers.length * virtualNodes, map.getRingSize());
+
+        for (int i = 1; i < consumers.length; i++) {
+            map.removeConsumer(consumers[i]);
+        }
+        assertEquals(virtualNodes, map.getRingSize());
+        assertEquals(consumers[0], map.selectOwner("group"));
+    }
+
+    public void testQueueDispatchesGroupsToTheirHome() throws Exception {
+        BrokerService broker = new BrokerService();
+        broker.setPersistent(false);
+        broker.setUseJmx(false);
+        PolicyEntry policy = new PolicyEntry();
+        policy.setMessageGroupMapFactory(new ConsistentHashMessageGroupMapFactory());
+        PolicyMap policyMap = new PolicyMap();
+        policyMap.setDefaultEntry(policy);
+        broker.setDestinationPolicy(policyMap);
+        broker.start();
+        Connection connection = new ActiveMQConnectionFactory(broker.getVmConnectorURI()).createConnection();
+        try {
+            connection.start();
+            Session session = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+            ActiveMQQueue destination = new ActiveMQQueue("GROUPS");
+            MessageConsumer first = session.createConsumer(destination);
+            MessageConsumer second = session.createConsumer(destination);
+            MessageProducer producer = session.createProducer(destination);
+            for (int i = 0; i < 100; i++) {
+                Message message = session.createTextMessage("message " + i);
+                message.setStringProperty("JMSXGroupID", "group-" + i % 20);
+                producer.send(message);
+            }
+
+            Queue queue = (Queue) broker.getRegionBroker().getDestinationMap().get(destination);
+            ConsumerAwareMessageGroupMap owners = (ConsumerAwareMessageGroupMap) queue.getMessageGroupOwners();
+            Map<String, MessageConsumer> receivedBy = new HashMap<String, MessageConsumer>();
+            int received = 0;
+            for (MessageConsumer consumer : new MessageConsumer[] {first, second}) {
+                Message message;
+                while ((message = consumer.receive(1000)) != null) {
+                    String group = message.getStringProperty("JMSXGroupID");
+                    MessageConsumer previous = receivedBy.put(group, consumer);
+                    assertTrue("a group stays with one consumer", previous == null || previous == consumer);
+                    assertEquals(owners.selectOwner(group), owners.get(group));
+                    received++;
+                }
+            }
+            assertEquals(100, received);
+            assertEquals(20, owners.getGroupCount());
+        } finally {
+            connection.close();
+            broker.stop();
+        }
+    }
+}
@@ -17,11 +17,17 @@
 package org.apache.activemq.broker.scheduler;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
 import java.io.File;
+import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
 
@@ -233,6 +239,129 @@ public class JobSchedulerTest {
         assertTrue(scheduler.getAllJobs().isEmpty());
     }
 
+    @Test
+    public void testConcurrentSchedulesAndRemoves() throws Exception {
+        final int THREADS = 8;
+        final int COUNT = 500;
+        final List<Exception> errors = new CopyOnWriteArrayList<Exception>();
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int t = 0; t < THREADS; t++) {
+            final String prefix = "thread" + t + ":";
+            Thread thread = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        for (int i = 0; i < COUNT; i++) {
+                            scheduler.schedule(prefix + i, new ByteSequence(prefix.getBytes()), "", 60000, 1000, 0);
+                        }
+                    } catch (Exception e) {
+                        errors.add(e);
+                    }
+                }
+            };
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertTrue(errors.toString(), errors.isEmpty());
+        assertEquals(THREADS * COUNT, scheduler.getAllJobs().size());
+
+        for (int i = 0; i < COUNT; i += 2) {
+            scheduler.remove("thread0:" + i);
+        }
+        scheduler.remove("unknown");
+        assertEquals(THREADS * COUNT - COUNT / 2, scheduler.getAllJobs().size());
+
+        File directory = store.getDirectory();
+        tearDown();
+        startStore(directory);
+        for (int i = 1; i < COUNT; i += 2) {
+            scheduler.remove("thread0:" + i);
+        }
+        assertEquals((THREADS - 1) * COUNT, scheduler.getAllJobs().size());
+    }
+
+    @Test
+    public void testDueJobsAreFiredOnSeveralThreads() throws Exception {
+        final int COUNT = 1000;
+        File directory = store.getDirectory();
+        tearDown();
+        JobSchedulerStoreImpl parallelStore = new JobSchedulerStoreImpl();
+        parallelStore.setDirectory(directory);
+        parallelStore.setFiringThreads(4);
+        parallelStore.setFiringBatchSize(100);
+        parallelStore.start();
+        store = parallelStore;
+        scheduler = store.getJobScheduler("test");
+
+        final CountDownLatch latch = new CountDownLatch(COUNT);
+        final Set<String> fired = Collections.synchronizedSet(new HashSet<String>());
+        final Set<String> threadNames = Collections.synchronizedSet(new HashSet<String>());
+        scheduler.addListener(new JobListener() {
+            @Override
+            public void scheduledJob(String id, ByteSequence job) {
+                threadNames.add(Thread.currentThread().getName());
+                if (fired.add(id)) {
+                    latch.countDown();
+                }
+            }
+        });
+        for (int i = 0; i < COUNT; i++) {
+            scheduler.schedule("id" + i, new ByteSequence(("test" + i).getBytes()), 100 + i % 10);
+        }
+        scheduler.startDispatching();
+
+        assertTrue(latch.await(10, TimeUnit.SECONDS));
+        assertTrue("fired on " + threadNames, threadNames.size() > 1);
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!scheduler.getAllJobs().isEmpty() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+        }
+        assertTrue(scheduler.getAllJobs().isEmpty());
+        assertEquals(COUNT, fired.size());
+        assertFalse(scheduler.getNextScheduleTime() > 0);
+    }
+
+    @Test
+    public void testFiringBatchSizeSplitsJobsDueAtTheSameTime() throws Exception {
+        final int COUNT = 10;
+        final int BATCH = 3;
+        File directory = store.getDirectory();
+        tearDown();
+        JobSchedulerStoreImpl batchingStore = new JobSchedulerStoreImpl();
+        batchingStore.setDirectory(directory);
+        batchingStore.setFiringBatchSize(BATCH);
+        batchingStore.start();
+        store = batchingStore;
+        scheduler = store.getJobScheduler("test");
+
+        final CountDownLatch latch = new CountDownLatch(COUNT);
+        // the jobs left in the store each time one is fired, fired jobs are only taken out after their batch
+        final List<Integer> remaining = new CopyOnWriteArrayList<Integer>();
+        scheduler.addListener(new JobListener() {
+            @Override
+            public void scheduledJob(String id, ByteSequence job) {
+                try {
+                    remaining.add(scheduler.getAllJobs().size());
+                } catch (Exception e) {
+                    remaining.add(-1);
+                }
+                latch.countDown();
+            }
+        });
+        for (int i = 0; i < COUNT; i++) {
+            scheduler.schedule("id" + i, new ByteSequence(("test" + i).getBytes()), 100);
+        }
+        scheduler.startDispatching();
+
+        assertTrue(latch.await(10, TimeUnit.SECONDS));
+        for (Integer size : new HashSet<Integer>(remaining)) {
+            assertTrue("at most " + BATCH + " jobs fired in one batch: " + remaining, size > 0 && Collections.frequency(remaining, size) <= BATCH);
+        }
+    }
+
     @Before
     public void setUp() throws Exception {
         File directory = new File("target/test/ScheduledJobsDB");
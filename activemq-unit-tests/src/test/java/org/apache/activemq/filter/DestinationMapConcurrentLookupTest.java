@@ -0,0 +1,139 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.filter;
+
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import junit.framework.TestCase;
+
+import org.apache.activemq.command.ActiveMQDestination;
+import org.apache.activemq.command.ActiveMQQueue;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Looks up destinations from many threads while the map changes.
+ */
+public class DestinationMapConcurrentLookupTest extends TestCase {
+
+    private static final Logger LOG = LoggerFactory.getLogger(DestinationMapConcurrentLookupTest.class);
+
+    private static final int DESTINATIONS = 100000;
+    private static final int THREADS = 32;
+    private static final String WILDCARD_VALUE = "wildcard";
+
+    private ActiveMQDestination[] destinations;
+
+    @Override
+    protected void setUp() throws Exception {
+        destinations = new ActiveMQDestination[DESTINATIONS];
+        for (int i = 0; i < DESTINATIONS; i++) {
+            destinations[i] = new ActiveMQQueue("ORDERS." + (i % 100) + ".Q" + i);
+        }
+    }
+
+    public void testLookupsSeeConsistentMatches() throws Exception {
+        long lookups = runLookups(new DestinationMap(), 2000);
+        LOG.info("lookups while the map changes: " + lookups);
+    }
+
+    public void testLookupThroughput() throws Exception {
+        for (int run = 0; run < 2; run++) {
+            DestinationMap locked = new DestinationMap() {
+                @SuppressWarnings("rawtypes")
+                @Override
+                public synchronized Set get(ActiveMQDestination key) {
+                    return super.get(key);
+                }
+            };
+            locked.setMaxMatchCacheSize(0);
+            long lockedRate = runLookups(locked, 1000);
+            DestinationMap uncached = new DestinationMap();
+            uncached.setMaxMatchCacheSize(0);
+            long uncachedRate = runLookups(uncached, 1000);
+            DestinationMap cached = new DestinationMap();
+            cached.setMaxMatchCacheSize(DESTINATIONS);
+            long cachedRate = runLookups(cached, 1000);
+            LOG.info(THREADS + " threads, " + DESTINATIONS + " destinations, lookups/sec locked: " + lockedRate
+                + ", lock free: " + uncachedRate + ", lock free and cached: " + cachedRate);
+        }
+    }
+
+    /**
+     * Every destination maps to its own value and to the value of a wildcard
+     * entry that a writer keeps adding and removing.
+     *
+     * @return the lookups per second
+     */
+    private long runLookups(final DestinationMap map, long millis) throws Exception {
+        for (ActiveMQDestination destination : destinations) {
+            map.put(destination, destination.getPhysicalName());
+        }
+        final ActiveMQDestination wildcard = new ActiveMQQueue("ORDERS.7.>");
+        final AtomicBoolean done = new AtomicBoolean();
+        final AtomicLong lookups = new AtomicLong();
+        final AtomicReference<String> failure = new AtomicReference<String>();
+        final CountDownLatch finished = new CountDownLatch(THREADS);
+        for (int i = 0; i < THREADS; i++) {
+            final int seed = i;
+            new Thread("Lookup-" + i) {
+                @Override
+                public void run() {
+                    try {
+                        long count = 0;
+                        int next = seed;
+                        while (!done.get()) {
+                            // a skewed mix, like the producers of a broker
+                            next = (next * 1103515245 + 12345) & 0x7fffffff;
+                            ActiveMQDestination destination = destinations[(next % 4 == 0 ? next : next % 1000) % DESTINATIONS];
+                            Set<?> values = map.get(destination);
+                            if (!values.contains(destination.getPhysicalName()) || values.size() > 2
+                                || (values.size() == 2 && !values.contains(WILDCARD_VALUE))) {
+                                failure.set(destination + " matched " + values);
+                            }
+                            count++;
+                        }
+                        lookups.addAndGet(count);
+                    } finally {
+                        finished.countDown();
+                    }
+                }
+            }.start();
+        }
+        long start = System.currentTimeMillis();
+        while (System.currentTimeMillis() - start < millis) {
+            map.put(wildcard, WILDCARD_VALUE);
+            Thread.sleep(5);
+            map.remove(wildcard, WILDCARD_VALUE);
+            Thread.sleep(5);
+        }
+        done.set(true);
+        finished.await();
+        long duration = Math.max(1, System.currentTimeMillis() - start);
+        assertNull(failure.get(), failure.get());
+
+        // the cache does not keep the removed wildcard
+        assertEquals(1, map.get(destinations[7]).size());
+        map.put(wildcard, WILDCARD_VALUE);
+        assertEquals(2, map.get(destinations[7]).size());
+        return lookups.get() * 1000 / duration;
+    }
+}
@@ -310,6 +310,29 @@ public class DestinationMapTest extends TestCase {
         assertMapValue("FOO.>", v2);
     }
 
+    public void testCachedMatchesFollowChanges() throws Exception {
+        put("TEST.>", v1);
+        assertMapValue(d1, v1);
+
+        // the caller owns the returned set
+        map.get(d1).add(v6);
+        assertMapValue(d1, v1);
+
+        map.put(d1, v2);
+        assertMapValue(d1, Arrays.asList(new Object[] {v1, v2}));
+
+        map.remove(createDestination("TEST.>"), v1);
+        assertMapValue(d1, v2);
+
+        map.removeAll(d1);
+        assertMapValue(d1, null);
+
+        map.put(d1, v3);
+        assertMapValue(d1, v3);
+        map.reset();
+        assertMapValue(d1, null);
+    }
+
     protected void loadSample2() {
         put("TEST.FOO", v1);
         put("TEST.*", v2);
@@ -0,0 +1,159 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.filter;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import org.apache.activemq.command.ActiveMQMessage;
+import org.apache.activemq.command.ActiveMQTopic;
+import org.apache.activemq.selector.SelectorParser;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Checks that compiled selectors give the same results as the interpreter.
+ */
+public class SelectorCompilerTest extends TestCase {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SelectorCompilerTest.class);
+
+    private static final String[] SELECTORS = {
+        "a = 1", "a = 1.0", "a <> 1", "a > 1", "a >= 1", "a < 1", "a <= 1",
+        "1 < a", "1.5 >= a", "-1 < a", "a > -2.5", "a = -9223372036854775808",
+        "a > 3000000000", "a = b", "a < b", "a >= b",
+        "a BETWEEN -1 AND 2", "a NOT BETWEEN 0 AND 1.5",
+        "s = 'EU'", "'EU' = s", "s <> 'EU'", "s = a", "s IN ('EU', 'US', 'APAC', 'LATAM', 'MEA')",
+        "s NOT IN ('EU', 'US')", "s LIKE 'E%'", "s NOT LIKE '_U'",
+        "a IS NULL", "s IS NOT NULL", "flag", "NOT flag", "flag = TRUE", "flag = s",
+        "a > 1 AND s = 'EU'", "a > 1 OR s = 'EU'", "NOT (a > 1 OR s = 'EU')",
+        "(a > 1 AND b < 2) OR (s = 'US' AND flag)", "missing > 1 OR a = 1",
+        "a = 1 OR missing > 1", "missing > 1 AND a = 1", "NOT (missing > 1)",
+        "JMSPriority > 4", "JMSType = 'orders'", "JMSDeliveryMode = 'PERSISTENT' AND a >= 0"
+    };
+
+    private final Random random = new Random(42);
+
+    public void testCompiledMatchesInterpreted() throws Exception {
+        List<ActiveMQMessage> messages = new ArrayList<ActiveMQMessage>();
+        for (int i = 0; i < 500; i++) {
+            messages.add(createMessage());
+        }
+        for (String selector : SELECTORS) {
+            BooleanExpression interpreted = SelectorParser.parse(selector);
+            BooleanExpression compiled = SelectorCompiler.compile(selector);
+            assertEquals(interpreted.toString(), compiled.toString());
+            for (ActiveMQMessage message : messages) {
+                MessageEvaluationContext context = new MessageEvaluationContext();
+                context.setMessageReference(message);
+                assertEquals(selector + " on " + message.getProperties(), evaluate(interpreted, context), evaluate(compiled, context));
+            }
+        }
+    }
+
+    public void testCompiledFormsAreCached() throws Exception {
+        assertSame(SelectorCompiler.compile("a > 1 AND s = 'EU'"), SelectorCompiler.compile("a > 1 AND s = 'EU'"));
+        BooleanExpression compiled = SelectorCompiler.compile("a > 1");
+        assertSame(compiled, SelectorCompiler.compile(compiled));
+    }
+
+    public void testEvaluationCost() throws Exception {
+        String selector = "(region = 'EU' AND price > 100) OR (region = 'US' AND price BETWEEN 10 AND 50)";
+        BooleanExpression interpreted = SelectorParser.parse(selector);
+        BooleanExpression compiled = SelectorCompiler.compile(selector);
+        ActiveMQMessage message = createMessage();
+        message.setStringProperty("region", "US");
+        message.setIntProperty("price", 20);
+        MessageEvaluationContext context = new MessageEvaluationContext();
+        context.setMessageReference(message);
+        for (int run = 0; run < 3; run++) {
+            long start = System.nanoTime();
+            for (int i = 0; i < 1000000; i++) {
+                assertTrue(interpreted.matches(context));
+            }
+            long interpretedTime = System.nanoTime() - start;
+            start = System.nanoTime();
+            for (int i = 0; i < 1000000; i++) {
+                assertTrue(compiled.matches(context));
+            }
+            long compiledTime = System.nanoTime() - start;
+            LOG.info("interpreted: " + interpretedTime / 1000000 + " ms, compiled: " + compiledTime / 1000000 + " ms");
+        }
+    }
+
+    private ActiveMQMessage createMessage() throws Exception {
+        ActiveMQMessage message = new ActiveMQMessage();
+        message.setJMSDestination(new ActiveMQTopic("TEST"));
+        message.setJMSType(random.nextBoolean() ? "orders" : "quotes");
+        message.setJMSPriority(random.nextInt(10));
+        setProperty(message, "a");
+        setProperty(message, "b");
+        setProperty(message, "s");
+        setProperty(message, "flag");
+        return message;
+    }
+
+    private void setProperty(ActiveMQMessage message, String name) throws Exception {
+        switch (random.nextInt(11)) {
+        case 0:
+            // absent
+            break;
+        case 1:
+            message.setByteProperty(name, (byte) (random.nextInt(5) - 2));
+            break;
+        case 2:
+            message.setShortProperty(name, (short) (random.nextInt(5) - 2));
+            break;
+        case 3:
+            message.setIntProperty(name, random.nextInt(5) - 2);
+            break;
+        case 4:
+            message.setLongProperty(name, random.nextBoolean() ? random.nextInt(5) - 2 : Long.MIN_VALUE);
+            break;
+        case 5:
+            message.setFloatProperty(name, random.nextInt(9) / 2f - 2);
+            break;
+        case 6:
+            message.setDoubleProperty(name, random.nextInt(9) / 2d - 2);
+            break;
+        case 7:
+            message.setBooleanProperty(name, random.nextBoolean());
+            break;
+        case 8:
+            message.setStringProperty(name, new String[] {"EU", "US", "1", "TRUE"}[random.nextInt(4)]);
+            break;
+        case 9:
+            message.setLongProperty(name, 3000000000L + random.nextInt(3) - 1);
+            break;
+        default:
+            message.setDoubleProperty(name, random.nextBoolean() ? Double.NaN : -0.0d);
+            break;
+        }
+    }
+
+    // the interpreter throws for some mixes of types, the compiled form has to throw the same
+    private Object evaluate(BooleanExpression expression, MessageEvaluationContext context) {
+        try {
+            return expression.evaluate(context) + "/" + expression.matches(context);
+        } catch (Exception e) {
+            return e.getClass();
+        }
+    }
+}
@@ -0,0 +1,215 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.filter;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+import org.apache.activemq.command.ActiveMQMessage;
+import org.apache.activemq.command.ActiveMQTopic;
+import org.apache.activemq.selector.SelectorParser;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Checks that the selector index never drops a value whose selector matches.
+ */
+public class SelectorIndexTest extends TestCase {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SelectorIndexTest.class);
+
+    private static final String[] SELECTORS = {
+        "region = 'EU'", "'US' = region", "region = 'EU' AND price > 10", "price > 10 AND region = 'EU'",
+        "region IN ('EU', 'US')", "region IN ('EU', 'US', 'APAC', 'LATAM', 'MEA')", "region NOT IN ('EU')",
+        "region <> 'EU'", "region = 'EU' OR region = 'US'", "price > 10", "price >= 10", "10 < price",
+        "price < -1", "price <= 2.5", "price = 3", "price BETWEEN 2 AND 4", "price > 4 AND price < 2",
+        "price > 1 AND price <= 3 AND qty > 2", "qty = 1.5", "price NOT BETWEEN 1 AND 3", "price = qty",
+        "region LIKE 'E%'", "flag", "region IS NULL", "region IS NOT NULL", "NOT (price > 10)",
+        "JMSPriority > 4", "JMSType = 'orders'", "price > 3000000000", "price = -9223372036854775808", null
+    };
+
+    private final Random random = new Random(42);
+
+    public void testCandidatesIncludeEveryMatch() throws Exception {
+        SelectorIndex<Integer> index = new SelectorIndex<Integer>();
+        List<BooleanExpression> selectors = new ArrayList<BooleanExpression>();
+        for (int i = 0; i < SELECTORS.length; i++) {
+            BooleanExpression selector = SELECTORS[i] == null ? null : SelectorParser.parse(SELECTORS[i]);
+            selectors.add(selector);
+            index.add(i, i % 2 == 0 ? selector : SelectorCompiler.compile(selector));
+        }
+        for (int i = 0; i < 2000; i++) {
+            MessageEvaluationContext context = new MessageEvaluationContext();
+            ActiveMQMessage message = createMessage();
+            context.setMessageReference(message);
+            List<Integer> candidates = index.match(context);
+            Set<Integer> found = new HashSet<Integer>(candidates);
+            assertEquals("no duplicates", found.size(), candidates.size());
+            for (int j = 0; j < selectors.size(); j++) {
+                if (matches(selectors.get(j), context)) {
+                    assertTrue(SELECTORS[j] + " on " + message.getProperties(), found.contains(j));
+                }
+            }
+            for (int j = 1; j < candidates.size(); j++) {
+                assertTrue("in the order added", candidates.get(j - 1) < candidates.get(j));
+            }
+        }
+    }
+
+    public void testIndexedSelectorsAreSkipped() throws Exception {
+        SelectorIndex<String> index = new SelectorIndex<String>();
+        index.add("eu", SelectorParser.parse("region = 'EU'"));
+        index.add("us", SelectorParser.parse("region IN ('US', 'CA')"));
+        index.add("cheap", SelectorParser.parse("price < 10"));
+        index.add("range", SelectorParser.parse("price BETWEEN 10 AND 20 AND region = 'US'"));
+        index.add("all", null);
+
+        assertEquals(listOf("eu", "cheap", "all"), match(index, "EU", 5));
+        assertEquals(listOf("us", "range", "all"), match(index, "US", 15));
+        assertEquals(listOf("all"), match(index, "APAC", 50));
+        assertEquals(listOf("all"), match(index, null, null));
+
+        index.remove("all");
+        index.add("cheap", SelectorParser.parse("price > 40"));
+        assertEquals(listOf("cheap"), match(index, "APAC", 50));
+        assertFalse(index.remove("all"));
+        assertEquals(4, index.size());
+    }
+
+    public void testMatchCostWithManySubscriptions() throws Exception {
+        int subscriptions = 10000;
+        SelectorIndex<Integer> index = new SelectorIndex<Integer>();
+        List<BooleanExpression> selectors = new ArrayList<BooleanExpression>();
+        for (int i = 0; i < subscriptions; i++) {
+            BooleanExpression selector = SelectorParser.parse("region = 'R" + (i % 1000) + "' AND price > " + (i % 100));
+            selectors.add(selector);
+            index.add(i, selector);
+        }
+        ActiveMQMessage message = new ActiveMQMessage();
+        message.setStringProperty("region", "R7");
+        message.setIntProperty("price", 50);
+        MessageEvaluationContext context = new MessageEvaluationContext();
+        context.setMessageReference(message);
+        assertEquals(subscriptions / 1000, index.match(context).size());
+
+        for (int run = 0; run < 3; run++) {
+            long start = System.nanoTime();
+            for (int i = 0; i < 100; i++) {
+                for (BooleanExpression selector : selectors) {
+                    selector.matches(context);
+                }
+            }
+            long linear = System.nanoTime() - start;
+            start = System.nanoTime();
+            for (int i = 0; i < 100; i++) {
+                for (Integer candidate : index.match(context)) {
+                    selectors.get(candidate).matches(context);
+                }
+            }
+            long indexed = System.nanoTime() - start;
+            LOG.info(subscriptions + " subscriptions, each selector: " + linear / 100000 + " us/msg, indexed: " + indexed / 100000 + " us/msg");
+        }
+    }
+
+    private List<String> match(SelectorIndex<String> index, String region, Integer price) throws Exception {
+        ActiveMQMessage message = new ActiveMQMessage();
+        if (region != null) {
+            message.setStringProperty("region", region);
+        }
+        if (price != null) {
+            message.setIntProperty("price", price);
+        }
+        MessageEvaluationContext context = new MessageEvaluationContext();
+        context.setMessageReference(message);
+        return index.match(context);
+    }
+
+    private List<String> listOf(String... values) {
+        List<String> rc = new ArrayList<String>();
+        for (String value : values) {
+            rc.add(value);
+        }
+        return rc;
+    }
+
+    private boolean matches(BooleanExpression selector, MessageEvaluationContext context) {
+        try {
+            return selector == null || selector.matches(context);
+        } catch (Exception e) {
+            // the interpreter throws for some mixes of types
+            return false;
+        }
+    }
+
+    private ActiveMQMessage createMessage() throws Exception {
+        ActiveMQMessage message = new ActiveMQMessage();
+        message.setJMSDestination(new ActiveMQTopic("TEST"));
+        message.setJMSType(random.nextBoolean() ? "orders" : "quotes");
+        message.setJMSPriority(random.nextInt(10));
+        setProperty(message, "region");
+        setProperty(message, "price");
+        setProperty(message, "qty");
+        setProperty(message, "flag");
+        return message;
+    }
+
+    private void setProperty(ActiveMQMessage message, String name) throws Exception {
+        switch (random.nextInt(12)) {
+        case 0:
+            // absent
+            break;
+        case 1:
+            message.setByteProperty(name, (byte) (random.nextInt(30) - 5));
+            break;
+        case 2:
+            message.setShortProperty(name, (short) (random.nextInt(30) - 5));
+            break;
+        case 3:
+            message.setIntProperty(name, random.nextInt(30) - 5);
+            break;
+        case 4:
+            message.setLongProperty(name, random.nextBoolean() ? random.nextInt(30) - 5 : Long.MIN_VALUE);
+            break;
+        case 5:
+            message.setFloatProperty(name, random.nextInt(60) / 2f - 5);
+            break;
+        case 6:
+            message.setDoubleProperty(name, random.nextInt(60) / 2d - 5);
+            break;
+        case 7:
+            message.setBooleanProperty(name, random.nextBoolean());
+            break;
+        case 8:
+            message.setStringProperty(name, new String[] {"EU", "US", "APAC", "3", "TRUE"}[random.nextInt(5)]);
+            break;
+        case 9:
+            message.setLongProperty(name, 3000000000L + random.nextInt(3) - 1);
+            break;
+        case 10:
+            message.setDoubleProperty(name, new double[] {Double.NaN, -0.0d, Double.POSITIVE_INFINITY}[random.nextInt(3)]);
+            break;
+        default:
+            message.setStringProperty(name, "EU");
+            break;
+        }
+    }
+}
@@ -0,0 +1,139 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.openwire;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+import junit.framework.TestCase;
+
+import org.apache.activemq.command.ActiveMQDestination;
+import org.apache.activemq.command.ActiveMQQueue;
+import org.apache.activemq.command.ActiveMQTextMessage;
+import org.apache.activemq.command.ActiveMQTopic;
+import org.apache.activemq.command.ConnectionId;
+import org.apache.activemq.command.ConsumerId;
+import org.apache.activemq.command.MessageDispatch;
+import org.apache.activemq.command.MessageId;
+import org.apache.activemq.command.ProducerId;
+import org.apache.activemq.command.SessionId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Marshals commands with one wire format from many threads.
+ */
+public class OpenWireFormatConcurrencyTest extends TestCase {
+
+    private static final Logger LOG = LoggerFactory.getLogger(OpenWireFormatConcurrencyTest.class);
+
+    private static final int THREADS = 8;
+
+    public void testConcurrentMarshalling() throws Exception {
+        for (boolean tight : new boolean[] {true, false}) {
+            OpenWireFormat wireFormat = new OpenWireFormat(OpenWireFormat.DEFAULT_WIRE_VERSION);
+            wireFormat.setTightEncodingEnabled(tight);
+            runConcurrently(wireFormat, 2000, false);
+        }
+    }
+
+    public void testMarshallingThroughput() throws Exception {
+        for (int run = 0; run < 3; run++) {
+            final OpenWireFormat wireFormat = new OpenWireFormat(OpenWireFormat.DEFAULT_WIRE_VERSION);
+            wireFormat.setTightEncodingEnabled(true);
+            long locked = runConcurrently(wireFormat, 20000, true);
+            long free = runConcurrently(wireFormat, 20000, false);
+            LOG.info(THREADS + " threads, marshal and unmarshal round trips/sec with one lock: " + locked
+                + ", without: " + free);
+        }
+    }
+
+    /**
+     * @return the round trips per second
+     */
+    private long runConcurrently(final OpenWireFormat wireFormat, final int roundTrips, final boolean locked) throws Exception {
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        final CountDownLatch done = new CountDownLatch(THREADS);
+        long start = System.nanoTime();
+        for (int i = 0; i < THREADS; i++) {
+            final int id = i;
+            new Thread("Marshaller-" + i) {
+                @Override
+                public void run() {
+                    try {
+                        for (int j = 0; j < roundTrips; j++) {
+                            MessageDispatch dispatch = createDispatch(id, j);
+                            Object unmarshalled;
+                            if (locked) {
+                                synchronized (wireFormat) {
+                                    unmarshalled = wireFormat.unmarshal(wireFormat.marshal(dispatch));
+                                }
+                            } else {
+                                unmarshalled = wireFormat.unmarshal(wireFormat.marshal(dispatch));
+                            }
+                            assertDispatch(dispatch, unmarshalled);
+                        }
+                    } catch (Throwable e) {
+                        failure.set(e);
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }.start();
+        }
+        done.await();
+        long duration = Math.max(1, System.nanoTime() - start);
+        if (failure.get() != null) {
+            throw new AssertionError(failure.get());
+        }
+        return THREADS * (long) roundTrips * 1000000000L / duration;
+    }
+
+    private MessageDispatch createDispatch(int producer, int sequence) throws Exception {
+        ActiveMQDestination destination = producer % 2 == 0 ? new ActiveMQQueue("QUEUE." + producer) : new ActiveMQTopic("TOPIC." + producer);
+        ProducerId producerId = new ProducerId("ID:producer-" + producer + ":1:1:1");
+        ActiveMQTextMessage message = new ActiveMQTextMessage();
+        message.setProducerId(producerId);
+        message.setMessageId(new MessageId(producerId, sequence));
+        message.setDestination(destination);
+        message.setText("message " + sequence + " from " + producer);
+        message.setIntProperty("sequence", sequence);
+        message.setStringProperty("producer", "producer-" + producer);
+
+        MessageDispatch dispatch = new MessageDispatch();
+        dispatch.setConsumerId(new ConsumerId(new SessionId(new ConnectionId("ID:consumer-" + producer), 1), sequence));
+        dispatch.setDestination(destination);
+        dispatch.setMessage(message);
+        dispatch.setRedeliveryCounter(sequence & 3);
+        return dispatch;
+    }
+
+    private static void assertDispatch(MessageDispatch expected, Object unmarshalled) throws Exception {
+        assertTrue(unmarshalled instanceof MessageDispatch);
+        MessageDispatch actual = (MessageDispatch) unmarshalled;
+        assertEquals(expected.getConsumerId(), actual.getConsumerId());
+        assertEquals(expected.getDestination(), actual.getDestination());
+        assertEquals(expected.getRedeliveryCounter(), actual.getRedeliveryCounter());
+        ActiveMQTextMessage message = (ActiveMQTextMessage) actual.getMessage();
+        assertEquals(expected.getMessage().getMessageId(), message.getMessageId());
+        assertEquals(expected.getMessage().getProducerId(), message.getProducerId());
+        assertEquals(expected.getMessage().getDestination(), message.getDestination());
+        assertEquals(((ActiveMQTextMessage) expected.getMessage()).getText(), message.getText());
+        assertEquals(expected.getMessage().getProperty("sequence"), message.getProperty("sequence"));
+        assertEquals(expected.getMessage().getProperty("producer"), message.getProperty("producer"));
+    }
+}
@@ -0,0 +1,224 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.openwire;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import junit.framework.TestCase;
+
+import org.apache.activemq.command.ActiveMQTextMessage;
+import org.apache.activemq.command.ActiveMQTopic;
+import org.apache.activemq.command.ConnectionId;
+import org.apache.activemq.command.ConsumerId;
+import org.apache.activemq.command.MessageDispatch;
+import org.apache.activemq.command.MessageId;
+import org.apache.activemq.command.ProducerId;
+import org.apache.activemq.command.SessionId;
+import org.apache.activemq.util.ByteSequence;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Marshals one message dispatched to many subscribers.
+ */
+public class SharedMarshalledFormTest extends TestCase {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SharedMarshalledFormTest.class);
+
+    private static final ActiveMQTopic TOPIC = new ActiveMQTopic("FANOUT");
+
+    public void testSubscribersGetTheSameMessage() throws Exception {
+        for (boolean cacheEnabled : new boolean[] {false, true}) {
+            for (boolean sizePrefixDisabled : new boolean[] {false, true}) {
+                OpenWireFormat sender = createWireFormat(cacheEnabled, sizePrefixDisabled);
+                OpenWireFormat receiver = createWireFormat(cacheEnabled, sizePrefixDisabled);
+                ActiveMQTextMessage message = createMessage(1, 100);
+                message.setMarshalledFormShared(true);
+
+                Object form = null;
+                for (int i = 0; i < 10; i++) {
+                    MessageDispatch dispatch = createDispatch(i, message);
+                    assertDispatch(dispatch, receiver.unmarshal(sender.marshal(dispatch)));
+                    if (form == null) {
+                        form = message.getSharedMarshalledForm();
+                        assertNotNull("marshalled once", form);
+                    }
+                    assertSame("marshalled once", form, message.getSharedMarshalledForm());
+                }
+
+                // other messages still use the marshal cache of the connection
+                ActiveMQTextMessage other = createMessage(1, 101);
+                MessageDispatch dispatch = createDispatch(0, other);
+                assertDispatch(dispatch, receiver.unmarshal(sender.marshal(dispatch)));
+                assertNull(other.getSharedMarshalledForm());
+            }
+        }
+    }
+
+    public void testChangesAreMarshalled() throws Exception {
+        OpenWireFormat sender = createWireFormat(true, false);
+        OpenWireFormat receiver = createWireFormat(true, false);
+        ActiveMQTextMessage message = createMessage(1, 100);
+        message.setMarshalledFormShared(true);
+        sender.marshal(createDispatch(0, message));
+        Object form = message.getSharedMarshalledForm();
+
+        message.setIntProperty("changed", 1);
+        assertNull(message.getSharedMarshalledForm());
+        message.setText("changed");
+        MessageDispatch dispatch = createDispatch(1, message);
+        MessageDispatch received = (MessageDispatch) receiver.unmarshal(sender.marshal(dispatch));
+        assertDispatch(dispatch, received);
+        assertEquals("changed", ((ActiveMQTextMessage) received.getMessage()).getText());
+        assertNotSame(form, message.getSharedMarshalledForm());
+        form = message.getSharedMarshalledForm();
+
+        message.setRedeliveryCounter(2);
+        received = (MessageDispatch) receiver.unmarshal(sender.marshal(dispatch));
+        assertEquals(2, received.getMessage().getRedeliveryCounter());
+        assertNotSame(form, message.getSharedMarshalledForm());
+        form = message.getSharedMarshalledForm();
+
+        // a connection with another version gets its own form
+        OpenWireFormat older = new OpenWireFormat(OpenWireFormat.DEFAULT_WIRE_VERSION - 1);
+        OpenWireFormat olderReceiver = new OpenWireFormat(OpenWireFormat.DEFAULT_WIRE_VERSION - 1);
+        older.setTightEncodingEnabled(true);
+        olderReceiver.setTightEncodingEnabled(true);
+        assertDispatch(dispatch, olderReceiver.unmarshal(older.marshal(dispatch)));
+        assertNotSame(form, message.getSharedMarshalledForm());
+        assertDispatch(dispatch, receiver.unmarshal(sender.marshal(dispatch)));
+    }
+
+    public void testConcurrentEncodings() throws Exception {
+        final ActiveMQTextMessage message = createMessage(1, 100);
+        message.setMarshalledFormShared(true);
+        final OpenWireFormat[] senders = new OpenWireFormat[] {
+            createWireFormat(true, false), createWireFormat(false, false), new OpenWireFormat(OpenWireFormat.DEFAULT_WIRE_VERSION - 1)};
+        final OpenWireFormat[] receivers = new OpenWireFormat[] {
+            createWireFormat(true, false), createWireFormat(false, false), new OpenWireFormat(OpenWireFormat.DEFAULT_WIRE_VERSION - 1)};
+        senders[2].setTightEncodingEnabled(true);
+        receivers[2].setTightEncodingEnabled(true);
+
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        final CountDownLatch done = new CountDownLatch(senders.length);
+        for (int i = 0; i < senders.length; i++) {
+            final int id = i;
+            new Thread("Subscriber-" + i) {
+                @Override
+                public void run() {
+                    try {
+                        for (int j = 0; j < 2000 && failure.get() == null; j++) {
+                            MessageDispatch dispatch = createDispatch(id, message);
+                            assertDispatch(dispatch, receivers[id].unmarshal(senders[id].marshal(dispatch)));
+                        }
+                    } catch (Throwable e) {
+                        failure.set(e);
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }.start();
+        }
+        assertTrue(done.await(60, TimeUnit.SECONDS));
+        assertNull("marshalled with every encoding: " + failure.get(), failure.get());
+
+        // each encoding keeps its own form
+        senders[0].marshal(createDispatch(0, message));
+        Object form = message.getSharedMarshalledForm();
+        senders[1].marshal(createDispatch(1, message));
+        senders[2].marshal(createDispatch(2, message));
+        senders[0].marshal(createDispatch(0, message));
+        senders[1].marshal(createDispatch(1, message));
+        Object forms = message.getSharedMarshalledForm();
+        senders[2].marshal(createDispatch(2, message));
+        assertSame("no form was rebuilt", forms, message.getSharedMarshalledForm());
+        assertNotNull(form);
+    }
+
+    public void testMarshallingThroughput() throws Exception {
+        OpenWireFormat wireFormat = createWireFormat(true, false);
+        for (int run = 0; run < 3; run++) {
+            long separate = fanOut(wireFormat, false);
+            long shared = fanOut(wireFormat, true);
+            LOG.info("messages of 4KB marshalled for 50 subscribers/sec, marshalled for each subscriber: "
+                + separate + ", marshalled once: " + shared);
+        }
+    }
+
+    /**
+     * @return the messages per second
+     */
+    private long fanOut(OpenWireFormat wireFormat, boolean share) throws Exception {
+        StringBuilder text = new StringBuilder();
+        while (text.length() < 4096) {
+            text.append("shared message body ");
+        }
+        int messages = 500;
+        long start = System.nanoTime();
+        for (int i = 0; i < messages; i++) {
+            ActiveMQTextMessage message = createMessage(1, i);
+            message.setText(text.toString());
+            message.setMarshalledFormShared(share);
+            for (int j = 0; j < 50; j++) {
+                ByteSequence frame = wireFormat.marshal(createDispatch(j, message));
+                assertTrue(frame.getLength() > 4096);
+            }
+        }
+        return messages * 1000000000L / Math.max(1, System.nanoTime() - start);
+    }
+
+    private OpenWireFormat createWireFormat(boolean cacheEnabled, boolean sizePrefixDisabled) {
+        OpenWireFormat wireFormat = new OpenWireFormat(OpenWireFormat.DEFAULT_WIRE_VERSION);
+        wireFormat.setTightEncodingEnabled(true);
+        wireFormat.setCacheEnabled(cacheEnabled);
+        wireFormat.setSizePrefixDisabled(sizePrefixDisabled);
+        return wireFormat;
+    }
+
+    private ActiveMQTextMessage createMessage(int producer, int sequence) throws Exception {
+        ProducerId producerId = new ProducerId("ID:producer-" + producer + ":1:1:1");
+        ActiveMQTextMessage message = new ActiveMQTextMessage();
+        message.setProducerId(producerId);
+        message.setMessageId(new MessageId(producerId, sequence));
+        message.setDestination(TOPIC);
+        message.setText("message " + sequence);
+        message.setIntProperty("sequence", sequence);
+        return message;
+    }
+
+    private MessageDispatch createDispatch(int consumer, ActiveMQTextMessage message) {
+        MessageDispatch dispatch = new MessageDispatch();
+        dispatch.setConsumerId(new ConsumerId(new SessionId(new ConnectionId("ID:consumer-" + consumer), 1), consumer));
+        dispatch.setDestination(TOPIC);
+        dispatch.setMessage(message);
+        return dispatch;
+    }
+
+    private static void assertDispatch(MessageDispatch expected, Object unmarshalled) throws Exception {
+        assertTrue(unmarshalled instanceof MessageDispatch);
+        MessageDispatch actual = (MessageDispatch) unmarshalled;
+        assertEquals(expected.getConsumerId(), actual.getConsumerId());
+        ActiveMQTextMessage message = (ActiveMQTextMessage) actual.getMessage();
+        assertEquals(expected.getMessage().getMessageId(), message.getMessageId());
+        assertEquals(expected.getMessage().getProducerId(), message.getProducerId());
+        assertEquals(TOPIC, message.getDestination());
+        assertEquals(((ActiveMQTextMessage) expected.getMessage()).getText(), message.getText());
+        assertEquals(expected.getMessage().getProperty("sequence"), message.getProperty("sequence"));
+    }
+}
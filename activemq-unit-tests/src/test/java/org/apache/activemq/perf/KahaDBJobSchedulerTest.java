@@ -0,0 +1,120 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.perf;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+import org.apache.activemq.broker.scheduler.JobListener;
+import org.apache.activemq.broker.scheduler.JobScheduler;
+import org.apache.activemq.store.kahadb.scheduler.JobSchedulerStoreImpl;
+import org.apache.activemq.util.ByteSequence;
+import org.apache.activemq.util.IOHelper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Schedules a large number of jobs from several producers and then fires them
+ * all. The number of jobs defaults to 10 million and can be changed with the
+ * jobs system property.
+ */
+public class KahaDBJobSchedulerTest extends TestCase {
+
+    private static final Logger LOG = LoggerFactory.getLogger(KahaDBJobSchedulerTest.class);
+
+    protected int jobCount = Integer.getInteger("jobs", 10 * 1000 * 1000);
+    protected int producerCount = 8;
+    protected int firingThreads = 4;
+    protected int payloadSize = 256;
+
+    private JobSchedulerStoreImpl store;
+
+    public void testScheduleAndFire() throws Exception {
+        final JobScheduler scheduler = store.getJobScheduler("perf");
+        final CountDownLatch fired = new CountDownLatch(jobCount);
+        scheduler.addListener(new JobListener() {
+            @Override
+            public void scheduledJob(String id, ByteSequence job) {
+                fired.countDown();
+            }
+        });
+
+        final ByteSequence payload = new ByteSequence(new byte[payloadSize]);
+        final AtomicInteger next = new AtomicInteger();
+        final List<Exception> errors = new ArrayList<Exception>();
+        List<Thread> producers = new ArrayList<Thread>();
+        long start = System.currentTimeMillis();
+        for (int i = 0; i < producerCount; i++) {
+            Thread producer = new Thread("producer-" + i) {
+                @Override
+                public void run() {
+                    try {
+                        int job;
+                        while ((job = next.getAndIncrement()) < jobCount) {
+                            // spread the jobs over a thousand times
+                            scheduler.schedule("job:" + job, payload, job % 1000);
+                            if (job > 0 && job % 1000000 == 0) {
+                                LOG.info("Scheduled " + job + " jobs");
+                            }
+                        }
+                    } catch (Exception e) {
+                        synchronized (errors) {
+                            errors.add(e);
+                        }
+                    }
+                }
+            };
+            producers.add(producer);
+            producer.start();
+        }
+        for (Thread producer : producers) {
+            producer.join();
+        }
+        assertTrue(errors.toString(), errors.isEmpty());
+        long scheduled = System.currentTimeMillis();
+        LOG.info("Scheduled " + jobCount + " jobs in " + (scheduled - start) + " ms, "
+            + (jobCount * 1000L / Math.max(1, scheduled - start)) + " jobs/sec");
+
+        scheduler.startDispatching();
+        assertTrue("all jobs fired", fired.await(30, TimeUnit.MINUTES));
+        long done = System.currentTimeMillis();
+        LOG.info("Fired " + jobCount + " jobs in " + (done - scheduled) + " ms, "
+            + (jobCount * 1000L / Math.max(1, done - scheduled)) + " jobs/sec");
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        File directory = new File("target/test/PerfScheduledDB");
+        IOHelper.mkdirs(directory);
+        IOHelper.deleteChildren(directory);
+        store = new JobSchedulerStoreImpl();
+        store.setDirectory(directory);
+        store.setFiringThreads(firingThreads);
+        store.start();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        store.stop();
+    }
+}
@@ -0,0 +1,163 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.perf;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+import org.apache.activemq.broker.BrokerService;
+import org.apache.activemq.broker.region.Destination;
+import org.apache.activemq.broker.region.DestinationStatistics;
+import org.apache.activemq.broker.region.IndirectMessageReference;
+import org.apache.activemq.broker.region.MessageReference;
+import org.apache.activemq.broker.region.Queue;
+import org.apache.activemq.broker.region.cursors.FilePendingMessageCursor;
+import org.apache.activemq.command.ActiveMQMessage;
+import org.apache.activemq.command.ActiveMQQueue;
+import org.apache.activemq.command.MessageId;
+import org.apache.activemq.store.PList;
+import org.apache.activemq.store.PListStore;
+import org.apache.activemq.store.kahadb.plist.MappedPListStore;
+import org.apache.activemq.store.kahadb.plist.PListStoreImpl;
+import org.apache.activemq.usage.SystemUsage;
+import org.apache.activemq.util.ByteSequence;
+import org.apache.activemq.util.IOHelper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Compares the spooling rate of the temporary stores, on their own and
+ * through a {@link FilePendingMessageCursor} that spools to them.
+ */
+public class TempStoreSpoolingTest extends TestCase {
+
+    private static final Logger LOG = LoggerFactory.getLogger(TempStoreSpoolingTest.class);
+
+    protected int storeEntries = 100000;
+    protected int cursorMessages = 50000;
+    protected int payloadSize = 1024;
+    protected int runs = 3;
+
+    private final File dataDirectory = new File(IOHelper.getDefaultDataDirectory(), "TempStoreSpoolingTest");
+
+    @Override
+    protected void tearDown() throws Exception {
+        IOHelper.deleteFile(dataDirectory);
+    }
+
+    public void testStoreSpooling() throws Exception {
+        for (int run = 0; run < runs; run++) {
+            long kahadb = spoolToStore(new PListStoreImpl());
+            long mapped = spoolToStore(new MappedPListStore());
+            LOG.info(storeEntries + " " + payloadSize + " byte entries added then drained, entries/sec PListStoreImpl: "
+                + kahadb + ", MappedPListStore: " + mapped + " (" + ratio(mapped, kahadb) + "x)");
+        }
+    }
+
+    public void testCursorSpooling() throws Exception {
+        for (int run = 0; run < runs; run++) {
+            long kahadb = spoolThroughCursor(new PListStoreImpl());
+            long mapped = spoolThroughCursor(new MappedPListStore());
+            LOG.info(cursorMessages + " messages spooled by FilePendingMessageCursor, messages/sec PListStoreImpl: "
+                + kahadb + ", MappedPListStore: " + mapped + " (" + ratio(mapped, kahadb) + "x)");
+        }
+    }
+
+    /**
+     * @return the entries added and removed per second
+     */
+    private long spoolToStore(PListStore store) throws Exception {
+        startStore(store);
+        try {
+            PList list = store.getPList("spool");
+            ByteSequence payload = new ByteSequence(new byte[payloadSize]);
+            List<Object> locators = new ArrayList<Object>(storeEntries);
+            long start = System.nanoTime();
+            for (int i = 0; i < storeEntries; i++) {
+                locators.add(list.addLast("entry-" + i, payload));
+            }
+            for (Object locator : locators) {
+                assertTrue(list.remove(locator));
+            }
+            long duration = Math.max(1, System.nanoTime() - start);
+            assertTrue(list.isEmpty());
+            return storeEntries * TimeUnit.SECONDS.toNanos(1) / duration;
+        } finally {
+            store.stop();
+        }
+    }
+
+    /**
+     * Adds the messages to a cursor whose memory limit is far below their
+     * size, so nearly all of them go to the temporary store, then takes them
+     * all back in order.
+     *
+     * @return the messages added and removed per second
+     */
+    private long spoolThroughCursor(PListStore store) throws Exception {
+        BrokerService brokerService = new BrokerService();
+        brokerService.setUseJmx(false);
+        brokerService.setTempDataStore(store);
+        startStore(store);
+        try {
+            SystemUsage usage = brokerService.getSystemUsage();
+            usage.getMemoryUsage().setLimit(1024 * 150);
+            usage.getTempUsage().setLimit(Long.MAX_VALUE);
+            Destination destination = new Queue(brokerService, new ActiveMQQueue("SPOOL"), null, new DestinationStatistics(), null);
+            FilePendingMessageCursor cursor = new FilePendingMessageCursor(brokerService.getBroker(), "spool", false);
+            cursor.setSystemUsage(usage);
+
+            String body = new String(new byte[payloadSize]);
+            long start = System.nanoTime();
+            for (int i = 0; i < cursorMessages; i++) {
+                ActiveMQMessage message = new ActiveMQMessage();
+                message.setStringProperty("body", body);
+                message.setMessageId(new MessageId("1:2:3:" + i));
+                message.setMemoryUsage(usage.getMemoryUsage());
+                message.setRegionDestination(destination);
+                cursor.addMessageLast(new IndirectMessageReference(message));
+            }
+            cursor.reset();
+            long received = 0;
+            while (cursor.hasNext()) {
+                MessageReference reference = cursor.next();
+                cursor.remove();
+                assertEquals(received++, reference.getMessageId().getProducerSequenceId());
+            }
+            long duration = Math.max(1, System.nanoTime() - start);
+            assertEquals(cursorMessages, received);
+            return cursorMessages * TimeUnit.SECONDS.toNanos(1) / duration;
+        } finally {
+            store.stop();
+        }
+    }
+
+    private void startStore(PListStore store) throws Exception {
+        File directory = new File(dataDirectory, store.getClass().getSimpleName());
+        IOHelper.deleteFile(directory);
+        store.setDirectory(directory);
+        store.start();
+    }
+
+    private static String ratio(long value, long base) {
+        return String.format("%.1f", (double) value / Math.max(1, base));
+    }
+}
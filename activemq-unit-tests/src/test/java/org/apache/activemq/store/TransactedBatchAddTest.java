@@ -0,0 +1,126 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.store;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.jms.DeliveryMode;
+import javax.jms.MessageConsumer;
+import javax.jms.MessageProducer;
+import javax.jms.Session;
+import javax.jms.TextMessage;
+
+import junit.framework.TestCase;
+
+import org.apache.activemq.ActiveMQConnection;
+import org.apache.activemq.ActiveMQConnectionFactory;
+import org.apache.activemq.broker.BrokerService;
+import org.apache.activemq.broker.ConnectionContext;
+import org.apache.activemq.command.ActiveMQQueue;
+import org.apache.activemq.command.Message;
+import org.apache.activemq.store.memory.MemoryMessageStore;
+import org.apache.activemq.store.memory.MemoryPersistenceAdapter;
+import org.apache.activemq.store.memory.MemoryTransactionStore;
+
+public class TransactedBatchAddTest extends TestCase {
+
+    private final Map<String, Integer> batches = new ConcurrentHashMap<String, Integer>();
+    private final Map<ActiveMQQueue, MessageStore> stores = new ConcurrentHashMap<ActiveMQQueue, MessageStore>();
+    private BrokerService broker;
+    private ActiveMQConnection connection;
+
+    @Override
+    protected void setUp() throws Exception {
+        broker = new BrokerService();
+        broker.setPersistent(false);
+        broker.setUseJmx(false);
+        broker.setPersistenceAdapter(new MemoryPersistenceAdapter() {
+            @Override
+            public MessageStore createQueueMessageStore(final ActiveMQQueue destination) throws IOException {
+                MessageStore store = stores.get(destination);
+                if (store == null) {
+                    store = ((MemoryTransactionStore) createTransactionStore()).proxy(new MemoryMessageStore(destination) {
+                        @Override
+                        public void addMessages(ConnectionContext context, List<Message> messages) throws IOException {
+                            Integer count = batches.get(destination.getPhysicalName());
+                            batches.put(destination.getPhysicalName(), (count == null ? 0 : count) + messages.size());
+                            super.addMessages(context, messages);
+                        }
+                    });
+                    stores.put(destination, store);
+                }
+                return store;
+            }
+        });
+        broker.start();
+        connection = (ActiveMQConnection) new ActiveMQConnectionFactory(broker.getVmConnectorURI()).createConnection();
+        connection.start();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        connection.close();
+        broker.stop();
+    }
+
+    public void testCommitAddsTheMessagesOfEachDestinationAsABatch() throws Exception {
+        Session session = connection.createSession(true, Session.SESSION_TRANSACTED);
+        MessageProducer producer = session.createProducer(null);
+        producer.setDeliveryMode(DeliveryMode.PERSISTENT);
+        ActiveMQQueue first = new ActiveMQQueue("BATCH.FIRST");
+        ActiveMQQueue second = new ActiveMQQueue("BATCH.SECOND");
+        for (int i = 0; i < 1000; i++) {
+            producer.send(first, session.createTextMessage("message " + i));
+            if (i % 100 == 0) {
+                producer.send(second, session.createTextMessage("message " + i / 100));
+            }
+        }
+        assertTrue("nothing is stored before the commit", batches.isEmpty());
+        session.commit();
+
+        assertEquals(Integer.valueOf(1000), batches.get("BATCH.FIRST"));
+        assertEquals(Integer.valueOf(10), batches.get("BATCH.SECOND"));
+        assertEquals(1000, stores.get(first).getMessageCount());
+        assertEquals(10, stores.get(second).getMessageCount());
+
+        Session consumerSession = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+        MessageConsumer consumer = consumerSession.createConsumer(first);
+        for (int i = 0; i < 1000; i++) {
+            assertEquals("message " + i, ((TextMessage) consumer.receive(5000)).getText());
+        }
+        consumer = consumerSession.createConsumer(second);
+        for (int i = 0; i < 10; i++) {
+            assertEquals("message " + i, ((TextMessage) consumer.receive(5000)).getText());
+        }
+    }
+
+    public void testRollbackAddsNothing() throws Exception {
+        Session session = connection.createSession(true, Session.SESSION_TRANSACTED);
+        ActiveMQQueue queue = new ActiveMQQueue("BATCH.ROLLBACK");
+        MessageProducer producer = session.createProducer(queue);
+        producer.setDeliveryMode(DeliveryMode.PERSISTENT);
+        for (int i = 0; i < 5; i++) {
+            producer.send(session.createTextMessage("message " + i));
+        }
+        session.rollback();
+        assertTrue(batches.isEmpty());
+        assertNull(session.createConsumer(queue).receive(500));
+    }
+}
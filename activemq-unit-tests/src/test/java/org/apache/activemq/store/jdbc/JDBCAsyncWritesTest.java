@@ -0,0 +1,186 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.store.jdbc;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.jms.Connection;
+import javax.jms.DeliveryMode;
+import javax.jms.MessageConsumer;
+import javax.jms.MessageProducer;
+import javax.jms.Queue;
+import javax.jms.Session;
+
+import junit.framework.TestCase;
+
+import org.apache.activemq.ActiveMQConnectionFactory;
+import org.apache.activemq.broker.BrokerService;
+import org.apache.activemq.util.Wait;
+import org.apache.derby.jdbc.EmbeddedDataSource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+public class JDBCAsyncWritesTest extends TestCase {
+
+    private static final Logger LOG = LoggerFactory.getLogger(JDBCAsyncWritesTest.class);
+
+    private static final int MESSAGES_PER_RUN = 3200;
+
+    protected BrokerService broker;
+    protected ActiveMQConnectionFactory factory;
+    protected EmbeddedDataSource dataSource;
+
+    @Override
+    protected void tearDown() throws Exception {
+        if (broker != null) {
+            broker.stop();
+        }
+    }
+
+    public void testAsyncWritesSendAndConsume() throws Exception {
+        startBroker(true);
+        long sent = sendMessages("TEST", 16, MESSAGES_PER_RUN);
+        assertEquals(MESSAGES_PER_RUN, sent);
+        assertEquals(MESSAGES_PER_RUN, countStoredMessages());
+        assertEquals(MESSAGES_PER_RUN, receiveMessages("TEST"));
+        assertTrue("acked messages are removed", Wait.waitFor(new Wait.Condition() {
+            @Override
+            public boolean isSatisified() throws Exception {
+                return countStoredMessages() == 0;
+            }
+        }));
+    }
+
+    public void testAsyncWritesSurviveRestart() throws Exception {
+        startBroker(true);
+        sendMessages("TEST", 4, 200);
+        broker.stop();
+        startBroker(true, false);
+        assertEquals(200, receiveMessages("TEST"));
+    }
+
+    public void testThroughputComparison() throws Exception {
+        for (int producers : new int[] {1, 16, 64}) {
+            long sync = runThroughput(false, producers);
+            long async = runThroughput(true, producers);
+            LOG.info(producers + " producers, sync writes: " + sync + " msg/s, async writes: " + async + " msg/s");
+        }
+    }
+
+    private long runThroughput(boolean asyncWrites, int producers) throws Exception {
+        startBroker(asyncWrites);
+        try {
+            long start = System.currentTimeMillis();
+            sendMessages("THROUGHPUT", producers, MESSAGES_PER_RUN);
+            long duration = Math.max(1, System.currentTimeMillis() - start);
+            assertEquals(MESSAGES_PER_RUN, receiveMessages("THROUGHPUT"));
+            return MESSAGES_PER_RUN * 1000L / duration;
+        } finally {
+            broker.stop();
+            broker = null;
+        }
+    }
+
+    private void startBroker(boolean asyncWrites) throws Exception {
+        startBroker(asyncWrites, true);
+    }
+
+    private void startBroker(boolean asyncWrites, boolean deleteAllMessages) throws Exception {
+        broker = new BrokerService();
+        broker.setUseJmx(false);
+        JDBCPersistenceAdapter jdbc = new JDBCPersistenceAdapter();
+        dataSource = new EmbeddedDataSource();
+        dataSource.setDatabaseName("derbyDb");
+        dataSource.setCreateDatabase("create");
+        jdbc.setDataSource(dataSource);
+        jdbc.setAsyncWrites(asyncWrites);
+        if (deleteAllMessages) {
+            jdbc.deleteAllMessages();
+        }
+        broker.setPersistenceAdapter(jdbc);
+        broker.start();
+        factory = new ActiveMQConnectionFactory("vm://localhost?create=false");
+    }
+
+    private long sendMessages(final String queueName, int producers, int messages) throws Exception {
+        final int perProducer = messages / producers;
+        final CountDownLatch done = new CountDownLatch(producers);
+        final AtomicReference<Exception> failure = new AtomicReference<Exception>();
+        final Connection connection = factory.createConnection();
+        connection.start();
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int i = 0; i < producers; i++) {
+            threads.add(new Thread("Producer-" + i) {
+                @Override
+                public void run() {
+                    try {
+                        Session session = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+                        MessageProducer producer = session.createProducer(session.createQueue(queueName));
+                        producer.setDeliveryMode(DeliveryMode.PERSISTENT);
+                        for (int j = 0; j < perProducer; j++) {
+                            producer.send(session.createTextMessage(getName() + ":" + j));
+                        }
+                        session.close();
+                    } catch (Exception e) {
+                        failure.set(e);
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            });
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        done.await();
+        connection.close();
+        if (failure.get() != null) {
+            throw failure.get();
+        }
+        return (long) perProducer * producers;
+    }
+
+    private int receiveMessages(String queueName) throws Exception {
+        Connection connection = factory.createConnection();
+        connection.start();
+        Session session = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+        Queue queue = session.createQueue(queueName);
+        MessageConsumer consumer = session.createConsumer(queue);
+        int received = 0;
+        while (consumer.receive(2000) != null) {
+            received++;
+        }
+        connection.close();
+        return received;
+    }
+
+    private int countStoredMessages() throws Exception {
+        java.sql.Connection conn = dataSource.getConnection();
+        PreparedStatement statement = conn.prepareStatement("SELECT COUNT(*) FROM ACTIVEMQ_MSGS");
+        ResultSet result = statement.executeQuery();
+        result.next();
+        int count = result.getInt(1);
+        statement.close();
+        conn.close();
+        return count;
+    }
+}
@@ -0,0 +1,79 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.store.kahadb;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.apache.activemq.command.ActiveMQMessage;
+import org.apache.activemq.command.ActiveMQQueue;
+import org.apache.activemq.command.MessageAck;
+import org.apache.activemq.command.MessageId;
+import org.apache.activemq.command.ProducerId;
+import org.apache.activemq.store.MessageStore;
+
+public class KahaDBBatchAckTest extends TestCase {
+
+    private static final File DIRECTORY = new File("target/activemq-data/kahadb-batch-ack");
+
+    public void testRemovedMessagesStayRemovedAfterRestart() throws Exception {
+        KahaDBStore store = new KahaDBStore();
+        store.setDirectory(DIRECTORY);
+        store.setDeleteAllMessages(true);
+        store.start();
+        ActiveMQQueue destination = new ActiveMQQueue("BATCH.STORE");
+        ProducerId producerId = new ProducerId("1.1.1");
+        try {
+            MessageStore messageStore = store.createQueueMessageStore(destination);
+            for (int i = 1; i <= 10; i++) {
+                ActiveMQMessage message = new ActiveMQMessage();
+                message.setDestination(destination);
+                message.setMessageId(new MessageId(producerId, i));
+                messageStore.addMessage(null, message);
+            }
+            List<MessageAck> acks = new ArrayList<MessageAck>();
+            for (int i = 1; i <= 10; i += 2) {
+                MessageAck ack = new MessageAck();
+                ack.setAckType(MessageAck.STANDARD_ACK_TYPE);
+                ack.setDestination(destination);
+                ack.setLastMessageId(new MessageId(producerId, i));
+                ack.setMessageCount(1);
+                acks.add(ack);
+            }
+            messageStore.removeMessages(null, acks);
+            assertEquals(5, messageStore.getMessageCount());
+        } finally {
+            store.stop();
+        }
+
+        store = new KahaDBStore();
+        store.setDirectory(DIRECTORY);
+        store.start();
+        try {
+            MessageStore messageStore = store.createQueueMessageStore(destination);
+            assertEquals(5, messageStore.getMessageCount());
+            for (int i = 1; i <= 10; i++) {
+                assertEquals("message " + i, i % 2 == 0, messageStore.getMessage(new MessageId(producerId, i)) != null);
+            }
+        } finally {
+            store.stop();
+        }
+    }
+}
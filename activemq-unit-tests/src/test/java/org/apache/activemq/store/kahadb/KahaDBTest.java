@@ -156,6 +156,25 @@ public class KahaDBTest extends TestCase {
     }
 
 
+    public void testRecoverIndexWithJournalRecoveryThreads() throws Exception {
+        KahaDBStore kaha = createStore(true);
+        kaha.setJournalMaxFileLength(1024*100);
+        BrokerService broker = createBroker(kaha);
+        sendMessages(1000);
+        broker.stop();
+
+        // Lose the index so the whole journal is replayed.
+        assertExistsAndDelete(new File(kaha.getDirectory(), "db.data"));
+
+        kaha = createStore(false);
+        kaha.setJournalMaxFileLength(1024*100);
+        kaha.setJournalRecoveryThreads(4);
+        broker = createBroker(kaha);
+        assertEquals(1000, receiveMessages());
+        broker.stop();
+    }
+
+
     private void assertExistsAndCorrupt(File file) throws IOException {
         assertTrue(file.exists());
         RandomAccessFile f = new RandomAccessFile(file, "rw");
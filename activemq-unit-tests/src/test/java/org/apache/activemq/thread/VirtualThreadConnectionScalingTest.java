@@ -0,0 +1,166 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.thread;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.jms.Connection;
+import javax.jms.Message;
+import javax.jms.MessageListener;
+import javax.jms.MessageProducer;
+import javax.jms.Session;
+import javax.jms.Topic;
+
+import junit.framework.TestCase;
+
+import org.apache.activemq.ActiveMQConnection;
+import org.apache.activemq.ActiveMQConnectionFactory;
+import org.apache.activemq.broker.BrokerService;
+import org.apache.activemq.broker.TransportConnector;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Opens connections to a broker with and without virtual threads. The default
+ * run only opens a few, set the connectionScalingSizes system property, eg. to
+ * 1000,10000,50000, to measure more connections, which needs as many file
+ * descriptors.
+ */
+public class VirtualThreadConnectionScalingTest extends TestCase {
+
+    private static final Logger LOG = LoggerFactory.getLogger(VirtualThreadConnectionScalingTest.class);
+
+    private static final int MESSAGES = 20;
+
+    private BrokerService broker;
+    private final List<Connection> connections = new ArrayList<Connection>();
+
+    @Override
+    protected void tearDown() throws Exception {
+        closeConnections();
+        if (broker != null) {
+            broker.stop();
+        }
+    }
+
+    public void testTaskRunnerFactory() throws Exception {
+        TaskRunnerFactory factory = new TaskRunnerFactory("Virtual Task");
+        factory.setUseVirtualThreads(true);
+        final CountDownLatch done = new CountDownLatch(100);
+        try {
+            for (int i = 0; i < 100; i++) {
+                TaskRunner runner = factory.createTaskRunner(new Task() {
+                    @Override
+                    public boolean iterate() {
+                        done.countDown();
+                        return false;
+                    }
+                }, "Virtual Task " + i);
+                runner.wakeup();
+            }
+            assertTrue(done.await(30, TimeUnit.SECONDS));
+        } finally {
+            factory.shutdown();
+        }
+    }
+
+    public void testConnectionScaling() throws Exception {
+        String sizes = System.getProperty("connectionScalingSizes", "50");
+        for (String size : sizes.split(",")) {
+            for (boolean virtual : new boolean[] {false, true}) {
+                run(Integer.parseInt(size.trim()), virtual);
+            }
+        }
+    }
+
+    private void run(int connectionCount, boolean virtual) throws Exception {
+        broker = new BrokerService();
+        broker.setPersistent(false);
+        broker.setUseJmx(false);
+        broker.setUseVirtualThreads(virtual);
+        TransportConnector connector = broker.addConnector("tcp://localhost:0");
+        broker.start();
+
+        ActiveMQConnectionFactory factory = new ActiveMQConnectionFactory("tcp://localhost:" + connector.getConnectUri().getPort());
+        factory.setUseVirtualThreads(virtual);
+        final CountDownLatch done = new CountDownLatch(connectionCount);
+        final AtomicInteger received = new AtomicInteger();
+        long heapBefore = usedHeap();
+        long start = System.nanoTime();
+        for (int i = 0; i < connectionCount; i++) {
+            ActiveMQConnection connection = (ActiveMQConnection) factory.createConnection();
+            connections.add(connection);
+            assertEquals(virtual, connection.isUseVirtualThreads());
+            connection.start();
+            Session session = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+            session.createConsumer(session.createTopic("SCALING")).setMessageListener(new MessageListener() {
+                int count;
+
+                @Override
+                public void onMessage(Message message) {
+                    received.incrementAndGet();
+                    if (++count == MESSAGES) {
+                        done.countDown();
+                    }
+                }
+            });
+        }
+        long connectMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        int threads = ManagementFactory.getThreadMXBean().getThreadCount();
+        long heap = usedHeap() - heapBefore;
+
+        Session session = connections.get(0).createSession(false, Session.AUTO_ACKNOWLEDGE);
+        Topic topic = session.createTopic("SCALING");
+        MessageProducer producer = session.createProducer(topic);
+        start = System.nanoTime();
+        for (int i = 0; i < MESSAGES; i++) {
+            producer.send(session.createTextMessage("message " + i));
+        }
+        assertTrue("every connection got every message", done.await(5, TimeUnit.MINUTES));
+        long duration = Math.max(1, System.nanoTime() - start);
+        assertEquals(connectionCount * MESSAGES, received.get());
+
+        LOG.info(connectionCount + " connections, virtual threads " + (virtual && VirtualThreads.isSupported() ? "on" : "off")
+            + ": connected in " + connectMillis + " ms, platform threads: " + threads + ", heap used: " + heap / (1024 * 1024)
+            + " MB, dispatches/sec: " + received.get() * TimeUnit.SECONDS.toNanos(1) / duration);
+
+        if (virtual && VirtualThreads.isSupported()) {
+            assertTrue("readers do not hold on to platform threads", threads < connectionCount);
+        }
+        closeConnections();
+        broker.stop();
+        broker = null;
+    }
+
+    private void closeConnections() throws Exception {
+        for (Connection connection : connections) {
+            connection.close();
+        }
+        connections.clear();
+    }
+
+    private long usedHeap() {
+        System.gc();
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
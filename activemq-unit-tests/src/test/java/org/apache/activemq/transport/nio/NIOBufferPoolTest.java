@@ -0,0 +1,176 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.transport.nio;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.ByteBuffer;
+
+import javax.jms.BytesMessage;
+import javax.jms.Connection;
+import javax.jms.MessageConsumer;
+import javax.jms.MessageProducer;
+import javax.jms.Session;
+
+import junit.framework.TestCase;
+
+import org.apache.activemq.ActiveMQConnectionFactory;
+import org.apache.activemq.broker.BrokerService;
+import org.apache.activemq.broker.TransportConnector;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+public class NIOBufferPoolTest extends TestCase {
+
+    private static final Logger LOG = LoggerFactory.getLogger(NIOBufferPoolTest.class);
+
+    private static final int MESSAGE_SIZE = 1024 * 1024;
+
+    @Override
+    protected void setUp() throws Exception {
+        System.setProperty("javax.net.ssl.trustStore", NIOSSLBasicTest.TRUST_KEYSTORE);
+        System.setProperty("javax.net.ssl.trustStorePassword", NIOSSLBasicTest.PASSWORD);
+        System.setProperty("javax.net.ssl.trustStoreType", NIOSSLBasicTest.KEYSTORE_TYPE);
+        System.setProperty("javax.net.ssl.keyStore", NIOSSLBasicTest.SERVER_KEYSTORE);
+        System.setProperty("javax.net.ssl.keyStoreType", NIOSSLBasicTest.KEYSTORE_TYPE);
+        System.setProperty("javax.net.ssl.keyStorePassword", NIOSSLBasicTest.PASSWORD);
+    }
+
+    public void testBuffersAreReused() throws Exception {
+        NIOBufferPool pool = new NIOBufferPool();
+        pool.setMaxBufferSize(1024 * 1024);
+        pool.setMaxPoolSize(3 * 1024 * 1024);
+
+        ByteBuffer small = pool.acquire(100);
+        assertTrue(small.isDirect());
+        assertEquals(NIOBufferPool.MIN_BUFFER_SIZE, small.capacity());
+        assertEquals(100, small.limit());
+        assertEquals(0, small.position());
+
+        ByteBuffer frame = pool.acquire(600 * 1024);
+        assertEquals(1024 * 1024, frame.capacity());
+        frame.putInt(42);
+        pool.release(frame);
+        assertEquals(1024 * 1024, pool.getPooledBytes());
+        ByteBuffer again = pool.acquire(513 * 1024);
+        assertSame(frame, again);
+        assertEquals(0, again.position());
+        assertEquals(513 * 1024, again.limit());
+        assertEquals(0, pool.getPooledBytes());
+
+        ByteBuffer huge = pool.acquire(2 * 1024 * 1024);
+        assertFalse("not pooled", huge.isDirect());
+        pool.release(huge);
+        assertEquals(0, pool.getPooledBytes());
+
+        // only up to maxPoolSize bytes are kept
+        ByteBuffer[] buffers = new ByteBuffer[4];
+        for (int i = 0; i < buffers.length; i++) {
+            buffers[i] = pool.acquire(1024 * 1024);
+        }
+        for (ByteBuffer buffer : buffers) {
+            pool.release(buffer);
+        }
+        assertEquals(3 * 1024 * 1024, pool.getPooledBytes());
+        pool.release(small);
+        assertEquals(3 * 1024 * 1024, pool.getPooledBytes());
+    }
+
+    public void testLargeMessageAllocation() throws Exception {
+        NIOBufferPool pool = NIOBufferPool.getInstance();
+        int maxBufferSize = pool.getMaxBufferSize();
+        try {
+            for (int run = 0; run < 2; run++) {
+                pool.setMaxBufferSize(0);
+                long heapAllocated = sendLargeMessages("nio://localhost:0", 50, MESSAGE_SIZE);
+                pool.setMaxBufferSize(maxBufferSize);
+                long pooledAllocated = sendLargeMessages("nio://localhost:0", 50, MESSAGE_SIZE);
+                // larger frames stall the nio+ssl transport, with or without the pool
+                long sslAllocated = sendLargeMessages("nio+ssl://localhost:0", 50, 64 * 1024);
+                LOG.info("heap bytes allocated per 1MB message, frames on the heap: " + heapAllocated
+                    + ", pooled frames: " + pooledAllocated + ", pooled 64KB frames over nio+ssl: " + sslAllocated
+                    + ", direct bytes allocated by the pool: " + pool.getAllocatedBytes());
+            }
+            // every frame reused the buffer of the previous one
+            assertTrue(pool.getAllocatedBytes() <= 8 * MESSAGE_SIZE);
+        } finally {
+            pool.setMaxBufferSize(maxBufferSize);
+        }
+    }
+
+    /**
+     * @return the heap bytes allocated by all threads per message, or -1
+     *         when the JVM does not measure them
+     */
+    private long sendLargeMessages(String bindAddress, int messages, int size) throws Exception {
+        BrokerService broker = new BrokerService();
+        broker.setPersistent(false);
+        broker.setUseJmx(false);
+        TransportConnector connector = broker.addConnector(bindAddress);
+        broker.start();
+        String scheme = bindAddress.startsWith("nio+ssl") ? "ssl" : "tcp";
+        Connection connection = new ActiveMQConnectionFactory(scheme + "://localhost:" + connector.getConnectUri().getPort()).createConnection();
+        try {
+            connection.start();
+            Session session = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+            MessageConsumer consumer = session.createConsumer(session.createQueue("LARGE"));
+            MessageProducer producer = session.createProducer(session.createQueue("LARGE"));
+            byte[] payload = new byte[size];
+
+            long allocatedBefore = allocatedBytes();
+            long collectionsBefore = collections();
+            for (int i = 0; i < messages; i++) {
+                BytesMessage message = session.createBytesMessage();
+                message.writeBytes(payload);
+                producer.send(message);
+                BytesMessage received = (BytesMessage) consumer.receive(5000);
+                assertNotNull(received);
+                assertEquals(size, received.getBodyLength());
+            }
+            long allocatedAfter = allocatedBytes();
+            LOG.info(bindAddress + " garbage collections: " + (collections() - collectionsBefore));
+            return allocatedBefore < 0 ? -1 : (allocatedAfter - allocatedBefore) / messages;
+        } finally {
+            connection.close();
+            broker.stop();
+        }
+    }
+
+    private long allocatedBytes() {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (!(threads instanceof com.sun.management.ThreadMXBean)) {
+            return -1;
+        }
+        com.sun.management.ThreadMXBean allocations = (com.sun.management.ThreadMXBean) threads;
+        long rc = 0;
+        for (long allocated : allocations.getThreadAllocatedBytes(threads.getAllThreadIds())) {
+            if (allocated > 0) {
+                rc += allocated;
+            }
+        }
+        return rc;
+    }
+
+    private long collections() {
+        long rc = 0;
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            rc += Math.max(0, collector.getCollectionCount());
+        }
+        return rc;
+    }
+}
@@ -0,0 +1,156 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.transport.tcp;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.jms.Connection;
+import javax.jms.Message;
+import javax.jms.MessageConsumer;
+import javax.jms.MessageListener;
+import javax.jms.MessageProducer;
+import javax.jms.Session;
+import javax.jms.Topic;
+
+import junit.framework.TestCase;
+
+import org.apache.activemq.ActiveMQConnectionFactory;
+import org.apache.activemq.broker.BrokerService;
+import org.apache.activemq.broker.TransportConnector;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Fans messages out to many consumers of one connection with and without
+ * coalesced socket writes.
+ */
+public class TcpWriteCoalescingTest extends TestCase {
+
+    private static final Logger LOG = LoggerFactory.getLogger(TcpWriteCoalescingTest.class);
+
+    private static final int CONSUMERS = 50;
+
+    private BrokerService broker;
+
+    @Override
+    protected void tearDown() throws Exception {
+        if (broker != null) {
+            broker.stop();
+        }
+    }
+
+    public void testDispatchOrderIsKept() throws Exception {
+        String uri = startBroker("tcp://localhost:0?transport.coalesceWrites=true");
+        run(uri + "?coalesceWrites=true", 500);
+    }
+
+    public void testDispatchOrderIsKeptWithDelay() throws Exception {
+        String uri = startBroker("tcp://localhost:0?transport.coalesceWrites=true&transport.coalesceDelay=50");
+        run(uri + "?coalesceWrites=true&coalesceDelay=50", 500);
+    }
+
+    public void testDispatchOrderIsKeptOverNio() throws Exception {
+        String uri = startBroker("nio://localhost:0?transport.coalesceWrites=true");
+        run(uri, 500);
+    }
+
+    public void testDispatchThroughputAndLatency() throws Exception {
+        for (int run = 0; run < 2; run++) {
+            for (boolean coalesce : new boolean[] {false, true}) {
+                String uri = startBroker("tcp://localhost:0?transport.coalesceWrites=" + coalesce);
+                long[] result = run(uri, 2000);
+                LOG.info(CONSUMERS + " consumers, coalesceWrites=" + coalesce + ", dispatches/sec: " + result[0]
+                    + ", p99 latency: " + result[1] + " ms");
+                broker.stop();
+                broker = null;
+            }
+        }
+    }
+
+    private String startBroker(String bindAddress) throws Exception {
+        broker = new BrokerService();
+        broker.setPersistent(false);
+        broker.setUseJmx(false);
+        TransportConnector connector = broker.addConnector(bindAddress);
+        broker.start();
+        return "tcp://localhost:" + connector.getConnectUri().getPort();
+    }
+
+    /**
+     * Sends the messages to a topic with CONSUMERS subscribers on one
+     * connection, checking each one gets every message in order.
+     *
+     * @return the dispatches per second and the p99 latency in milliseconds
+     */
+    private long[] run(String uri, final int messages) throws Exception {
+        Connection connection = new ActiveMQConnectionFactory(uri).createConnection();
+        try {
+            connection.start();
+            final CountDownLatch done = new CountDownLatch(CONSUMERS);
+            final AtomicReference<String> failure = new AtomicReference<String>();
+            final long[] latencies = new long[CONSUMERS * messages];
+            final AtomicInteger received = new AtomicInteger();
+            Session session = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+            Topic topic = session.createTopic("FANOUT");
+            for (int i = 0; i < CONSUMERS; i++) {
+                final int consumerId = i;
+                MessageConsumer consumer = connection.createSession(false, Session.AUTO_ACKNOWLEDGE).createConsumer(topic);
+                consumer.setMessageListener(new MessageListener() {
+                    int next;
+
+                    @Override
+                    public void onMessage(Message message) {
+                        try {
+                            int sequence = message.getIntProperty("sequence");
+                            if (sequence != next) {
+                                failure.set("consumer " + consumerId + " expected " + next + " but got " + sequence);
+                            }
+                            latencies[received.getAndIncrement()] = System.nanoTime() - message.getLongProperty("sent");
+                            if (++next == messages) {
+                                done.countDown();
+                            }
+                        } catch (Exception e) {
+                            failure.set(e.toString());
+                        }
+                    }
+                });
+            }
+
+            MessageProducer producer = session.createProducer(topic);
+            long start = System.nanoTime();
+            for (int i = 0; i < messages; i++) {
+                Message message = session.createTextMessage("message " + i);
+                message.setIntProperty("sequence", i);
+                message.setLongProperty("sent", System.nanoTime());
+                producer.send(message);
+            }
+            assertTrue("every consumer got every message", done.await(60, TimeUnit.SECONDS));
+            long duration = Math.max(1, System.nanoTime() - start);
+            assertNull(failure.get(), failure.get());
+
+            Arrays.sort(latencies);
+            long p99 = latencies[latencies.length * 99 / 100];
+            return new long[] {latencies.length * TimeUnit.SECONDS.toNanos(1) / duration, TimeUnit.NANOSECONDS.toMillis(p99)};
+        } finally {
+            connection.close();
+        }
+    }
+}
@@ -0,0 +1,83 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.util;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+public class TimingWheelTest extends TestCase {
+
+    public void testItemsAreDueWithinATickOfTheirTime() {
+        TimingWheel<String> wheel = new TimingWheel<String>(10, 1000);
+        wheel.add("a", 1050);
+        wheel.add("b", 1055);
+        wheel.add("c", 1000);
+        assertEquals(3, wheel.size());
+
+        assertEquals(Arrays.asList("c"), wheel.advance(1000));
+        assertTrue(wheel.advance(1049).isEmpty());
+        assertEquals(Arrays.asList("a"), wheel.advance(1050));
+        assertTrue("never early", wheel.advance(1059).isEmpty());
+        assertEquals(Arrays.asList("b"), wheel.advance(1060));
+        assertTrue(wheel.isEmpty());
+    }
+
+    public void testRemovedAndMovedItems() {
+        TimingWheel<String> wheel = new TimingWheel<String>(1, 0);
+        wheel.add("removed", 10);
+        wheel.add("moved", 10);
+        wheel.add("kept", 10);
+        assertTrue(wheel.remove("removed"));
+        assertFalse(wheel.remove("removed"));
+        wheel.add("moved", 100000);
+
+        assertEquals(Arrays.asList("kept"), wheel.advance(50000));
+        assertEquals(1, wheel.size());
+        assertEquals(Arrays.asList("moved"), wheel.advance(100000));
+    }
+
+    public void testItemsOnEveryLevelAreNeverEarlyOrLate() {
+        TimingWheel<Integer> wheel = new TimingWheel<Integer>(1, 7);
+        Random random = new Random(42);
+        long[] times = new long[20000];
+        for (int i = 0; i < times.length; i++) {
+            // over the first three levels, and the last ones beyond the wheel
+            times[i] = i < times.length - 10 ? 8 + (long) (random.nextDouble() * (1L << 24)) : (1L << 33) + i;
+            wheel.add(i, times[i]);
+        }
+        long now = 7;
+        int fired = 0;
+        while (fired < times.length) {
+            long previous = now;
+            now += 1 + random.nextInt(50000);
+            if (fired == times.length - 10 && now < (1L << 33)) {
+                now = (1L << 33) + times.length - 20;
+            }
+            for (Integer i : wheel.advance(now)) {
+                assertTrue("not early", times[i] <= now);
+                assertTrue("not late", times[i] > previous);
+                fired++;
+            }
+        }
+        assertTrue(wheel.isEmpty());
+        assertEquals(Collections.emptyList(), wheel.advance(now + (1L << 34)));
+    }
+}